@@ -11,6 +11,7 @@ CREATE TABLE IF NOT EXISTS department (
   dept_code VARCHAR(32) NOT NULL UNIQUE,
   dept_name VARCHAR(64) NOT NULL,
   remark VARCHAR(255) DEFAULT NULL,
+  version INT NOT NULL DEFAULT 0 COMMENT 'optimistic lock',
   created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
   updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -22,6 +23,7 @@ CREATE TABLE IF NOT EXISTS location_space (
   room_no VARCHAR(32) NOT NULL,
   area DECIMAL(10,2) NOT NULL DEFAULT 0.00,
   remark VARCHAR(255) DEFAULT NULL,
+  version INT NOT NULL DEFAULT 0 COMMENT 'optimistic lock',
   created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
   updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   INDEX idx_location_dept_id (dept_id),
@@ -38,6 +40,7 @@ CREATE TABLE IF NOT EXISTS assignee (
   name VARCHAR(64) NOT NULL,
   phone VARCHAR(32) DEFAULT NULL,
   remark VARCHAR(255) DEFAULT NULL,
+  version INT NOT NULL DEFAULT 0 COMMENT 'optimistic lock',
   created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
   updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -50,13 +53,18 @@ CREATE TABLE IF NOT EXISTS asset (
   value DECIMAL(12,2) NOT NULL DEFAULT 0.00,
   location_id BIGINT NOT NULL,
   assignee_id BIGINT DEFAULT NULL,
-  status TINYINT NOT NULL DEFAULT 0 COMMENT '0=idle,1=assigned',
+  status TINYINT NOT NULL DEFAULT 0 COMMENT '0=idle,1=assigned,2=retired',
+  retired_at DATETIME(3) DEFAULT NULL,
   remark VARCHAR(255) DEFAULT NULL,
+  version INT NOT NULL DEFAULT 0 COMMENT 'optimistic lock',
   created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
   updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   INDEX idx_asset_location (location_id),
   INDEX idx_asset_assignee (assignee_id),
   INDEX idx_asset_status (status),
+  INDEX idx_asset_location_status (location_id, status, id),
+  INDEX idx_asset_assignee_status (assignee_id, status, id),
+  INDEX idx_asset_location_no (location_id, asset_no),
   CONSTRAINT fk_asset_location
     FOREIGN KEY (location_id) REFERENCES location_space(id)
     ON UPDATE CASCADE ON DELETE RESTRICT,
@@ -64,3 +72,77 @@ CREATE TABLE IF NOT EXISTS asset (
     FOREIGN KEY (assignee_id) REFERENCES assignee(id)
     ON UPDATE CASCADE ON DELETE SET NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Retired assets moved out of the hot table by the server (AssetArchiver); no foreign keys on purpose
+CREATE TABLE IF NOT EXISTS asset_archive (
+  id BIGINT PRIMARY KEY,
+  asset_no VARCHAR(32) NOT NULL,
+  asset_name VARCHAR(64) NOT NULL,
+  value DECIMAL(12,2) NOT NULL DEFAULT 0.00,
+  location_id BIGINT NOT NULL,
+  remark VARCHAR(255) DEFAULT NULL,
+  created_at DATETIME NOT NULL,
+  retired_at DATETIME(3) NOT NULL,
+  archived_at DATETIME(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+  INDEX idx_archive_asset_no (asset_no),
+  INDEX idx_archive_location (location_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Asset assignment history (append-only, written in batches by the server)
+CREATE TABLE IF NOT EXISTS asset_assignment_log (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  asset_id BIGINT NOT NULL,
+  assignee_id BIGINT DEFAULT NULL,
+  action TINYINT NOT NULL COMMENT '0=return,1=assign',
+  created_at DATETIME(3) NOT NULL,
+  INDEX idx_log_asset (asset_id, id),
+  INDEX idx_log_assignee (assignee_id, id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Cross-node cache invalidation events (DB polling transport)
+CREATE TABLE IF NOT EXISTS cache_invalidation (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  table_name VARCHAR(64) NOT NULL,
+  row_id BIGINT NOT NULL,
+  origin VARCHAR(64) NOT NULL COMMENT 'publishing node',
+  created_at DATETIME(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+  INDEX idx_inval_created (created_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Versioned schema migrations applied by the server at startup (SchemaMigrator)
+CREATE TABLE IF NOT EXISTS schema_migration (
+  version INT PRIMARY KEY,
+  name VARCHAR(128) NOT NULL,
+  checksum BIGINT NOT NULL,
+  duration_ms BIGINT NOT NULL,
+  plan_before TEXT,
+  plan_after TEXT,
+  applied_at DATETIME(3) NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Nightly inventory audit reports (InventoryAudit, shard 0 only)
+CREATE TABLE IF NOT EXISTS audit_run (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  trigger_source VARCHAR(16) NOT NULL COMMENT 'schedule,manual',
+  status VARCHAR(16) NOT NULL COMMENT 'running,done,partial,failed',
+  started_at DATETIME(3) NOT NULL,
+  finished_at DATETIME(3) DEFAULT NULL,
+  duration_ms BIGINT NOT NULL DEFAULT 0,
+  findings INT NOT NULL DEFAULT 0,
+  summary TEXT
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS audit_finding (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  run_id BIGINT NOT NULL,
+  kind VARCHAR(32) NOT NULL COMMENT 'density,status,misrouted,assignee_load',
+  ref_id BIGINT NOT NULL COMMENT 'location, asset or assignee id depending on kind',
+  detail VARCHAR(255) NOT NULL,
+  INDEX idx_finding_run_kind (run_id, kind, id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Asset numbers being written while sharded (AssetNoClaim, shard 0 only)
+CREATE TABLE IF NOT EXISTS asset_no_claim (
+  asset_no VARCHAR(32) NOT NULL PRIMARY KEY,
+  claimed_at DATETIME(3) NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -0,0 +1,42 @@
+-- Upgrade an existing orange_db created by an older create.sql
+USE orange_db;
+
+-- Optimistic lock version for PUT (If-Match)
+ALTER TABLE department ADD COLUMN version INT NOT NULL DEFAULT 0 COMMENT 'optimistic lock' AFTER remark;
+ALTER TABLE location_space ADD COLUMN version INT NOT NULL DEFAULT 0 COMMENT 'optimistic lock' AFTER remark;
+ALTER TABLE assignee ADD COLUMN version INT NOT NULL DEFAULT 0 COMMENT 'optimistic lock' AFTER remark;
+ALTER TABLE asset ADD COLUMN version INT NOT NULL DEFAULT 0 COMMENT 'optimistic lock' AFTER remark;
+
+-- Asset assignment history
+CREATE TABLE IF NOT EXISTS asset_assignment_log (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  asset_id BIGINT NOT NULL,
+  assignee_id BIGINT DEFAULT NULL,
+  action TINYINT NOT NULL COMMENT '0=return,1=assign',
+  created_at DATETIME(3) NOT NULL,
+  INDEX idx_log_asset (asset_id, id),
+  INDEX idx_log_assignee (assignee_id, id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Cross-node cache invalidation events (DB polling transport)
+CREATE TABLE IF NOT EXISTS cache_invalidation (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  table_name VARCHAR(64) NOT NULL,
+  row_id BIGINT NOT NULL,
+  origin VARCHAR(64) NOT NULL COMMENT 'publishing node',
+  created_at DATETIME(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+  INDEX idx_inval_created (created_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- Versioned schema migrations applied by the server at startup (SchemaMigrator).
+-- Index changes now ship as server/src/main/resources/db/migration/V*.sql and run online on startup;
+-- there is no need to add them here.
+CREATE TABLE IF NOT EXISTS schema_migration (
+  version INT PRIMARY KEY,
+  name VARCHAR(128) NOT NULL,
+  checksum BIGINT NOT NULL,
+  duration_ms BIGINT NOT NULL,
+  plan_before TEXT,
+  plan_after TEXT,
+  applied_at DATETIME(3) NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -0,0 +1,5 @@
+#!/bin/bash
+
+# 不打 war，直接用内嵌 Tomcat 启动：./run_embedded.sh [port] [--exit-after-start]
+mvn -q compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt -Dmdep.includeScope=compile \
+  && java -cp "target/classes:$(cat target/classpath.txt)" com.orangeserver.App "$@"
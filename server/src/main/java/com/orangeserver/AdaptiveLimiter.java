@@ -0,0 +1,124 @@
+package com.orangeserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应并发上限（Vegas 思路）。
+ * 以观测到的最小延迟作为无排队基线，估算排队长度 queue = limit * (1 - minRtt / rtt)：
+ * 排队少就慢慢放大上限，排队多就收紧，再做一次指数平滑避免抖动。
+ * 低优先级请求只能使用上限的一部分，给领用/归还等交互请求留出余量。
+ */
+public final class AdaptiveLimiter {
+    /** 低优先级请求可使用的上限比例 */
+    private static final double LOW_PRIORITY_SHARE = 0.75;
+    private static final double SMOOTHING = 0.2;
+    /** 周期性重置最小延迟基线，跟上数据库真实基线的变化 */
+    private static final long MIN_RTT_RESET_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicLong rejectedHigh = new AtomicLong();
+    private final AtomicLong rejectedLow = new AtomicLong();
+
+    private volatile double limit;
+    private long minRttNanos;
+    private long minRttResetAt;
+    private volatile long lastRttNanos;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.minRttResetAt = System.nanoTime() + MIN_RTT_RESET_NANOS;
+    }
+
+    /**
+     * 尝试占用一个并发名额，成功后必须调用 {@link #release(int, long, boolean)}
+     *
+     * @return 占用后的并发数（归还时原样传回，作为样本开始时的并发），被拒绝时返回 0
+     */
+    public int tryAcquire(boolean highPriority) {
+        int current = (int) limit;
+        int allowed = highPriority ? current : Math.max(1, (int) (current * LOW_PRIORITY_SHARE));
+        while (true) {
+            int n = inflight.get();
+            if (n >= allowed) {
+                if (highPriority) {
+                    rejectedHigh.incrementAndGet();
+                } else {
+                    rejectedLow.incrementAndGet();
+                }
+                return 0;
+            }
+            if (inflight.compareAndSet(n, n + 1)) {
+                return n + 1;
+            }
+        }
+    }
+
+    /**
+     * 归还名额并用本次耗时更新上限
+     *
+     * @param inflightAtStart tryAcquire 的返回值
+     * @param rttNanos        本次请求耗时，小于 0 表示不作为样本（例如没有访问数据库）
+     * @param dropped         请求是否异常失败
+     */
+    public void release(int inflightAtStart, long rttNanos, boolean dropped) {
+        inflight.decrementAndGet();
+        if (rttNanos >= 0) {
+            onSample(rttNanos, inflightAtStart, dropped);
+        }
+    }
+
+    private synchronized void onSample(long rttNanos, int inflightAtStart, boolean dropped) {
+        lastRttNanos = rttNanos;
+        long now = System.nanoTime();
+        if (minRttNanos == 0 || rttNanos < minRttNanos || now - minRttResetAt > 0) {
+            minRttNanos = Math.max(1, rttNanos);
+            if (now - minRttResetAt > 0) {
+                minRttResetAt = now + MIN_RTT_RESET_NANOS;
+            }
+        }
+
+        double current = limit;
+        double step = Math.max(1.0, Math.log10(current));
+        double queue = current * (1 - (double) minRttNanos / rttNanos);
+        double alpha = 3 * step;
+        double beta = 6 * step;
+
+        double target = current;
+        if (dropped || queue >= beta) {
+            target = current - step;
+        } else if (queue <= alpha && inflightAtStart * 2 >= current) {
+            // 只有真的用到了一半以上的名额才放大，避免空闲时上限无限膨胀
+            target = current + step;
+        }
+        target = Math.max(minLimit, Math.min(maxLimit, target));
+        limit = (1 - SMOOTHING) * current + SMOOTHING * target;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public String statsJson() {
+        long minRtt;
+        synchronized (this) {
+            minRtt = minRttNanos;
+        }
+        return "{ \"limit\": " + getLimit()
+                + ", \"inflight\": " + getInflight()
+                + ", \"minRttMs\": " + TimeUnit.NANOSECONDS.toMillis(minRtt)
+                + ", \"lastRttMs\": " + TimeUnit.NANOSECONDS.toMillis(lastRttNanos)
+                + ", \"rejectedHigh\": " + rejectedHigh.get()
+                + ", \"rejectedLow\": " + rejectedLow.get()
+                + " }";
+    }
+}
@@ -1,17 +1,23 @@
 package com.orangeserver;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,6 +25,36 @@ import org.slf4j.LoggerFactory;
 public class ApiDepartments extends HttpServlet {
     private static final Logger logger = LoggerFactory.getLogger(ApiDepartments.class);
 
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM department";
+    private static final String SELECT_SQL = "SELECT id, dept_code, dept_name, remark, version FROM department";
+    private static final String KEYWORD_WHERE = " WHERE dept_code LIKE ? OR dept_name LIKE ?";
+    private static final String PAGE_SQL = " ORDER BY id DESC LIMIT ? OFFSET ?";
+    private static final String DETAIL_SQL = SELECT_SQL + " WHERE id = ?";
+
+    /** 部门表复制到每个分片，分片 0 写成功后用 upsert 同步其余分片，重复执行也无副作用 */
+    /** 副本只接受不旧于自己的版本，后台补齐时晚到的旧写不会覆盖新数据；version 必须最后赋值 */
+    private static final String REPLICA_UPSERT_SQL = "INSERT INTO department"
+            + " (id, dept_code, dept_name, remark, version) VALUES (?, ?, ?, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE"
+            + " dept_code = IF(VALUES(version) >= version, VALUES(dept_code), dept_code),"
+            + " dept_name = IF(VALUES(version) >= version, VALUES(dept_name), dept_name),"
+            + " remark = IF(VALUES(version) >= version, VALUES(remark), remark),"
+            + " version = GREATEST(version, VALUES(version))";
+
+    /** 最常用的几条 SQL，启动预热时在每个连接上提前 prepare */
+    static final String[] HOT_SQL = {COUNT_SQL, SELECT_SQL + PAGE_SQL, DETAIL_SQL};
+    /** 列表结果依赖的表，任一表变更即让列表缓存过期 */
+    private static final String[] LIST_TABLES = {"department"};
+    /** 部门树带资产计数，三张表任一变更都要重建 */
+    private static final String[] TREE_TABLES = {"department", "location_space", "asset"};
+
+    /** 每个分片一次分组查询得到全部位置空间及其资产数、已领用数、总价值（不含已报废） */
+    private static final String TREE_LOCATION_SQL = "SELECT ls.id, ls.dept_id, ls.room_no,"
+            + " COUNT(ast.id), COALESCE(SUM(ast.status = 1), 0), COALESCE(SUM(ast.value), 0)"
+            + " FROM location_space ls"
+            + " LEFT JOIN asset ast ON ast.location_id = ls.id AND ast.status < " + AssetServlet.STATUS_RETIRED
+            + " GROUP BY ls.id, ls.dept_id, ls.room_no";
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         resp.setContentType("application/json; charset=UTF-8");
@@ -38,6 +74,7 @@ public class ApiDepartments extends HttpServlet {
         }
 
         String sql = "INSERT INTO department (dept_code, dept_name, remark) VALUES (?, ?, ?)";
+        long id = 0;
         try (Connection conn = MyDataBase.getDataSource().getConnection();
              PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             ps.setString(1, deptCode);
@@ -50,20 +87,11 @@ public class ApiDepartments extends HttpServlet {
             }
             ps.executeUpdate();
 
-            long id = 0;
             try (ResultSet keys = ps.getGeneratedKeys()) {
                 if (keys.next()) {
                     id = keys.getLong(1);
                 }
             }
-
-            String data = "{ \"id\": " + id
-                    + ", \"deptCode\": \"" + ApiUtils.escapeJson(deptCode)
-                    + "\", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
-                    + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
-                    + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
-            logger.info("新增部门成功 deptCode={} deptName={}", deptCode, deptName);
         } catch (SQLException e) {
             if (e.getErrorCode() == 1062) {
                 ApiUtils.writeJson(resp, 4090, "deptCode 已存在", "null");
@@ -71,7 +99,20 @@ public class ApiDepartments extends HttpServlet {
                 ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             }
             logger.error("新增部门失败", e);
+            return;
         }
+        // 连接已归还后再同步副本、发失效事件，不在持有连接时再借别的连接
+        replicate(id, deptCode, deptName, remark, 0);
+
+        String data = "{ \"id\": " + id
+                + ", \"deptCode\": \"" + ApiUtils.escapeJson(deptCode)
+                + "\", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
+                + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                + ", \"version\": 0"
+                + " }";
+        InvalidationBus.publish("department", id);
+        ApiUtils.writeJson(resp, 0, "ok", data);
+        logger.info("新增部门成功 deptCode={} deptName={}", deptCode, deptName);
     }
 
     @Override
@@ -86,6 +127,11 @@ public class ApiDepartments extends HttpServlet {
             return;
         }
 
+        if (pathInfo.matches("/tree/?")) {
+            handleTree(resp);
+            return;
+        }
+
         if (pathInfo.matches("/\\d+/locations/?")) {
             Long deptId = ApiUtils.parseId(pathInfo.replaceAll("/locations/?", ""));
             if (deptId == null) {
@@ -124,7 +170,15 @@ public class ApiDepartments extends HttpServlet {
             return;
         }
 
-        String sql = "UPDATE department SET dept_code = ?, dept_name = ?, remark = ? WHERE id = ?";
+        Long expectedVersion = ApiUtils.expectedVersion(req, body);
+        if (expectedVersion != null && expectedVersion < 0) {
+            ApiUtils.writeJson(resp, 4001, "If-Match 格式不正确", "null");
+            return;
+        }
+
+        String sql = "UPDATE department SET dept_code = ?, dept_name = ?, remark = ?, version = version + 1 WHERE id = ?"
+                + (expectedVersion == null ? "" : " AND version = ?");
+        Long version;
         try (Connection conn = MyDataBase.getDataSource().getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, deptCode);
@@ -136,20 +190,23 @@ public class ApiDepartments extends HttpServlet {
                 ps.setString(3, remark);
             }
             ps.setLong(4, id);
+            if (expectedVersion != null) {
+                ps.setLong(5, expectedVersion);
+            }
 
             int updated = ps.executeUpdate();
             if (updated == 0) {
-                ApiUtils.writeJson(resp, 4004, "部门不存在", "null");
+                Long current = ApiUtils.selectVersion(conn, "department", id);
+                if (current == null) {
+                    ApiUtils.writeJson(resp, 4004, "部门不存在", "null");
+                } else {
+                    ApiUtils.writeJson(resp, 4091, "部门已被其他人修改，请刷新后重试",
+                            "{ \"id\": " + id + ", \"version\": " + current + " }");
+                }
                 return;
             }
-
-            String data = "{ \"id\": " + id
-                    + ", \"deptCode\": \"" + ApiUtils.escapeJson(deptCode)
-                    + "\", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
-                    + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
-                    + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
-            logger.info("修改部门成功 id={} deptCode={} deptName={}", id, deptCode, deptName);
+            version = expectedVersion != null ? Long.valueOf(expectedVersion + 1)
+                    : ApiUtils.selectVersion(conn, "department", id);
         } catch (SQLException e) {
             if (e.getErrorCode() == 1062) {
                 ApiUtils.writeJson(resp, 4090, "deptCode 已存在", "null");
@@ -157,7 +214,22 @@ public class ApiDepartments extends HttpServlet {
                 ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             }
             logger.error("修改部门失败 id={}", id, e);
+            return;
+        }
+        if (version != null) {
+            resp.setHeader("ETag", ApiUtils.etag(version));
+            replicate(id, deptCode, deptName, remark, version);
         }
+
+        String data = "{ \"id\": " + id
+                + ", \"deptCode\": \"" + ApiUtils.escapeJson(deptCode)
+                + "\", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
+                + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                + ", \"version\": " + version
+                + " }";
+        InvalidationBus.publish("department", id);
+        ApiUtils.writeJson(resp, 0, "ok", data);
+        logger.info("修改部门成功 id={} deptCode={} deptName={}", id, deptCode, deptName);
     }
 
     @Override
@@ -172,30 +244,39 @@ public class ApiDepartments extends HttpServlet {
 
         String checkSql = "SELECT COUNT(*) FROM location_space WHERE dept_id = ?";
         String deleteSql = "DELETE FROM department WHERE id = ?";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
-             PreparedStatement check = conn.prepareStatement(checkSql);
-             PreparedStatement del = conn.prepareStatement(deleteSql)) {
-            check.setLong(1, id);
-            try (ResultSet rs = check.executeQuery()) {
-                if (rs.next() && rs.getInt(1) > 0) {
+        int deleted;
+        try {
+            // 位置空间分布在各分片上，要所有分片都没有才能删
+            for (Integer count : ShardRouter.scatter(ds -> ApiUtils.count(ds, checkSql, id))) {
+                if (count > 0) {
                     ApiUtils.writeJson(resp, 4002, "部门下存在位置空间，禁止删除", "null");
                     return;
                 }
             }
-
-            del.setLong(1, id);
-            int deleted = del.executeUpdate();
-            if (deleted == 0) {
-                ApiUtils.writeJson(resp, 4004, "部门不存在", "null");
-                return;
+            try (Connection conn = MyDataBase.getDataSource().getConnection();
+                 PreparedStatement del = conn.prepareStatement(deleteSql)) {
+                del.setLong(1, id);
+                deleted = del.executeUpdate();
             }
-
-            ApiUtils.writeJson(resp, 0, "ok", "null");
-            logger.info("删除部门成功 id={}", id);
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             logger.error("删除部门失败 id={}", id, e);
+            return;
+        }
+        if (deleted == 0) {
+            ApiUtils.writeJson(resp, 4004, "部门不存在", "null");
+            return;
         }
+        ShardRouter.replicate("department", id, c -> {
+            try (PreparedStatement ps = c.prepareStatement(deleteSql)) {
+                ps.setLong(1, id);
+                ps.executeUpdate();
+            }
+        });
+
+        InvalidationBus.publish("department", id);
+        ApiUtils.writeJson(resp, 0, "ok", "null");
+        logger.info("删除部门成功 id={}", id);
     }
 
     private void handleList(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -208,11 +289,14 @@ public class ApiDepartments extends HttpServlet {
         }
 
         boolean hasKeyword = !ApiUtils.isBlank(keyword);
-        String countSql = "SELECT COUNT(*) FROM department"
-                + (hasKeyword ? " WHERE dept_code LIKE ? OR dept_name LIKE ?" : "");
-        String listSql = "SELECT id, dept_code, dept_name, remark FROM department"
-                + (hasKeyword ? " WHERE dept_code LIKE ? OR dept_name LIKE ?" : "")
-                + " ORDER BY id DESC LIMIT ? OFFSET ?";
+        ResultCache.Key cacheKey = ResultCache.key(LIST_TABLES, "departments", "page", page, "size", size,
+                "keyword", hasKeyword ? keyword : null);
+        if (ResultCache.writeIfCached(cacheKey, resp)) {
+            return;
+        }
+
+        String countSql = COUNT_SQL + (hasKeyword ? KEYWORD_WHERE : "");
+        String listSql = SELECT_SQL + (hasKeyword ? KEYWORD_WHERE : "") + PAGE_SQL;
 
         try (Connection conn = MyDataBase.getDataSource().getConnection();
              PreparedStatement countPs = conn.prepareStatement(countSql);
@@ -244,10 +328,12 @@ public class ApiDepartments extends HttpServlet {
                     String deptCode = rs.getString("dept_code");
                     String deptName = rs.getString("dept_name");
                     String remark = rs.getString("remark");
+                    long version = rs.getLong("version");
                     String item = "{ \"id\": " + id
                             + ", \"deptCode\": \"" + ApiUtils.escapeJson(deptCode)
                             + "\", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
                             + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                            + ", \"version\": " + version
                             + " }";
                     items.add(item);
                 }
@@ -258,7 +344,7 @@ public class ApiDepartments extends HttpServlet {
                     + ", \"size\": " + size
                     + ", \"total\": " + total
                     + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
+            ResultCache.writeAndCache(cacheKey, resp, data);
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             logger.error("查询部门列表失败", e);
@@ -266,7 +352,12 @@ public class ApiDepartments extends HttpServlet {
     }
 
     private void handleDetail(HttpServletResponse resp, long id) throws IOException {
-        String sql = "SELECT id, dept_code, dept_name, remark FROM department WHERE id = ?";
+        DetailCache.Key cacheKey = DetailCache.key("department", id, LIST_TABLES);
+        if (DetailCache.writeIfCached(cacheKey, resp)) {
+            return;
+        }
+
+        String sql = DETAIL_SQL;
         try (Connection conn = MyDataBase.getDataSource().getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setLong(1, id);
@@ -278,12 +369,14 @@ public class ApiDepartments extends HttpServlet {
                 String deptCode = rs.getString("dept_code");
                 String deptName = rs.getString("dept_name");
                 String remark = rs.getString("remark");
+                long version = rs.getLong("version");
                 String data = "{ \"id\": " + id
                         + ", \"deptCode\": \"" + ApiUtils.escapeJson(deptCode)
                         + "\", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
                         + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                        + ", \"version\": " + version
                         + " }";
-                ApiUtils.writeJson(resp, 0, "ok", data);
+                DetailCache.writeAndCache(cacheKey, resp, data, version);
             }
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
@@ -293,24 +386,146 @@ public class ApiDepartments extends HttpServlet {
 
     private void handleDeptLocations(HttpServletResponse resp, long deptId) throws IOException {
         String sql = "SELECT id, room_no FROM location_space WHERE dept_id = ? ORDER BY id DESC";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        ShardRouter.ShardQuery<ShardRouter.Page> query = ds -> queryDeptLocations(ds, sql, deptId);
+        try {
+            // 老数据没按部门搬到位之前，部门的位置空间可能在任意分片上
+            int shard = ShardRouter.readShardOfDept(deptId);
+            List<ShardRouter.Page> pages = shard >= 0
+                    ? Collections.singletonList(query.query(ShardRouter.shard(shard)))
+                    : ShardRouter.scatter(query);
+            ShardRouter.Page merged = ShardRouter.merge(pages, 0, Integer.MAX_VALUE);
+            ApiUtils.writeJson(resp, 0, "ok", "[" + String.join(", ", merged.items) + "]");
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("查询部门位置空间失败 deptId={}", deptId, e);
+        }
+    }
+
+    private static ShardRouter.Page queryDeptLocations(DataSource ds, String sql, long deptId) throws SQLException {
+        try (Connection conn = ds.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setLong(1, deptId);
-            List<String> items = new ArrayList<>();
+            ShardRouter.Page page = new ShardRouter.Page(0);
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
                     long id = rs.getLong("id");
                     String roomNo = rs.getString("room_no");
-                    String item = "{ \"id\": " + id
-                            + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\" }";
-                    items.add(item);
+                    page.add(id, "{ \"id\": " + id
+                            + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\" }");
                 }
             }
-            ApiUtils.writeJson(resp, 0, "ok", "[" + String.join(", ", items) + "]");
+            return page;
+        }
+    }
+
+    /** 部门树的一个节点：部门或位置空间，计数向上累加 */
+    private static final class TreeNode {
+        final String head;
+        final List<String> children = new ArrayList<>();
+        long assets;
+        long assigned;
+        BigDecimal value = BigDecimal.ZERO;
+
+        TreeNode(String head) {
+            this.head = head;
+        }
+
+        void add(long assets, long assigned, BigDecimal value) {
+            this.assets += assets;
+            this.assigned += assigned;
+            this.value = this.value.add(value);
+        }
+
+        String toJson(String childrenKey) {
+            return "{ " + head
+                    + ", \"assetCount\": " + assets
+                    + ", \"assignedCount\": " + assigned
+                    + ", \"value\": " + value.toPlainString()
+                    + (childrenKey == null ? "" : ", \"" + childrenKey + "\": [" + String.join(", ", children) + "]")
+                    + " }";
+        }
+    }
+
+    /**
+     * GET /api/departments/tree：部门 -> 位置空间 -> 资产数、已领用数、总价值。
+     * 部门表一次查询，各分片的位置空间各一次分组查询，在内存中拼成树；结果放进 ResultCache，
+     * 部门、位置空间、资产有写入时失效
+     */
+    private void handleTree(HttpServletResponse resp) throws IOException {
+        ResultCache.Key cacheKey = ResultCache.key(TREE_TABLES, "departments/tree");
+        if (ResultCache.writeIfCached(cacheKey, resp)) {
+            return;
+        }
+
+        try {
+            Map<Long, TreeNode> depts = new LinkedHashMap<>();
+            try (Connection conn = MyDataBase.getDataSource().getConnection();
+                 PreparedStatement ps = conn.prepareStatement("SELECT id, dept_code, dept_name FROM department"
+                         + " ORDER BY id");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    long id = rs.getLong("id");
+                    depts.put(id, new TreeNode("\"id\": " + id
+                            + ", \"deptCode\": \"" + ApiUtils.escapeJson(rs.getString("dept_code")) + "\""
+                            + ", \"deptName\": \"" + ApiUtils.escapeJson(rs.getString("dept_name")) + "\""));
+                }
+            }
+
+            // 部门跨分片时各分片都有它的位置空间，按位置空间 id 排好序再挂到部门下
+            Map<Long, Object[]> locations = new TreeMap<>();
+            for (Map<Long, Object[]> part : ShardRouter.scatter(ApiDepartments::queryTreeLocations)) {
+                locations.putAll(part);
+            }
+            TreeNode root = new TreeNode("\"deptCount\": " + depts.size()
+                    + ", \"locationCount\": " + locations.size());
+            for (Map.Entry<Long, Object[]> entry : locations.entrySet()) {
+                Object[] row = entry.getValue();
+                TreeNode dept = depts.get((Long) row[0]);
+                if (dept == null) {
+                    continue;
+                }
+                TreeNode location = new TreeNode("\"id\": " + entry.getKey()
+                        + ", \"roomNo\": \"" + ApiUtils.escapeJson((String) row[1]) + "\"");
+                location.add((Long) row[2], (Long) row[3], (BigDecimal) row[4]);
+                dept.children.add(location.toJson(null));
+                dept.add(location.assets, location.assigned, location.value);
+            }
+            for (TreeNode dept : depts.values()) {
+                root.children.add(dept.toJson("locations"));
+                root.add(dept.assets, dept.assigned, dept.value);
+            }
+            ResultCache.writeAndCache(cacheKey, resp, root.toJson("list"));
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
-            logger.error("查询部门位置空间失败 deptId={}", deptId, e);
+            logger.error("查询部门树失败", e);
         }
     }
 
+    /** 返回 位置空间 id -> [部门 id, 房间号, 资产数, 已领用数, 总价值] */
+    private static Map<Long, Object[]> queryTreeLocations(DataSource ds) throws SQLException {
+        Map<Long, Object[]> rows = new TreeMap<>();
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(TREE_LOCATION_SQL);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.put(rs.getLong(1), new Object[] {rs.getLong(2), rs.getString(3), rs.getLong(4), rs.getLong(5),
+                        rs.getBigDecimal(6)});
+            }
+        }
+        return rows;
+    }
+
+    private static void replicate(long id, String deptCode, String deptName, String remark, long version) {
+        ShardRouter.replicate("department", id, conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(REPLICA_UPSERT_SQL)) {
+                ps.setLong(1, id);
+                ps.setString(2, deptCode);
+                ps.setString(3, deptName);
+                ps.setString(4, remark);
+                ps.setLong(5, version);
+                ps.executeUpdate();
+            }
+        });
+    }
+
 }
@@ -10,7 +10,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 服务心跳指令，前端检查后端是否还活着
+ * 服务心跳指令，前端检查后端是否还活着。
+ * 启动预热（见 WarmupListener）完成前返回 503 和 STARTING，负载均衡据此暂不转发流量；
+ * 数据库迁移失败时返回 503 和 MIGRATION_FAILED，不会自行恢复，需修复后重启。
  */
 @WebServlet("/api/health")
 public class ApiHealth extends HttpServlet {
@@ -20,6 +22,20 @@ public class ApiHealth extends HttpServlet {
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
 
         resp.setContentType("application/json; charset=UTF-8");
+        if (!SchemaMigrator.isMigrated()) {
+            resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            resp.getWriter().println(
+                    "{ \"code\": 5030, \"msg\": \"数据库迁移失败\", \"data\": { \"status\": \"MIGRATION_FAILED\" } }");
+            logger.warn("/api/health 收到服务检查指令，数据库迁移失败");
+            return;
+        }
+        if (!WarmupListener.isReady()) {
+            resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            resp.getWriter().println(
+                    "{ \"code\": 5030, \"msg\": \"服务预热中\", \"data\": { \"status\": \"STARTING\" } }");
+            logger.info("/api/health 收到服务检查指令，预热尚未完成");
+            return;
+        }
         resp.getWriter().println("{ \"code\": 0, \"msg\": \"ok\", \"data\": { \"status\": \"UP\" } }");
 
         logger.info("/api/health 收到服务检查指令");
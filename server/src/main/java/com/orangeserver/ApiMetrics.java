@@ -0,0 +1,40 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 运行指标，给运维/压测查看各后台组件的状态
+ */
+@WebServlet("/api/metrics")
+public class ApiMetrics extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        String data = "{ \"assignmentLog\": " + AssignmentLog.statsJson()
+                + ", \"limiter\": " + LoadSheddingFilter.getLimiter().statsJson()
+                + ", \"rateLimit\": " + (RateLimitFilter.getLimiter() == null ? "null"
+                : RateLimitFilter.getLimiter().statsJson())
+                + ", \"idempotency\": " + IdempotencyFilter.statsJson()
+                + ", \"singleFlight\": " + SingleFlightFilter.statsJson()
+                + ", \"shards\": " + ShardRouter.statsJson()
+                + ", \"invalidation\": " + InvalidationBus.statsJson()
+                + ", \"assetIndex\": " + AssetIndex.statsJson()
+                + ", \"autocomplete\": " + Autocomplete.statsJson()
+                + ", \"resultCache\": " + ResultCache.statsJson()
+                + ", \"detailCache\": " + DetailCache.statsJson()
+                + ", \"sql\": " + SqlTimer.statsJson()
+                + ", \"migrations\": " + SchemaMigrator.statsJson()
+                + ", \"archive\": " + AssetArchiver.statsJson()
+                + ", \"audit\": " + InventoryAudit.statsJson()
+                + ", \"warmup\": { \"ready\": " + WarmupListener.isReady()
+                + ", \"millis\": " + WarmupListener.getWarmupMillis() + " }"
+                + " }";
+        ApiUtils.writeJson(resp, 0, "ok", data);
+    }
+}
@@ -3,10 +3,15 @@ package com.orangeserver;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
 
 /**
  * api 需要用到的一些工具函数
@@ -145,14 +150,88 @@ public final class ApiUtils {
         }
     }
 
+    /**
+     * 乐观锁版本号：优先取 If-Match 头（"3" 或 W/"3"），其次取请求体里的 version 字段。
+     * 都没有时返回 null；If-Match 格式不正确时返回 -1
+     */
+    public static Long expectedVersion(HttpServletRequest req, String body) {
+        String ifMatch = req.getHeader("If-Match");
+        if (!isBlank(ifMatch) && !"*".equals(ifMatch.trim())) {
+            String value = ifMatch.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            Long version = parseLongParam(value.replace("\"", ""));
+            return version == null || version < 0 ? -1L : version;
+        }
+        return extractLong(body, "version");
+    }
+
+    /**
+     * 查询当前版本号，记录不存在时返回 null。table 只能传代码里的常量表名
+     */
+    public static Long selectVersion(Connection conn, String table, long id) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT version FROM " + table + " WHERE id = ?")) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+
+    /**
+     * 执行只带一个 id 参数的 COUNT 查询
+     */
+    public static int count(DataSource ds, String sql, long id) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    public static String etag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * 去掉 context path 后的请求路径，例如 /api/assets/1
+     */
+    public static String requestPath(HttpServletRequest req) {
+        return req.getRequestURI().substring(req.getContextPath().length());
+    }
+
+    /**
+     * 健康检查和运行指标，不参与限流
+     */
+    public static boolean isOpsPath(String path) {
+        return path.startsWith("/api/health") || path.startsWith("/api/metrics");
+    }
+
     public static boolean isBlank(String value) {
         return value == null || value.trim().isEmpty();
     }
 
     public static void writeJson(HttpServletResponse resp, int code, String msg, String data)
             throws IOException {
-        resp.getWriter().println("{ \"code\": " + code + ", \"msg\": \"" + escapeJson(msg)
-                + "\", \"data\": " + data + " }");
+        resp.getWriter().print(formatJson(code, msg, data));
+    }
+
+    /**
+     * 完整的响应体（含末尾换行），writeJson 写出的就是它
+     */
+    public static String formatJson(int code, String msg, String data) {
+        return "{ \"code\": " + code + ", \"msg\": \"" + escapeJson(msg)
+                + "\", \"data\": " + data + " }" + System.lineSeparator();
+    }
+
+    /**
+     * 写出已序列化好的 UTF-8 响应体，用于缓存的响应
+     */
+    public static void writeRaw(HttpServletResponse resp, byte[] body) throws IOException {
+        resp.getOutputStream().write(body);
     }
 
     public static String escapeJson(String value) {
@@ -1,58 +1,154 @@
 package com.orangeserver;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.Filter;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.annotation.WebInitParam;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+import org.apache.tomcat.util.modeler.Registry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Hello world!
+ * 内嵌 Tomcat 启动器，不打 war、不依赖外部容器。
+ * 直接按各类上的 @WebServlet / @WebFilter 注解注册，不做 classpath 扫描，所有 servlet 共用 MyDataBase 的连接池。
+ * <p>
+ * 用法：{@code java com.orangeserver.App [port] [--exit-after-start]}，
+ * 带 --exit-after-start 时启动完成后立即退出，用于在 CI 中测量启动耗时。
  */
 public final class App {
     private static final Logger logger = LoggerFactory.getLogger(App.class);
 
-    private App() {
-    }
+    private static final int DEFAULT_PORT = 8080;
+    /** 与 war 部署时的 orange.war 保持一致 */
+    private static final String CONTEXT_PATH = "/orange";
+
+    private static final List<Class<? extends HttpServlet>> SERVLETS = Arrays.asList(
+            ApiHealth.class,
+            ApiMetrics.class,
+            ApiDepartments.class,
+            LocationServlet.class,
+            AssigneeServlet.class,
+            AssetServlet.class,
+            ArchiveServlet.class,
+            AuditServlet.class,
+            AutocompleteServlet.class,
+            SearchServlet.class,
+            BatchServlet.class,
+            SqlStatsServlet.class);
 
     /**
-     * Says hello to the world.
-     * 
-     * @param args The arguments of the program.
+     * 按顺序执行：先记下路由供 SQL 计时，再按客户端限速，再回放幂等请求、合并相同 GET，最后才占用并发名额。
+     * 打 war 部署时由 WEB-INF/web.xml 的 filter-mapping 固定同样的顺序，两处要一起改
      */
-    public static void main(String[] args) {
-        logger.info("Hello World!");
-
-        DataSource dataSource = buildDataSource();
-        String sql = "SELECT id, name FROM department WHERE id = ?";
-
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, 1);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    int id = rs.getInt("id");
-                    String name = rs.getString("name");
-                    logger.info("department id={} name={}", id, name);
-                }
+    private static final List<Class<? extends Filter>> FILTERS = Arrays.asList(
+            SqlTimingFilter.class,
+            RateLimitFilter.class,
+            IdempotencyFilter.class,
+            SingleFlightFilter.class,
+            LoadSheddingFilter.class);
+
+    private static final List<Class<? extends ServletContextListener>> LISTENERS = Arrays.asList(
+            AppLifecycle.class,
+            WarmupListener.class);
+
+    private App() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        long start = System.nanoTime();
+        int port = DEFAULT_PORT;
+        boolean exitAfterStart = false;
+        for (String arg : args) {
+            if ("--exit-after-start".equals(arg)) {
+                exitAfterStart = true;
+            } else if (arg.matches("\\d+")) {
+                port = Integer.parseInt(arg);
+            }
+        }
+
+        Tomcat tomcat = start(port);
+        logger.info("服务已启动 http://localhost:{}{}/api 耗时 {} ms", port, CONTEXT_PATH,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        if (exitAfterStart) {
+            stop(tomcat);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(tomcat), "shutdown"));
+        tomcat.getServer().await();
+    }
+
+    static Tomcat start(int port) throws LifecycleException, IOException, ReflectiveOperationException {
+        File baseDir = Files.createTempDirectory("orange-tomcat").toFile();
+        baseDir.deleteOnExit();
+
+        // 不注册 JMX MBean：省掉平台 MBeanServer 的初始化和各组件描述文件的解析，是启动耗时的大头之一
+        Registry.disableRegistry();
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        tomcat.setPort(port);
+        tomcat.getConnector();
+
+        Context ctx = tomcat.addContext(CONTEXT_PATH, baseDir.getAbsolutePath());
+        for (Class<? extends HttpServlet> cls : SERVLETS) {
+            WebServlet annotation = cls.getAnnotation(WebServlet.class);
+            String name = cls.getSimpleName();
+            Wrapper wrapper = Tomcat.addServlet(ctx, name, cls.getDeclaredConstructor().newInstance());
+            wrapper.setLoadOnStartup(annotation.loadOnStartup());
+            for (String pattern : patterns(annotation.value(), annotation.urlPatterns())) {
+                ctx.addServletMappingDecoded(pattern, name);
             }
-        } catch (SQLException e) {
-            logger.error("Database query failed", e);
+        }
+        for (Class<? extends Filter> cls : FILTERS) {
+            WebFilter annotation = cls.getAnnotation(WebFilter.class);
+            FilterDef def = new FilterDef();
+            def.setFilterName(cls.getSimpleName());
+            def.setFilter(cls.getDeclaredConstructor().newInstance());
+            for (WebInitParam param : annotation.initParams()) {
+                def.addInitParameter(param.name(), param.value());
+            }
+            ctx.addFilterDef(def);
+
+            FilterMap map = new FilterMap();
+            map.setFilterName(cls.getSimpleName());
+            for (String pattern : patterns(annotation.value(), annotation.urlPatterns())) {
+                map.addURLPatternDecoded(pattern);
+            }
+            ctx.addFilterMap(map);
+        }
+        for (Class<? extends ServletContextListener> cls : LISTENERS) {
+            ctx.addApplicationListener(cls.getName());
+        }
+
+        tomcat.start();
+        return tomcat;
+    }
+
+    private static void stop(Tomcat tomcat) {
+        try {
+            tomcat.stop();
+            tomcat.destroy();
+            logger.info("服务已停止");
+        } catch (LifecycleException e) {
+            logger.error("停止服务失败", e);
         }
     }
 
-    private static DataSource buildDataSource() {
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl("jdbc:mysql://localhost:3306/orange_db?serverTimezone=UTC&allowPublicKeyRetrieval=true&useSSL=false");
-        config.setUsername("orange");
-        config.setPassword("1234567");
-        config.setMaximumPoolSize(10);
-        config.setMinimumIdle(2);
-        config.setConnectionTimeout(30000);
-        return new HikariDataSource(config);
+    private static String[] patterns(String[] value, String[] urlPatterns) {
+        return value.length > 0 ? value : urlPatterns;
     }
 }
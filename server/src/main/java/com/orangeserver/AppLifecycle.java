@@ -0,0 +1,41 @@
+package com.orangeserver;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 应用启动/停止时开关后台任务
+ */
+@WebListener
+public class AppLifecycle implements ServletContextListener {
+    private static final Logger logger = LoggerFactory.getLogger(AppLifecycle.class);
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        // 开始接收请求前完成迁移；失败时 /api/health 保持 503，依赖新表结构的归档和审计也不启动
+        boolean migrated = SchemaMigrator.ensureMigrated();
+        AssignmentLog.start();
+        InvalidationBus.start();
+        ResultCache.start();
+        DetailCache.start();
+        if (migrated) {
+            AssetArchiver.start();
+            InventoryAudit.start();
+        } else {
+            logger.error("数据库迁移失败，报废归档和盘点审计未启动");
+        }
+        logger.info("后台任务已启动");
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        InventoryAudit.shutdown();
+        AssetArchiver.shutdown();
+        InvalidationBus.shutdown();
+        AssignmentLog.shutdown();
+        logger.info("后台任务已停止");
+    }
+}
@@ -0,0 +1,179 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 已归档资产查询：GET /api/archive/assets?page=&size=&keyword=&locationId=，GET /api/archive/assets/{id}。
+ * 只读 asset_archive，不碰热表；位置空间、部门可能已删除，用 LEFT JOIN 取当前名称。
+ */
+@WebServlet("/api/archive/assets/*")
+public class ArchiveServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveServlet.class);
+
+    private static final String FROM_SQL = " FROM asset_archive ar"
+            + " LEFT JOIN location_space ls ON ar.location_id = ls.id"
+            + " LEFT JOIN department d ON ls.dept_id = d.id";
+    private static final String SELECT_SQL = "SELECT ar.id, ar.asset_no, ar.asset_name, ar.value, ar.location_id,"
+            + " ar.remark, ar.created_at, ar.retired_at, ar.archived_at, ls.room_no, ls.dept_id, d.dept_name"
+            + FROM_SQL;
+    private static final String PAGE_SQL = " ORDER BY ar.id DESC LIMIT ? OFFSET ?";
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        String pathInfo = req.getPathInfo();
+        if (pathInfo == null || pathInfo.equals("/") || pathInfo.isEmpty()) {
+            handleList(req, resp);
+            return;
+        }
+
+        Long id = ApiUtils.parseId(pathInfo);
+        if (id == null) {
+            ApiUtils.writeJson(resp, 4001, "id 格式不正确", "null");
+            return;
+        }
+        handleDetail(resp, id);
+    }
+
+    private void handleList(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String keyword = req.getParameter("keyword");
+        String locationIdValue = req.getParameter("locationId");
+        Long locationId = ApiUtils.parseLongParam(locationIdValue);
+        if (locationId == null && !ApiUtils.isBlank(locationIdValue)) {
+            ApiUtils.writeJson(resp, 4001, "筛选参数格式不正确", "null");
+            return;
+        }
+        int page = ApiUtils.parseInt(req.getParameter("page"), 1);
+        int size = ApiUtils.parseInt(req.getParameter("size"), 10);
+        if (page <= 0 || size <= 0) {
+            ApiUtils.writeJson(resp, 4001, "page 和 size 需为正整数", "null");
+            return;
+        }
+
+        List<String> conditions = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+        if (locationId != null) {
+            conditions.add("ar.location_id = ?");
+            params.add(locationId);
+        }
+        if (!ApiUtils.isBlank(keyword)) {
+            String like = "%" + keyword + "%";
+            conditions.add("(ar.asset_no LIKE ? OR ar.asset_name LIKE ?)");
+            params.add(like);
+            params.add(like);
+        }
+        String where = conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+        String countSql = "SELECT COUNT(*) FROM asset_archive ar" + where;
+        String listSql = SELECT_SQL + where + PAGE_SQL;
+        int offset = (page - 1) * size;
+        ShardRouter.PageQuery query = (ds, limit, off) -> queryPage(ds, countSql, listSql, params, limit, off);
+
+        try {
+            // 位置空间还在时只查它所在的分片，已删除时各分片一起查
+            int shard = locationId == null ? -1 : ShardRouter.locate("location_space", locationId);
+            ShardRouter.Page result = shard >= 0
+                    ? query.query(ShardRouter.shard(shard), size, offset)
+                    : ShardRouter.pageAll(offset, size, query);
+            String data = "{ \"list\": [" + String.join(", ", result.items) + "]"
+                    + ", \"page\": " + page
+                    + ", \"size\": " + size
+                    + ", \"total\": " + result.total
+                    + " }";
+            ApiUtils.writeJson(resp, 0, "ok", data);
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("查询归档资产列表失败", e);
+        }
+    }
+
+    private void handleDetail(HttpServletResponse resp, long id) throws IOException {
+        try {
+            int shard = ShardRouter.locate("asset_archive", id);
+            if (shard < 0) {
+                ApiUtils.writeJson(resp, 4004, "归档资产不存在", "null");
+                return;
+            }
+            try (Connection conn = ShardRouter.shard(shard).getConnection();
+                 PreparedStatement ps = conn.prepareStatement(SELECT_SQL + " WHERE ar.id = ?")) {
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        ApiUtils.writeJson(resp, 4004, "归档资产不存在", "null");
+                        return;
+                    }
+                    ApiUtils.writeJson(resp, 0, "ok", itemJson(rs));
+                }
+            }
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("查询归档资产详情失败 id={}", id, e);
+        }
+    }
+
+    private static ShardRouter.Page queryPage(DataSource ds, String countSql, String listSql, List<Object> params,
+                                              int limit, int offset) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement countPs = conn.prepareStatement(countSql);
+             PreparedStatement listPs = conn.prepareStatement(listSql)) {
+            int index = 1;
+            for (Object param : params) {
+                countPs.setObject(index, param);
+                listPs.setObject(index, param);
+                index++;
+            }
+            listPs.setInt(index, limit);
+            listPs.setInt(index + 1, offset);
+
+            int total = 0;
+            try (ResultSet rs = countPs.executeQuery()) {
+                if (rs.next()) {
+                    total = rs.getInt(1);
+                }
+            }
+
+            ShardRouter.Page page = new ShardRouter.Page(total);
+            try (ResultSet rs = listPs.executeQuery()) {
+                while (rs.next()) {
+                    page.add(rs.getLong("id"), itemJson(rs));
+                }
+            }
+            return page;
+        }
+    }
+
+    private static String itemJson(ResultSet rs) throws SQLException {
+        BigDecimal value = rs.getBigDecimal("value");
+        String remark = rs.getString("remark");
+        String roomNo = rs.getString("room_no");
+        Object deptObj = rs.getObject("dept_id");
+        String deptName = rs.getString("dept_name");
+        return "{ \"id\": " + rs.getLong("id")
+                + ", \"assetNo\": \"" + ApiUtils.escapeJson(rs.getString("asset_no")) + "\""
+                + ", \"assetName\": \"" + ApiUtils.escapeJson(rs.getString("asset_name")) + "\""
+                + ", \"value\": " + (value == null ? "0" : value.toPlainString())
+                + ", \"locationId\": " + rs.getLong("location_id")
+                + ", \"roomNo\": " + (roomNo == null ? "null" : "\"" + ApiUtils.escapeJson(roomNo) + "\"")
+                + ", \"deptId\": " + (deptObj == null ? "null" : ((Number) deptObj).longValue())
+                + ", \"deptName\": " + (deptName == null ? "null" : "\"" + ApiUtils.escapeJson(deptName) + "\"")
+                + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                + ", \"createdAt\": \"" + ApiUtils.escapeJson(rs.getString("created_at")) + "\""
+                + ", \"retiredAt\": \"" + ApiUtils.escapeJson(rs.getString("retired_at")) + "\""
+                + ", \"archivedAt\": \"" + ApiUtils.escapeJson(rs.getString("archived_at")) + "\""
+                + " }";
+    }
+}
@@ -0,0 +1,190 @@
+package com.orangeserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 后台把已报废（status = 2）的资产从 asset 移到 asset_archive，热表和它的索引只保留在用的资产。
+ * 每批最多 BATCH_SIZE 行、一个短事务（锁行、复制、删除），批间稍作停顿，不长时间占用行锁和连接。
+ * 多个实例同时运行时靠 FOR UPDATE 锁住同一批行，后到的实例读到的行已被删掉，自然跳过。
+ * -Dorange.archive.intervalSec 控制扫描间隔（默认 60，0 关闭），-Dorange.archive.delaySec 为报废后保留在热表的时间（默认 0）。
+ */
+public final class AssetArchiver {
+    private static final Logger logger = LoggerFactory.getLogger(AssetArchiver.class);
+
+    private static final long INTERVAL_SEC = Long.getLong("orange.archive.intervalSec", 60);
+    private static final long DELAY_SEC = Long.getLong("orange.archive.delaySec", 0);
+    private static final int BATCH_SIZE = 200;
+    private static final long BATCH_PAUSE_MS = 50;
+
+    private static final String CANDIDATES_SQL = "SELECT id FROM asset WHERE status = " + AssetServlet.STATUS_RETIRED
+            + " AND retired_at <= NOW(3) - INTERVAL ? SECOND ORDER BY id LIMIT " + BATCH_SIZE;
+    private static final String COLUMNS = "id, asset_no, asset_name, value, location_id, remark,"
+            + " created_at, retired_at";
+
+    private static final AtomicLong archived = new AtomicLong();
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static volatile long lastRunAt;
+    private static volatile long lastRunMillis;
+
+    private static volatile boolean running;
+    private static volatile Thread worker;
+
+    private AssetArchiver() {
+    }
+
+    public static synchronized void start() {
+        if (INTERVAL_SEC <= 0 || worker != null) {
+            return;
+        }
+        running = true;
+        worker = new Thread(AssetArchiver::run, "asset-archiver");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public static synchronized void shutdown() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    private static void run() {
+        while (running) {
+            try {
+                Thread.sleep(INTERVAL_SEC * 1000);
+                archiveAll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 扫描所有分片，把到期的报废资产全部归档
+     */
+    static void archiveAll() throws InterruptedException {
+        long start = System.nanoTime();
+        long moved = 0;
+        for (int shard = 0; shard < ShardRouter.count(); shard++) {
+            try {
+                moved += archiveShard(ShardRouter.shard(shard));
+            } catch (SQLException e) {
+                failures.incrementAndGet();
+                logger.warn("分片 {} 归档报废资产失败: {}", shard, e.getMessage());
+            }
+        }
+        lastRunAt = System.currentTimeMillis();
+        lastRunMillis = (System.nanoTime() - start) / 1_000_000;
+        if (moved > 0) {
+            logger.info("归档报废资产 {} 条，耗时 {} ms", moved, lastRunMillis);
+        }
+    }
+
+    private static long archiveShard(DataSource ds) throws SQLException, InterruptedException {
+        long moved = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Long> ids = candidates(ds);
+            if (ids.isEmpty()) {
+                break;
+            }
+            List<Long> done = moveBatch(ds, ids);
+            for (long id : done) {
+                InvalidationBus.publish("asset", id);
+            }
+            moved += done.size();
+            if (ids.size() < BATCH_SIZE) {
+                break;
+            }
+            Thread.sleep(BATCH_PAUSE_MS);
+        }
+        return moved;
+    }
+
+    private static List<Long> candidates(DataSource ds) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(CANDIDATES_SQL)) {
+            ps.setLong(1, DELAY_SEC);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 一个事务内锁住仍是报废状态的行，复制到 asset_archive 后删除；返回实际归档的 id
+     */
+    private static List<Long> moveBatch(DataSource ds, List<Long> ids) throws SQLException {
+        String in = " WHERE id IN (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")"
+                + " AND status = " + AssetServlet.STATUS_RETIRED;
+        try (Connection conn = ds.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<Long> locked = new ArrayList<>();
+                try (PreparedStatement ps = conn.prepareStatement("SELECT id FROM asset" + in + " FOR UPDATE")) {
+                    bind(ps, ids);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            locked.add(rs.getLong(1));
+                        }
+                    }
+                }
+                if (!locked.isEmpty()) {
+                    try (PreparedStatement ps = conn.prepareStatement("INSERT INTO asset_archive (" + COLUMNS + ")"
+                            + " SELECT " + COLUMNS + " FROM asset" + in)) {
+                        bind(ps, ids);
+                        ps.executeUpdate();
+                    }
+                    try (PreparedStatement ps = conn.prepareStatement("DELETE FROM asset" + in)) {
+                        bind(ps, ids);
+                        ps.executeUpdate();
+                    }
+                }
+                conn.commit();
+                batches.incrementAndGet();
+                archived.addAndGet(locked.size());
+                return locked;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement ps, List<Long> ids) throws SQLException {
+        for (int i = 0; i < ids.size(); i++) {
+            ps.setLong(i + 1, ids.get(i));
+        }
+    }
+
+    public static String statsJson() {
+        return "{ \"enabled\": " + (INTERVAL_SEC > 0)
+                + ", \"intervalSec\": " + INTERVAL_SEC
+                + ", \"delaySec\": " + DELAY_SEC
+                + ", \"archived\": " + archived.get()
+                + ", \"batches\": " + batches.get()
+                + ", \"failures\": " + failures.get()
+                + ", \"lastRunAt\": " + lastRunAt
+                + ", \"lastRunMillis\": " + lastRunMillis
+                + " }";
+    }
+}
@@ -0,0 +1,947 @@
+package com.orangeserver;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 资产表的内存列式快照，用来直接回答 GET /api/assets 的筛选分页，不走四表 JOIN 和 COUNT。
+ * 每列一个基本类型数组，按 id 升序排列；资产名称字典编码，status 用 BitSet。已报废（status = 2）的资产不进快照。
+ * 位置空间、部门、领用人只保存 id 到名称的小字典，查询时再拼出 JOIN 字段。
+ * 另外对 status、location_id、assignee_id 和由位置空间推出的 dept_id 按取值各建一张压缩位图（存资产 id），
+ * 等值筛选的组合和分组计数直接用位图求交和基数，不必逐行扫描。
+ * 通过 InvalidationBus 按行同步：事件只入队，由单个后台线程读库写回，不在发布方（请求线程）上再借连接；
+ * 未加载完成、还有未同步完的事件或关键字含 LIKE 通配符时返回 null，由调用方回退 SQL。
+ * 用 -Dorange.assetIndex=true 开启，在启动预热时加载。
+ */
+public final class AssetIndex {
+    private static final Logger logger = LoggerFactory.getLogger(AssetIndex.class);
+
+    public static final boolean ENABLED = Boolean.getBoolean("orange.assetIndex");
+
+    private static final String ROW_SQL = "SELECT id, asset_no, asset_name, value, location_id, assignee_id,"
+            + " status, remark, version FROM asset";
+    private static final String LOCATION_SQL = "SELECT id, dept_id, room_no FROM location_space";
+    private static final String DEPT_SQL = "SELECT id, dept_name FROM department";
+    private static final String ASSIGNEE_SQL = "SELECT id, name FROM assignee";
+
+    private static final long RELOAD_RETRY_MS = 5000;
+
+    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** 单行刷新串行执行：读库和写回之间不会被另一次刷新插队，删除后不会被旧的更新读数复活 */
+    private static final Object refreshMonitor = new Object();
+    private static final AtomicBoolean reloadScheduled = new AtomicBoolean();
+    /** 失效事件按到达顺序在这一个线程上同步到快照 */
+    private static final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "asset-index-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    /** 已入队、还没同步完的事件数；大于 0 时查询回退 SQL，写完立刻读也不会读到旧快照 */
+    private static final AtomicInteger pendingRefreshes = new AtomicInteger();
+
+    private static volatile boolean loaded;
+    private static volatile long loadMillis = -1;
+    private static boolean loading;
+    private static final Set<Long> changedWhileLoading = new HashSet<>();
+
+    private static Columns columns = new Columns(0);
+    private static Bitmaps bitmaps = new Bitmaps();
+    private static Map<Long, Location> locations = new HashMap<>();
+    private static Map<Long, String> deptNames = new HashMap<>();
+    private static Map<Long, String> assigneeNames = new HashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong fallbacks = new AtomicLong();
+    private static final AtomicLong rowRefreshes = new AtomicLong();
+    private static final AtomicLong bitmapQueries = new AtomicLong();
+    private static final AtomicLong countQueries = new AtomicLong();
+
+    private AssetIndex() {
+    }
+
+    private static final class Location {
+        final long deptId;
+        final String roomNo;
+
+        Location(long deptId, String roomNo) {
+            this.deptId = deptId;
+            this.roomNo = roomNo;
+        }
+    }
+
+    /** 从数据库读出的一行 */
+    private static final class Row {
+        long id;
+        String assetNo;
+        String assetName;
+        long valueCents;
+        long locationId;
+        long assigneeId;
+        int status;
+        String remark;
+        int version;
+    }
+
+    /**
+     * 列存储本体。第 i 行的各字段分别在各数组的第 i 位，行按 id 升序
+     */
+    private static final class Columns {
+        int size;
+        long[] ids;
+        String[] assetNos;
+        int[] nameCodes;
+        long[] valueCents;
+        long[] locationIds;
+        /** 0 表示未领用 */
+        long[] assigneeIds;
+        String[] remarks;
+        int[] versions;
+        final BitSet assigned = new BitSet();
+
+        final List<String> names = new ArrayList<>();
+        final Map<String, Integer> nameCodeOf = new HashMap<>();
+
+        Columns(int capacity) {
+            int cap = Math.max(16, capacity);
+            ids = new long[cap];
+            assetNos = new String[cap];
+            nameCodes = new int[cap];
+            valueCents = new long[cap];
+            locationIds = new long[cap];
+            assigneeIds = new long[cap];
+            remarks = new String[cap];
+            versions = new int[cap];
+        }
+
+        int find(long id) {
+            return Arrays.binarySearch(ids, 0, size, id);
+        }
+
+        int nameCode(String name) {
+            Integer code = nameCodeOf.get(name);
+            if (code == null) {
+                code = names.size();
+                names.add(name);
+                nameCodeOf.put(name, code);
+            }
+            return code;
+        }
+
+        void set(int i, Row row) {
+            ids[i] = row.id;
+            assetNos[i] = row.assetNo;
+            nameCodes[i] = nameCode(row.assetName);
+            valueCents[i] = row.valueCents;
+            locationIds[i] = row.locationId;
+            assigneeIds[i] = row.assigneeId;
+            remarks[i] = row.remark;
+            versions[i] = row.version;
+            assigned.set(i, row.status == 1);
+        }
+
+        /** 按 id 有序插入；新 id 通常最大，直接追加 */
+        void insert(int at, Row row) {
+            if (size == ids.length) {
+                grow();
+            }
+            int tail = size - at;
+            if (tail > 0) {
+                System.arraycopy(ids, at, ids, at + 1, tail);
+                System.arraycopy(assetNos, at, assetNos, at + 1, tail);
+                System.arraycopy(nameCodes, at, nameCodes, at + 1, tail);
+                System.arraycopy(valueCents, at, valueCents, at + 1, tail);
+                System.arraycopy(locationIds, at, locationIds, at + 1, tail);
+                System.arraycopy(assigneeIds, at, assigneeIds, at + 1, tail);
+                System.arraycopy(remarks, at, remarks, at + 1, tail);
+                System.arraycopy(versions, at, versions, at + 1, tail);
+                for (int i = size; i > at; i--) {
+                    assigned.set(i, assigned.get(i - 1));
+                }
+            }
+            size++;
+            set(at, row);
+        }
+
+        void remove(int at) {
+            int tail = size - at - 1;
+            if (tail > 0) {
+                System.arraycopy(ids, at + 1, ids, at, tail);
+                System.arraycopy(assetNos, at + 1, assetNos, at, tail);
+                System.arraycopy(nameCodes, at + 1, nameCodes, at, tail);
+                System.arraycopy(valueCents, at + 1, valueCents, at, tail);
+                System.arraycopy(locationIds, at + 1, locationIds, at, tail);
+                System.arraycopy(assigneeIds, at + 1, assigneeIds, at, tail);
+                System.arraycopy(remarks, at + 1, remarks, at, tail);
+                System.arraycopy(versions, at + 1, versions, at, tail);
+                for (int i = at; i < size - 1; i++) {
+                    assigned.set(i, assigned.get(i + 1));
+                }
+            }
+            size--;
+            assetNos[size] = null;
+            remarks[size] = null;
+            assigned.clear(size);
+        }
+
+        private void grow() {
+            int cap = ids.length + (ids.length >> 1);
+            ids = Arrays.copyOf(ids, cap);
+            assetNos = Arrays.copyOf(assetNos, cap);
+            nameCodes = Arrays.copyOf(nameCodes, cap);
+            valueCents = Arrays.copyOf(valueCents, cap);
+            locationIds = Arrays.copyOf(locationIds, cap);
+            assigneeIds = Arrays.copyOf(assigneeIds, cap);
+            remarks = Arrays.copyOf(remarks, cap);
+            versions = Arrays.copyOf(versions, cap);
+        }
+
+        long approxBytes() {
+            long bytes = (long) ids.length * (8 + 4 + 8 + 8 + 8 + 4 + 8 + 8) + assigned.size() / 8;
+            for (int i = 0; i < size; i++) {
+                bytes += 40 + 2L * assetNos[i].length() + (remarks[i] == null ? 0 : 40 + 2L * remarks[i].length());
+            }
+            for (String name : names) {
+                bytes += 80 + 2L * name.length();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * 一列的位图索引：每个取值一张位图，位图里是该取值的资产 id
+     */
+    private static final class ValueBitmaps {
+        final Map<Long, RoaringBitmap> byValue = new HashMap<>();
+
+        void add(long value, int id) {
+            byValue.computeIfAbsent(value, k -> new RoaringBitmap()).add(id);
+        }
+
+        void remove(long value, int id) {
+            RoaringBitmap bitmap = byValue.get(value);
+            if (bitmap != null) {
+                bitmap.remove(id);
+                if (bitmap.isEmpty()) {
+                    byValue.remove(value);
+                }
+            }
+        }
+
+        RoaringBitmap get(long value) {
+            RoaringBitmap bitmap = byValue.get(value);
+            return bitmap == null ? new RoaringBitmap() : bitmap;
+        }
+
+        void put(long value, RoaringBitmap bitmap) {
+            if (bitmap.isEmpty()) {
+                byValue.remove(value);
+            } else {
+                byValue.put(value, bitmap);
+            }
+        }
+
+        long sizeInBytes() {
+            long bytes = 0;
+            for (RoaringBitmap bitmap : byValue.values()) {
+                bytes += 48 + bitmap.sizeInBytes();
+            }
+            return bytes;
+        }
+
+        String statsJson() {
+            return "{ \"values\": " + byValue.size() + ", \"bytes\": " + sizeInBytes() + " }";
+        }
+    }
+
+    /**
+     * 四个位图索引。不变式：资产在 dept 位图里当且仅当其位置空间已知，否则在 orphans 里；
+     * 位置空间改部门时整张 location 位图在 dept 之间搬移。
+     * 位图只能存 int，出现超过 int 范围的 id 时 usable 置为 false，查询改走逐行扫描。
+     */
+    private static final class Bitmaps {
+        final ValueBitmaps status = new ValueBitmaps();
+        final ValueBitmaps location = new ValueBitmaps();
+        /** 0 表示未领用 */
+        final ValueBitmaps assignee = new ValueBitmaps();
+        final ValueBitmaps dept = new ValueBitmaps();
+        RoaringBitmap orphans = new RoaringBitmap();
+        boolean usable = true;
+
+        static Bitmaps build(Columns c, Map<Long, Location> locations) {
+            Bitmaps bitmaps = new Bitmaps();
+            for (int i = 0; i < c.size; i++) {
+                bitmaps.index(c, i, locations, true);
+            }
+            return bitmaps;
+        }
+
+        /** 把第 i 行加入或移出各位图 */
+        void index(Columns c, int i, Map<Long, Location> locations, boolean add) {
+            long id = c.ids[i];
+            if (id > Integer.MAX_VALUE) {
+                usable = false;
+                return;
+            }
+            int key = (int) id;
+            Location loc = locations.get(c.locationIds[i]);
+            if (add) {
+                status.add(c.assigned.get(i) ? 1 : 0, key);
+                location.add(c.locationIds[i], key);
+                assignee.add(c.assigneeIds[i], key);
+                if (loc != null) {
+                    dept.add(loc.deptId, key);
+                } else {
+                    orphans.add(key);
+                }
+            } else {
+                status.remove(c.assigned.get(i) ? 1 : 0, key);
+                location.remove(c.locationIds[i], key);
+                assignee.remove(c.assigneeIds[i], key);
+                if (loc != null) {
+                    dept.remove(loc.deptId, key);
+                } else {
+                    orphans.remove(key);
+                }
+            }
+        }
+
+        /** 位置空间新增、删除或换部门后，把它下面的资产整体搬到新部门 */
+        void relocate(long locationId, Location before, Location after) {
+            RoaringBitmap members = location.get(locationId);
+            if (members.isEmpty()) {
+                return;
+            }
+            if (before != null) {
+                dept.put(before.deptId, RoaringBitmap.andNot(dept.get(before.deptId), members));
+            } else {
+                orphans = RoaringBitmap.andNot(orphans, members);
+            }
+            if (after != null) {
+                dept.put(after.deptId, RoaringBitmap.or(dept.get(after.deptId), members));
+            } else {
+                orphans = RoaringBitmap.or(orphans, members);
+            }
+        }
+
+        /**
+         * 各等值条件对应位图的交集，已去掉位置空间未知的资产；没有任何条件时返回 null
+         */
+        RoaringBitmap filter(Long deptId, Long locationId, Long assigneeId, Integer statusValue) {
+            List<RoaringBitmap> parts = new ArrayList<>();
+            if (deptId != null) {
+                parts.add(dept.get(deptId));
+            }
+            if (locationId != null) {
+                parts.add(location.get(locationId));
+            }
+            if (assigneeId != null) {
+                // assignee_id = 0 在 SQL 里匹配不到任何行，而位图里 0 表示未领用
+                parts.add(assigneeId == 0 ? new RoaringBitmap() : assignee.get(assigneeId));
+            }
+            if (statusValue != null) {
+                parts.add(status.get(statusValue));
+            }
+            if (parts.isEmpty()) {
+                return null;
+            }
+            parts.sort(Comparator.comparingInt(RoaringBitmap::cardinality));
+            RoaringBitmap result = parts.get(0);
+            for (int i = 1; i < parts.size() && !result.isEmpty(); i++) {
+                result = RoaringBitmap.and(result, parts.get(i));
+            }
+            if (deptId == null && !orphans.isEmpty()) {
+                result = RoaringBitmap.andNot(result, orphans);
+            }
+            return result;
+        }
+
+        String statsJson() {
+            return "{ \"usable\": " + usable
+                    + ", \"status\": " + status.statsJson()
+                    + ", \"location\": " + location.statsJson()
+                    + ", \"assignee\": " + assignee.statsJson()
+                    + ", \"dept\": " + dept.statsJson()
+                    + ", \"orphans\": " + orphans.cardinality()
+                    + " }";
+        }
+    }
+
+    public static boolean isReady() {
+        return ENABLED && loaded && pendingRefreshes.get() == 0;
+    }
+
+    /**
+     * 订阅失效事件并全量加载，启动预热时调用；加载失败时后台重试，期间查询走 SQL
+     */
+    public static void start() {
+        if (!ENABLED) {
+            return;
+        }
+        InvalidationBus.subscribe(new InvalidationBus.Listener() {
+            @Override
+            public void onInvalidate(String table, long id) {
+                enqueue(() -> applyInvalidation(table, id));
+            }
+
+            @Override
+            public void onInvalidate(String table, Collection<Long> ids) {
+                // 一批只排一个任务，批量移动时不会把队列挤满
+                List<Long> copy = new ArrayList<>(ids);
+                enqueue(() -> {
+                    for (long id : copy) {
+                        applyInvalidation(table, id);
+                    }
+                });
+            }
+        });
+        try {
+            reload();
+        } catch (SQLException e) {
+            logger.error("资产内存索引加载失败，{} ms 后重试", RELOAD_RETRY_MS, e);
+            scheduleReload();
+        }
+    }
+
+    private static void scheduleReload() {
+        if (!reloadScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(RELOAD_RETRY_MS);
+                    try {
+                        reload();
+                        return;
+                    } catch (SQLException e) {
+                        logger.warn("资产内存索引重新加载失败: {}", e.getMessage());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                reloadScheduled.set(false);
+            }
+        }, "asset-index-reload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 全量重新加载。加载期间收到的资产变更记下来，换上新快照后逐行补刷
+     */
+    public static void reload() throws SQLException {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            loading = true;
+            changedWhileLoading.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Columns next;
+        Bitmaps nextBitmaps;
+        Map<Long, Location> nextLocations = new HashMap<>();
+        Map<Long, String> nextDepts = new HashMap<>();
+        Map<Long, String> nextAssignees = new HashMap<>();
+        try {
+            List<Row> rows = new ArrayList<>();
+            for (List<Row> part : ShardRouter.scatter(AssetIndex::loadRows)) {
+                rows.addAll(part);
+            }
+            rows.sort(Comparator.comparingLong(r -> r.id));
+            next = new Columns(rows.size() + rows.size() / 4);
+            for (Row row : rows) {
+                next.set(next.size++, row);
+            }
+            for (Map<Long, Location> part : ShardRouter.scatter(AssetIndex::loadLocations)) {
+                nextLocations.putAll(part);
+            }
+            nextBitmaps = Bitmaps.build(next, nextLocations);
+            try (Connection conn = MyDataBase.getDataSource().getConnection()) {
+                loadNames(conn, DEPT_SQL, nextDepts);
+                loadNames(conn, ASSIGNEE_SQL, nextAssignees);
+            }
+        } catch (SQLException | RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                loading = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        Set<Long> changed;
+        lock.writeLock().lock();
+        try {
+            columns = next;
+            bitmaps = nextBitmaps;
+            locations = nextLocations;
+            deptNames = nextDepts;
+            assigneeNames = nextAssignees;
+            loading = false;
+            changed = new HashSet<>(changedWhileLoading);
+            changedWhileLoading.clear();
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Long id : changed) {
+            refreshRow(id);
+        }
+        loadMillis = (System.nanoTime() - start) / 1_000_000;
+        logger.info("资产内存索引加载完成 rows={} 耗时 {} ms", next.size, loadMillis);
+    }
+
+    private static List<Row> loadRows(DataSource ds) throws SQLException {
+        List<Row> rows = new ArrayList<>();
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(ROW_SQL + " WHERE status < " + AssetServlet.STATUS_RETIRED
+                     + " ORDER BY id");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.add(readRow(rs));
+            }
+        }
+        return rows;
+    }
+
+    private static Row readRow(ResultSet rs) throws SQLException {
+        Row row = new Row();
+        row.id = rs.getLong("id");
+        row.assetNo = rs.getString("asset_no");
+        row.assetName = rs.getString("asset_name");
+        BigDecimal value = rs.getBigDecimal("value");
+        row.valueCents = value == null ? 0 : value.movePointRight(2).longValue();
+        row.locationId = rs.getLong("location_id");
+        row.assigneeId = rs.getLong("assignee_id");
+        row.status = rs.getInt("status");
+        row.remark = rs.getString("remark");
+        row.version = rs.getInt("version");
+        return row;
+    }
+
+    private static Map<Long, Location> loadLocations(DataSource ds) throws SQLException {
+        Map<Long, Location> map = new HashMap<>();
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(LOCATION_SQL);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                map.put(rs.getLong("id"), new Location(rs.getLong("dept_id"), rs.getString("room_no")));
+            }
+        }
+        return map;
+    }
+
+    private static void loadNames(Connection conn, String sql, Map<Long, String> into) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                into.put(rs.getLong(1), rs.getString(2));
+            }
+        }
+    }
+
+    private static void enqueue(Runnable task) {
+        pendingRefreshes.incrementAndGet();
+        refresher.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                pendingRefreshes.decrementAndGet();
+            }
+        });
+    }
+
+    private static void applyInvalidation(String table, long id) {
+        try {
+            switch (table) {
+                case "asset":
+                    refreshRow(id);
+                    break;
+                case "location_space":
+                    refreshLocation(id);
+                    break;
+                case "department":
+                    refreshName(DEPT_SQL, id, true);
+                    break;
+                case "assignee":
+                    refreshName(ASSIGNEE_SQL, id, false);
+                    break;
+                case InvalidationBus.ALL:
+                    reload();
+                    break;
+                default:
+                    break;
+            }
+        } catch (SQLException e) {
+            // 同步失败时索引可能已过期，先下线，后台全量重新加载
+            loaded = false;
+            logger.error("资产内存索引同步失败，暂时回退 SQL table={} id={}", table, id, e);
+            scheduleReload();
+        }
+    }
+
+    /**
+     * 从数据库重读一行资产并写回快照；行已删除则移出。
+     * 按 version 判断新旧，避免并发刷新时旧数据覆盖新数据。
+     */
+    static void refreshRow(long id) throws SQLException {
+        synchronized (refreshMonitor) {
+            doRefreshRow(id);
+        }
+    }
+
+    private static void doRefreshRow(long id) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (loading) {
+                changedWhileLoading.add(id);
+                return;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        rowRefreshes.incrementAndGet();
+
+        Row row = null;
+        int shard = ShardRouter.locate("asset", id);
+        if (shard >= 0) {
+            try (Connection conn = ShardRouter.shard(shard).getConnection();
+                 PreparedStatement ps = conn.prepareStatement(ROW_SQL + " WHERE id = ?")) {
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    // 已报废的资产和已删除一样移出快照
+                    if (rs.next() && rs.getInt("status") != AssetServlet.STATUS_RETIRED) {
+                        row = readRow(rs);
+                    }
+                }
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            Columns c = columns;
+            int at = c.find(id);
+            if (row == null) {
+                if (at >= 0) {
+                    bitmaps.index(c, at, locations, false);
+                    c.remove(at);
+                }
+            } else if (at >= 0) {
+                if (row.version >= c.versions[at]) {
+                    bitmaps.index(c, at, locations, false);
+                    c.set(at, row);
+                    bitmaps.index(c, at, locations, true);
+                }
+            } else {
+                at = -at - 1;
+                c.insert(at, row);
+                bitmaps.index(c, at, locations, true);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void refreshLocation(long id) throws SQLException {
+        Location location = null;
+        int shard = ShardRouter.locate("location_space", id);
+        if (shard >= 0) {
+            try (Connection conn = ShardRouter.shard(shard).getConnection();
+                 PreparedStatement ps = conn.prepareStatement(LOCATION_SQL + " WHERE id = ?")) {
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        location = new Location(rs.getLong("dept_id"), rs.getString("room_no"));
+                    }
+                }
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            Location before = location == null ? locations.remove(id) : locations.put(id, location);
+            if ((before == null) != (location == null)
+                    || (before != null && before.deptId != location.deptId)) {
+                bitmaps.relocate(id, before, location);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void refreshName(String sql, long id, boolean dept) throws SQLException {
+        String name = null;
+        try (Connection conn = MyDataBase.getDataSource().getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql + " WHERE id = ?")) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    name = rs.getString(2);
+                }
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            Map<Long, String> map = dept ? deptNames : assigneeNames;
+            if (name == null) {
+                map.remove(id);
+            } else {
+                map.put(id, name);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按与 SQL 相同的语义筛选、按 id 倒序分页，返回 data 部分的 JSON；
+     * 索引不可用或条件无法等价处理时返回 null。
+     */
+    public static String query(Long deptId, Long locationId, Long assigneeId, Integer status, String keyword,
+                               int page, int size) {
+        if (!isReady() || (keyword != null && (keyword.indexOf('%') >= 0 || keyword.indexOf('_') >= 0
+                || keyword.indexOf('\\') >= 0))) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        boolean hasKeyword = !ApiUtils.isBlank(keyword);
+        long offset = (long) (page - 1) * size;
+
+        lock.readLock().lock();
+        try {
+            Columns c = columns;
+            BitSet nameMatches = null;
+            if (hasKeyword) {
+                nameMatches = new BitSet(c.names.size());
+                for (int code = 0; code < c.names.size(); code++) {
+                    if (containsIgnoreCase(c.names.get(code), keyword)) {
+                        nameMatches.set(code);
+                    }
+                }
+            }
+
+            RoaringBitmap candidates = bitmaps.usable
+                    ? bitmaps.filter(deptId, locationId, assigneeId, status) : null;
+            int total = 0;
+            List<String> items = new ArrayList<>();
+            if (candidates != null) {
+                // 位图已完成全部等值筛选；没有关键字时总数就是基数，只需取出本页
+                bitmapQueries.incrementAndGet();
+                if (!hasKeyword) {
+                    total = candidates.cardinality();
+                }
+                long skipped = 0;
+                PrimitiveIterator.OfInt it = candidates.descendingIterator();
+                while (it.hasNext()) {
+                    if (!hasKeyword && items.size() >= size) {
+                        break;
+                    }
+                    int i = c.find(it.nextInt());
+                    if (hasKeyword && !nameMatches.get(c.nameCodes[i])
+                            && !containsIgnoreCase(c.assetNos[i], keyword)) {
+                        continue;
+                    }
+                    if (skipped < offset) {
+                        skipped++;
+                    } else if (items.size() < size) {
+                        items.add(itemJson(c, i, locations.get(c.locationIds[i])));
+                    }
+                    if (hasKeyword) {
+                        total++;
+                    }
+                }
+                hits.incrementAndGet();
+                return listJson(items, page, size, total);
+            }
+            for (int i = c.size - 1; i >= 0; i--) {
+                Location location = locations.get(c.locationIds[i]);
+                if (location == null) {
+                    // 与 SQL 的 JOIN 一致：位置空间不存在的资产不出现
+                    continue;
+                }
+                if ((deptId != null && location.deptId != deptId)
+                        || (locationId != null && c.locationIds[i] != locationId)
+                        || (assigneeId != null && c.assigneeIds[i] != assigneeId)
+                        || (status != null && c.assigned.get(i) != (status == 1))
+                        || (hasKeyword && !nameMatches.get(c.nameCodes[i])
+                        && !containsIgnoreCase(c.assetNos[i], keyword))) {
+                    continue;
+                }
+                if (total >= offset && items.size() < size) {
+                    items.add(itemJson(c, i, location));
+                }
+                total++;
+            }
+            hits.incrementAndGet();
+            return listJson(items, page, size, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String listJson(List<String> items, int page, int size, int total) {
+        return "{ \"list\": [" + String.join(", ", items) + "]"
+                + ", \"page\": " + page
+                + ", \"size\": " + size
+                + ", \"total\": " + total
+                + " }";
+    }
+
+    /**
+     * 按 groupBy（dept / location / assignee / status）分组计数，可叠加与列表相同的等值筛选，
+     * 结果按分组取值升序，计数为 0 的组不返回；索引不可用时返回 null。
+     */
+    public static String counts(String groupBy, Long deptId, Long locationId, Long assigneeId, Integer status) {
+        if (!isReady()) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Bitmaps b = bitmaps;
+            if (!b.usable) {
+                fallbacks.incrementAndGet();
+                return null;
+            }
+            ValueBitmaps groups;
+            switch (groupBy) {
+                case "dept":
+                    groups = b.dept;
+                    break;
+                case "location":
+                    groups = b.location;
+                    break;
+                case "assignee":
+                    groups = b.assignee;
+                    break;
+                default:
+                    groups = b.status;
+                    break;
+            }
+            RoaringBitmap base = b.filter(deptId, locationId, assigneeId, status);
+            List<String> items = new ArrayList<>();
+            long total = 0;
+            for (Map.Entry<Long, RoaringBitmap> entry : new TreeMap<>(groups.byValue).entrySet()) {
+                long value = entry.getKey();
+                RoaringBitmap group = entry.getValue();
+                if (groups == b.assignee && value == 0) {
+                    continue;
+                }
+                int count = base != null ? RoaringBitmap.andCardinality(group, base)
+                        : group.cardinality() - RoaringBitmap.andCardinality(group, b.orphans);
+                if (count == 0) {
+                    continue;
+                }
+                items.add(countItemJson(value, groupName(groupBy, value), count));
+                total += count;
+            }
+            countQueries.incrementAndGet();
+            return countsJson(groupBy, items, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String groupName(String groupBy, long value) {
+        switch (groupBy) {
+            case "dept":
+                return deptNames.get(value);
+            case "location":
+                Location location = locations.get(value);
+                return location == null ? null : location.roomNo;
+            case "assignee":
+                return assigneeNames.get(value);
+            default:
+                return null;
+        }
+    }
+
+    static String countItemJson(long value, String name, long count) {
+        return "{ \"value\": " + value
+                + ", \"name\": " + (name == null ? "null" : "\"" + ApiUtils.escapeJson(name) + "\"")
+                + ", \"count\": " + count
+                + " }";
+    }
+
+    static String countsJson(String groupBy, List<String> items, long total) {
+        return "{ \"groupBy\": \"" + groupBy + "\""
+                + ", \"list\": [" + String.join(", ", items) + "]"
+                + ", \"total\": " + total
+                + " }";
+    }
+
+    private static String itemJson(Columns c, int i, Location location) {
+        long assignee = c.assigneeIds[i];
+        return AssetServlet.itemJson(c.ids[i], c.assetNos[i], c.names.get(c.nameCodes[i]),
+                BigDecimal.valueOf(c.valueCents[i], 2).toPlainString(), c.locationIds[i], location.roomNo,
+                location.deptId, deptNames.get(location.deptId), assignee == 0 ? null : assignee,
+                assignee == 0 ? null : assigneeNames.get(assignee), c.assigned.get(i) ? 1 : 0,
+                c.remarks[i], c.versions[i]);
+    }
+
+    static boolean containsIgnoreCase(String text, String part) {
+        if (text == null) {
+            return false;
+        }
+        int max = text.length() - part.length();
+        for (int i = 0; i <= max; i++) {
+            if (text.regionMatches(true, i, part, 0, part.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static String statsJson() {
+        if (!ENABLED) {
+            return "{ \"enabled\": false }";
+        }
+        lock.readLock().lock();
+        try {
+            return "{ \"enabled\": true"
+                    + ", \"loaded\": " + loaded
+                    + ", \"rows\": " + columns.size
+                    + ", \"names\": " + columns.names.size()
+                    + ", \"locations\": " + locations.size()
+                    + ", \"approxBytes\": " + columns.approxBytes()
+                    + ", \"loadMillis\": " + loadMillis
+                    + ", \"hits\": " + hits.get()
+                    + ", \"fallbacks\": " + fallbacks.get()
+                    + ", \"rowRefreshes\": " + rowRefreshes.get()
+                    + ", \"pendingRefreshes\": " + pendingRefreshes.get()
+                    + ", \"bitmapQueries\": " + bitmapQueries.get()
+                    + ", \"countQueries\": " + countQueries.get()
+                    + ", \"bitmaps\": " + bitmaps.statsJson()
+                    + " }";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.orangeserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 多分片时 asset_no 的全局唯一检查：asset 表的唯一键只在单个分片内生效。
+ * 新增资产或修改编号前，先在分片 0 的 asset_no_claim 表插入一行占住这个编号（主键冲突说明有别的请求正在写同一编号），
+ * 再到所有分片查有没有其它资产用着它，写完后删掉占位行。占位行只在写入期间存在，
+ * 进程中途退出留下的占位超过 CLAIM_TTL_SECONDS 后由下一次占用清掉。只有一个分片时什么都不做，靠唯一键。
+ */
+final class AssetNoClaim {
+    private static final Logger logger = LoggerFactory.getLogger(AssetNoClaim.class);
+
+    private static final int CLAIM_TTL_SECONDS = 60;
+
+    private static final String EXPIRE_SQL = "DELETE FROM asset_no_claim WHERE asset_no = ?"
+            + " AND claimed_at < NOW(3) - INTERVAL " + CLAIM_TTL_SECONDS + " SECOND";
+    private static final String INSERT_SQL = "INSERT INTO asset_no_claim (asset_no, claimed_at) VALUES (?, NOW(3))";
+    private static final String DELETE_SQL = "DELETE FROM asset_no_claim WHERE asset_no = ?";
+    private static final String EXISTS_SQL = "SELECT 1 FROM asset WHERE asset_no = ? AND id <> ? LIMIT 1";
+
+    private AssetNoClaim() {
+    }
+
+    /**
+     * 占住 assetNo；已被其它资产使用或正被别的请求占用时返回 false。
+     * 返回 true 后不论写入成败都要调用 release
+     *
+     * @param selfId 修改时为资产自己的 id（编号没变不算冲突），新增时为 0
+     */
+    static boolean claim(String assetNo, long selfId) throws SQLException {
+        if (ShardRouter.count() == 1) {
+            return true;
+        }
+        try (Connection conn = ShardRouter.shard(0).getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(EXPIRE_SQL)) {
+                ps.setString(1, assetNo);
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+                ps.setString(1, assetNo);
+                ps.executeUpdate();
+            }
+        } catch (SQLException e) {
+            if (e.getErrorCode() == 1062) {
+                return false;
+            }
+            throw e;
+        }
+
+        boolean taken = false;
+        try {
+            for (Boolean exists : ShardRouter.scatter(ds -> {
+                try (Connection conn = ds.getConnection();
+                     PreparedStatement ps = conn.prepareStatement(EXISTS_SQL)) {
+                    ps.setString(1, assetNo);
+                    ps.setLong(2, selfId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        return rs.next();
+                    }
+                }
+            })) {
+                taken |= exists;
+            }
+        } catch (SQLException | RuntimeException e) {
+            release(assetNo);
+            throw e;
+        }
+        if (taken) {
+            release(assetNo);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 删除占位行；失败只记日志，占位过期后自然失效
+     */
+    static void release(String assetNo) {
+        if (ShardRouter.count() == 1) {
+            return;
+        }
+        try (Connection conn = ShardRouter.shard(0).getConnection();
+             PreparedStatement ps = conn.prepareStatement(DELETE_SQL)) {
+            ps.setString(1, assetNo);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("释放资产编号占位失败 assetNo={}", assetNo, e);
+        }
+    }
+}
@@ -8,11 +8,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,12 +24,34 @@ import org.slf4j.LoggerFactory;
 public class AssetServlet extends HttpServlet {
     private static final Logger logger = LoggerFactory.getLogger(AssetServlet.class);
 
+    private static final String FROM_SQL = " FROM asset ast"
+            + " JOIN location_space ls ON ast.location_id = ls.id"
+            + " JOIN department d ON ls.dept_id = d.id"
+            + " LEFT JOIN assignee ag ON ast.assignee_id = ag.id";
+    private static final String COUNT_SQL = "SELECT COUNT(*)" + FROM_SQL;
+    private static final String SELECT_SQL = "SELECT ast.id, ast.asset_no, ast.asset_name, ast.value, ast.location_id,"
+            + " ast.assignee_id, ast.status, ast.remark, ast.version, ls.room_no, ls.dept_id, d.dept_name,"
+            + " ag.name AS assignee_name" + FROM_SQL;
+    private static final String PAGE_SQL = " ORDER BY ast.id DESC LIMIT ? OFFSET ?";
+    private static final String DETAIL_SQL = SELECT_SQL + " WHERE ast.id = ?";
+
+    /** 最常用的几条 SQL，启动预热时在每个连接上提前 prepare */
+    static final String[] HOT_SQL = {COUNT_SQL, SELECT_SQL + PAGE_SQL, DETAIL_SQL};
+    /** 0 闲置、1 已领用、2 已报废（等待 AssetArchiver 归档） */
+    static final int STATUS_RETIRED = 2;
+    /** 列表结果依赖的表，任一表变更即让列表缓存过期 */
+    private static final String[] LIST_TABLES = {"asset", "location_space", "department", "assignee"};
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         resp.setContentType("application/json; charset=UTF-8");
 
         String pathInfo = req.getPathInfo();
         if (pathInfo != null && !pathInfo.equals("/") && !pathInfo.isEmpty()) {
+            if (pathInfo.matches("/transfer/?")) {
+                handleTransfer(req, resp);
+                return;
+            }
             if (pathInfo.matches("/\\d+/assign/?")) {
                 Long id = ApiUtils.parseId(pathInfo.replaceAll("/assign/?", ""));
                 if (id == null) {
@@ -44,6 +70,15 @@ public class AssetServlet extends HttpServlet {
                 handleReturn(resp, id);
                 return;
             }
+            if (pathInfo.matches("/\\d+/retire/?")) {
+                Long id = ApiUtils.parseId(pathInfo.replaceAll("/retire/?", ""));
+                if (id == null) {
+                    ApiUtils.writeJson(resp, 4001, "id 格式不正确", "null");
+                    return;
+                }
+                handleRetire(resp, id);
+                return;
+            }
         }
 
         handleCreate(req, resp);
@@ -59,6 +94,21 @@ public class AssetServlet extends HttpServlet {
             return;
         }
 
+        if (pathInfo.matches("/counts/?")) {
+            handleCounts(req, resp);
+            return;
+        }
+
+        if (pathInfo.matches("/\\d+/history/?")) {
+            Long id = ApiUtils.parseId(pathInfo.replaceAll("/history/?", ""));
+            if (id == null) {
+                ApiUtils.writeJson(resp, 4001, "id 格式不正确", "null");
+                return;
+            }
+            handleHistory(req, resp, id);
+            return;
+        }
+
         Long id = ApiUtils.parseId(pathInfo);
         if (id == null) {
             ApiUtils.writeJson(resp, 4001, "id 格式不正确", "null");
@@ -91,10 +141,33 @@ public class AssetServlet extends HttpServlet {
         }
 
         int status = assigneeId == null ? 0 : 1;
+        Long expectedVersion = ApiUtils.expectedVersion(req, body);
+        if (expectedVersion != null && expectedVersion < 0) {
+            ApiUtils.writeJson(resp, 4001, "If-Match 格式不正确", "null");
+            return;
+        }
+
+        Integer shard = locateShard(resp, "asset", id, "资产不存在");
+        if (shard == null) {
+            return;
+        }
+
+        // 已报废的资产不能再修改，否则会被改回闲置/领用状态
         String sql = "UPDATE asset SET asset_no = ?, asset_name = ?, value = ?, location_id = ?,"
-                + " assignee_id = ?, status = ?, remark = ? WHERE id = ?";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+                + " assignee_id = ?, status = ?, remark = ?, version = version + 1 WHERE id = ? AND status < 2"
+                + (expectedVersion == null ? "" : " AND version = ?");
+        if (!claimAssetNo(resp, assetNo, id)) {
+            return;
+        }
+        Long version;
+        try (Connection conn = ShardRouter.shard(shard).getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
+            int locationShard = ShardRouter.locate("location_space", locationId);
+            if (locationShard >= 0 && locationShard != shard) {
+                ApiUtils.writeJson(resp, 4002, "目标位置空间在其他分片，不能直接移动资产", "null");
+                return;
+            }
+
             ps.setString(1, assetNo);
             ps.setString(2, assetName);
             ps.setBigDecimal(3, value);
@@ -112,24 +185,25 @@ public class AssetServlet extends HttpServlet {
                 ps.setString(7, remark);
             }
             ps.setLong(8, id);
+            if (expectedVersion != null) {
+                ps.setLong(9, expectedVersion);
+            }
 
             int updated = ps.executeUpdate();
             if (updated == 0) {
-                ApiUtils.writeJson(resp, 4004, "资产不存在", "null");
+                Long current = ApiUtils.selectVersion(conn, "asset", id);
+                if (current == null) {
+                    ApiUtils.writeJson(resp, 4004, "资产不存在", "null");
+                } else if (Integer.valueOf(STATUS_RETIRED).equals(selectStatus(conn, id))) {
+                    ApiUtils.writeJson(resp, 4002, "资产已报废，不能修改", "null");
+                } else {
+                    ApiUtils.writeJson(resp, 4091, "资产已被其他人修改，请刷新后重试",
+                            "{ \"id\": " + id + ", \"version\": " + current + " }");
+                }
                 return;
             }
-
-            String data = "{ \"id\": " + id
-                    + ", \"assetNo\": \"" + ApiUtils.escapeJson(assetNo) + "\""
-                    + ", \"assetName\": \"" + ApiUtils.escapeJson(assetName) + "\""
-                    + ", \"value\": " + value.toPlainString()
-                    + ", \"locationId\": " + locationId
-                    + ", \"assigneeId\": " + (assigneeId == null ? "null" : assigneeId)
-                    + ", \"status\": " + status
-                    + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
-                    + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
-            logger.info("修改资产成功 id={} assetNo={}", id, assetNo);
+            version = expectedVersion != null ? Long.valueOf(expectedVersion + 1)
+                    : ApiUtils.selectVersion(conn, "asset", id);
         } catch (SQLException e) {
             if (e.getErrorCode() == 1062) {
                 ApiUtils.writeJson(resp, 4090, "assetNo 已存在", "null");
@@ -139,7 +213,27 @@ public class AssetServlet extends HttpServlet {
                 ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             }
             logger.error("修改资产失败 id={}", id, e);
+            return;
+        } finally {
+            AssetNoClaim.release(assetNo);
         }
+        if (version != null) {
+            resp.setHeader("ETag", ApiUtils.etag(version));
+        }
+
+        String data = "{ \"id\": " + id
+                + ", \"assetNo\": \"" + ApiUtils.escapeJson(assetNo) + "\""
+                + ", \"assetName\": \"" + ApiUtils.escapeJson(assetName) + "\""
+                + ", \"value\": " + value.toPlainString()
+                + ", \"locationId\": " + locationId
+                + ", \"assigneeId\": " + (assigneeId == null ? "null" : assigneeId)
+                + ", \"status\": " + status
+                + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                + ", \"version\": " + version
+                + " }";
+        InvalidationBus.publish("asset", id);
+        ApiUtils.writeJson(resp, 0, "ok", data);
+        logger.info("修改资产成功 id={} assetNo={}", id, assetNo);
     }
 
     @Override
@@ -152,8 +246,13 @@ public class AssetServlet extends HttpServlet {
             return;
         }
 
+        Integer shard = locateShard(resp, "asset", id, "资产不存在");
+        if (shard == null) {
+            return;
+        }
+
         String deleteSql = "DELETE FROM asset WHERE id = ?";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        try (Connection conn = ShardRouter.shard(shard).getConnection();
              PreparedStatement del = conn.prepareStatement(deleteSql)) {
             del.setLong(1, id);
             int deleted = del.executeUpdate();
@@ -161,12 +260,14 @@ public class AssetServlet extends HttpServlet {
                 ApiUtils.writeJson(resp, 4004, "资产不存在", "null");
                 return;
             }
-            ApiUtils.writeJson(resp, 0, "ok", "null");
-            logger.info("删除资产成功 id={}", id);
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             logger.error("删除资产失败 id={}", id, e);
+            return;
         }
+        InvalidationBus.publish("asset", id);
+        ApiUtils.writeJson(resp, 0, "ok", "null");
+        logger.info("删除资产成功 id={}", id);
     }
 
     private void handleCreate(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -187,10 +288,20 @@ public class AssetServlet extends HttpServlet {
             return;
         }
 
+        // 资产跟随位置空间所在的分片
+        Integer shard = locateShard(resp, "location_space", locationId, "位置空间不存在");
+        if (shard == null) {
+            return;
+        }
+
         int status = assigneeId == null ? 0 : 1;
         String sql = "INSERT INTO asset (asset_no, asset_name, value, location_id, assignee_id, status, remark)"
                 + " VALUES (?, ?, ?, ?, ?, ?, ?)";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        if (!claimAssetNo(resp, assetNo, 0)) {
+            return;
+        }
+        long id = 0;
+        try (Connection conn = ShardRouter.shard(shard).getConnection();
              PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             ps.setString(1, assetNo);
             ps.setString(2, assetName);
@@ -210,24 +321,11 @@ public class AssetServlet extends HttpServlet {
             }
             ps.executeUpdate();
 
-            long id = 0;
             try (ResultSet keys = ps.getGeneratedKeys()) {
                 if (keys.next()) {
                     id = keys.getLong(1);
                 }
             }
-
-            String data = "{ \"id\": " + id
-                    + ", \"assetNo\": \"" + ApiUtils.escapeJson(assetNo) + "\""
-                    + ", \"assetName\": \"" + ApiUtils.escapeJson(assetName) + "\""
-                    + ", \"value\": " + value.toPlainString()
-                    + ", \"locationId\": " + locationId
-                    + ", \"assigneeId\": " + (assigneeId == null ? "null" : assigneeId)
-                    + ", \"status\": " + status
-                    + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
-                    + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
-            logger.info("新增资产成功 assetNo={} assetName={}", assetNo, assetName);
         } catch (SQLException e) {
             if (e.getErrorCode() == 1062) {
                 ApiUtils.writeJson(resp, 4090, "assetNo 已存在", "null");
@@ -237,7 +335,24 @@ public class AssetServlet extends HttpServlet {
                 ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             }
             logger.error("新增资产失败", e);
+            return;
+        } finally {
+            AssetNoClaim.release(assetNo);
         }
+
+        String data = "{ \"id\": " + id
+                + ", \"assetNo\": \"" + ApiUtils.escapeJson(assetNo) + "\""
+                + ", \"assetName\": \"" + ApiUtils.escapeJson(assetName) + "\""
+                + ", \"value\": " + value.toPlainString()
+                + ", \"locationId\": " + locationId
+                + ", \"assigneeId\": " + (assigneeId == null ? "null" : assigneeId)
+                + ", \"status\": " + status
+                + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                + ", \"version\": 0"
+                + " }";
+        InvalidationBus.publish("asset", id);
+        ApiUtils.writeJson(resp, 0, "ok", data);
+        logger.info("新增资产成功 assetNo={} assetName={}", assetNo, assetName);
     }
 
     private void handleAssign(HttpServletRequest req, HttpServletResponse resp, long id) throws IOException {
@@ -250,8 +365,14 @@ public class AssetServlet extends HttpServlet {
 
         String assetSql = "SELECT status FROM asset WHERE id = ?";
         String assigneeSql = "SELECT id FROM assignee WHERE id = ?";
-        String updateSql = "UPDATE asset SET assignee_id = ?, status = 1 WHERE id = ?";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        // 带上 status = 0 条件：并发领用同一资产时只有一个能更新成功
+        String updateSql = "UPDATE asset SET assignee_id = ?, status = 1, version = version + 1"
+                + " WHERE id = ? AND status = 0";
+        Integer shard = locateShard(resp, "asset", id, "资产不存在");
+        if (shard == null) {
+            return;
+        }
+        try (Connection conn = ShardRouter.shard(shard).getConnection();
              PreparedStatement assetPs = conn.prepareStatement(assetSql);
              PreparedStatement assigneePs = conn.prepareStatement(assigneeSql);
              PreparedStatement updatePs = conn.prepareStatement(updateSql)) {
@@ -265,6 +386,10 @@ public class AssetServlet extends HttpServlet {
                 status = rs.getInt("status");
             }
 
+            if (status == STATUS_RETIRED) {
+                ApiUtils.writeJson(resp, 4002, "资产已报废", "null");
+                return;
+            }
             if (status == 1) {
                 ApiUtils.writeJson(resp, 4002, "资产已被领用", "null");
                 return;
@@ -280,19 +405,33 @@ public class AssetServlet extends HttpServlet {
 
             updatePs.setLong(1, assigneeId);
             updatePs.setLong(2, id);
-            updatePs.executeUpdate();
-            ApiUtils.writeJson(resp, 0, "ok", "null");
-            logger.info("资产领用成功 id={} assigneeId={}", id, assigneeId);
+            if (updatePs.executeUpdate() == 0) {
+                // 查询之后被别的请求抢先领用或报废，与乐观锁冲突一样返回 4091
+                writeConflict(resp, conn, id, "资产已被其他请求修改，请刷新后重试");
+                return;
+            }
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             logger.error("资产领用失败 id={}", id, e);
+            return;
         }
+        AssignmentLog.record(shard, id, assigneeId, AssignmentLog.ACTION_ASSIGN);
+        InvalidationBus.publish("asset", id);
+        ApiUtils.writeJson(resp, 0, "ok", "null");
+        logger.info("资产领用成功 id={} assigneeId={}", id, assigneeId);
     }
 
     private void handleReturn(HttpServletResponse resp, long id) throws IOException {
-        String assetSql = "SELECT status FROM asset WHERE id = ?";
-        String updateSql = "UPDATE asset SET assignee_id = NULL, status = 0 WHERE id = ?";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        String assetSql = "SELECT status, assignee_id FROM asset WHERE id = ?";
+        // 只归还读到的那次领用：期间被归还或转给别人时不更新，历史里记录的领用人也就不会错
+        String updateSql = "UPDATE asset SET assignee_id = NULL, status = 0, version = version + 1"
+                + " WHERE id = ? AND status = 1 AND assignee_id <=> ?";
+        Integer shard = locateShard(resp, "asset", id, "资产不存在");
+        if (shard == null) {
+            return;
+        }
+        Long previousAssigneeId = null;
+        try (Connection conn = ShardRouter.shard(shard).getConnection();
              PreparedStatement assetPs = conn.prepareStatement(assetSql);
              PreparedStatement updatePs = conn.prepareStatement(updateSql)) {
             assetPs.setLong(1, id);
@@ -303,46 +442,241 @@ public class AssetServlet extends HttpServlet {
                     return;
                 }
                 status = rs.getInt("status");
+                Object assigneeObj = rs.getObject("assignee_id");
+                previousAssigneeId = assigneeObj == null ? null : ((Number) assigneeObj).longValue();
             }
 
+            if (status == STATUS_RETIRED) {
+                ApiUtils.writeJson(resp, 4002, "资产已报废", "null");
+                return;
+            }
             if (status == 0) {
                 ApiUtils.writeJson(resp, 4002, "资产已处于闲置", "null");
                 return;
             }
 
             updatePs.setLong(1, id);
-            updatePs.executeUpdate();
-            ApiUtils.writeJson(resp, 0, "ok", "null");
-            logger.info("资产归还成功 id={}", id);
+            updatePs.setObject(2, previousAssigneeId);
+            if (updatePs.executeUpdate() == 0) {
+                writeConflict(resp, conn, id, "资产已被其他请求修改，请刷新后重试");
+                return;
+            }
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             logger.error("资产归还失败 id={}", id, e);
+            return;
         }
+        AssignmentLog.record(shard, id, previousAssigneeId, AssignmentLog.ACTION_RETURN);
+        InvalidationBus.publish("asset", id);
+        ApiUtils.writeJson(resp, 0, "ok", "null");
+        logger.info("资产归还成功 id={}", id);
     }
 
-    private void handleList(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        String keyword = req.getParameter("keyword");
-        String deptIdValue = req.getParameter("deptId");
-        String locationIdValue = req.getParameter("locationId");
-        String assigneeIdValue = req.getParameter("assigneeId");
-        String statusValue = req.getParameter("status");
+    /**
+     * 领用/归还的条件更新没有命中：读取状态之后资产被其他请求改过，返回 4091 和当前版本
+     */
+    private static void writeConflict(HttpServletResponse resp, Connection conn, long id, String msg)
+            throws IOException, SQLException {
+        Long current = ApiUtils.selectVersion(conn, "asset", id);
+        ApiUtils.writeJson(resp, 4091, msg,
+                current == null ? "null" : "{ \"id\": " + id + ", \"version\": " + current + " }");
+    }
 
-        Long deptId = ApiUtils.parseLongParam(deptIdValue);
-        Long locationId = ApiUtils.parseLongParam(locationIdValue);
-        Long assigneeId = ApiUtils.parseLongParam(assigneeIdValue);
-        Integer status = ApiUtils.parseIntParam(statusValue);
-        if ((deptId == null && !ApiUtils.isBlank(deptIdValue))
-                || (locationId == null && !ApiUtils.isBlank(locationIdValue))
-                || (assigneeId == null && !ApiUtils.isBlank(assigneeIdValue))) {
-            ApiUtils.writeJson(resp, 4001, "筛选参数格式不正确", "null");
+    /**
+     * POST /api/assets/{id}/retire：只有闲置资产可以报废。报废后不再出现在列表和计数里，
+     * 由 AssetArchiver 分批移到 asset_archive，之后通过 /api/archive/assets 查询
+     */
+    private void handleRetire(HttpServletResponse resp, long id) throws IOException {
+        String updateSql = "UPDATE asset SET status = " + STATUS_RETIRED + ", retired_at = NOW(3),"
+                + " version = version + 1 WHERE id = ? AND status = 0";
+        Integer shard = locateShard(resp, "asset", id, "资产不存在");
+        if (shard == null) {
             return;
         }
-        if (statusValue != null && !statusValue.isEmpty() && status == null) {
-            ApiUtils.writeJson(resp, 4001, "status 格式不正确", "null");
+        try (Connection conn = ShardRouter.shard(shard).getConnection();
+             PreparedStatement updatePs = conn.prepareStatement(updateSql)) {
+            updatePs.setLong(1, id);
+            if (updatePs.executeUpdate() == 0) {
+                Integer status = selectStatus(conn, id);
+                if (status == null) {
+                    ApiUtils.writeJson(resp, 4004, "资产不存在", "null");
+                } else if (status == STATUS_RETIRED) {
+                    ApiUtils.writeJson(resp, 4002, "资产已报废", "null");
+                } else {
+                    ApiUtils.writeJson(resp, 4002, "资产已被领用，需先归还", "null");
+                }
+                return;
+            }
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("资产报废失败 id={}", id, e);
             return;
         }
-        if (status != null && status != 0 && status != 1) {
-            ApiUtils.writeJson(resp, 4001, "status 需为 0 或 1", "null");
+        InvalidationBus.publish("asset", id);
+        ApiUtils.writeJson(resp, 0, "ok", "null");
+        logger.info("资产报废成功 id={}", id);
+    }
+
+    /**
+     * POST /api/assets/transfer：{ "ids": [1, 2], "targetLocationId": 10 } 按 id 移动，
+     * 或 { "fromLocationId": 5, "status": 0, "targetLocationId": 10 } 移走某个位置空间的全部资产（status 可省略）。
+     * 目标位置只校验一次，之后由 AssetTransfer 分块批量更新
+     */
+    private void handleTransfer(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String body = ApiUtils.readBody(req);
+        Long targetId = ApiUtils.extractLong(body, "targetLocationId");
+        List<Long> ids = AssetTransfer.parseIds(body);
+        Long fromId = ApiUtils.extractLong(body, "fromLocationId");
+        Long statusValue = ApiUtils.extractLong(body, "status");
+        if (targetId == null) {
+            ApiUtils.writeJson(resp, 4001, "targetLocationId 为必填字段", "null");
+            return;
+        }
+        if ((ids == null) == (fromId == null)) {
+            ApiUtils.writeJson(resp, 4001, "需提供 ids（正整数数组）或 fromLocationId 之一", "null");
+            return;
+        }
+        if (ids != null && (ids.isEmpty() || ids.size() > AssetTransfer.MAX_IDS)) {
+            ApiUtils.writeJson(resp, 4001, "ids 需包含 1 到 " + AssetTransfer.MAX_IDS + " 个 id", "null");
+            return;
+        }
+        if (statusValue != null && statusValue != 0 && statusValue != 1) {
+            ApiUtils.writeJson(resp, 4001, "status 只能为 0 或 1", "null");
+            return;
+        }
+        if (targetId.equals(fromId)) {
+            ApiUtils.writeJson(resp, 4001, "源位置空间和目标位置空间相同", "null");
+            return;
+        }
+
+        // 资产跟随位置空间所在的分片，只能在同一分片内移动
+        Integer shard = locateShard(resp, "location_space", targetId, "目标位置空间不存在");
+        if (shard == null) {
+            return;
+        }
+        DataSource ds = ShardRouter.shard(shard);
+        AssetTransfer.Result result = new AssetTransfer.Result();
+        try {
+            if (ApiUtils.count(ds, "SELECT COUNT(*) FROM location_space WHERE id = ?", targetId) == 0) {
+                ApiUtils.writeJson(resp, 4004, "目标位置空间不存在", "null");
+                return;
+            }
+            if (ids != null) {
+                AssetTransfer.moveIds(ds, ids, targetId, result);
+            } else {
+                int fromShard = ShardRouter.locate("location_space", fromId);
+                if (fromShard < 0) {
+                    ApiUtils.writeJson(resp, 4004, "源位置空间不存在", "null");
+                    return;
+                }
+                if (fromShard != shard) {
+                    ApiUtils.writeJson(resp, 4002, "源位置空间和目标位置空间在不同分片，不能直接移动资产", "null");
+                    return;
+                }
+                Integer status = statusValue == null ? null : statusValue.intValue();
+                AssetTransfer.moveLocation(ds, fromId, status, targetId, result);
+            }
+            ApiUtils.writeJson(resp, 0, "ok", result.toJson(targetId));
+            logger.info("批量移动资产 {} 件到位置空间 {}，已在目标位置 {} 件，跳过 {} 件",
+                    result.moved.size(), targetId, result.unchanged, result.skipped.size());
+        } catch (SQLException e) {
+            // 已提交的块不会回滚，把已移动的数量告诉调用方
+            ApiUtils.writeJson(resp, 5000, "服务器异常，部分资产可能已移动", result.toJson(targetId));
+            logger.error("批量移动资产失败 targetLocationId={} 已移动 {} 件", targetId, result.moved.size(), e);
+        }
+    }
+
+    private static Integer selectStatus(Connection conn, long id) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT status FROM asset WHERE id = ?")) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? Integer.valueOf(rs.getInt(1)) : null;
+            }
+        }
+    }
+
+    /**
+     * 列表和分组计数共用的等值筛选条件
+     */
+    private static final class Filter {
+        Long deptId;
+        Long locationId;
+        Long assigneeId;
+        Integer status;
+
+        /** 解析失败时已写出 4001，返回 null */
+        static Filter parse(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            String deptIdValue = req.getParameter("deptId");
+            String locationIdValue = req.getParameter("locationId");
+            String assigneeIdValue = req.getParameter("assigneeId");
+            String statusValue = req.getParameter("status");
+
+            Filter filter = new Filter();
+            filter.deptId = ApiUtils.parseLongParam(deptIdValue);
+            filter.locationId = ApiUtils.parseLongParam(locationIdValue);
+            filter.assigneeId = ApiUtils.parseLongParam(assigneeIdValue);
+            filter.status = ApiUtils.parseIntParam(statusValue);
+            if ((filter.deptId == null && !ApiUtils.isBlank(deptIdValue))
+                    || (filter.locationId == null && !ApiUtils.isBlank(locationIdValue))
+                    || (filter.assigneeId == null && !ApiUtils.isBlank(assigneeIdValue))) {
+                ApiUtils.writeJson(resp, 4001, "筛选参数格式不正确", "null");
+                return null;
+            }
+            if (statusValue != null && !statusValue.isEmpty() && filter.status == null) {
+                ApiUtils.writeJson(resp, 4001, "status 格式不正确", "null");
+                return null;
+            }
+            if (filter.status != null && filter.status != 0 && filter.status != 1) {
+                ApiUtils.writeJson(resp, 4001, "status 需为 0 或 1", "null");
+                return null;
+            }
+            return filter;
+        }
+
+        /** 拼出 WHERE 子句（可能为空串），参数按顺序追加到 params */
+        String where(String keyword, List<Object> params) {
+            List<String> conditions = new ArrayList<>();
+            if (deptId != null) {
+                conditions.add("ls.dept_id = ?");
+                params.add(deptId);
+            }
+            if (locationId != null) {
+                conditions.add("ast.location_id = ?");
+                params.add(locationId);
+            }
+            if (assigneeId != null) {
+                conditions.add("ast.assignee_id = ?");
+                params.add(assigneeId);
+            }
+            if (status != null) {
+                conditions.add("ast.status = ?");
+                params.add(status);
+            } else {
+                // 已报废、等待归档的资产不算在工作集里
+                conditions.add("ast.status < " + STATUS_RETIRED);
+            }
+            if (!ApiUtils.isBlank(keyword)) {
+                String like = "%" + keyword + "%";
+                conditions.add("(ast.asset_no LIKE ? OR ast.asset_name LIKE ?)");
+                params.add(like);
+                params.add(like);
+            }
+            return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+        }
+
+        /** 能从部门（老数据已按部门搬到位时）或位置空间确定分片时返回分片号，否则 -1 */
+        int shard() throws SQLException {
+            if (locationId != null) {
+                return ShardRouter.locate("location_space", locationId);
+            }
+            return deptId != null ? ShardRouter.readShardOfDept(deptId) : -1;
+        }
+    }
+
+    private void handleList(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String keyword = req.getParameter("keyword");
+        Filter filter = Filter.parse(req, resp);
+        if (filter == null) {
             return;
         }
 
@@ -353,74 +687,170 @@ public class AssetServlet extends HttpServlet {
             return;
         }
 
-        boolean hasKeyword = !ApiUtils.isBlank(keyword);
-        List<String> conditions = new ArrayList<>();
-        if (deptId != null) {
-            conditions.add("ls.dept_id = ?");
+        ResultCache.Key cacheKey = ResultCache.key(LIST_TABLES, "assets", "deptId", filter.deptId,
+                "locationId", filter.locationId, "assigneeId", filter.assigneeId, "status", filter.status,
+                "page", page, "size", size, "keyword", ApiUtils.isBlank(keyword) ? null : keyword);
+        if (ResultCache.writeIfCached(cacheKey, resp)) {
+            return;
         }
-        if (locationId != null) {
-            conditions.add("ast.location_id = ?");
+
+        String indexed = AssetIndex.query(filter.deptId, filter.locationId, filter.assigneeId, filter.status,
+                keyword, page, size);
+        if (indexed != null) {
+            ResultCache.writeAndCache(cacheKey, resp, indexed);
+            return;
+        }
+
+        List<Object> params = new ArrayList<>();
+        String where = filter.where(keyword, params);
+
+        String countSql = COUNT_SQL + where;
+        String listSql = SELECT_SQL + where + PAGE_SQL;
+        int offset = (page - 1) * size;
+        ShardRouter.PageQuery query = (ds, limit, off) -> queryPage(ds, countSql, listSql, params, limit, off);
+
+        try {
+            // 能从部门或位置空间确定分片时只查一个分片，否则所有分片并行查询后合并
+            int shard = filter.shard();
+            ShardRouter.Page result = shard >= 0
+                    ? query.query(ShardRouter.shard(shard), size, offset)
+                    : ShardRouter.pageAll(offset, size, query);
+
+            String data = "{ \"list\": [" + String.join(", ", result.items) + "]"
+                    + ", \"page\": " + page
+                    + ", \"size\": " + size
+                    + ", \"total\": " + result.total
+                    + " }";
+            ResultCache.writeAndCache(cacheKey, resp, data);
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("查询资产列表失败", e);
         }
-        if (assigneeId != null) {
-            conditions.add("ast.assignee_id = ?");
+    }
+
+    /**
+     * GET /api/assets/counts?groupBy=dept|location|assignee|status，可带列表的等值筛选参数。
+     * 内存索引可用时由位图计算，否则各分片 GROUP BY 后合并。
+     */
+    private void handleCounts(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String groupBy = req.getParameter("groupBy");
+        String keyColumn;
+        String nameColumn;
+        switch (groupBy == null ? "" : groupBy) {
+            case "dept":
+                keyColumn = "ls.dept_id";
+                nameColumn = "d.dept_name";
+                break;
+            case "location":
+                keyColumn = "ast.location_id";
+                nameColumn = "ls.room_no";
+                break;
+            case "assignee":
+                keyColumn = "ast.assignee_id";
+                nameColumn = "ag.name";
+                break;
+            case "status":
+                keyColumn = "ast.status";
+                nameColumn = "NULL";
+                break;
+            default:
+                ApiUtils.writeJson(resp, 4001, "groupBy 需为 dept、location、assignee 或 status", "null");
+                return;
         }
-        if (status != null) {
-            conditions.add("ast.status = ?");
+        Filter filter = Filter.parse(req, resp);
+        if (filter == null) {
+            return;
         }
-        if (hasKeyword) {
-            conditions.add("(ast.asset_no LIKE ? OR ast.asset_name LIKE ?)");
+
+        ResultCache.Key cacheKey = ResultCache.key(LIST_TABLES, "assets/counts", "groupBy", groupBy,
+                "deptId", filter.deptId, "locationId", filter.locationId, "assigneeId", filter.assigneeId,
+                "status", filter.status);
+        if (ResultCache.writeIfCached(cacheKey, resp)) {
+            return;
         }
-        String where = conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
 
-        String countSql = "SELECT COUNT(*) FROM asset ast"
-                + " JOIN location_space ls ON ast.location_id = ls.id"
-                + " JOIN department d ON ls.dept_id = d.id"
-                + " LEFT JOIN assignee ag ON ast.assignee_id = ag.id"
-                + where;
-        String listSql = "SELECT ast.id, ast.asset_no, ast.asset_name, ast.value, ast.location_id,"
-                + " ast.assignee_id, ast.status, ast.remark, ls.room_no, ls.dept_id, d.dept_name,"
-                + " ag.name AS assignee_name"
-                + " FROM asset ast"
-                + " JOIN location_space ls ON ast.location_id = ls.id"
-                + " JOIN department d ON ls.dept_id = d.id"
-                + " LEFT JOIN assignee ag ON ast.assignee_id = ag.id"
-                + where
-                + " ORDER BY ast.id DESC LIMIT ? OFFSET ?";
+        String indexed = AssetIndex.counts(groupBy, filter.deptId, filter.locationId, filter.assigneeId,
+                filter.status);
+        if (indexed != null) {
+            ResultCache.writeAndCache(cacheKey, resp, indexed);
+            return;
+        }
 
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
-             PreparedStatement countPs = conn.prepareStatement(countSql);
-             PreparedStatement listPs = conn.prepareStatement(listSql)) {
-            String like = hasKeyword ? "%" + keyword + "%" : null;
-            int index = 1;
-            if (deptId != null) {
-                countPs.setLong(index, deptId);
-                listPs.setLong(index, deptId);
-                index++;
+        List<Object> params = new ArrayList<>();
+        String where = filter.where(null, params);
+        if ("assignee".equals(groupBy)) {
+            where += (where.isEmpty() ? " WHERE " : " AND ") + "ast.assignee_id IS NOT NULL";
+        }
+        String sql = "SELECT " + keyColumn + ", MAX(" + nameColumn + "), COUNT(*)"
+                + FROM_SQL + where + " GROUP BY " + keyColumn;
+        ShardRouter.ShardQuery<Map<Long, Object[]>> query = ds -> queryCounts(ds, sql, params);
+
+        try {
+            int shard = filter.shard();
+            List<Map<Long, Object[]>> parts = new ArrayList<>();
+            if (shard >= 0) {
+                parts.add(query.query(ShardRouter.shard(shard)));
+            } else {
+                parts = ShardRouter.scatter(query);
             }
-            if (locationId != null) {
-                countPs.setLong(index, locationId);
-                listPs.setLong(index, locationId);
-                index++;
+            // 部门跨分片时各分片都有它的位置空间，按取值把计数加起来
+            Map<Long, Object[]> merged = new TreeMap<>();
+            for (Map<Long, Object[]> part : parts) {
+                for (Map.Entry<Long, Object[]> entry : part.entrySet()) {
+                    Object[] row = merged.get(entry.getKey());
+                    if (row == null) {
+                        merged.put(entry.getKey(), entry.getValue());
+                    } else {
+                        row[1] = (Long) row[1] + (Long) entry.getValue()[1];
+                    }
+                }
             }
-            if (assigneeId != null) {
-                countPs.setLong(index, assigneeId);
-                listPs.setLong(index, assigneeId);
-                index++;
+            List<String> items = new ArrayList<>();
+            long total = 0;
+            for (Map.Entry<Long, Object[]> entry : merged.entrySet()) {
+                long count = (Long) entry.getValue()[1];
+                items.add(AssetIndex.countItemJson(entry.getKey(), (String) entry.getValue()[0], count));
+                total += count;
             }
-            if (status != null) {
-                countPs.setInt(index, status);
-                listPs.setInt(index, status);
-                index++;
+            ResultCache.writeAndCache(cacheKey, resp, AssetIndex.countsJson(groupBy, items, total));
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("资产分组计数失败 groupBy={}", groupBy, e);
+        }
+    }
+
+    /** 返回 取值 -> [名称, 计数] */
+    private static Map<Long, Object[]> queryCounts(DataSource ds, String sql, List<Object> params)
+            throws SQLException {
+        Map<Long, Object[]> counts = new HashMap<>();
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            int index = 1;
+            for (Object param : params) {
+                ps.setObject(index++, param);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    counts.put(rs.getLong(1), new Object[] {rs.getString(2), rs.getLong(3)});
+                }
             }
-            if (hasKeyword) {
-                countPs.setString(index, like);
-                countPs.setString(index + 1, like);
-                listPs.setString(index, like);
-                listPs.setString(index + 1, like);
-                index += 2;
+        }
+        return counts;
+    }
+
+    private static ShardRouter.Page queryPage(DataSource ds, String countSql, String listSql, List<Object> params,
+                                              int limit, int offset) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement countPs = conn.prepareStatement(countSql);
+             PreparedStatement listPs = conn.prepareStatement(listSql)) {
+            int index = 1;
+            for (Object param : params) {
+                countPs.setObject(index, param);
+                listPs.setObject(index, param);
+                index++;
             }
-            listPs.setInt(index, size);
-            listPs.setInt(index + 1, (page - 1) * size);
+            listPs.setInt(index, limit);
+            listPs.setInt(index + 1, offset);
 
             int total = 0;
             try (ResultSet rs = countPs.executeQuery()) {
@@ -429,7 +859,7 @@ public class AssetServlet extends HttpServlet {
                 }
             }
 
-            List<String> items = new ArrayList<>();
+            ShardRouter.Page page = new ShardRouter.Page(total);
             try (ResultSet rs = listPs.executeQuery()) {
                 while (rs.next()) {
                     long id = rs.getLong("id");
@@ -441,50 +871,34 @@ public class AssetServlet extends HttpServlet {
                     Long assigneeIdResult = assigneeObj == null ? null : ((Number) assigneeObj).longValue();
                     int statusResult = rs.getInt("status");
                     String remark = rs.getString("remark");
+                    long version = rs.getLong("version");
                     String roomNo = rs.getString("room_no");
                     long deptIdResult = rs.getLong("dept_id");
                     String deptName = rs.getString("dept_name");
                     String assigneeName = rs.getString("assignee_name");
-                    String item = "{ \"id\": " + id
-                            + ", \"assetNo\": \"" + ApiUtils.escapeJson(assetNo) + "\""
-                            + ", \"assetName\": \"" + ApiUtils.escapeJson(assetName) + "\""
-                            + ", \"value\": " + (value == null ? "0" : value.toPlainString())
-                            + ", \"locationId\": " + locationIdResult
-                            + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\""
-                            + ", \"deptId\": " + deptIdResult
-                            + ", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
-                            + ", \"assigneeId\": " + (assigneeIdResult == null ? "null" : assigneeIdResult)
-                            + ", \"assigneeName\": " + (assigneeName == null ? "null"
-                            : "\"" + ApiUtils.escapeJson(assigneeName) + "\"")
-                            + ", \"status\": " + statusResult
-                            + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
-                            + " }";
-                    items.add(item);
+                    page.add(id, itemJson(id, assetNo, assetName, value == null ? "0" : value.toPlainString(),
+                            locationIdResult, roomNo, deptIdResult, deptName, assigneeIdResult, assigneeName,
+                            statusResult, remark, version));
                 }
             }
-
-            String data = "{ \"list\": [" + String.join(", ", items) + "]"
-                    + ", \"page\": " + page
-                    + ", \"size\": " + size
-                    + ", \"total\": " + total
-                    + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
-        } catch (SQLException e) {
-            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
-            logger.error("查询资产列表失败", e);
+            return page;
         }
     }
 
     private void handleDetail(HttpServletResponse resp, long id) throws IOException {
-        String sql = "SELECT ast.id, ast.asset_no, ast.asset_name, ast.value, ast.location_id,"
-                + " ast.assignee_id, ast.status, ast.remark, ls.room_no, ls.dept_id, d.dept_name,"
-                + " ag.name AS assignee_name"
-                + " FROM asset ast"
-                + " JOIN location_space ls ON ast.location_id = ls.id"
-                + " JOIN department d ON ls.dept_id = d.id"
-                + " LEFT JOIN assignee ag ON ast.assignee_id = ag.id"
-                + " WHERE ast.id = ?";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        // 详情引用位置空间、部门、领用人的名称，这几行改了也要失效
+        DetailCache.Key cacheKey = DetailCache.key("asset", id, LIST_TABLES);
+        if (DetailCache.writeIfCached(cacheKey, resp)) {
+            return;
+        }
+
+        Integer shard = locateShard(resp, "asset", id, "资产不存在");
+        if (shard == null) {
+            return;
+        }
+
+        String sql = DETAIL_SQL;
+        try (Connection conn = ShardRouter.shard(shard).getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setLong(1, id);
             try (ResultSet rs = ps.executeQuery()) {
@@ -500,6 +914,7 @@ public class AssetServlet extends HttpServlet {
                 Long assigneeId = assigneeObj == null ? null : ((Number) assigneeObj).longValue();
                 int status = rs.getInt("status");
                 String remark = rs.getString("remark");
+                long version = rs.getLong("version");
                 String roomNo = rs.getString("room_no");
                 long deptId = rs.getLong("dept_id");
                 String deptName = rs.getString("dept_name");
@@ -517,8 +932,11 @@ public class AssetServlet extends HttpServlet {
                         : "\"" + ApiUtils.escapeJson(assigneeName) + "\"")
                         + ", \"status\": " + status
                         + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                        + ", \"version\": " + version
                         + " }";
-                ApiUtils.writeJson(resp, 0, "ok", data);
+                DetailCache.writeAndCache(cacheKey, resp, data, version,
+                        DetailCache.ref("location_space", locationId), DetailCache.ref("department", deptId),
+                        assigneeId == null ? null : DetailCache.ref("assignee", assigneeId));
             }
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
@@ -526,4 +944,139 @@ public class AssetServlet extends HttpServlet {
         }
     }
 
+    private void handleHistory(HttpServletRequest req, HttpServletResponse resp, long assetId) throws IOException {
+        int page = ApiUtils.parseInt(req.getParameter("page"), 1);
+        int size = ApiUtils.parseInt(req.getParameter("size"), 10);
+        if (page <= 0 || size <= 0) {
+            ApiUtils.writeJson(resp, 4001, "page 和 size 需为正整数", "null");
+            return;
+        }
+
+        String countSql = "SELECT COUNT(*) FROM asset_assignment_log WHERE asset_id = ?";
+        String listSql = "SELECT lg.id, lg.assignee_id, lg.action, lg.created_at, ag.emp_no, ag.name"
+                + " FROM asset_assignment_log lg"
+                + " LEFT JOIN assignee ag ON lg.assignee_id = ag.id"
+                + " WHERE lg.asset_id = ?"
+                + " ORDER BY lg.id DESC LIMIT ? OFFSET ?";
+        int offset = (page - 1) * size;
+        ShardRouter.PageQuery query = (ds, limit, off) -> queryHistory(ds, countSql, listSql, assetId, limit, off);
+
+        try {
+            // 资产已删除时找不到所在分片，历史仍留在原分片上，只能所有分片一起查
+            int shard = ShardRouter.locate("asset", assetId);
+            ShardRouter.Page result = shard >= 0
+                    ? query.query(ShardRouter.shard(shard), size, offset)
+                    : ShardRouter.pageAll(offset, size, query);
+
+            String data = "{ \"list\": [" + String.join(", ", result.items) + "]"
+                    + ", \"page\": " + page
+                    + ", \"size\": " + size
+                    + ", \"total\": " + result.total
+                    + " }";
+            ApiUtils.writeJson(resp, 0, "ok", data);
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("查询资产领用历史失败 assetId={}", assetId, e);
+        }
+    }
+
+    /**
+     * 列表中的一项；SQL 查询和内存索引（AssetIndex）共用，保证两条路径输出一致
+     */
+    static String itemJson(long id, String assetNo, String assetName, String value, long locationId, String roomNo,
+                           long deptId, String deptName, Long assigneeId, String assigneeName, int status,
+                           String remark, long version) {
+        return "{ \"id\": " + id
+                + ", \"assetNo\": \"" + ApiUtils.escapeJson(assetNo) + "\""
+                + ", \"assetName\": \"" + ApiUtils.escapeJson(assetName) + "\""
+                + ", \"value\": " + value
+                + ", \"locationId\": " + locationId
+                + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\""
+                + ", \"deptId\": " + deptId
+                + ", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
+                + ", \"assigneeId\": " + (assigneeId == null ? "null" : assigneeId)
+                + ", \"assigneeName\": " + (assigneeName == null ? "null"
+                : "\"" + ApiUtils.escapeJson(assigneeName) + "\"")
+                + ", \"status\": " + status
+                + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                + ", \"version\": " + version
+                + " }";
+    }
+
+    private static ShardRouter.Page queryHistory(DataSource ds, String countSql, String listSql, long assetId,
+                                                 int limit, int offset) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement countPs = conn.prepareStatement(countSql);
+             PreparedStatement listPs = conn.prepareStatement(listSql)) {
+            countPs.setLong(1, assetId);
+            listPs.setLong(1, assetId);
+            listPs.setInt(2, limit);
+            listPs.setInt(3, offset);
+
+            int total = 0;
+            try (ResultSet rs = countPs.executeQuery()) {
+                if (rs.next()) {
+                    total = rs.getInt(1);
+                }
+            }
+
+            ShardRouter.Page page = new ShardRouter.Page(total);
+            try (ResultSet rs = listPs.executeQuery()) {
+                while (rs.next()) {
+                    long id = rs.getLong("id");
+                    Object assigneeObj = rs.getObject("assignee_id");
+                    Long assigneeId = assigneeObj == null ? null : ((Number) assigneeObj).longValue();
+                    int action = rs.getInt("action");
+                    String createdAt = rs.getString("created_at");
+                    String empNo = rs.getString("emp_no");
+                    String name = rs.getString("name");
+                    String item = "{ \"id\": " + id
+                            + ", \"assigneeId\": " + (assigneeId == null ? "null" : assigneeId)
+                            + ", \"empNo\": " + (empNo == null ? "null" : "\"" + ApiUtils.escapeJson(empNo) + "\"")
+                            + ", \"assigneeName\": " + (name == null ? "null" : "\"" + ApiUtils.escapeJson(name) + "\"")
+                            + ", \"action\": " + action
+                            + ", \"createdAt\": \"" + ApiUtils.escapeJson(createdAt) + "\""
+                            + " }";
+                    page.add(id, item);
+                }
+            }
+            return page;
+        }
+    }
+
+    /**
+     * 查某行所在分片；不存在或查询失败时已写好响应并返回 null
+     */
+    private Integer locateShard(HttpServletResponse resp, String table, long id, String notFoundMsg)
+            throws IOException {
+        try {
+            int shard = ShardRouter.locate(table, id);
+            if (shard < 0) {
+                ApiUtils.writeJson(resp, 4004, notFoundMsg, "null");
+                return null;
+            }
+            return shard;
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("定位分片失败 table={} id={}", table, id, e);
+            return null;
+        }
+    }
+
+    /**
+     * 多分片时在写入前占住 assetNo，见 AssetNoClaim；已被占用或查询失败时已写好响应并返回 false
+     */
+    private boolean claimAssetNo(HttpServletResponse resp, String assetNo, long selfId) throws IOException {
+        try {
+            if (AssetNoClaim.claim(assetNo, selfId)) {
+                return true;
+            }
+            ApiUtils.writeJson(resp, 4090, "assetNo 已存在", "null");
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("检查资产编号失败 assetNo={}", assetNo, e);
+        }
+        return false;
+    }
+
 }
@@ -0,0 +1,174 @@
+package com.orangeserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+
+/**
+ * 批量移动资产到另一个位置空间。每块最多 CHUNK_SIZE 行、一个短事务：先锁住这一块的行，
+ * 再用一条 UPDATE ... WHERE id IN (...) 改 location_id 和 version，提交后逐个发失效事件。
+ * 领用状态不变，已报废的资产不移动。中途失败时已提交的块保持移动后的状态，结果里记着已移动的部分。
+ */
+final class AssetTransfer {
+    /** 每个事务移动的资产数 */
+    static final int CHUNK_SIZE = 500;
+    /** 按 ids 移动时一次最多的 id 个数，整间搬迁用 fromLocationId */
+    static final int MAX_IDS = 5000;
+
+    private static final Pattern IDS = Pattern.compile("\"ids\"\\s*:\\s*\\[([^\\]]*)]");
+
+    /** moved 为实际移动的 id，unchanged 为已在目标位置的个数，skipped 为按 ids 移动时没找到的 id */
+    static final class Result {
+        final List<Long> moved = new ArrayList<>();
+        final List<Long> skipped = new ArrayList<>();
+        int unchanged;
+        int chunks;
+
+        String toJson(long targetId) {
+            List<String> skippedIds = new ArrayList<>();
+            for (long id : skipped) {
+                skippedIds.add(String.valueOf(id));
+            }
+            return "{ \"targetLocationId\": " + targetId
+                    + ", \"moved\": " + moved.size()
+                    + ", \"unchanged\": " + unchanged
+                    + ", \"skipped\": [" + String.join(", ", skippedIds) + "]"
+                    + ", \"chunks\": " + chunks
+                    + " }";
+        }
+    }
+
+    private AssetTransfer() {
+    }
+
+    /**
+     * 解析请求体里的 "ids": [1, 2, 3]，去重并保持顺序；没有该字段或有非正整数时返回 null
+     */
+    static List<Long> parseIds(String body) {
+        Matcher m = IDS.matcher(body);
+        if (!m.find()) {
+            return null;
+        }
+        Set<Long> ids = new LinkedHashSet<>();
+        for (String item : m.group(1).split(",")) {
+            String value = item.trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            try {
+                long id = Long.parseLong(value);
+                if (id <= 0) {
+                    return null;
+                }
+                ids.add(id);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * 按 id 移动。只处理 ds 所在分片上的资产，其它分片、不存在或已报废的 id 记入 skipped
+     */
+    static void moveIds(DataSource ds, List<Long> ids, long targetId, Result result) throws SQLException {
+        for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + CHUNK_SIZE));
+            String sql = "SELECT id, location_id FROM asset WHERE id IN (" + placeholders(chunk.size()) + ")"
+                    + " AND status < " + AssetServlet.STATUS_RETIRED + " FOR UPDATE";
+            Set<Long> seen = new LinkedHashSet<>(moveChunk(ds, sql, new ArrayList<Object>(chunk), targetId, result));
+            for (long id : chunk) {
+                if (!seen.contains(id)) {
+                    result.skipped.add(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * 把源位置空间内的资产整体移走，status 为 null 时移动所有未报废的资产；按 id 顺序逐块推进
+     */
+    static void moveLocation(DataSource ds, long fromId, Integer status, long targetId, Result result)
+            throws SQLException {
+        String sql = "SELECT id, location_id FROM asset WHERE location_id = ? AND id > ?"
+                + (status == null ? " AND status < " + AssetServlet.STATUS_RETIRED : " AND status = ?")
+                + " ORDER BY id LIMIT " + CHUNK_SIZE + " FOR UPDATE";
+        long after = 0;
+        while (true) {
+            List<Object> params = new ArrayList<>();
+            params.add(fromId);
+            params.add(after);
+            if (status != null) {
+                params.add(status);
+            }
+            List<Long> seen = moveChunk(ds, sql, params, targetId, result);
+            if (seen.size() < CHUNK_SIZE) {
+                return;
+            }
+            after = seen.get(seen.size() - 1);
+        }
+    }
+
+    /**
+     * 一个事务内锁住 selectSql 选出的行并移动其中不在目标位置的；返回选出的全部 id
+     */
+    private static List<Long> moveChunk(DataSource ds, String selectSql, List<Object> params, long targetId,
+                                        Result result) throws SQLException {
+        List<Long> seen = new ArrayList<>();
+        List<Long> toMove = new ArrayList<>();
+        try (Connection conn = ds.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = conn.prepareStatement(selectSql)) {
+                    for (int i = 0; i < params.size(); i++) {
+                        ps.setObject(i + 1, params.get(i));
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            long id = rs.getLong(1);
+                            seen.add(id);
+                            if (rs.getLong(2) != targetId) {
+                                toMove.add(id);
+                            }
+                        }
+                    }
+                }
+                if (!toMove.isEmpty()) {
+                    String updateSql = "UPDATE asset SET location_id = ?, version = version + 1"
+                            + " WHERE id IN (" + placeholders(toMove.size()) + ")";
+                    try (PreparedStatement ps = conn.prepareStatement(updateSql)) {
+                        ps.setLong(1, targetId);
+                        for (int i = 0; i < toMove.size(); i++) {
+                            ps.setLong(i + 2, toMove.get(i));
+                        }
+                        ps.executeUpdate();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        result.chunks++;
+        result.unchanged += seen.size() - toMove.size();
+        result.moved.addAll(toMove);
+        InvalidationBus.publish("asset", toMove);
+        return seen;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+}
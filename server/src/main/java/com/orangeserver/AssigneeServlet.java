@@ -12,6 +12,7 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,6 +20,28 @@ import org.slf4j.LoggerFactory;
 public class AssigneeServlet extends HttpServlet {
     private static final Logger logger = LoggerFactory.getLogger(AssigneeServlet.class);
 
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM assignee";
+    private static final String SELECT_SQL = "SELECT id, emp_no, name, phone, remark, version FROM assignee";
+    private static final String KEYWORD_WHERE = " WHERE emp_no LIKE ? OR name LIKE ?";
+    private static final String PAGE_SQL = " ORDER BY id DESC LIMIT ? OFFSET ?";
+    private static final String DETAIL_SQL = SELECT_SQL + " WHERE id = ?";
+
+    /** 领用人表复制到每个分片，分片 0 写成功后用 upsert 同步其余分片，重复执行也无副作用 */
+    /** 副本只接受不旧于自己的版本，后台补齐时晚到的旧写不会覆盖新数据；version 必须最后赋值 */
+    private static final String REPLICA_UPSERT_SQL = "INSERT INTO assignee"
+            + " (id, emp_no, name, phone, remark, version) VALUES (?, ?, ?, ?, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE"
+            + " emp_no = IF(VALUES(version) >= version, VALUES(emp_no), emp_no),"
+            + " name = IF(VALUES(version) >= version, VALUES(name), name),"
+            + " phone = IF(VALUES(version) >= version, VALUES(phone), phone),"
+            + " remark = IF(VALUES(version) >= version, VALUES(remark), remark),"
+            + " version = GREATEST(version, VALUES(version))";
+
+    /** 最常用的几条 SQL，启动预热时在每个连接上提前 prepare */
+    static final String[] HOT_SQL = {COUNT_SQL, SELECT_SQL + PAGE_SQL, DETAIL_SQL};
+    /** 列表结果依赖的表，任一表变更即让列表缓存过期 */
+    private static final String[] LIST_TABLES = {"assignee"};
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         resp.setContentType("application/json; charset=UTF-8");
@@ -38,6 +61,7 @@ public class AssigneeServlet extends HttpServlet {
         }
 
         String sql = "INSERT INTO assignee (emp_no, name, phone, remark) VALUES (?, ?, ?, ?)";
+        long id = 0;
         try (Connection conn = MyDataBase.getDataSource().getConnection();
              PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             ps.setString(1, empNo);
@@ -56,21 +80,11 @@ public class AssigneeServlet extends HttpServlet {
             }
             ps.executeUpdate();
 
-            long id = 0;
             try (ResultSet keys = ps.getGeneratedKeys()) {
                 if (keys.next()) {
                     id = keys.getLong(1);
                 }
             }
-
-            String data = "{ \"id\": " + id
-                    + ", \"empNo\": \"" + ApiUtils.escapeJson(empNo) + "\""
-                    + ", \"name\": \"" + ApiUtils.escapeJson(name) + "\""
-                    + ", \"phone\": " + (phone == null ? "null" : "\"" + ApiUtils.escapeJson(phone) + "\"")
-                    + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
-                    + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
-            logger.info("新增领用人成功 empNo={} name={}", empNo, name);
         } catch (SQLException e) {
             if (e.getErrorCode() == 1062) {
                 ApiUtils.writeJson(resp, 4090, "empNo 已存在", "null");
@@ -78,7 +92,21 @@ public class AssigneeServlet extends HttpServlet {
                 ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             }
             logger.error("新增领用人失败", e);
+            return;
         }
+        // 连接已归还后再同步副本、发失效事件，不在持有连接时再借别的连接
+        replicate(id, empNo, name, phone, remark, 0);
+
+        String data = "{ \"id\": " + id
+                + ", \"empNo\": \"" + ApiUtils.escapeJson(empNo) + "\""
+                + ", \"name\": \"" + ApiUtils.escapeJson(name) + "\""
+                + ", \"phone\": " + (phone == null ? "null" : "\"" + ApiUtils.escapeJson(phone) + "\"")
+                + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                + ", \"version\": 0"
+                + " }";
+        InvalidationBus.publish("assignee", id);
+        ApiUtils.writeJson(resp, 0, "ok", data);
+        logger.info("新增领用人成功 empNo={} name={}", empNo, name);
     }
 
     @Override
@@ -101,6 +129,16 @@ public class AssigneeServlet extends HttpServlet {
             return;
         }
 
+        if (pathInfo.matches("/\\d+/history/?")) {
+            Long assigneeId = ApiUtils.parseId(pathInfo.replaceAll("/history/?", ""));
+            if (assigneeId == null) {
+                ApiUtils.writeJson(resp, 4001, "id 格式不正确", "null");
+                return;
+            }
+            handleHistory(req, resp, assigneeId);
+            return;
+        }
+
         Long id = ApiUtils.parseId(pathInfo);
         if (id == null) {
             ApiUtils.writeJson(resp, 4001, "id 格式不正确", "null");
@@ -130,7 +168,15 @@ public class AssigneeServlet extends HttpServlet {
             return;
         }
 
-        String sql = "UPDATE assignee SET emp_no = ?, name = ?, phone = ?, remark = ? WHERE id = ?";
+        Long expectedVersion = ApiUtils.expectedVersion(req, body);
+        if (expectedVersion != null && expectedVersion < 0) {
+            ApiUtils.writeJson(resp, 4001, "If-Match 格式不正确", "null");
+            return;
+        }
+
+        String sql = "UPDATE assignee SET emp_no = ?, name = ?, phone = ?, remark = ?, version = version + 1"
+                + " WHERE id = ?" + (expectedVersion == null ? "" : " AND version = ?");
+        Long version;
         try (Connection conn = MyDataBase.getDataSource().getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, empNo);
@@ -148,21 +194,23 @@ public class AssigneeServlet extends HttpServlet {
                 ps.setString(4, remark);
             }
             ps.setLong(5, id);
+            if (expectedVersion != null) {
+                ps.setLong(6, expectedVersion);
+            }
 
             int updated = ps.executeUpdate();
             if (updated == 0) {
-                ApiUtils.writeJson(resp, 4004, "领用人不存在", "null");
+                Long current = ApiUtils.selectVersion(conn, "assignee", id);
+                if (current == null) {
+                    ApiUtils.writeJson(resp, 4004, "领用人不存在", "null");
+                } else {
+                    ApiUtils.writeJson(resp, 4091, "领用人已被其他人修改，请刷新后重试",
+                            "{ \"id\": " + id + ", \"version\": " + current + " }");
+                }
                 return;
             }
-
-            String data = "{ \"id\": " + id
-                    + ", \"empNo\": \"" + ApiUtils.escapeJson(empNo) + "\""
-                    + ", \"name\": \"" + ApiUtils.escapeJson(name) + "\""
-                    + ", \"phone\": " + (phone == null ? "null" : "\"" + ApiUtils.escapeJson(phone) + "\"")
-                    + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
-                    + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
-            logger.info("修改领用人成功 id={} empNo={}", id, empNo);
+            version = expectedVersion != null ? Long.valueOf(expectedVersion + 1)
+                    : ApiUtils.selectVersion(conn, "assignee", id);
         } catch (SQLException e) {
             if (e.getErrorCode() == 1062) {
                 ApiUtils.writeJson(resp, 4090, "empNo 已存在", "null");
@@ -170,7 +218,23 @@ public class AssigneeServlet extends HttpServlet {
                 ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             }
             logger.error("修改领用人失败 id={}", id, e);
+            return;
+        }
+        if (version != null) {
+            resp.setHeader("ETag", ApiUtils.etag(version));
+            replicate(id, empNo, name, phone, remark, version);
         }
+
+        String data = "{ \"id\": " + id
+                + ", \"empNo\": \"" + ApiUtils.escapeJson(empNo) + "\""
+                + ", \"name\": \"" + ApiUtils.escapeJson(name) + "\""
+                + ", \"phone\": " + (phone == null ? "null" : "\"" + ApiUtils.escapeJson(phone) + "\"")
+                + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                + ", \"version\": " + version
+                + " }";
+        InvalidationBus.publish("assignee", id);
+        ApiUtils.writeJson(resp, 0, "ok", data);
+        logger.info("修改领用人成功 id={} empNo={}", id, empNo);
     }
 
     @Override
@@ -185,30 +249,39 @@ public class AssigneeServlet extends HttpServlet {
 
         String checkSql = "SELECT COUNT(*) FROM asset WHERE assignee_id = ?";
         String deleteSql = "DELETE FROM assignee WHERE id = ?";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
-             PreparedStatement check = conn.prepareStatement(checkSql);
-             PreparedStatement del = conn.prepareStatement(deleteSql)) {
-            check.setLong(1, id);
-            try (ResultSet rs = check.executeQuery()) {
-                if (rs.next() && rs.getInt(1) > 0) {
+        int deleted;
+        try {
+            // 资产分布在各分片上，要所有分片都没有才能删
+            for (Integer count : ShardRouter.scatter(ds -> ApiUtils.count(ds, checkSql, id))) {
+                if (count > 0) {
                     ApiUtils.writeJson(resp, 4002, "领用人名下存在资产，禁止删除", "null");
                     return;
                 }
             }
-
-            del.setLong(1, id);
-            int deleted = del.executeUpdate();
-            if (deleted == 0) {
-                ApiUtils.writeJson(resp, 4004, "领用人不存在", "null");
-                return;
+            try (Connection conn = MyDataBase.getDataSource().getConnection();
+                 PreparedStatement del = conn.prepareStatement(deleteSql)) {
+                del.setLong(1, id);
+                deleted = del.executeUpdate();
             }
-
-            ApiUtils.writeJson(resp, 0, "ok", "null");
-            logger.info("删除领用人成功 id={}", id);
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             logger.error("删除领用人失败 id={}", id, e);
+            return;
+        }
+        if (deleted == 0) {
+            ApiUtils.writeJson(resp, 4004, "领用人不存在", "null");
+            return;
         }
+        ShardRouter.replicate("assignee", id, c -> {
+            try (PreparedStatement ps = c.prepareStatement(deleteSql)) {
+                ps.setLong(1, id);
+                ps.executeUpdate();
+            }
+        });
+
+        InvalidationBus.publish("assignee", id);
+        ApiUtils.writeJson(resp, 0, "ok", "null");
+        logger.info("删除领用人成功 id={}", id);
     }
 
     private void handleList(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -221,11 +294,14 @@ public class AssigneeServlet extends HttpServlet {
         }
 
         boolean hasKeyword = !ApiUtils.isBlank(keyword);
-        String countSql = "SELECT COUNT(*) FROM assignee"
-                + (hasKeyword ? " WHERE emp_no LIKE ? OR name LIKE ?" : "");
-        String listSql = "SELECT id, emp_no, name, phone, remark FROM assignee"
-                + (hasKeyword ? " WHERE emp_no LIKE ? OR name LIKE ?" : "")
-                + " ORDER BY id DESC LIMIT ? OFFSET ?";
+        ResultCache.Key cacheKey = ResultCache.key(LIST_TABLES, "assignees", "page", page, "size", size,
+                "keyword", hasKeyword ? keyword : null);
+        if (ResultCache.writeIfCached(cacheKey, resp)) {
+            return;
+        }
+
+        String countSql = COUNT_SQL + (hasKeyword ? KEYWORD_WHERE : "");
+        String listSql = SELECT_SQL + (hasKeyword ? KEYWORD_WHERE : "") + PAGE_SQL;
 
         try (Connection conn = MyDataBase.getDataSource().getConnection();
              PreparedStatement countPs = conn.prepareStatement(countSql);
@@ -258,11 +334,13 @@ public class AssigneeServlet extends HttpServlet {
                     String name = rs.getString("name");
                     String phone = rs.getString("phone");
                     String remark = rs.getString("remark");
+                    long version = rs.getLong("version");
                     String item = "{ \"id\": " + id
                             + ", \"empNo\": \"" + ApiUtils.escapeJson(empNo) + "\""
                             + ", \"name\": \"" + ApiUtils.escapeJson(name) + "\""
                             + ", \"phone\": " + (phone == null ? "null" : "\"" + ApiUtils.escapeJson(phone) + "\"")
                             + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                            + ", \"version\": " + version
                             + " }";
                     items.add(item);
                 }
@@ -273,7 +351,7 @@ public class AssigneeServlet extends HttpServlet {
                     + ", \"size\": " + size
                     + ", \"total\": " + total
                     + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
+            ResultCache.writeAndCache(cacheKey, resp, data);
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             logger.error("查询领用人列表失败", e);
@@ -281,7 +359,12 @@ public class AssigneeServlet extends HttpServlet {
     }
 
     private void handleDetail(HttpServletResponse resp, long id) throws IOException {
-        String sql = "SELECT id, emp_no, name, phone, remark FROM assignee WHERE id = ?";
+        DetailCache.Key cacheKey = DetailCache.key("assignee", id, LIST_TABLES);
+        if (DetailCache.writeIfCached(cacheKey, resp)) {
+            return;
+        }
+
+        String sql = DETAIL_SQL;
         try (Connection conn = MyDataBase.getDataSource().getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setLong(1, id);
@@ -294,13 +377,15 @@ public class AssigneeServlet extends HttpServlet {
                 String name = rs.getString("name");
                 String phone = rs.getString("phone");
                 String remark = rs.getString("remark");
+                long version = rs.getLong("version");
                 String data = "{ \"id\": " + id
                         + ", \"empNo\": \"" + ApiUtils.escapeJson(empNo) + "\""
                         + ", \"name\": \"" + ApiUtils.escapeJson(name) + "\""
                         + ", \"phone\": " + (phone == null ? "null" : "\"" + ApiUtils.escapeJson(phone) + "\"")
                         + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                        + ", \"version\": " + version
                         + " }";
-                ApiUtils.writeJson(resp, 0, "ok", data);
+                DetailCache.writeAndCache(cacheKey, resp, data, version);
             }
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
@@ -324,13 +409,32 @@ public class AssigneeServlet extends HttpServlet {
                 + " WHERE ast.assignee_id = ?"
                 + " ORDER BY ast.id DESC LIMIT ? OFFSET ?";
 
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        try {
+            // 领用人的资产可能分布在任意分片
+            ShardRouter.Page result = ShardRouter.pageAll((page - 1) * size, size,
+                    (ds, limit, offset) -> queryAssets(ds, countSql, listSql, assigneeId, limit, offset));
+
+            String data = "{ \"list\": [" + String.join(", ", result.items) + "]"
+                    + ", \"page\": " + page
+                    + ", \"size\": " + size
+                    + ", \"total\": " + result.total
+                    + " }";
+            ApiUtils.writeJson(resp, 0, "ok", data);
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("查询领用人名下资产失败 assigneeId={}", assigneeId, e);
+        }
+    }
+
+    private static ShardRouter.Page queryAssets(DataSource ds, String countSql, String listSql, long assigneeId,
+                                                int limit, int offset) throws SQLException {
+        try (Connection conn = ds.getConnection();
              PreparedStatement countPs = conn.prepareStatement(countSql);
              PreparedStatement listPs = conn.prepareStatement(listSql)) {
             countPs.setLong(1, assigneeId);
             listPs.setLong(1, assigneeId);
-            listPs.setInt(2, size);
-            listPs.setInt(3, (page - 1) * size);
+            listPs.setInt(2, limit);
+            listPs.setInt(3, offset);
 
             int total = 0;
             try (ResultSet rs = countPs.executeQuery()) {
@@ -339,7 +443,7 @@ public class AssigneeServlet extends HttpServlet {
                 }
             }
 
-            List<String> items = new ArrayList<>();
+            ShardRouter.Page page = new ShardRouter.Page(total);
             try (ResultSet rs = listPs.executeQuery()) {
                 while (rs.next()) {
                     long id = rs.getLong("id");
@@ -353,20 +457,99 @@ public class AssigneeServlet extends HttpServlet {
                             + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\""
                             + ", \"status\": " + status
                             + " }";
-                    items.add(item);
+                    page.add(id, item);
                 }
             }
+            return page;
+        }
+    }
 
-            String data = "{ \"list\": [" + String.join(", ", items) + "]"
+    private void handleHistory(HttpServletRequest req, HttpServletResponse resp, long assigneeId)
+            throws IOException {
+        int page = ApiUtils.parseInt(req.getParameter("page"), 1);
+        int size = ApiUtils.parseInt(req.getParameter("size"), 10);
+        if (page <= 0 || size <= 0) {
+            ApiUtils.writeJson(resp, 4001, "page 和 size 需为正整数", "null");
+            return;
+        }
+
+        String countSql = "SELECT COUNT(*) FROM asset_assignment_log WHERE assignee_id = ?";
+        String listSql = "SELECT lg.id, lg.asset_id, lg.action, lg.created_at, ast.asset_no, ast.asset_name"
+                + " FROM asset_assignment_log lg"
+                + " LEFT JOIN asset ast ON lg.asset_id = ast.id"
+                + " WHERE lg.assignee_id = ?"
+                + " ORDER BY lg.id DESC LIMIT ? OFFSET ?";
+
+        try {
+            ShardRouter.Page result = ShardRouter.pageAll((page - 1) * size, size,
+                    (ds, limit, offset) -> queryHistory(ds, countSql, listSql, assigneeId, limit, offset));
+
+            String data = "{ \"list\": [" + String.join(", ", result.items) + "]"
                     + ", \"page\": " + page
                     + ", \"size\": " + size
-                    + ", \"total\": " + total
+                    + ", \"total\": " + result.total
                     + " }";
             ApiUtils.writeJson(resp, 0, "ok", data);
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
-            logger.error("查询领用人名下资产失败 assigneeId={}", assigneeId, e);
+            logger.error("查询领用人领用历史失败 assigneeId={}", assigneeId, e);
+        }
+    }
+
+    private static ShardRouter.Page queryHistory(DataSource ds, String countSql, String listSql, long assigneeId,
+                                                 int limit, int offset) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement countPs = conn.prepareStatement(countSql);
+             PreparedStatement listPs = conn.prepareStatement(listSql)) {
+            countPs.setLong(1, assigneeId);
+            listPs.setLong(1, assigneeId);
+            listPs.setInt(2, limit);
+            listPs.setInt(3, offset);
+
+            int total = 0;
+            try (ResultSet rs = countPs.executeQuery()) {
+                if (rs.next()) {
+                    total = rs.getInt(1);
+                }
+            }
+
+            ShardRouter.Page page = new ShardRouter.Page(total);
+            try (ResultSet rs = listPs.executeQuery()) {
+                while (rs.next()) {
+                    long id = rs.getLong("id");
+                    long assetId = rs.getLong("asset_id");
+                    int action = rs.getInt("action");
+                    String createdAt = rs.getString("created_at");
+                    String assetNo = rs.getString("asset_no");
+                    String assetName = rs.getString("asset_name");
+                    String item = "{ \"id\": " + id
+                            + ", \"assetId\": " + assetId
+                            + ", \"assetNo\": " + (assetNo == null ? "null"
+                            : "\"" + ApiUtils.escapeJson(assetNo) + "\"")
+                            + ", \"assetName\": " + (assetName == null ? "null"
+                            : "\"" + ApiUtils.escapeJson(assetName) + "\"")
+                            + ", \"action\": " + action
+                            + ", \"createdAt\": \"" + ApiUtils.escapeJson(createdAt) + "\""
+                            + " }";
+                    page.add(id, item);
+                }
+            }
+            return page;
         }
     }
 
+    private static void replicate(long id, String empNo, String name, String phone, String remark, long version) {
+        ShardRouter.replicate("assignee", id, conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(REPLICA_UPSERT_SQL)) {
+                ps.setLong(1, id);
+                ps.setString(2, empNo);
+                ps.setString(3, name);
+                ps.setString(4, phone);
+                ps.setString(5, remark);
+                ps.setLong(6, version);
+                ps.executeUpdate();
+            }
+        });
+    }
+
 }
@@ -0,0 +1,271 @@
+package com.orangeserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 资产领用/归还历史（asset_assignment_log，只追加）。
+ * 领用/归还只把事件放进有界内存队列，由后台线程按 JDBC batch 批量写库，
+ * 不在请求路径上多做一次同步 INSERT；队列满、后台线程未启动或已开始停止时退化为同步写入，保证不丢。
+ * 同步写入也失败的条数，以及停止时数据库仍不可用而放弃的条数，记在 dropped 里。
+ * 历史写在资产所在的分片上，一个批次按分片拆开分别提交。
+ */
+public final class AssignmentLog {
+    public static final int ACTION_RETURN = 0;
+    public static final int ACTION_ASSIGN = 1;
+
+    private static final Logger logger = LoggerFactory.getLogger(AssignmentLog.class);
+
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final int BATCH_SIZE = 200;
+    private static final long FLUSH_INTERVAL_MS = 200;
+    private static final long OFFER_TIMEOUT_MS = 50;
+    private static final long RETRY_BACKOFF_MS = 1000;
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000;
+    /** 开始停止后一批最多再重试的次数，数据库一直不可用时不能无限重试 */
+    private static final int SHUTDOWN_RETRIES = 3;
+
+    private static final String INSERT_SQL = "INSERT INTO asset_assignment_log"
+            + " (asset_id, assignee_id, action, created_at) VALUES (?, ?, ?, ?)";
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong syncWritten = new AtomicLong();
+    private static final AtomicLong failedFlushes = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    /** 入队时持读锁、停止时持写锁：shutdown 把 running 置为 false 之后不会再有事件进队列，不会漏在排空之后 */
+    private static final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+    private static volatile boolean running;
+    private static volatile Thread writer;
+    private static volatile long lastFlushAt;
+    /** 正在写库但尚未提交的批次中最早的事件时间，0 表示没有 */
+    private static volatile long inFlightOldest;
+
+    private AssignmentLog() {
+    }
+
+    private static final class Entry {
+        final int shard;
+        final long assetId;
+        final Long assigneeId;
+        final int action;
+        final long createdAt;
+
+        Entry(int shard, long assetId, Long assigneeId, int action, long createdAt) {
+            this.shard = shard;
+            this.assetId = assetId;
+            this.assigneeId = assigneeId;
+            this.action = action;
+            this.createdAt = createdAt;
+        }
+    }
+
+    public static synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(AssignmentLog::runWriter, "assignment-log-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+        logger.info("领用历史后台写入线程已启动");
+    }
+
+    /**
+     * 停止后台线程，并把队列里剩余的事件全部写入数据库后再返回
+     */
+    public static synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        stateLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        Thread thread = writer;
+        if (thread != null) {
+            try {
+                thread.join(SHUTDOWN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<Entry> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            int total = rest.size();
+            try {
+                writeByShard(rest);
+            } catch (SQLException e) {
+                dropped.addAndGet(rest.size());
+                logger.error("关闭时写入领用历史失败，丢失 {} 条", rest.size(), e);
+            }
+            syncWritten.addAndGet(total - rest.size());
+        }
+        logger.info("领用历史后台写入线程已停止 written={}", written.get() + syncWritten.get());
+    }
+
+    /**
+     * @param shard 资产所在分片，见 ShardRouter
+     */
+    public static void record(int shard, long assetId, Long assigneeId, int action) {
+        Entry entry = new Entry(shard, assetId, assigneeId, action, System.currentTimeMillis());
+        boolean queued = false;
+        stateLock.readLock().lock();
+        try {
+            if (running) {
+                queued = queue.offer(entry, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (queued) {
+            return;
+        }
+        try {
+            writeBatch(shard, Collections.singletonList(entry));
+            syncWritten.incrementAndGet();
+        } catch (SQLException e) {
+            dropped.incrementAndGet();
+            logger.error("同步写入领用历史失败，丢失 assetId={} action={}", assetId, action, e);
+        }
+    }
+
+    /**
+     * 最早一条尚未落库的事件距今的毫秒数，队列为空时为 0
+     */
+    public static long lagMillis() {
+        long oldest = inFlightOldest;
+        Entry head = queue.peek();
+        if (head != null && (oldest == 0 || head.createdAt < oldest)) {
+            oldest = head.createdAt;
+        }
+        return oldest == 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    public static String statsJson() {
+        return "{ \"running\": " + running
+                + ", \"pending\": " + queue.size()
+                + ", \"lagMs\": " + lagMillis()
+                + ", \"written\": " + written.get()
+                + ", \"syncWritten\": " + syncWritten.get()
+                + ", \"failedFlushes\": " + failedFlushes.get()
+                + ", \"dropped\": " + dropped.get()
+                + ", \"lastFlushAt\": " + lastFlushAt
+                + " }";
+    }
+
+    private static void runWriter() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                inFlightOldest = first.createdAt;
+                flushWithRetry(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (!batch.isEmpty()) {
+                    dropped.addAndGet(batch.size());
+                    logger.error("领用历史写入线程被中断，丢失 {} 条", batch.size());
+                }
+                break;
+            } finally {
+                batch.clear();
+                inFlightOldest = 0;
+            }
+        }
+    }
+
+    /**
+     * 失败后隔 RETRY_BACKOFF_MS 重试直到成功；开始停止后最多再试 SHUTDOWN_RETRIES 次，剩下的计入 dropped
+     */
+    private static void flushWithRetry(List<Entry> batch) throws InterruptedException {
+        int retriesAfterStop = 0;
+        while (true) {
+            int size = batch.size();
+            try {
+                writeByShard(batch);
+                written.addAndGet(size);
+                lastFlushAt = System.currentTimeMillis();
+                return;
+            } catch (SQLException e) {
+                written.addAndGet(size - batch.size());
+                failedFlushes.incrementAndGet();
+                if (!running && ++retriesAfterStop > SHUTDOWN_RETRIES) {
+                    dropped.addAndGet(batch.size());
+                    logger.error("停止时批量写入领用历史仍失败，丢失 {} 条", batch.size(), e);
+                    return;
+                }
+                logger.error("批量写入领用历史失败，{} ms 后重试 size={}", RETRY_BACKOFF_MS, batch.size(), e);
+                Thread.sleep(RETRY_BACKOFF_MS);
+            }
+        }
+    }
+
+    /**
+     * 按分片分组写入，每写成功一组就从 batch 中移除，失败重试时不会重复写已提交的分片
+     */
+    private static void writeByShard(List<Entry> batch) throws SQLException {
+        Map<Integer, List<Entry>> groups = new TreeMap<>();
+        for (Entry entry : batch) {
+            groups.computeIfAbsent(entry.shard, k -> new ArrayList<>()).add(entry);
+        }
+        for (Map.Entry<Integer, List<Entry>> group : groups.entrySet()) {
+            writeBatch(group.getKey(), group.getValue());
+            batch.removeAll(group.getValue());
+        }
+    }
+
+    private static void writeBatch(int shard, List<Entry> batch) throws SQLException {
+        try (Connection conn = ShardRouter.shard(shard).getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+                for (Entry entry : batch) {
+                    ps.setLong(1, entry.assetId);
+                    if (entry.assigneeId == null) {
+                        ps.setNull(2, java.sql.Types.BIGINT);
+                    } else {
+                        ps.setLong(2, entry.assigneeId);
+                    }
+                    ps.setInt(3, entry.action);
+                    ps.setTimestamp(4, new Timestamp(entry.createdAt));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+}
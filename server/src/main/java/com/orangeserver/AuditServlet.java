@@ -0,0 +1,169 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 资产审计：POST /api/audits 立即开始一次，GET /api/audits 为历次审计，
+ * GET /api/audits/{id}?kind=&page=&size= 为某次审计的汇总和明细。报告都在分片 0 上
+ */
+@WebServlet("/api/audits/*")
+public class AuditServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(AuditServlet.class);
+
+    private static final String RUN_COLUMNS = "id, trigger_source, status, started_at, finished_at, duration_ms,"
+            + " findings";
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        if (!InventoryAudit.startAsync("manual")) {
+            ApiUtils.writeJson(resp, 4090, "资产审计正在执行", "null");
+            return;
+        }
+        ApiUtils.writeJson(resp, 0, "ok", "null");
+        logger.info("手动触发资产审计");
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        int page = ApiUtils.parseInt(req.getParameter("page"), 1);
+        int size = ApiUtils.parseInt(req.getParameter("size"), 10);
+        if (page <= 0 || size <= 0) {
+            ApiUtils.writeJson(resp, 4001, "page 和 size 需为正整数", "null");
+            return;
+        }
+
+        String pathInfo = req.getPathInfo();
+        if (pathInfo == null || pathInfo.equals("/") || pathInfo.isEmpty()) {
+            handleList(resp, page, size);
+            return;
+        }
+        Long id = ApiUtils.parseId(pathInfo);
+        if (id == null) {
+            ApiUtils.writeJson(resp, 4001, "id 格式不正确", "null");
+            return;
+        }
+        handleDetail(resp, id, req.getParameter("kind"), page, size);
+    }
+
+    private void handleList(HttpServletResponse resp, int page, int size) throws IOException {
+        String listSql = "SELECT " + RUN_COLUMNS + " FROM audit_run ORDER BY id DESC LIMIT ? OFFSET ?";
+        try (Connection conn = ShardRouter.shard(0).getConnection();
+             PreparedStatement countPs = conn.prepareStatement("SELECT COUNT(*) FROM audit_run");
+             PreparedStatement listPs = conn.prepareStatement(listSql)) {
+            int total = 0;
+            try (ResultSet rs = countPs.executeQuery()) {
+                if (rs.next()) {
+                    total = rs.getInt(1);
+                }
+            }
+            listPs.setInt(1, size);
+            listPs.setInt(2, (page - 1) * size);
+            List<String> items = new ArrayList<>();
+            try (ResultSet rs = listPs.executeQuery()) {
+                while (rs.next()) {
+                    items.add(runJson(rs, null));
+                }
+            }
+            String data = "{ \"list\": [" + String.join(", ", items) + "]"
+                    + ", \"page\": " + page
+                    + ", \"size\": " + size
+                    + ", \"total\": " + total
+                    + ", \"running\": " + InventoryAudit.isRunning()
+                    + " }";
+            ApiUtils.writeJson(resp, 0, "ok", data);
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("查询资产审计列表失败", e);
+        }
+    }
+
+    private void handleDetail(HttpServletResponse resp, long id, String kind, int page, int size)
+            throws IOException {
+        boolean hasKind = !ApiUtils.isBlank(kind);
+        String where = " WHERE run_id = ?" + (hasKind ? " AND kind = ?" : "");
+        String countSql = "SELECT COUNT(*) FROM audit_finding" + where;
+        String listSql = "SELECT id, kind, ref_id, detail FROM audit_finding" + where + " ORDER BY id LIMIT ? OFFSET ?";
+        try (Connection conn = ShardRouter.shard(0).getConnection();
+             PreparedStatement runPs = conn.prepareStatement("SELECT " + RUN_COLUMNS + ", summary"
+                     + " FROM audit_run WHERE id = ?");
+             PreparedStatement countPs = conn.prepareStatement(countSql);
+             PreparedStatement listPs = conn.prepareStatement(listSql)) {
+            String run;
+            runPs.setLong(1, id);
+            try (ResultSet rs = runPs.executeQuery()) {
+                if (!rs.next()) {
+                    ApiUtils.writeJson(resp, 4004, "审计记录不存在", "null");
+                    return;
+                }
+                run = runJson(rs, rs.getString("summary"));
+            }
+
+            countPs.setLong(1, id);
+            listPs.setLong(1, id);
+            int index = 2;
+            if (hasKind) {
+                countPs.setString(2, kind);
+                listPs.setString(2, kind);
+                index = 3;
+            }
+            listPs.setInt(index, size);
+            listPs.setInt(index + 1, (page - 1) * size);
+            int total = 0;
+            try (ResultSet rs = countPs.executeQuery()) {
+                if (rs.next()) {
+                    total = rs.getInt(1);
+                }
+            }
+            List<String> items = new ArrayList<>();
+            try (ResultSet rs = listPs.executeQuery()) {
+                while (rs.next()) {
+                    items.add("{ \"id\": " + rs.getLong("id")
+                            + ", \"kind\": \"" + ApiUtils.escapeJson(rs.getString("kind")) + "\""
+                            + ", \"refId\": " + rs.getLong("ref_id")
+                            + ", \"detail\": \"" + ApiUtils.escapeJson(rs.getString("detail")) + "\""
+                            + " }");
+                }
+            }
+            String data = "{ \"run\": " + run
+                    + ", \"findings\": { \"list\": [" + String.join(", ", items) + "]"
+                    + ", \"page\": " + page
+                    + ", \"size\": " + size
+                    + ", \"total\": " + total
+                    + " } }";
+            ApiUtils.writeJson(resp, 0, "ok", data);
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("查询资产审计详情失败 id={}", id, e);
+        }
+    }
+
+    /** summary 为审计时写入的 JSON 原文，null 表示列表中不返回 */
+    private static String runJson(ResultSet rs, String summary) throws SQLException {
+        String finishedAt = rs.getString("finished_at");
+        return "{ \"id\": " + rs.getLong("id")
+                + ", \"trigger\": \"" + ApiUtils.escapeJson(rs.getString("trigger_source")) + "\""
+                + ", \"status\": \"" + ApiUtils.escapeJson(rs.getString("status")) + "\""
+                + ", \"startedAt\": \"" + ApiUtils.escapeJson(rs.getString("started_at")) + "\""
+                + ", \"finishedAt\": " + (finishedAt == null ? "null" : "\"" + ApiUtils.escapeJson(finishedAt) + "\"")
+                + ", \"durationMs\": " + rs.getLong("duration_ms")
+                + ", \"findings\": " + rs.getInt("findings")
+                + (summary == null ? "" : ", \"summary\": " + summary)
+                + " }";
+    }
+}
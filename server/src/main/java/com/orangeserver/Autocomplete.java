@@ -0,0 +1,430 @@
+package com.orangeserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 输入联想和名称搜索用的内存索引。前缀索引：资产按 assetNo，领用人按工号和姓名，位置空间按房间号；
+ * 拼音索引（PinyinIndex）：资产名称、领用人姓名、部门名称，可用汉字、全拼或首字母搜索。
+ * 启动预热时全量加载，之后通过 InvalidationBus 按行从数据库重读；加载期间收到的变更记下来，换上新索引后补刷。
+ * 失效事件只入队，由单个后台线程按顺序重读，不在发布方（请求线程）上再借连接。
+ * 未加载完成时查询方法返回 null，由调用方回退 SQL。用 -Dorange.autocomplete=true 开启，与 orange.assetIndex 一样默认关闭；
+ * 拼音搜索（SearchServlet）也依赖它，未开启时只能按汉字原文搜索。
+ */
+public final class Autocomplete {
+    private static final Logger logger = LoggerFactory.getLogger(Autocomplete.class);
+
+    public static final boolean ENABLED = Boolean.getBoolean("orange.autocomplete");
+
+    static final String TYPE_ASSETS = "assets";
+    static final String TYPE_ASSIGNEES = "assignees";
+    static final String TYPE_LOCATIONS = "locations";
+    static final String TYPE_DEPARTMENTS = "departments";
+
+    private static final String ASSET_SQL = "SELECT id, asset_no, asset_name, location_id, status FROM asset";
+    private static final String ASSIGNEE_SQL = "SELECT id, emp_no, name FROM assignee";
+    private static final String LOCATION_SQL = "SELECT id, dept_id, room_no FROM location_space";
+    private static final String DEPT_SQL = "SELECT id, dept_code, dept_name FROM department";
+
+    /** 位置空间只存部门 id，返回时再取当前部门名，部门改名不必重建位置空间 */
+    private static final class Location {
+        final long id;
+        final long deptId;
+        final String roomNo;
+
+        Location(long id, long deptId, String roomNo) {
+            this.id = id;
+            this.deptId = deptId;
+            this.roomNo = roomNo;
+        }
+    }
+
+    /** 一整套索引，全量加载时整体替换 */
+    private static final class Indexes {
+        final PrefixIndex<String> assets = new PrefixIndex<>();
+        final PrefixIndex<String> assignees = new PrefixIndex<>();
+        final PrefixIndex<Location> locations = new PrefixIndex<>();
+        final Map<Long, String> deptNames = new ConcurrentHashMap<>();
+        final PinyinIndex<String> assetNames = new PinyinIndex<>();
+        final PinyinIndex<String> assigneeNames = new PinyinIndex<>();
+        final PinyinIndex<String> depts = new PinyinIndex<>();
+
+        void putAsset(ResultSet rs) throws SQLException {
+            long id = rs.getLong("id");
+            String assetNo = rs.getString("asset_no");
+            String assetName = rs.getString("asset_name");
+            String json = assetJson(id, assetNo, assetName, rs.getLong("location_id"));
+            assets.put(id, Collections.singletonList(assetNo), json);
+            assetNames.put(id, assetName, json);
+        }
+
+        void removeAsset(long id) {
+            assets.remove(id);
+            assetNames.remove(id);
+        }
+
+        void putAssignee(ResultSet rs) throws SQLException {
+            long id = rs.getLong("id");
+            String empNo = rs.getString("emp_no");
+            String name = rs.getString("name");
+            String json = assigneeJson(id, empNo, name);
+            assignees.put(id, Arrays.asList(empNo, name), json);
+            assigneeNames.put(id, name, json);
+        }
+
+        void removeAssignee(long id) {
+            assignees.remove(id);
+            assigneeNames.remove(id);
+        }
+
+        void putLocation(ResultSet rs) throws SQLException {
+            long id = rs.getLong("id");
+            String roomNo = rs.getString("room_no");
+            locations.put(id, Collections.singletonList(roomNo), new Location(id, rs.getLong("dept_id"), roomNo));
+        }
+
+        void putDept(ResultSet rs) throws SQLException {
+            long id = rs.getLong("id");
+            String deptName = rs.getString("dept_name");
+            deptNames.put(id, deptName);
+            depts.put(id, deptName, deptJson(id, rs.getString("dept_code"), deptName));
+        }
+
+        void removeDept(long id) {
+            deptNames.remove(id);
+            depts.remove(id);
+        }
+    }
+
+    private static volatile Indexes current = new Indexes();
+
+    private static final Object loadMonitor = new Object();
+    private static volatile boolean loaded;
+    private static volatile boolean loading;
+    private static final Set<String> changedWhileLoading = ConcurrentHashMap.newKeySet();
+    private static volatile long loadMillis = -1;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong searches = new AtomicLong();
+    private static final AtomicLong fallbacks = new AtomicLong();
+    private static final AtomicLong refreshes = new AtomicLong();
+    private static final AtomicLong refreshFailures = new AtomicLong();
+
+    /** 失效事件按到达顺序在这一个线程上同步到索引 */
+    private static final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "autocomplete-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final AtomicInteger pendingRefreshes = new AtomicInteger();
+
+    private Autocomplete() {
+    }
+
+    /**
+     * 订阅失效事件并全量加载，启动预热时调用；加载失败时保持未就绪，查询走 SQL，等下一次 ALL 事件再加载
+     */
+    public static void start() {
+        if (!ENABLED) {
+            return;
+        }
+        InvalidationBus.subscribe(new InvalidationBus.Listener() {
+            @Override
+            public void onInvalidate(String table, long id) {
+                markChanged(table, id);
+                enqueue(() -> apply(table, id));
+            }
+
+            @Override
+            public void onInvalidate(String table, Collection<Long> ids) {
+                List<Long> copy = new ArrayList<>(ids);
+                for (long id : copy) {
+                    markChanged(table, id);
+                }
+                enqueue(() -> {
+                    for (long id : copy) {
+                        apply(table, id);
+                    }
+                });
+            }
+        });
+        try {
+            reload();
+        } catch (SQLException e) {
+            logger.error("输入联想索引加载失败，暂时回退 SQL", e);
+        }
+    }
+
+    static void reload() throws SQLException {
+        synchronized (loadMonitor) {
+            long start = System.nanoTime();
+            changedWhileLoading.clear();
+            loading = true;
+            Indexes next = new Indexes();
+            try {
+                ShardRouter.scatter(ds -> {
+                    loadAll(ds, ASSET_SQL + " WHERE status < " + AssetServlet.STATUS_RETIRED, next::putAsset);
+                    loadAll(ds, LOCATION_SQL, next::putLocation);
+                    return null;
+                });
+                DataSource primary = MyDataBase.getDataSource();
+                loadAll(primary, ASSIGNEE_SQL, next::putAssignee);
+                loadAll(primary, DEPT_SQL, next::putDept);
+            } catch (SQLException | RuntimeException e) {
+                loading = false;
+                throw e;
+            }
+            // 先换上新索引再结束 loading，这之间到达的变更也会被记下、在下面补刷到新索引
+            current = next;
+            loading = false;
+            loaded = true;
+            loadMillis = (System.nanoTime() - start) / 1_000_000;
+
+            List<String> changed = new ArrayList<>(changedWhileLoading);
+            changedWhileLoading.clear();
+            for (String key : changed) {
+                int at = key.indexOf(':');
+                refresh(key.substring(0, at), Long.parseLong(key.substring(at + 1)));
+            }
+            logger.info("输入联想索引加载完成 assets={} assignees={} locations={} depts={} 耗时 {} ms",
+                    next.assets.size(), next.assignees.size(), next.locations.size(), next.depts.size(), loadMillis);
+        }
+    }
+
+    /** rs 为 null 表示该行不存在 */
+    private interface RowHandler {
+        void accept(ResultSet rs) throws SQLException;
+    }
+
+    private static void loadAll(DataSource ds, String sql, RowHandler handler) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                handler.accept(rs);
+            }
+        }
+    }
+
+    private static void readRow(DataSource ds, String sql, long id, RowHandler handler) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql + " WHERE id = ?")) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                handler.accept(rs.next() ? rs : null);
+            }
+        }
+    }
+
+    /** 在发布方线程上同步记下，全量加载正在进行时换上新索引后会补刷这一行 */
+    private static void markChanged(String table, long id) {
+        if (loading && !InvalidationBus.ALL.equals(table)) {
+            changedWhileLoading.add(table + ":" + id);
+        }
+    }
+
+    private static void enqueue(Runnable task) {
+        pendingRefreshes.incrementAndGet();
+        refresher.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                pendingRefreshes.decrementAndGet();
+            }
+        });
+    }
+
+    private static void apply(String table, long id) {
+        if (InvalidationBus.ALL.equals(table)) {
+            try {
+                reload();
+            } catch (SQLException e) {
+                refreshFailures.incrementAndGet();
+                logger.error("输入联想索引重新加载失败", e);
+            }
+            return;
+        }
+        refresh(table, id);
+    }
+
+    /**
+     * 从数据库重读一行写回当前索引；行不存在（或资产已报废）则移出
+     */
+    private static void refresh(String table, long id) {
+        Indexes indexes = current;
+        try {
+            switch (table) {
+                case "asset": {
+                    int shard = ShardRouter.locate("asset", id);
+                    if (shard < 0) {
+                        indexes.removeAsset(id);
+                        break;
+                    }
+                    readRow(ShardRouter.shard(shard), ASSET_SQL, id, rs -> {
+                        if (rs == null || rs.getInt("status") == AssetServlet.STATUS_RETIRED) {
+                            indexes.removeAsset(id);
+                        } else {
+                            indexes.putAsset(rs);
+                        }
+                    });
+                    break;
+                }
+                case "assignee":
+                    readRow(MyDataBase.getDataSource(), ASSIGNEE_SQL, id, rs -> {
+                        if (rs == null) {
+                            indexes.removeAssignee(id);
+                        } else {
+                            indexes.putAssignee(rs);
+                        }
+                    });
+                    break;
+                case "location_space": {
+                    int shard = ShardRouter.locate("location_space", id);
+                    if (shard < 0) {
+                        indexes.locations.remove(id);
+                        break;
+                    }
+                    readRow(ShardRouter.shard(shard), LOCATION_SQL, id, rs -> {
+                        if (rs == null) {
+                            indexes.locations.remove(id);
+                        } else {
+                            indexes.putLocation(rs);
+                        }
+                    });
+                    break;
+                }
+                case "department":
+                    readRow(MyDataBase.getDataSource(), DEPT_SQL, id, rs -> {
+                        if (rs == null) {
+                            indexes.removeDept(id);
+                        } else {
+                            indexes.putDept(rs);
+                        }
+                    });
+                    break;
+                default:
+                    return;
+            }
+            refreshes.incrementAndGet();
+        } catch (SQLException e) {
+            // 单行刷新失败只会让这一行的结果过期，下一次该行的写入或全量加载会修正
+            refreshFailures.incrementAndGet();
+            logger.error("输入联想索引同步失败 table={} id={}", table, id, e);
+        }
+    }
+
+    public static boolean isReady() {
+        return ENABLED && loaded;
+    }
+
+    /**
+     * 前缀匹配的前 limit 条，每条是一段 JSON；未就绪时返回 null
+     */
+    static List<String> search(String type, String prefix, int limit) {
+        if (!isReady()) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        Indexes indexes = current;
+        switch (type) {
+            case TYPE_ASSETS:
+                return indexes.assets.search(prefix, limit);
+            case TYPE_ASSIGNEES:
+                return indexes.assignees.search(prefix, limit);
+            default:
+                List<String> items = new ArrayList<>();
+                for (Location location : indexes.locations.search(prefix, limit)) {
+                    items.add(locationJson(location.id, location.roomNo, location.deptId,
+                            indexes.deptNames.get(location.deptId)));
+                }
+                return items;
+        }
+    }
+
+    /**
+     * 按名称的汉字、全拼或首字母搜索，type 为 assets、assignees、departments；未就绪时返回 null
+     */
+    static PinyinIndex.Page<String> searchNames(String type, String query, int offset, int limit) {
+        if (!isReady()) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        searches.incrementAndGet();
+        Indexes indexes = current;
+        switch (type) {
+            case TYPE_ASSETS:
+                return indexes.assetNames.search(query, offset, limit);
+            case TYPE_ASSIGNEES:
+                return indexes.assigneeNames.search(query, offset, limit);
+            default:
+                return indexes.depts.search(query, offset, limit);
+        }
+    }
+
+    static String assetJson(long id, String assetNo, String assetName, long locationId) {
+        return "{ \"id\": " + id
+                + ", \"assetNo\": \"" + ApiUtils.escapeJson(assetNo) + "\""
+                + ", \"assetName\": \"" + ApiUtils.escapeJson(assetName) + "\""
+                + ", \"locationId\": " + locationId
+                + " }";
+    }
+
+    static String assigneeJson(long id, String empNo, String name) {
+        return "{ \"id\": " + id
+                + ", \"empNo\": \"" + ApiUtils.escapeJson(empNo) + "\""
+                + ", \"name\": \"" + ApiUtils.escapeJson(name) + "\""
+                + " }";
+    }
+
+    static String locationJson(long id, String roomNo, long deptId, String deptName) {
+        return "{ \"id\": " + id
+                + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\""
+                + ", \"deptId\": " + deptId
+                + ", \"deptName\": " + (deptName == null ? "null" : "\"" + ApiUtils.escapeJson(deptName) + "\"")
+                + " }";
+    }
+
+    static String deptJson(long id, String deptCode, String deptName) {
+        return "{ \"id\": " + id
+                + ", \"deptCode\": \"" + ApiUtils.escapeJson(deptCode) + "\""
+                + ", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
+                + " }";
+    }
+
+    public static String statsJson() {
+        Indexes indexes = current;
+        return "{ \"enabled\": " + ENABLED
+                + ", \"ready\": " + isReady()
+                + ", \"assets\": " + indexes.assets.size()
+                + ", \"assignees\": " + indexes.assignees.size()
+                + ", \"locations\": " + indexes.locations.size()
+                + ", \"departments\": " + indexes.depts.size()
+                + ", \"hits\": " + hits.get()
+                + ", \"searches\": " + searches.get()
+                + ", \"fallbacks\": " + fallbacks.get()
+                + ", \"refreshes\": " + refreshes.get()
+                + ", \"refreshFailures\": " + refreshFailures.get()
+                + ", \"pendingRefreshes\": " + pendingRefreshes.get()
+                + ", \"pinyinTruncated\": " + PinyinIndex.truncatedNames()
+                + ", \"loadMillis\": " + loadMillis
+                + " }";
+    }
+}
@@ -0,0 +1,125 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 输入联想：GET /api/autocomplete/assets?q=AS00&limit=10（按 assetNo），/api/autocomplete/assignees（按工号或姓名），
+ * /api/autocomplete/locations（按房间号）。前缀匹配、不区分大小写，不分页、不计总数。
+ * 平时由 Autocomplete 的内存索引回答，索引未就绪时回退到带 LIMIT 的前缀 LIKE 查询。
+ */
+@WebServlet("/api/autocomplete/*")
+public class AutocompleteServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(AutocompleteServlet.class);
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 50;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        String pathInfo = req.getPathInfo();
+        String type = pathInfo == null ? "" : pathInfo.replaceAll("^/|/$", "");
+        if (!type.equals(Autocomplete.TYPE_ASSETS) && !type.equals(Autocomplete.TYPE_ASSIGNEES)
+                && !type.equals(Autocomplete.TYPE_LOCATIONS)) {
+            ApiUtils.writeJson(resp, 4004, "接口不存在，可用 assets、assignees、locations", "null");
+            return;
+        }
+        int limit = ApiUtils.parseInt(req.getParameter("limit"), DEFAULT_LIMIT);
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            ApiUtils.writeJson(resp, 4001, "limit 需为 1 到 " + MAX_LIMIT + " 的整数", "null");
+            return;
+        }
+        String prefix = PrefixIndex.normalize(req.getParameter("q"));
+        if (prefix.isEmpty()) {
+            ApiUtils.writeJson(resp, 0, "ok", "[]");
+            return;
+        }
+
+        List<String> items = Autocomplete.search(type, prefix, limit);
+        if (items == null) {
+            try {
+                items = searchSql(type, prefix, limit);
+            } catch (SQLException e) {
+                ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+                logger.error("输入联想查询失败 type={} q={}", type, prefix, e);
+                return;
+            }
+        }
+        ApiUtils.writeJson(resp, 0, "ok", "[" + String.join(", ", items) + "]");
+    }
+
+    /**
+     * 回退查询：asset_no、emp_no 上有唯一索引，前缀 LIKE 只扫一小段；各分片取前 limit 条后按词排序合并
+     */
+    private static List<String> searchSql(String type, String prefix, int limit) throws SQLException {
+        String like = prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        if (type.equals(Autocomplete.TYPE_ASSIGNEES)) {
+            String sql = "SELECT id, emp_no, name FROM assignee WHERE emp_no LIKE ? OR name LIKE ?"
+                    + " ORDER BY emp_no LIMIT ?";
+            List<String> items = new ArrayList<>();
+            try (Connection conn = MyDataBase.getDataSource().getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, like);
+                ps.setString(2, like);
+                ps.setInt(3, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        items.add(Autocomplete.assigneeJson(rs.getLong("id"), rs.getString("emp_no"),
+                                rs.getString("name")));
+                    }
+                }
+            }
+            return items;
+        }
+
+        String sql = type.equals(Autocomplete.TYPE_ASSETS)
+                ? "SELECT ast.id, ast.asset_no, ast.asset_name, ast.location_id FROM asset ast"
+                        + " WHERE ast.asset_no LIKE ? AND ast.status < " + AssetServlet.STATUS_RETIRED
+                        + " ORDER BY ast.asset_no LIMIT ?"
+                : "SELECT ls.id, ls.room_no, ls.dept_id, d.dept_name FROM location_space ls"
+                        + " LEFT JOIN department d ON ls.dept_id = d.id"
+                        + " WHERE ls.room_no LIKE ? ORDER BY ls.room_no LIMIT ?";
+        boolean assets = type.equals(Autocomplete.TYPE_ASSETS);
+        // 键为 小写词 + id，合并后保持和内存索引一样的顺序
+        Map<String, String> merged = new TreeMap<>();
+        for (Map<String, String> part : ShardRouter.scatter((DataSource ds) -> {
+            Map<String, String> rows = new TreeMap<>();
+            try (Connection conn = ds.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, like);
+                ps.setInt(2, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        long id = rs.getLong(1);
+                        String word = rs.getString(2);
+                        String item = assets
+                                ? Autocomplete.assetJson(id, word, rs.getString(3), rs.getLong(4))
+                                : Autocomplete.locationJson(id, word, rs.getLong(3), rs.getString(4));
+                        rows.put(PrefixIndex.normalize(word) + '\u0000' + id, item);
+                    }
+                }
+            }
+            return rows;
+        })) {
+            merged.putAll(part);
+        }
+        List<String> items = new ArrayList<>(merged.values());
+        return items.size() > limit ? items.subList(0, limit) : items;
+    }
+}
@@ -0,0 +1,172 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 批量请求：POST /api/batch，请求体 { "requests": ["/api/departments?size=1000", "/api/assets/5"] }。
+ * 各子请求（只支持 GET）在进程内并行分发给对应 servlet，按请求顺序返回每个子请求的 HTTP 状态和原始响应体，
+ * 页面加载只需一次往返，耗时取决于最慢的那个查询。
+ * 每个子请求在线程池上执行前占用一个过载保护名额，占不到时改为在本请求线程上依次执行，
+ * 一个批量请求不会绕过并发上限多占连接；限流按子请求消耗之和计费，见 RateLimitFilter。
+ */
+@WebServlet("/api/batch")
+public class BatchServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(BatchServlet.class);
+
+    private static final int MAX_REQUESTS = 20;
+    private static final int THREADS = 8;
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final Pattern REQUESTS = Pattern.compile("\"requests\"\\s*:\\s*\\[(.*?)]", Pattern.DOTALL);
+    private static final Pattern ITEM = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final InternalDispatcher dispatcher = new InternalDispatcher();
+    private ExecutorService pool;
+
+    @Override
+    public void init() {
+        AtomicInteger seq = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "batch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdownNow();
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        List<String> uris = parseUris(ApiUtils.readBody(req));
+        if (uris.isEmpty()) {
+            ApiUtils.writeJson(resp, 4001, "requests 不能为空", "null");
+            return;
+        }
+        if (uris.size() > MAX_REQUESTS) {
+            ApiUtils.writeJson(resp, 4001, "单次最多 " + MAX_REQUESTS + " 个子请求", "null");
+            return;
+        }
+        for (String uri : uris) {
+            if (!uri.startsWith("/api/")) {
+                ApiUtils.writeJson(resp, 4001, "子请求路径需以 /api/ 开头: " + uri, "null");
+                return;
+            }
+        }
+
+        AdaptiveLimiter limiter = LoadSheddingFilter.getLimiter();
+        List<Future<InternalDispatcher.Result>> futures = new ArrayList<>(uris.size());
+        AtomicInteger checkouts = SqlTimer.currentCheckouts();
+        for (String uri : uris) {
+            int q = uri.indexOf('?');
+            String path = q < 0 ? uri : uri.substring(0, q);
+            String route = SqlTimer.routeOf("GET", path);
+            int inflightAtStart = limiter.tryAcquire(LoadSheddingFilter.isHighPriority("GET", path));
+            if (inflightAtStart == 0) {
+                futures.add(null);
+                continue;
+            }
+            futures.add(pool.submit(() -> {
+                boolean dropped = true;
+                try {
+                    InternalDispatcher.Result result = SqlTimer.callWithRoute(route, checkouts,
+                            () -> dispatcher.get(uri));
+                    dropped = false;
+                    return result;
+                } finally {
+                    // 整个批量请求已作为一个延迟样本，子请求不再单独采样
+                    limiter.release(inflightAtStart, -1, dropped);
+                }
+            }));
+        }
+        // 没占到名额的子请求用本请求自己的名额依次执行
+        List<InternalDispatcher.Result> inline = new ArrayList<>(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            inline.add(futures.get(i) == null ? dispatchInline(uris.get(i), checkouts) : null);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        List<String> items = new ArrayList<>(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            InternalDispatcher.Result result = inline.get(i) != null ? inline.get(i)
+                    : await(futures.get(i), uris.get(i), deadline);
+            items.add(itemJson(uris.get(i), result));
+        }
+        ApiUtils.writeJson(resp, 0, "ok", "[" + String.join(", ", items) + "]");
+    }
+
+    /**
+     * 从请求体取出子请求路径，没有 requests 字段时返回空列表
+     */
+    static List<String> parseUris(String body) {
+        List<String> uris = new ArrayList<>();
+        Matcher matcher = REQUESTS.matcher(body);
+        if (matcher.find()) {
+            Matcher item = ITEM.matcher(matcher.group(1));
+            while (item.find()) {
+                uris.add(ApiUtils.unescapeJson(item.group(1)).trim());
+            }
+        }
+        return uris;
+    }
+
+    private InternalDispatcher.Result dispatchInline(String uri, AtomicInteger checkouts) {
+        int q = uri.indexOf('?');
+        String route = SqlTimer.routeOf("GET", q < 0 ? uri : uri.substring(0, q));
+        try {
+            return SqlTimer.callWithRoute(route, checkouts, () -> dispatcher.get(uri));
+        } catch (Exception e) {
+            logger.error("批量子请求失败 {}", uri, e);
+            return new InternalDispatcher.Result(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                    "{ \"code\": 5000, \"msg\": \"服务器异常\", \"data\": null }");
+        }
+    }
+
+    private static InternalDispatcher.Result await(Future<InternalDispatcher.Result> future, String uri,
+                                                   long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            logger.warn("批量子请求超时 {}", uri);
+            return new InternalDispatcher.Result(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+                    "{ \"code\": 5000, \"msg\": \"子请求超时\", \"data\": null }");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return new InternalDispatcher.Result(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "{ \"code\": 5000, \"msg\": \"服务器异常\", \"data\": null }");
+        } catch (ExecutionException e) {
+            logger.error("批量子请求失败 {}", uri, e.getCause());
+            return new InternalDispatcher.Result(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                    "{ \"code\": 5000, \"msg\": \"服务器异常\", \"data\": null }");
+        }
+    }
+
+    private static String itemJson(String uri, InternalDispatcher.Result result) {
+        return "{ \"path\": \"" + ApiUtils.escapeJson(uri) + "\""
+                + ", \"status\": " + result.status
+                + ", \"body\": " + (result.body.isEmpty() ? "null" : result.body)
+                + " }";
+    }
+}
@@ -0,0 +1,83 @@
+package com.orangeserver;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 按总字节数限制大小的 LRU：访问顺序的 LinkedHashMap 加上每项的估算大小，放入后从最久未用的一端淘汰到预算以内。
+ * 不加锁，调用方在自己的锁里使用（缓存通常还有别的结构要一起改）。
+ */
+final class ByteLru<V> {
+    /** 一项占用的估算字节数，放入和移出时必须算出相同的值 */
+    interface Weigher<V> {
+        long weight(String key, V value);
+    }
+
+    private final LinkedHashMap<String, V> entries;
+    private final long maxBytes;
+    private final Weigher<V> weigher;
+    /** 被 LRU 淘汰的项，主动 remove 的不回调；可为 null */
+    private final BiConsumer<String, V> onEvict;
+    private long bytes;
+    private long evictions;
+
+    ByteLru(int initialCapacity, long maxBytes, Weigher<V> weigher, BiConsumer<String, V> onEvict) {
+        this.entries = new LinkedHashMap<>(initialCapacity, 0.75f, true);
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+        this.onEvict = onEvict;
+    }
+
+    V get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * 放入（替换同键的旧项），再淘汰到预算以内；新项本身超过预算时也会被淘汰
+     *
+     * @return 替换掉的旧项，没有为 null
+     */
+    V put(String key, V value) {
+        V old = remove(key);
+        entries.put(key, value);
+        bytes += weigher.weight(key, value);
+        Iterator<Map.Entry<String, V>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, V> eldest = it.next();
+            it.remove();
+            bytes -= weigher.weight(eldest.getKey(), eldest.getValue());
+            evictions++;
+            if (onEvict != null) {
+                onEvict.accept(eldest.getKey(), eldest.getValue());
+            }
+        }
+        return old;
+    }
+
+    V remove(String key) {
+        V old = entries.remove(key);
+        if (old != null) {
+            bytes -= weigher.weight(key, old);
+        }
+        return old;
+    }
+
+    void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    long evictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,311 @@
+package com.orangeserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 用分片 0 上的 cache_invalidation 表在节点间传递失效事件，不需要额外的消息中间件。
+ * 每个节点按 pollMs 轮询新事件；延迟用数据库时钟计算（NOW(3) - created_at），不受各节点时钟偏差影响。
+ * 连续 maxStaleMs 轮询不到（数据库不可用等）时直接清空本节点全部缓存，保证缓存陈旧时间有上限。
+ * 发出的事件先放进内存队列，由轮询线程每轮按 JDBC batch 一次写入，请求线程不为此占用连接；
+ * 队列满时改为发一条 ALL，让其它节点清空全部缓存。
+ * 读取用两个游标：readCursor 是读到的最大 id，新事件从它往后分页读完，一次突发几千条也在同一轮送达；
+ * cursor 之前的事件都已超过 GRACE_MS，两者之间只按主键查一遍有没有晚提交、还没见过的 id。
+ */
+final class DbPollingTransport implements InvalidationBus.Transport {
+    private static final Logger logger = LoggerFactory.getLogger(DbPollingTransport.class);
+
+    private static final long POLL_MS = Long.getLong("orange.invalidation.pollMs", 200);
+    private static final long MAX_STALE_MS = Long.getLong("orange.invalidation.maxStaleMs", 5000);
+    /** 自增 id 不保证按提交顺序可见，这段时间内每轮都检查 cursor 之后有没有新出现的 id */
+    private static final long GRACE_MS = 2000;
+    private static final int BATCH = 500;
+    /** 每轮最多读的新事件页数，更多的留到下一轮，免得一轮轮询停不下来 */
+    private static final int MAX_PAGES = 20;
+    private static final int MAX_PENDING = 10000;
+    private static final long RETENTION_MINUTES = 10;
+    private static final long CLEANUP_INTERVAL_MS = 60000;
+
+    private static final String INSERT_SQL = "INSERT INTO cache_invalidation (table_name, row_id, origin)"
+            + " VALUES (?, ?, ?)";
+    private static final String COLUMNS = "SELECT id, table_name, row_id, origin,"
+            + " TIMESTAMPDIFF(MICROSECOND, created_at, NOW(3)) AS age_us FROM cache_invalidation";
+    private static final String POLL_SQL = COLUMNS + " WHERE id > ? ORDER BY id LIMIT " + BATCH;
+    private static final String WINDOW_SQL = "SELECT id FROM cache_invalidation WHERE id > ? AND id <= ?";
+    private static final String MAX_ID_SQL = "SELECT COALESCE(MAX(id), 0) FROM cache_invalidation";
+    private static final String CLEANUP_SQL = "DELETE FROM cache_invalidation"
+            + " WHERE created_at < NOW(3) - INTERVAL " + RETENTION_MINUTES + " MINUTE LIMIT 1000";
+
+    private volatile boolean running;
+    private Thread poller;
+
+    private static final class Event {
+        final String table;
+        final long id;
+
+        Event(String table, long id) {
+            this.table = table;
+            this.id = id;
+        }
+    }
+
+    private final BlockingQueue<Event> pending = new ArrayBlockingQueue<>(MAX_PENDING);
+    /** 队列放不下过事件，下一次写入改为一条 ALL */
+    private volatile boolean overflowed;
+    /** 已从队列取出但还没写成功的一批，只由轮询线程访问，失败时下一轮重写 */
+    private final List<Event> unsent = new ArrayList<>();
+
+    /** 此 id 及以前的事件都已处理且超过 GRACE_MS，不会再有更早提交的事件出现 */
+    private long cursor = -1;
+    /** 已读到的最大 id，新事件从这里往后读 */
+    private long readCursor = -1;
+    /** cursor 之后已处理的事件 id -> 超过 GRACE_MS 的本地时间 */
+    private final TreeMap<Long, Long> seen = new TreeMap<>();
+    private long lastCleanupAt;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong flushFailures = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong pollFailures = new AtomicLong();
+    private final AtomicLong staleFlushes = new AtomicLong();
+    private final AtomicLong lagSumMicros = new AtomicLong();
+    private volatile long lastLagMicros;
+    private volatile long maxLagMicros;
+    private volatile long lastPollOkAt = System.currentTimeMillis();
+    private volatile long lastStaleFlushAt;
+
+    @Override
+    public synchronized void start() {
+        running = true;
+        poller = new Thread(this::run, "invalidation-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (poller != null) {
+            poller.interrupt();
+            try {
+                poller.join(POLL_MS * 5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (poller == null || !poller.isAlive()) {
+            try {
+                flush();
+            } catch (SQLException e) {
+                logger.error("停止时写入缓存失效事件失败，丢失 {} 条", unsent.size() + pending.size(), e);
+            }
+        }
+    }
+
+    @Override
+    public void send(String table, long id) {
+        if (!pending.offer(new Event(table, id))) {
+            overflows.incrementAndGet();
+            overflowed = true;
+        }
+    }
+
+    /**
+     * 把队列里的事件按批写入 cache_invalidation，直到队列为空
+     */
+    private void flush() throws SQLException {
+        while (true) {
+            if (unsent.isEmpty()) {
+                if (overflowed) {
+                    // 先清标记再清队列：之后入队的事件照常发送，之前的都被这条 ALL 覆盖
+                    overflowed = false;
+                    pending.clear();
+                    unsent.add(new Event(InvalidationBus.ALL, 0));
+                } else {
+                    pending.drainTo(unsent, BATCH);
+                }
+            }
+            if (unsent.isEmpty()) {
+                return;
+            }
+            try (Connection conn = MyDataBase.getDataSource().getConnection();
+                 PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+                for (Event event : unsent) {
+                    ps.setString(1, event.table);
+                    ps.setLong(2, event.id);
+                    ps.setString(3, InvalidationBus.NODE_ID);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            sent.addAndGet(unsent.size());
+            unsent.clear();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                flush();
+            } catch (SQLException e) {
+                flushFailures.incrementAndGet();
+                logger.warn("写入缓存失效事件失败，下一轮重试 size={}: {}", unsent.size(), e.getMessage());
+            }
+            try {
+                poll();
+                lastPollOkAt = System.currentTimeMillis();
+            } catch (SQLException e) {
+                pollFailures.incrementAndGet();
+                logger.warn("轮询缓存失效事件失败: {}", e.getMessage());
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastPollOkAt > MAX_STALE_MS && now - lastStaleFlushAt > MAX_STALE_MS) {
+                lastStaleFlushAt = now;
+                staleFlushes.incrementAndGet();
+                logger.warn("{} ms 未收到缓存失效事件，清空本节点缓存", now - lastPollOkAt);
+                InvalidationBus.deliver(InvalidationBus.ALL, 0);
+            }
+            try {
+                Thread.sleep(POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void poll() throws SQLException {
+        try (Connection conn = MyDataBase.getDataSource().getConnection()) {
+            if (cursor < 0) {
+                // 启动前的事件不用补：本节点缓存是空的
+                try (PreparedStatement ps = conn.prepareStatement(MAX_ID_SQL);
+                     ResultSet rs = ps.executeQuery()) {
+                    cursor = rs.next() ? rs.getLong(1) : 0;
+                }
+                readCursor = cursor;
+                return;
+            }
+
+            pollLate(conn);
+            for (int page = 0; page < MAX_PAGES; page++) {
+                int rows = 0;
+                try (PreparedStatement ps = conn.prepareStatement(POLL_SQL)) {
+                    ps.setLong(1, readCursor);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            rows++;
+                            readCursor = rs.getLong("id");
+                            apply(rs);
+                        }
+                    }
+                }
+                if (rows < BATCH) {
+                    break;
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            while (!seen.isEmpty() && seen.firstEntry().getValue() <= now) {
+                cursor = seen.pollFirstEntry().getKey();
+            }
+
+            if (now - lastCleanupAt > CLEANUP_INTERVAL_MS) {
+                lastCleanupAt = now;
+                try (PreparedStatement ps = conn.prepareStatement(CLEANUP_SQL)) {
+                    ps.executeUpdate();
+                }
+            }
+        }
+    }
+
+    /**
+     * 自增 id 不保证按提交顺序可见：cursor 和 readCursor 之间只按主键查 id，没见过的才读整行
+     */
+    private void pollLate(Connection conn) throws SQLException {
+        if (readCursor <= cursor) {
+            return;
+        }
+        List<Long> late = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(WINDOW_SQL)) {
+            ps.setLong(1, cursor);
+            ps.setLong(2, readCursor);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (!seen.containsKey(rs.getLong(1))) {
+                        late.add(rs.getLong(1));
+                    }
+                }
+            }
+        }
+        for (int from = 0; from < late.size(); from += BATCH) {
+            List<Long> part = late.subList(from, Math.min(late.size(), from + BATCH));
+            String sql = COLUMNS + " WHERE id IN (" + String.join(", ", Collections.nCopies(part.size(), "?")) + ")";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (int i = 0; i < part.size(); i++) {
+                    ps.setLong(i + 1, part.get(i));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        apply(rs);
+                    }
+                }
+            }
+        }
+    }
+
+    private void apply(ResultSet rs) throws SQLException {
+        long id = rs.getLong("id");
+        long ageMicros = rs.getLong("age_us");
+        if (id <= cursor || seen.containsKey(id)) {
+            return;
+        }
+        long graceLeftMillis = Math.max(0, GRACE_MS - TimeUnit.MICROSECONDS.toMillis(ageMicros));
+        seen.put(id, System.currentTimeMillis() + graceLeftMillis);
+        if (!InvalidationBus.NODE_ID.equals(rs.getString("origin"))) {
+            InvalidationBus.deliver(rs.getString("table_name"), rs.getLong("row_id"));
+            applied.incrementAndGet();
+            recordLag(ageMicros);
+        }
+    }
+
+    private void recordLag(long micros) {
+        lastLagMicros = micros;
+        lagSumMicros.addAndGet(micros);
+        if (micros > maxLagMicros) {
+            maxLagMicros = micros;
+        }
+    }
+
+    @Override
+    public String statsJson() {
+        long count = applied.get();
+        return "{ \"type\": \"db\""
+                + ", \"pollMs\": " + POLL_MS
+                + ", \"maxStaleMs\": " + MAX_STALE_MS
+                + ", \"sent\": " + sent.get()
+                + ", \"pending\": " + pending.size()
+                + ", \"overflows\": " + overflows.get()
+                + ", \"flushFailures\": " + flushFailures.get()
+                + ", \"applied\": " + count
+                + ", \"lastLagMs\": " + lastLagMicros / 1000.0
+                + ", \"avgLagMs\": " + (count == 0 ? 0 : lagSumMicros.get() / count / 1000.0)
+                + ", \"maxLagMs\": " + maxLagMicros / 1000.0
+                + ", \"msSinceLastPoll\": " + (System.currentTimeMillis() - lastPollOkAt)
+                + ", \"pollFailures\": " + pollFailures.get()
+                + ", \"staleFlushes\": " + staleFlushes.get()
+                + " }";
+    }
+}
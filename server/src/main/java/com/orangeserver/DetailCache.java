@@ -0,0 +1,205 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 详情接口的响应缓存，按 表名 + id 保存序列化好的完整响应字节和 ETag，命中时不查库、不拼 JSON。
+ * 每项记下它引用的行（如资产详情引用所在位置空间、部门、领用人），收到其中任一行的失效事件就移出，
+ * 所以部门改名、位置空间换部门也会让相关资产详情失效，其它详情不受影响。
+ * 查询期间依赖的表有变更时只写出不缓存，与 ResultCache 相同，避免把查询到一半被改掉的旧数据放进来。
+ * 表版本（TableVersions）和按字节预算的 LRU（ByteLru）与 ResultCache 共用同一套实现。
+ * 按 LRU 淘汰，总大小不超过 -Dorange.detailCache.maxBytes（默认 4MB，0 表示关闭）。
+ */
+public final class DetailCache {
+    private static final long MAX_BYTES = Long.getLong("orange.detailCache.maxBytes", 4L * 1024 * 1024);
+    /** 单项超过总预算的 1/64 不缓存 */
+    private static final long MAX_ENTRY_BYTES = MAX_BYTES / 64;
+
+    private static final TableVersions tableVersions = new TableVersions();
+    private static final ByteLru<Entry> entries = new ByteLru<>(256, MAX_BYTES,
+            DetailCache::weight, DetailCache::unlink);
+    /** 被引用的行 -> 引用它的缓存项 */
+    private static final Map<String, Set<String>> dependents = new HashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+    private static final AtomicLong skipped = new AtomicLong();
+
+    private DetailCache() {
+    }
+
+    /**
+     * 查询前取得的键，带着当时各依赖表的版本
+     */
+    public static final class Key extends TableVersions.Key {
+        Key(String text, String[] tables) {
+            super(text, tables, tableVersions);
+        }
+    }
+
+    private static final class Entry {
+        final byte[] body;
+        final String etag;
+        final String[] refs;
+
+        Entry(byte[] body, String etag, String[] refs) {
+            this.body = body;
+            this.etag = etag;
+            this.refs = refs;
+        }
+    }
+
+    public static void start() {
+        if (MAX_BYTES > 0) {
+            InvalidationBus.subscribe(DetailCache::onInvalidate);
+        }
+    }
+
+    /**
+     * @param tables 详情内容来自的表，查询期间这些表有变更时不缓存
+     */
+    public static Key key(String table, long id, String[] tables) {
+        return new Key(ref(table, id), tables);
+    }
+
+    /** 被引用的一行，传给 writeAndCache */
+    public static String ref(String table, long id) {
+        return table + ":" + id;
+    }
+
+    /**
+     * 命中时设置 ETag、写出缓存的响应并返回 true
+     */
+    public static boolean writeIfCached(Key key, HttpServletResponse resp) throws IOException {
+        if (MAX_BYTES <= 0) {
+            return false;
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key.text);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        resp.setHeader("ETag", entry.etag);
+        ApiUtils.writeRaw(resp, entry.body);
+        return true;
+    }
+
+    /**
+     * 设置 ETag、写出成功响应并放入缓存；refs 为详情里引用的其它行（null 忽略），自身这一行不必列出
+     */
+    public static void writeAndCache(Key key, HttpServletResponse resp, String data, long version, String... refs)
+            throws IOException {
+        byte[] body = ApiUtils.formatJson(0, "ok", data).getBytes(StandardCharsets.UTF_8);
+        String etag = ApiUtils.etag(version);
+        if (MAX_BYTES > 0) {
+            Set<String> all = new HashSet<>(Arrays.asList(refs));
+            all.remove(null);
+            all.add(key.text);
+            if (body.length > MAX_ENTRY_BYTES || !put(key, new Entry(body, etag, all.toArray(new String[0])))) {
+                skipped.incrementAndGet();
+            }
+        }
+        resp.setHeader("ETag", etag);
+        ApiUtils.writeRaw(resp, body);
+    }
+
+    /**
+     * 在锁内核对表版本再放入：失效事件先加版本再加锁移除，所以两者无论谁先，都不会留下旧数据
+     */
+    private static boolean put(Key key, Entry entry) {
+        String text = key.text;
+        synchronized (entries) {
+            if (!tableVersions.isCurrent(key)) {
+                return false;
+            }
+            remove(text);
+            // 先登记引用再放入：放入时淘汰的项（包括新项自己）由 unlink 摘掉
+            for (String ref : entry.refs) {
+                dependents.computeIfAbsent(ref, r -> new HashSet<>()).add(text);
+            }
+            entries.put(text, entry);
+        }
+        return true;
+    }
+
+    private static void remove(String text) {
+        Entry old = entries.remove(text);
+        if (old != null) {
+            unlink(text, old);
+        }
+    }
+
+    /** 从反向索引中摘掉；已从 entries 移除（主动移除或被淘汰）后调用 */
+    private static void unlink(String text, Entry entry) {
+        for (String ref : entry.refs) {
+            Set<String> keys = dependents.get(ref);
+            if (keys != null) {
+                keys.remove(text);
+                if (keys.isEmpty()) {
+                    dependents.remove(ref);
+                }
+            }
+        }
+    }
+
+    private static long weight(String text, Entry entry) {
+        long weight = 64 + 2L * text.length() + entry.body.length + 2L * entry.etag.length();
+        for (String ref : entry.refs) {
+            weight += 32 + 2L * ref.length();
+        }
+        return weight;
+    }
+
+    /**
+     * 加表版本（让正在进行的查询不写入缓存），并移出引用了这一行的缓存项
+     */
+    private static void onInvalidate(String table, long id) {
+        if (InvalidationBus.ALL.equals(table)) {
+            tableVersions.bumpAll();
+            synchronized (entries) {
+                invalidations.addAndGet(entries.size());
+                entries.clear();
+                dependents.clear();
+            }
+            return;
+        }
+        tableVersions.bump(table);
+        synchronized (entries) {
+            Set<String> keys = dependents.get(ref(table, id));
+            if (keys == null) {
+                return;
+            }
+            for (String text : keys.toArray(new String[0])) {
+                remove(text);
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public static String statsJson() {
+        synchronized (entries) {
+            return "{ \"maxBytes\": " + MAX_BYTES
+                    + ", \"entries\": " + entries.size()
+                    + ", \"bytes\": " + entries.bytes()
+                    + ", \"hits\": " + hits.get()
+                    + ", \"misses\": " + misses.get()
+                    + ", \"invalidations\": " + invalidations.get()
+                    + ", \"evictions\": " + entries.evictions()
+                    + ", \"skipped\": " + skipped.get()
+                    + " }";
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * POST 请求的 Idempotency-Key 支持（新增资产、领用等）。
+ * 第一次请求的响应保存在有界的 TTL 缓存里，带相同 key 的重试直接从内存回放，不再访问数据库；
+ * 原请求还在处理时，重复请求等待原请求的结果而不是并发执行。
+ * key 按客户端（与 RateLimitFilter 相同的识别方式）隔开，不同客户端用了同一个 key 也互不影响；
+ * 超过容量时只淘汰已完成的记录，处理中的不会被挤掉；容量按淘汰队列 order 的长度算，
+ * 不保存结果的记录（5xx、429）已不在 records 里，但在 order 里排到队头或超出容量时才移除，也要算进去。
+ * 服务器异常（code >= 5000 / HTTP 5xx / 429）的响应不保存，重试会重新执行。
+ */
+@WebFilter("/api/*")
+public class IdempotencyFilter implements Filter {
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyFilter.class);
+
+    private static final String HEADER = "Idempotency-Key";
+    private static final int MAX_KEY_LENGTH = 128;
+    private static final int MAX_ENTRIES = 10000;
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final Pattern CODE = Pattern.compile("\"code\"\\s*:\\s*(\\d+)");
+
+    private static final Map<String, Record> records = new ConcurrentHashMap<>();
+    private static final ConcurrentLinkedQueue<Record> order = new ConcurrentLinkedQueue<>();
+    /** order 的长度；ConcurrentLinkedQueue.size() 要遍历整个队列 */
+    private static final AtomicInteger orderSize = new AtomicInteger();
+    private static final AtomicLong replayed = new AtomicLong();
+    private static final AtomicLong waited = new AtomicLong();
+
+    private static final class Record {
+        final String key;
+        final String fingerprint;
+        final long createdAt = System.currentTimeMillis();
+        final CompletableFuture<Stored> result = new CompletableFuture<>();
+        /** 已从 order 移除，多个线程同时淘汰时只减一次 orderSize */
+        final AtomicBoolean evicted = new AtomicBoolean();
+
+        Record(String key, String fingerprint) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private static final class Stored {
+        final int status;
+        final String contentType;
+        final byte[] body;
+
+        Stored(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) resp;
+        String idempotencyKey = request.getHeader(HEADER);
+        if (!"POST".equals(request.getMethod()) || ApiUtils.isBlank(idempotencyKey)) {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        response.setContentType("application/json; charset=UTF-8");
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            ApiUtils.writeJson(response, 4001, "Idempotency-Key 过长", "null");
+            return;
+        }
+
+        CachedBodyRequest cached = new CachedBodyRequest(request);
+        String path = ApiUtils.requestPath(request);
+        String key = RateLimitFilter.clientOf(request) + "|" + path + "|" + idempotencyKey;
+        String fingerprint = fingerprint(path, cached.getBody());
+
+        while (true) {
+            evictExpired();
+            Record mine = new Record(key, fingerprint);
+            Record existing = records.putIfAbsent(key, mine);
+            if (existing == null) {
+                order.add(mine);
+                orderSize.incrementAndGet();
+                execute(cached, response, chain, mine);
+                return;
+            }
+            if (!existing.fingerprint.equals(fingerprint)) {
+                ApiUtils.writeJson(response, 4001, "Idempotency-Key 已用于其他请求内容", "null");
+                return;
+            }
+
+            Stored stored;
+            try {
+                if (!existing.result.isDone()) {
+                    waited.incrementAndGet();
+                }
+                stored = existing.result.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                ApiUtils.writeJson(response, 4090, "相同 Idempotency-Key 的请求仍在处理中", "null");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServletException(e);
+            } catch (ExecutionException e) {
+                stored = null;
+            }
+            if (stored != null) {
+                replay(response, stored);
+                logger.info("幂等请求回放 path={} key={}", path, idempotencyKey);
+                return;
+            }
+            // 原请求没有可复用的结果（服务器异常），重新抢占执行
+        }
+    }
+
+    private void execute(CachedBodyRequest request, HttpServletResponse response, FilterChain chain, Record mine)
+            throws IOException, ServletException {
+        BufferedResponse buffered = new BufferedResponse(response);
+        try {
+            chain.doFilter(request, buffered);
+        } catch (IOException | ServletException | RuntimeException e) {
+            records.remove(mine.key, mine);
+            mine.result.complete(null);
+            throw e;
+        }
+
+        byte[] body = buffered.toByteArray();
+        response.getOutputStream().write(body);
+        if (isReusable(buffered.getStatus(), body)) {
+            mine.result.complete(new Stored(buffered.getStatus(), buffered.getContentType(), body));
+        } else {
+            records.remove(mine.key, mine);
+            mine.result.complete(null);
+        }
+    }
+
+    private static void replay(HttpServletResponse response, Stored stored) throws IOException {
+        replayed.incrementAndGet();
+        response.setStatus(stored.status);
+        if (stored.contentType != null) {
+            response.setContentType(stored.contentType);
+        }
+        response.setHeader("Idempotent-Replayed", "true");
+        response.getOutputStream().write(stored.body);
+    }
+
+    private static boolean isReusable(int status, byte[] body) {
+        if (status >= 500 || status == 429) {
+            return false;
+        }
+        Matcher matcher = CODE.matcher(new String(body, StandardCharsets.UTF_8));
+        return !matcher.find() || Integer.parseInt(matcher.group(1)) < 5000;
+    }
+
+    /**
+     * 按写入顺序淘汰：TTL 统一，所以越靠前越早过期；已从 records 移除的（结果不保存）排到队头就直接移除。
+     * 还在处理中的记录跳过，否则重复请求会在原请求完成前再执行一次；它们完成后由之后的调用淘汰
+     */
+    private static void evictExpired() {
+        long expireBefore = System.currentTimeMillis() - TTL_MILLIS;
+        Iterator<Record> it = order.iterator();
+        while (it.hasNext()) {
+            Record record = it.next();
+            boolean done = record.result.isDone();
+            boolean stale = record.createdAt < expireBefore || records.get(record.key) != record;
+            if (!(done && stale) && orderSize.get() <= MAX_ENTRIES) {
+                return;
+            }
+            if (done && record.evicted.compareAndSet(false, true)) {
+                it.remove();
+                orderSize.decrementAndGet();
+                records.remove(record.key, record);
+            }
+        }
+    }
+
+    private static String fingerprint(String path, byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(body);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String statsJson() {
+        return "{ \"entries\": " + records.size()
+                + ", \"queued\": " + orderSize.get()
+                + ", \"replayed\": " + replayed.get()
+                + ", \"waited\": " + waited.get()
+                + " }";
+    }
+}
@@ -0,0 +1,230 @@
+package com.orangeserver;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 在进程内直接调用业务 servlet，不经过 HTTP 连接和过滤器。
+ * 请求/响应对象是只实现了 servlet 会用到的那部分方法的动态代理。
+ */
+final class InternalDispatcher {
+
+    static final class Result {
+        final int status;
+        final String body;
+
+        Result(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private final Map<String, HttpServlet> routes = new LinkedHashMap<>();
+
+    InternalDispatcher() {
+        routes.put("/api/departments", new ApiDepartments());
+        routes.put("/api/locations", new LocationServlet());
+        routes.put("/api/assignees", new AssigneeServlet());
+        routes.put("/api/assets", new AssetServlet());
+    }
+
+    Result get(String uri) throws IOException, ServletException {
+        return dispatch("GET", uri, null, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param uri 形如 /api/assets?page=1&amp;size=10，不含 context path
+     */
+    Result dispatch(String method, String uri, String body, Map<String, String> headers)
+            throws IOException, ServletException {
+        int q = uri.indexOf('?');
+        String path = q < 0 ? uri : uri.substring(0, q);
+        String query = q < 0 ? null : uri.substring(q + 1);
+
+        String servletPath = null;
+        for (String prefix : routes.keySet()) {
+            if (path.equals(prefix) || path.startsWith(prefix + "/")) {
+                servletPath = prefix;
+                break;
+            }
+        }
+        if (servletPath == null) {
+            return new Result(HttpServletResponse.SC_NOT_FOUND,
+                    "{ \"code\": 4004, \"msg\": \"接口不存在\", \"data\": null }");
+        }
+        String pathInfo = path.length() > servletPath.length() ? path.substring(servletPath.length()) : null;
+
+        HttpServletRequest request = request(method, path, servletPath, pathInfo, query, body, headers);
+        BufferedResponse response = new BufferedResponse(response());
+        routes.get(servletPath).service(request, response);
+        return new Result(response.getStatus(), new String(response.toByteArray(), StandardCharsets.UTF_8).trim());
+    }
+
+    private static HttpServletRequest request(String method, String path, String servletPath, String pathInfo,
+                                              String query, String body, Map<String, String> headers) {
+        Map<String, String[]> params = parseQuery(query);
+        Map<String, String> lowerHeaders = new HashMap<>();
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            lowerHeaders.put(entry.getKey().toLowerCase(), entry.getValue());
+        }
+        byte[] bodyBytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+        return (HttpServletRequest) Proxy.newProxyInstance(InternalDispatcher.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, (proxy, m, args) -> {
+                    switch (m.getName()) {
+                        case "getMethod":
+                            return method;
+                        case "getRequestURI":
+                            return path;
+                        case "getContextPath":
+                            return "";
+                        case "getServletPath":
+                            return servletPath;
+                        case "getPathInfo":
+                            return pathInfo;
+                        case "getQueryString":
+                            return query;
+                        case "getParameter": {
+                            String[] values = params.get((String) args[0]);
+                            return values == null ? null : values[0];
+                        }
+                        case "getParameterValues":
+                            return params.get((String) args[0]);
+                        case "getParameterMap":
+                            return params;
+                        case "getParameterNames":
+                            return Collections.enumeration(params.keySet());
+                        case "getHeader":
+                            return lowerHeaders.get(((String) args[0]).toLowerCase());
+                        case "getHeaders": {
+                            String value = lowerHeaders.get(((String) args[0]).toLowerCase());
+                            return Collections.enumeration(value == null ? Collections.<String>emptyList()
+                                    : Collections.singletonList(value));
+                        }
+                        case "getHeaderNames":
+                            return Collections.enumeration(lowerHeaders.keySet());
+                        case "getDateHeader":
+                        case "getIntHeader":
+                            return -1;
+                        case "getReader":
+                            return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bodyBytes),
+                                    StandardCharsets.UTF_8));
+                        case "getCharacterEncoding":
+                            return StandardCharsets.UTF_8.name();
+                        case "getContentLength":
+                            return bodyBytes.length;
+                        case "getProtocol":
+                            return "HTTP/1.1";
+                        case "getScheme":
+                            return "http";
+                        case "getRemoteAddr":
+                            return "127.0.0.1";
+                        case "getAttribute":
+                            return attributes.get((String) args[0]);
+                        case "setAttribute":
+                            attributes.put((String) args[0], args[1]);
+                            return null;
+                        case "removeAttribute":
+                            attributes.remove((String) args[0]);
+                            return null;
+                        case "toString":
+                            return method + " " + path;
+                        default:
+                            return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    private static HttpServletResponse response() {
+        Map<String, String> headers = new ConcurrentHashMap<>();
+        String[] contentType = new String[1];
+        int[] status = {HttpServletResponse.SC_OK};
+        return (HttpServletResponse) Proxy.newProxyInstance(InternalDispatcher.class.getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class}, (proxy, m, args) -> {
+                    switch (m.getName()) {
+                        case "setContentType":
+                            contentType[0] = (String) args[0];
+                            return null;
+                        case "getContentType":
+                            return contentType[0];
+                        case "getCharacterEncoding":
+                            return StandardCharsets.UTF_8.name();
+                        case "setStatus":
+                        case "sendError":
+                            status[0] = (Integer) args[0];
+                            return null;
+                        case "getStatus":
+                            return status[0];
+                        case "setHeader":
+                        case "addHeader":
+                            headers.put((String) args[0], (String) args[1]);
+                            return null;
+                        case "getHeader":
+                            return headers.get((String) args[0]);
+                        case "containsHeader":
+                            return headers.containsKey((String) args[0]);
+                        default:
+                            return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    static Map<String, String[]> parseQuery(String query) {
+        Map<String, String[]> params = new LinkedHashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = decode(eq < 0 ? pair : pair.substring(0, eq));
+            String value = eq < 0 ? "" : decode(pair.substring(eq + 1));
+            String[] old = params.get(name);
+            if (old == null) {
+                params.put(name, new String[] {value});
+            } else {
+                String[] values = new String[old.length + 1];
+                System.arraycopy(old, 0, values, 0, old.length);
+                values[old.length] = value;
+                params.put(name, values);
+            }
+        }
+        return params;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
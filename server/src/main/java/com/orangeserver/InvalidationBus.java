@@ -0,0 +1,175 @@
+package com.orangeserver;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 缓存失效总线。写操作成功后调用 publish(表名, id)：
+ * 本节点的订阅者立即收到，其它节点通过 Transport 收到。
+ * 传输方式用 -Dorange.invalidation 选择：local（默认，单实例）或 db（轮询 cache_invalidation 表，多实例部署用）。
+ */
+public final class InvalidationBus {
+    /** table 为 ALL 表示清空全部缓存，此时 id 无意义 */
+    public static final String ALL = "*";
+
+    private static final Logger logger = LoggerFactory.getLogger(InvalidationBus.class);
+
+    /** 本节点标识，DB 传输据此跳过自己发出的事件 */
+    static final String NODE_ID = UUID.randomUUID().toString().substring(0, 8);
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static final AtomicLong published = new AtomicLong();
+    private static final AtomicLong delivered = new AtomicLong();
+    private static final AtomicLong sendFailures = new AtomicLong();
+    /** 本节点收到的失效事件序号，通知订阅者之前加一 */
+    private static final AtomicLong version = new AtomicLong();
+
+    private static volatile Transport transport = new LocalTransport();
+
+    private InvalidationBus() {
+    }
+
+    public interface Listener {
+        void onInvalidate(String table, long id);
+
+        /**
+         * 同一张表一批行的变更；默认逐行回调，需要读库的订阅者应合并成一次后台任务
+         */
+        default void onInvalidate(String table, Collection<Long> ids) {
+            for (long id : ids) {
+                onInvalidate(table, id);
+            }
+        }
+    }
+
+    /**
+     * 节点间传播失效事件的方式
+     */
+    public interface Transport {
+        void start();
+
+        void stop();
+
+        void send(String table, long id) throws SQLException;
+
+        String statsJson();
+    }
+
+    /**
+     * 单实例部署：本节点订阅者已在 publish 时收到，不需要再传
+     */
+    static final class LocalTransport implements Transport {
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void send(String table, long id) {
+        }
+
+        @Override
+        public String statsJson() {
+            return "{ \"type\": \"local\" }";
+        }
+    }
+
+    public static synchronized void start() {
+        String type = System.getProperty("orange.invalidation", "local");
+        transport = "db".equalsIgnoreCase(type) ? new DbPollingTransport() : new LocalTransport();
+        transport.start();
+        logger.info("缓存失效总线已启动 transport={} node={}", type, NODE_ID);
+    }
+
+    public static synchronized void shutdown() {
+        transport.stop();
+        transport = new LocalTransport();
+        logger.info("缓存失效总线已停止");
+    }
+
+    public static void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 数据已提交后调用。传给其它节点失败只记日志和计数（sendFailures），不影响本次请求
+     */
+    public static void publish(String table, long id) {
+        published.incrementAndGet();
+        deliver(table, id);
+        try {
+            transport.send(table, id);
+        } catch (SQLException e) {
+            sendFailures.incrementAndGet();
+            logger.error("发送缓存失效事件失败 table={} id={}", table, id, e);
+        }
+    }
+
+    /**
+     * 批量写（如批量移动资产）提交后调用：订阅者整批收到一次，传给其它节点的事件仍按行
+     */
+    public static void publish(String table, Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        published.addAndGet(ids.size());
+        delivered.addAndGet(ids.size());
+        version.incrementAndGet();
+        for (Listener listener : listeners) {
+            try {
+                listener.onInvalidate(table, ids);
+            } catch (RuntimeException e) {
+                logger.error("缓存失效回调出错 table={} ids={}", table, ids.size(), e);
+            }
+        }
+        try {
+            for (long id : ids) {
+                transport.send(table, id);
+            }
+        } catch (SQLException e) {
+            sendFailures.incrementAndGet();
+            logger.error("发送缓存失效事件失败 table={} ids={}", table, ids.size(), e);
+        }
+    }
+
+    /**
+     * 通知本节点的订阅者，Transport 收到其它节点的事件时也调用这里
+     */
+    static void deliver(String table, long id) {
+        delivered.incrementAndGet();
+        version.incrementAndGet();
+        for (Listener listener : listeners) {
+            try {
+                listener.onInvalidate(table, id);
+            } catch (RuntimeException e) {
+                logger.error("缓存失效回调出错 table={} id={}", table, id, e);
+            }
+        }
+    }
+
+    /**
+     * 单调递增：两次读到的值相同，说明期间本节点没有收到任何失效事件
+     */
+    static long version() {
+        return version.get();
+    }
+
+    public static String statsJson() {
+        return "{ \"node\": \"" + NODE_ID + "\""
+                + ", \"subscribers\": " + listeners.size()
+                + ", \"published\": " + published.get()
+                + ", \"delivered\": " + delivered.get()
+                + ", \"sendFailures\": " + sendFailures.get()
+                + ", \"transport\": " + transport.statsJson()
+                + " }";
+    }
+}
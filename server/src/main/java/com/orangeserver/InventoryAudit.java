@@ -0,0 +1,516 @@
+package com.orangeserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+/**
+ * 全量资产审计：每个分片按 location_space 的 id 区间拆成小块，在有界的 ForkJoinPool 上并行检查，
+ * 每块只借一个连接、查完即还，所以同时占用的连接数不超过并行度。检查项：
+ * 位置空间资产密度（件/平方米）、status 与 assignee_id / retired_at 不一致的资产、
+ * 落在错误分片上的位置空间、领用人名下资产过多。结果写入分片 0 的 audit_run / audit_finding。
+ * 每块开始前看一眼并发上限和连接池，交互请求多或有线程在等连接时就先等一等，不和在线请求抢连接。
+ * -Dorange.audit.hour 为每天自动执行的整点（默认 2，-1 不自动执行），-Dorange.audit.threads 为并行度（默认 2）。
+ */
+public final class InventoryAudit {
+    private static final Logger logger = LoggerFactory.getLogger(InventoryAudit.class);
+
+    private static final int HOUR = Integer.getInteger("orange.audit.hour", 2);
+    private static final int THREADS = Math.max(1, Integer.getInteger("orange.audit.threads", 2));
+    private static final double MAX_PER_SQM = Double.parseDouble(System.getProperty("orange.audit.maxPerSqm", "2"));
+    private static final int MAX_PER_ASSIGNEE = Integer.getInteger("orange.audit.maxPerAssignee", 50);
+
+    /** 每块覆盖的位置空间 id 个数 */
+    private static final int RANGE_SIZE = 500;
+    /** 单次审计最多保存的明细条数，超出只计数 */
+    private static final int MAX_FINDINGS = 10000;
+    private static final int INSERT_BATCH = 500;
+    /** 连接池空闲连接少于这个数就让路 */
+    private static final int RESERVED_IDLE = 2;
+    private static final long THROTTLE_SLEEP_MS = 200;
+    private static final String ROUTE = "(audit)";
+    private static final String LOCK_NAME = "orange_inventory_audit";
+
+    static final String KIND_DENSITY = "density";
+    static final String KIND_STATUS = "status";
+    static final String KIND_MISROUTED = "misrouted";
+    static final String KIND_ASSIGNEE_LOAD = "assignee_load";
+
+    private static final String LOCATION_SQL = "SELECT ls.id, ls.dept_id, ls.area,"
+            + " COUNT(ast.id) AS assets"
+            + " FROM location_space ls"
+            + " LEFT JOIN asset ast ON ast.location_id = ls.id AND ast.status < " + AssetServlet.STATUS_RETIRED
+            + " WHERE ls.id BETWEEN ? AND ?"
+            + " GROUP BY ls.id, ls.dept_id, ls.area";
+    private static final String STATUS_SQL = "SELECT id, status, assignee_id FROM asset"
+            + " WHERE location_id BETWEEN ? AND ?"
+            + " AND ((status = 1 AND assignee_id IS NULL) OR (status <> 1 AND assignee_id IS NOT NULL)"
+            + " OR (status = " + AssetServlet.STATUS_RETIRED + " AND retired_at IS NULL)"
+            + " OR status NOT IN (0, 1, " + AssetServlet.STATUS_RETIRED + "))"
+            + " LIMIT " + MAX_FINDINGS;
+    private static final String LOAD_SQL = "SELECT assignee_id, COUNT(*) FROM asset"
+            + " WHERE location_id BETWEEN ? AND ? AND status = 1 AND assignee_id IS NOT NULL"
+            + " GROUP BY assignee_id";
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+    private static final AtomicLong runs = new AtomicLong();
+    private static final AtomicLong throttleWaits = new AtomicLong();
+    private static final AtomicLong throttledNanos = new AtomicLong();
+    private static volatile long lastRunId;
+    private static volatile String lastStatus;
+    private static volatile Thread scheduler;
+
+    private InventoryAudit() {
+    }
+
+    /** 一条审计发现 */
+    static final class Finding {
+        final String kind;
+        final long refId;
+        final String detail;
+
+        Finding(String kind, long refId, String detail) {
+            this.kind = kind;
+            this.refId = refId;
+            this.detail = detail;
+        }
+    }
+
+    /**
+     * 一块或多块的汇总结果，子任务的结果逐级合并
+     */
+    static final class Partial {
+        int locations;
+        long assets;
+        double area;
+        int failedChunks;
+        int droppedFindings;
+        final Map<String, Integer> kinds = new TreeMap<>();
+        final Map<Long, Integer> assigneeLoad = new HashMap<>();
+        final List<Finding> findings = new ArrayList<>();
+
+        void add(Finding finding) {
+            kinds.merge(finding.kind, 1, Integer::sum);
+            if (findings.size() < MAX_FINDINGS) {
+                findings.add(finding);
+            } else {
+                droppedFindings++;
+            }
+        }
+
+        Partial merge(Partial other) {
+            locations += other.locations;
+            assets += other.assets;
+            area += other.area;
+            failedChunks += other.failedChunks;
+            droppedFindings += other.droppedFindings;
+            for (Map.Entry<String, Integer> e : other.kinds.entrySet()) {
+                kinds.merge(e.getKey(), e.getValue(), Integer::sum);
+            }
+            for (Map.Entry<Long, Integer> e : other.assigneeLoad.entrySet()) {
+                assigneeLoad.merge(e.getKey(), e.getValue(), Integer::sum);
+            }
+            int room = MAX_FINDINGS - findings.size();
+            findings.addAll(other.findings.subList(0, Math.min(room, other.findings.size())));
+            droppedFindings += Math.max(0, other.findings.size() - room);
+            return this;
+        }
+    }
+
+    /**
+     * 分片内 [from, to] 这段位置空间 id；超过 RANGE_SIZE 就对半拆开
+     */
+    private static final class Chunk extends RecursiveTask<Partial> {
+        private final int shard;
+        private final long from;
+        private final long to;
+
+        Chunk(int shard, long from, long to) {
+            this.shard = shard;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from + 1 > RANGE_SIZE) {
+                long mid = from + (to - from) / 2;
+                Chunk left = new Chunk(shard, from, mid);
+                left.fork();
+                Partial right = new Chunk(shard, mid + 1, to).compute();
+                return right.merge(left.join());
+            }
+            Partial partial = new Partial();
+            try {
+                DataSource ds = ShardRouter.shard(shard);
+                awaitQuiet(ds);
+                SqlTimer.callWithRoute(ROUTE, () -> {
+                    scan(ds, shard, from, to, partial);
+                    return null;
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                partial.failedChunks++;
+            } catch (Exception e) {
+                partial.failedChunks++;
+                logger.warn("审计分片 {} 位置空间 {}-{} 失败: {}", shard, from, to, e.getMessage());
+            }
+            return partial;
+        }
+    }
+
+    public static synchronized void start() {
+        if (HOUR < 0 || scheduler != null) {
+            return;
+        }
+        scheduler = new Thread(InventoryAudit::schedule, "audit-scheduler");
+        scheduler.setDaemon(true);
+        scheduler.start();
+    }
+
+    public static synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.interrupt();
+            scheduler = null;
+        }
+    }
+
+    private static void schedule() {
+        while (!Thread.currentThread().isInterrupted()) {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime next = now.toLocalDate().atTime(HOUR, 0);
+            if (!next.isAfter(now)) {
+                next = next.plusDays(1);
+            }
+            try {
+                Thread.sleep(Duration.between(now, next).toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+            startAsync("schedule");
+        }
+    }
+
+    /**
+     * 在后台线程里开始一次审计；已有审计在本实例执行时返回 false
+     */
+    public static boolean startAsync(String trigger) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread worker = new Thread(() -> {
+            try {
+                run(trigger);
+            } finally {
+                running.set(false);
+            }
+        }, "inventory-audit");
+        worker.setDaemon(true);
+        worker.start();
+        return true;
+    }
+
+    public static boolean isRunning() {
+        return running.get();
+    }
+
+    private static void run(String trigger) {
+        long start = System.nanoTime();
+        long throttledBefore = throttledNanos.get();
+        // 分片 0 上的这个连接整个审计期间持有：拿全局锁，最后写报告
+        try (Connection conn = ShardRouter.shard(0).getConnection()) {
+            if (!lock(conn)) {
+                logger.info("其他实例正在执行资产审计，本次跳过");
+                return;
+            }
+            long runId = 0;
+            try {
+                runId = insertRun(conn, trigger);
+                lastRunId = runId;
+                lastStatus = "running";
+                runs.incrementAndGet();
+                logger.info("开始资产审计 runId={} trigger={} threads={}", runId, trigger, THREADS);
+
+                Partial total = new Partial();
+                ForkJoinPool pool = new ForkJoinPool(THREADS);
+                try {
+                    for (int shard = 0; shard < ShardRouter.count(); shard++) {
+                        long[] range = locationRange(ShardRouter.shard(shard));
+                        if (range != null) {
+                            total.merge(pool.invoke(new Chunk(shard, range[0], range[1])));
+                        }
+                    }
+                } finally {
+                    pool.shutdownNow();
+                }
+                List<String> top = assigneeFindings(conn, total);
+                writeFindings(conn, runId, total.findings);
+
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                long throttledMs = TimeUnit.NANOSECONDS.toMillis(throttledNanos.get() - throttledBefore);
+                String summary = summaryJson(total, top, throttledMs);
+                String status = total.failedChunks == 0 ? "done" : "partial";
+                finishRun(conn, runId, status, millis, total.findings.size() + total.droppedFindings, summary);
+                lastStatus = status;
+                logger.info("资产审计完成 runId={} 耗时 {} ms {}", runId, millis, summary);
+            } catch (SQLException | RuntimeException e) {
+                lastStatus = "failed";
+                logger.error("资产审计失败 runId={}", runId, e);
+                if (runId > 0) {
+                    try {
+                        finishRun(conn, runId, "failed", (System.nanoTime() - start) / 1_000_000, 0, null);
+                    } catch (SQLException ex) {
+                        logger.warn("记录审计失败状态失败", ex);
+                    }
+                }
+            } finally {
+                unlock(conn);
+            }
+        } catch (SQLException e) {
+            lastStatus = "failed";
+            logger.error("资产审计无法获取连接", e);
+        }
+    }
+
+    /**
+     * 一块位置空间的三项检查，共用一个连接
+     */
+    private static void scan(DataSource ds, int shard, long from, long to, Partial partial) throws SQLException {
+        try (Connection conn = ds.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(LOCATION_SQL)) {
+                ps.setLong(1, from);
+                ps.setLong(2, to);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        long locationId = rs.getLong("id");
+                        long deptId = rs.getLong("dept_id");
+                        double area = rs.getDouble("area");
+                        long assets = rs.getLong("assets");
+                        partial.locations++;
+                        partial.assets += assets;
+                        partial.area += area;
+                        if (assets > 0 && (area <= 0 || assets / area > MAX_PER_SQM)) {
+                            partial.add(new Finding(KIND_DENSITY, locationId,
+                                    assets + " 件 / " + area + " 平方米"));
+                        }
+                        int home = ShardRouter.shardOfDept(deptId);
+                        if (home != shard) {
+                            partial.add(new Finding(KIND_MISROUTED, locationId,
+                                    "部门 " + deptId + " 应在分片 " + home + "，实际在分片 " + shard));
+                        }
+                    }
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(STATUS_SQL)) {
+                ps.setLong(1, from);
+                ps.setLong(2, to);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Object assignee = rs.getObject("assignee_id");
+                        partial.add(new Finding(KIND_STATUS, rs.getLong("id"),
+                                "status=" + rs.getInt("status") + " assignee_id=" + assignee));
+                    }
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(LOAD_SQL)) {
+                ps.setLong(1, from);
+                ps.setLong(2, to);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        partial.assigneeLoad.merge(rs.getLong(1), rs.getInt(2), Integer::sum);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 交互请求占到并发上限一半以上、或连接池有线程在等、空闲连接不足时，先等它们过去
+     */
+    private static void awaitQuiet(DataSource ds) throws InterruptedException {
+        long start = System.nanoTime();
+        boolean waited = false;
+        while (busy(ds)) {
+            waited = true;
+            Thread.sleep(THROTTLE_SLEEP_MS);
+        }
+        if (waited) {
+            throttleWaits.incrementAndGet();
+            throttledNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private static boolean busy(DataSource ds) {
+        AdaptiveLimiter limiter = LoadSheddingFilter.getLimiter();
+        if (limiter.getInflight() * 2 >= limiter.getLimit()) {
+            return true;
+        }
+        DataSource raw = SqlTimer.unwrap(ds);
+        if (!(raw instanceof HikariDataSource)) {
+            return false;
+        }
+        HikariDataSource hikari = (HikariDataSource) raw;
+        HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+        if (pool == null) {
+            return false;
+        }
+        if (pool.getThreadsAwaitingConnection() > 0) {
+            return true;
+        }
+        // 连接池太小时只看有没有线程在等，否则审计自己借走的连接就会让它一直等下去
+        return hikari.getMaximumPoolSize() > THREADS + 1 + RESERVED_IDLE && pool.getIdleConnections() < RESERVED_IDLE;
+    }
+
+    private static long[] locationRange(DataSource ds) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT MIN(id), MAX(id) FROM location_space");
+             ResultSet rs = ps.executeQuery()) {
+            if (rs.next() && rs.getObject(1) != null) {
+                return new long[] {rs.getLong(1), rs.getLong(2)};
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 按合并后的领用数生成超量发现，返回领用最多的前 10 人（JSON）
+     */
+    private static List<String> assigneeFindings(Connection conn, Partial total) throws SQLException {
+        List<Map.Entry<Long, Integer>> loads = new ArrayList<>(total.assigneeLoad.entrySet());
+        loads.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        Map<Long, String> names = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id, name FROM assignee");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                names.put(rs.getLong(1), rs.getString(2));
+            }
+        }
+        List<String> top = new ArrayList<>();
+        for (Map.Entry<Long, Integer> load : loads) {
+            String name = names.get(load.getKey());
+            if (load.getValue() > MAX_PER_ASSIGNEE) {
+                total.add(new Finding(KIND_ASSIGNEE_LOAD, load.getKey(),
+                        (name == null ? "" : name + " ") + "领用 " + load.getValue() + " 件"));
+            }
+            if (top.size() < 10) {
+                top.add("{ \"assigneeId\": " + load.getKey()
+                        + ", \"name\": " + (name == null ? "null" : "\"" + ApiUtils.escapeJson(name) + "\"")
+                        + ", \"assets\": " + load.getValue() + " }");
+            }
+        }
+        return top;
+    }
+
+    private static String summaryJson(Partial total, List<String> top, long throttledMs) {
+        List<String> kinds = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : total.kinds.entrySet()) {
+            kinds.add("\"" + e.getKey() + "\": " + e.getValue());
+        }
+        return "{ \"shards\": " + ShardRouter.count()
+                + ", \"locations\": " + total.locations
+                + ", \"assets\": " + total.assets
+                + ", \"area\": " + Math.round(total.area * 100) / 100.0
+                + ", \"findings\": { " + String.join(", ", kinds) + " }"
+                + ", \"droppedFindings\": " + total.droppedFindings
+                + ", \"failedChunks\": " + total.failedChunks
+                + ", \"throttledMs\": " + throttledMs
+                + ", \"topAssignees\": [" + String.join(", ", top) + "]"
+                + " }";
+    }
+
+    private static long insertRun(Connection conn, String trigger) throws SQLException {
+        String sql = "INSERT INTO audit_run (trigger_source, status, started_at) VALUES (?, 'running', NOW(3))";
+        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, trigger);
+            ps.executeUpdate();
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                return keys.next() ? keys.getLong(1) : 0;
+            }
+        }
+    }
+
+    private static void finishRun(Connection conn, long runId, String status, long millis, int findings,
+                                  String summary) throws SQLException {
+        String sql = "UPDATE audit_run SET status = ?, finished_at = NOW(3), duration_ms = ?, findings = ?,"
+                + " summary = ? WHERE id = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, status);
+            ps.setLong(2, millis);
+            ps.setInt(3, findings);
+            ps.setString(4, summary);
+            ps.setLong(5, runId);
+            ps.executeUpdate();
+        }
+    }
+
+    private static void writeFindings(Connection conn, long runId, List<Finding> findings) throws SQLException {
+        String sql = "INSERT INTO audit_finding (run_id, kind, ref_id, detail) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int pending = 0;
+            for (Finding finding : findings) {
+                ps.setLong(1, runId);
+                ps.setString(2, finding.kind);
+                ps.setLong(3, finding.refId);
+                ps.setString(4, finding.detail.length() > 255 ? finding.detail.substring(0, 255) : finding.detail);
+                ps.addBatch();
+                if (++pending == INSERT_BATCH) {
+                    ps.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    private static boolean lock(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT GET_LOCK(?, 0)")) {
+            ps.setString(1, LOCK_NAME);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            ps.setString(1, LOCK_NAME);
+            ps.executeQuery().close();
+        } catch (SQLException e) {
+            logger.warn("释放审计锁失败", e);
+        }
+    }
+
+    public static String statsJson() {
+        return "{ \"running\": " + running.get()
+                + ", \"hour\": " + HOUR
+                + ", \"threads\": " + THREADS
+                + ", \"runs\": " + runs.get()
+                + ", \"lastRunId\": " + lastRunId
+                + ", \"lastStatus\": " + (lastStatus == null ? "null" : "\"" + lastStatus + "\"")
+                + ", \"throttleWaits\": " + throttleWaits.get()
+                + ", \"throttledMs\": " + TimeUnit.NANOSECONDS.toMillis(throttledNanos.get())
+                + " }";
+    }
+}
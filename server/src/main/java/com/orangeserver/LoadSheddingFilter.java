@@ -0,0 +1,92 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 数据库变慢时快速失败：超过自适应并发上限的请求直接返回 503 + Retry-After，
+ * 而不是在连接池里排队等到 connectionTimeout。
+ * 列表类 GET 为低优先级，领用/归还及其它写操作、详情查询为高优先级。
+ * 只有借出过数据库连接的请求才作为延迟样本：参数错误、缓存或内存索引命中的请求只要几微秒，
+ * 混进来会把最小延迟基线压到远低于真实数据库延迟，上限随之被压到最低。
+ */
+@WebFilter("/api/*")
+public class LoadSheddingFilter implements Filter {
+    private static final Logger logger = LoggerFactory.getLogger(LoadSheddingFilter.class);
+
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    /** 初始上限与连接池大小一致 */
+    private static final AdaptiveLimiter limiter = new AdaptiveLimiter(10, 4, 50);
+
+    public static AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) resp;
+        String path = ApiUtils.requestPath(request);
+        if (ApiUtils.isOpsPath(path)) {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        boolean highPriority = isHighPriority(request.getMethod(), path);
+        int inflightAtStart = limiter.tryAcquire(highPriority);
+        if (inflightAtStart == 0) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            response.setContentType("application/json; charset=UTF-8");
+            ApiUtils.writeJson(response, 5030, "服务繁忙，请稍后重试", "null");
+            logger.warn("请求被限流 {} {} limit={}", request.getMethod(), path, limiter.getLimit());
+            return;
+        }
+
+        AtomicInteger checkouts = SqlTimer.trackCheckouts();
+        long start = System.nanoTime();
+        boolean dropped = true;
+        try {
+            chain.doFilter(req, resp);
+            dropped = false;
+        } finally {
+            SqlTimer.clearCheckouts();
+            // 没借过连接的请求（参数错误、缓存命中）不能拿来更新延迟基线
+            // 盘点对账的耗时取决于客户端上传多久，也不能用
+            long rtt = checkouts.get() == 0 || isStreaming(request.getMethod(), path)
+                    ? -1 : System.nanoTime() - start;
+            limiter.release(inflightAtStart, rtt, dropped);
+        }
+    }
+
+    /**
+     * 集合查询（/api/xxx、/api/xxx/{id}/assets 等分页列表）、只读的批量请求和盘点对账为低优先级，其余为高优先级
+     */
+    static boolean isHighPriority(String method, String path) {
+        if (path.startsWith("/api/batch") || isStreaming(method, path)) {
+            return false;
+        }
+        if (!"GET".equals(method)) {
+            return true;
+        }
+        String rest = path.replaceFirst("^/api/[^/]+", "");
+        return rest.matches("/\\d+/?");
+    }
+
+    /** 边读请求体边输出结果的盘点对账请求 */
+    static boolean isStreaming(String method, String path) {
+        return "POST".equals(method) && path.matches("/api/locations/\\d+/reconcile/?");
+    }
+}
@@ -1,6 +1,8 @@
 package com.orangeserver;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -8,11 +10,16 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,10 +27,34 @@ import org.slf4j.LoggerFactory;
 public class LocationServlet extends HttpServlet {
     private static final Logger logger = LoggerFactory.getLogger(LocationServlet.class);
 
+    private static final String FROM_SQL = " FROM location_space ls"
+            + " JOIN department d ON ls.dept_id = d.id";
+    private static final String COUNT_SQL = "SELECT COUNT(*)" + FROM_SQL;
+    private static final String SELECT_SQL = "SELECT ls.id, ls.dept_id, d.dept_name, ls.room_no, ls.area,"
+            + " ls.remark, ls.version" + FROM_SQL;
+    private static final String PAGE_SQL = " ORDER BY ls.id DESC LIMIT ? OFFSET ?";
+    private static final String DETAIL_SQL = SELECT_SQL + " WHERE ls.id = ?";
+
+    /** 最常用的几条 SQL，启动预热时在每个连接上提前 prepare */
+    static final String[] HOT_SQL = {COUNT_SQL, SELECT_SQL + PAGE_SQL, DETAIL_SQL};
+    /** 列表结果依赖的表，任一表变更即让列表缓存过期 */
+    private static final String[] LIST_TABLES = {"location_space", "department"};
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         resp.setContentType("application/json; charset=UTF-8");
 
+        String pathInfo = req.getPathInfo();
+        if (pathInfo != null && pathInfo.matches("/\\d+/reconcile/?")) {
+            Long id = ApiUtils.parseId(pathInfo.replaceAll("/reconcile/?", ""));
+            if (id == null) {
+                ApiUtils.writeJson(resp, 4001, "id 格式不正确", "null");
+                return;
+            }
+            handleReconcile(req, resp, id);
+            return;
+        }
+
         /*
          * { "deptId": 1, "roomNo": "A-301", "area": 60.50, "remark": "" }
          */
@@ -38,8 +69,23 @@ public class LocationServlet extends HttpServlet {
             return;
         }
 
+        // 老数据没按部门搬到位时，同一部门的房间可能在其他分片上，唯一键只在单个分片内生效
+        if (ShardRouter.readShardOfDept(deptId) < 0) {
+            try {
+                if (roomExists(deptId, roomNo)) {
+                    ApiUtils.writeJson(resp, 4090, "房间号已存在", "null");
+                    return;
+                }
+            } catch (SQLException e) {
+                ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+                logger.error("新增位置空间失败 deptId={} roomNo={}", deptId, roomNo, e);
+                return;
+            }
+        }
+
         String sql = "INSERT INTO location_space (dept_id, room_no, area, remark) VALUES (?, ?, ?, ?)";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        long id = 0;
+        try (Connection conn = ShardRouter.shard(ShardRouter.shardOfDept(deptId)).getConnection();
              PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             ps.setLong(1, deptId);
             ps.setString(2, roomNo);
@@ -52,21 +98,11 @@ public class LocationServlet extends HttpServlet {
             }
             ps.executeUpdate();
 
-            long id = 0;
             try (ResultSet keys = ps.getGeneratedKeys()) {
                 if (keys.next()) {
                     id = keys.getLong(1);
                 }
             }
-
-            String data = "{ \"id\": " + id
-                    + ", \"deptId\": " + deptId
-                    + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\""
-                    + ", \"area\": " + area.toPlainString()
-                    + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
-                    + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
-            logger.info("新增位置空间成功 deptId={} roomNo={}", deptId, roomNo);
         } catch (SQLException e) {
             if (e.getErrorCode() == 1062) {
                 ApiUtils.writeJson(resp, 4090, "房间号已存在", "null");
@@ -76,7 +112,19 @@ public class LocationServlet extends HttpServlet {
                 ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             }
             logger.error("新增位置空间失败", e);
+            return;
         }
+
+        String data = "{ \"id\": " + id
+                + ", \"deptId\": " + deptId
+                + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\""
+                + ", \"area\": " + area.toPlainString()
+                + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                + ", \"version\": 0"
+                + " }";
+        InvalidationBus.publish("location_space", id);
+        ApiUtils.writeJson(resp, 0, "ok", data);
+        logger.info("新增位置空间成功 deptId={} roomNo={}", deptId, roomNo);
     }
 
     @Override
@@ -118,8 +166,25 @@ public class LocationServlet extends HttpServlet {
             return;
         }
 
-        String sql = "UPDATE location_space SET dept_id = ?, room_no = ?, area = ?, remark = ? WHERE id = ?";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        Long expectedVersion = ApiUtils.expectedVersion(req, body);
+        if (expectedVersion != null && expectedVersion < 0) {
+            ApiUtils.writeJson(resp, 4001, "If-Match 格式不正确", "null");
+            return;
+        }
+
+        Integer shard = locateShard(resp, id);
+        if (shard == null) {
+            return;
+        }
+        if (!ShardRouter.deptAllowedOn(deptId, shard)) {
+            ApiUtils.writeJson(resp, 4002, "目标部门在其他分片，不能直接移动位置空间", "null");
+            return;
+        }
+
+        String sql = "UPDATE location_space SET dept_id = ?, room_no = ?, area = ?, remark = ?,"
+                + " version = version + 1 WHERE id = ?" + (expectedVersion == null ? "" : " AND version = ?");
+        Long version;
+        try (Connection conn = ShardRouter.shard(shard).getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setLong(1, deptId);
             ps.setString(2, roomNo);
@@ -131,21 +196,26 @@ public class LocationServlet extends HttpServlet {
                 ps.setString(4, remark);
             }
             ps.setLong(5, id);
+            if (expectedVersion != null) {
+                ps.setLong(6, expectedVersion);
+            }
 
             int updated = ps.executeUpdate();
             if (updated == 0) {
-                ApiUtils.writeJson(resp, 4004, "位置空间不存在", "null");
+                Long current = ApiUtils.selectVersion(conn, "location_space", id);
+                if (current == null) {
+                    ApiUtils.writeJson(resp, 4004, "位置空间不存在", "null");
+                } else {
+                    ApiUtils.writeJson(resp, 4091, "位置空间已被其他人修改，请刷新后重试",
+                            "{ \"id\": " + id + ", \"version\": " + current + " }");
+                }
                 return;
             }
-
-            String data = "{ \"id\": " + id
-                    + ", \"deptId\": " + deptId
-                    + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\""
-                    + ", \"area\": " + area.toPlainString()
-                    + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
-                    + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
-            logger.info("修改位置空间成功 id={} deptId={} roomNo={}", id, deptId, roomNo);
+            version = expectedVersion != null ? Long.valueOf(expectedVersion + 1)
+                    : ApiUtils.selectVersion(conn, "location_space", id);
+            if (version != null) {
+                resp.setHeader("ETag", ApiUtils.etag(version));
+            }
         } catch (SQLException e) {
             if (e.getErrorCode() == 1062) {
                 ApiUtils.writeJson(resp, 4090, "房间号已存在", "null");
@@ -155,7 +225,19 @@ public class LocationServlet extends HttpServlet {
                 ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             }
             logger.error("修改位置空间失败 id={}", id, e);
+            return;
         }
+
+        String data = "{ \"id\": " + id
+                + ", \"deptId\": " + deptId
+                + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\""
+                + ", \"area\": " + area.toPlainString()
+                + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                + ", \"version\": " + version
+                + " }";
+        InvalidationBus.publish("location_space", id);
+        ApiUtils.writeJson(resp, 0, "ok", data);
+        logger.info("修改位置空间成功 id={} deptId={} roomNo={}", id, deptId, roomNo);
     }
 
     @Override
@@ -168,9 +250,14 @@ public class LocationServlet extends HttpServlet {
             return;
         }
 
+        Integer shard = locateShard(resp, id);
+        if (shard == null) {
+            return;
+        }
+
         String checkSql = "SELECT COUNT(*) FROM asset WHERE location_id = ?";
         String deleteSql = "DELETE FROM location_space WHERE id = ?";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        try (Connection conn = ShardRouter.shard(shard).getConnection();
              PreparedStatement check = conn.prepareStatement(checkSql);
              PreparedStatement del = conn.prepareStatement(deleteSql)) {
             check.setLong(1, id);
@@ -187,13 +274,14 @@ public class LocationServlet extends HttpServlet {
                 ApiUtils.writeJson(resp, 4004, "位置空间不存在", "null");
                 return;
             }
-
-            ApiUtils.writeJson(resp, 0, "ok", "null");
-            logger.info("删除位置空间成功 id={}", id);
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
             logger.error("删除位置空间失败 id={}", id, e);
+            return;
         }
+        InvalidationBus.publish("location_space", id);
+        ApiUtils.writeJson(resp, 0, "ok", "null");
+        logger.info("删除位置空间成功 id={}", id);
     }
 
     private void handleList(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -214,6 +302,12 @@ public class LocationServlet extends HttpServlet {
 
         boolean hasDept = deptId != null;
         boolean hasKeyword = !ApiUtils.isBlank(keyword);
+        ResultCache.Key cacheKey = ResultCache.key(LIST_TABLES, "locations", "deptId", deptId, "page", page,
+                "size", size, "keyword", hasKeyword ? keyword : null);
+        if (ResultCache.writeIfCached(cacheKey, resp)) {
+            return;
+        }
+
         List<String> conditions = new ArrayList<>();
         if (hasDept) {
             conditions.add("ls.dept_id = ?");
@@ -223,32 +317,68 @@ public class LocationServlet extends HttpServlet {
         }
         String where = conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
 
-        String countSql = "SELECT COUNT(*) FROM location_space ls"
-                + " JOIN department d ON ls.dept_id = d.id"
-                + where;
-        String listSql = "SELECT ls.id, ls.dept_id, d.dept_name, ls.room_no, ls.area, ls.remark"
-                + " FROM location_space ls"
-                + " JOIN department d ON ls.dept_id = d.id"
-                + where
-                + " ORDER BY ls.id DESC LIMIT ? OFFSET ?";
+        String countSql = COUNT_SQL + where;
+        String listSql = SELECT_SQL + where + PAGE_SQL;
+        String like = hasKeyword ? "%" + keyword + "%" : null;
+        int offset = (page - 1) * size;
+        ShardRouter.PageQuery query = (ds, limit, off) -> queryPage(ds, countSql, listSql, deptId, like, limit, off);
+
+        try {
+            // 指定部门且老数据已按部门搬到位时只查该部门所在分片，否则所有分片并行查询后合并
+            int shard = deptId != null ? ShardRouter.readShardOfDept(deptId) : -1;
+            ShardRouter.Page result = shard >= 0
+                    ? query.query(ShardRouter.shard(shard), size, offset)
+                    : ShardRouter.pageAll(offset, size, query);
+
+            String data = "{ \"list\": [" + String.join(", ", result.items) + "]"
+                    + ", \"page\": " + page
+                    + ", \"size\": " + size
+                    + ", \"total\": " + result.total
+                    + " }";
+            ResultCache.writeAndCache(cacheKey, resp, data);
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("查询位置空间列表失败", e);
+        }
+    }
+
+    private static boolean roomExists(long deptId, String roomNo) throws SQLException {
+        String sql = "SELECT 1 FROM location_space WHERE dept_id = ? AND room_no = ?";
+        for (Boolean exists : ShardRouter.scatter(ds -> {
+            try (Connection conn = ds.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setLong(1, deptId);
+                ps.setString(2, roomNo);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next();
+                }
+            }
+        })) {
+            if (exists) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+    private static ShardRouter.Page queryPage(DataSource ds, String countSql, String listSql, Long deptId,
+                                              String like, int limit, int offset) throws SQLException {
+        try (Connection conn = ds.getConnection();
              PreparedStatement countPs = conn.prepareStatement(countSql);
              PreparedStatement listPs = conn.prepareStatement(listSql)) {
-            String like = hasKeyword ? "%" + keyword + "%" : null;
             int index = 1;
-            if (hasDept) {
+            if (deptId != null) {
                 countPs.setLong(index, deptId);
                 listPs.setLong(index, deptId);
                 index++;
             }
-            if (hasKeyword) {
+            if (like != null) {
                 countPs.setString(index, like);
                 listPs.setString(index, like);
                 index++;
             }
-            listPs.setInt(index, size);
-            listPs.setInt(index + 1, (page - 1) * size);
+            listPs.setInt(index, limit);
+            listPs.setInt(index + 1, offset);
 
             int total = 0;
             try (ResultSet rs = countPs.executeQuery()) {
@@ -257,7 +387,7 @@ public class LocationServlet extends HttpServlet {
                 }
             }
 
-            List<String> items = new ArrayList<>();
+            ShardRouter.Page page = new ShardRouter.Page(total);
             try (ResultSet rs = listPs.executeQuery()) {
                 while (rs.next()) {
                     long id = rs.getLong("id");
@@ -266,35 +396,35 @@ public class LocationServlet extends HttpServlet {
                     String roomNo = rs.getString("room_no");
                     BigDecimal area = rs.getBigDecimal("area");
                     String remark = rs.getString("remark");
+                    long version = rs.getLong("version");
                     String item = "{ \"id\": " + id
                             + ", \"deptId\": " + deptIdResult
                             + ", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
                             + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\""
                             + ", \"area\": " + (area == null ? "0" : area.toPlainString())
                             + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                            + ", \"version\": " + version
                             + " }";
-                    items.add(item);
+                    page.add(id, item);
                 }
             }
-
-            String data = "{ \"list\": [" + String.join(", ", items) + "]"
-                    + ", \"page\": " + page
-                    + ", \"size\": " + size
-                    + ", \"total\": " + total
-                    + " }";
-            ApiUtils.writeJson(resp, 0, "ok", data);
-        } catch (SQLException e) {
-            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
-            logger.error("查询位置空间列表失败", e);
+            return page;
         }
     }
 
     private void handleDetail(HttpServletResponse resp, long id) throws IOException {
-        String sql = "SELECT ls.id, ls.dept_id, d.dept_name, ls.room_no, ls.area, ls.remark"
-                + " FROM location_space ls"
-                + " JOIN department d ON ls.dept_id = d.id"
-                + " WHERE ls.id = ?";
-        try (Connection conn = MyDataBase.getDataSource().getConnection();
+        DetailCache.Key cacheKey = DetailCache.key("location_space", id, LIST_TABLES);
+        if (DetailCache.writeIfCached(cacheKey, resp)) {
+            return;
+        }
+
+        Integer shard = locateShard(resp, id);
+        if (shard == null) {
+            return;
+        }
+
+        String sql = DETAIL_SQL;
+        try (Connection conn = ShardRouter.shard(shard).getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setLong(1, id);
             try (ResultSet rs = ps.executeQuery()) {
@@ -307,14 +437,16 @@ public class LocationServlet extends HttpServlet {
                 String roomNo = rs.getString("room_no");
                 BigDecimal area = rs.getBigDecimal("area");
                 String remark = rs.getString("remark");
+                long version = rs.getLong("version");
                 String data = "{ \"id\": " + id
                         + ", \"deptId\": " + deptId
                         + ", \"deptName\": \"" + ApiUtils.escapeJson(deptName) + "\""
                         + ", \"roomNo\": \"" + ApiUtils.escapeJson(roomNo) + "\""
                         + ", \"area\": " + (area == null ? "0" : area.toPlainString())
                         + ", \"remark\": " + (remark == null ? "null" : "\"" + ApiUtils.escapeJson(remark) + "\"")
+                        + ", \"version\": " + version
                         + " }";
-                ApiUtils.writeJson(resp, 0, "ok", data);
+                DetailCache.writeAndCache(cacheKey, resp, data, version, DetailCache.ref("department", deptId));
             }
         } catch (SQLException e) {
             ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
@@ -322,4 +454,122 @@ public class LocationServlet extends HttpServlet {
         }
     }
 
+    /**
+     * POST /api/locations/{id}/reconcile，请求体为盘点扫到的 assetNo，每行一个、按 assetNo 升序（不区分大小写）。
+     * 边读请求体边对账，差异逐条写进响应的 items，最后是 summary；输入乱序时在该处停止，summary.complete 为 false。
+     * 账面资产按 assetNo 分批读取，读完一批即归还连接，不会在客户端上传期间一直占用连接
+     */
+    private void handleReconcile(HttpServletRequest req, HttpServletResponse resp, long id) throws IOException {
+        Integer shard = locateShard(resp, id);
+        if (shard == null) {
+            return;
+        }
+        DataSource ds = ShardRouter.shard(shard);
+        try {
+            if (ApiUtils.count(ds, "SELECT COUNT(*) FROM location_space WHERE id = ?", id) == 0) {
+                ApiUtils.writeJson(resp, 4004, "位置空间不存在", "null");
+                return;
+            }
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("查询位置空间失败 id={}", id, e);
+            return;
+        }
+        if (req.getCharacterEncoding() == null) {
+            req.setCharacterEncoding("UTF-8");
+        }
+
+        PrintWriter out = resp.getWriter();
+        out.print("{ \"code\": 0, \"msg\": \"ok\", \"data\": { \"locationId\": " + id + ", \"items\": [");
+        boolean[] first = {true};
+        Reconciler reconciler = new Reconciler(id, (after, limit) -> expectedAssets(ds, id, after, limit),
+                LocationServlet::findAssets, item -> {
+                    out.print(first[0] ? item : ", " + item);
+                    first[0] = false;
+                });
+        try (BufferedReader reader = req.getReader()) {
+            reconciler.run(reader);
+        } catch (SQLException | IOException e) {
+            // 响应已经开始输出，只能在 summary 里标明没有完成
+            if (reconciler.error == null) {
+                reconciler.error = "服务器异常";
+            }
+            logger.error("盘点对账失败 locationId={}", id, e);
+        }
+        out.print("], \"summary\": " + reconciler.summaryJson() + " } }" + System.lineSeparator());
+        logger.info("盘点对账完成 locationId={} {}", id, reconciler.summaryJson());
+    }
+
+    private static List<Reconciler.Row> expectedAssets(DataSource ds, long locationId, String after, int limit)
+            throws SQLException {
+        // 走 (location_id, asset_no) 索引按 assetNo 续读，不排序
+        String sql = "SELECT id, asset_no, asset_name, status FROM asset"
+                + " WHERE location_id = ? AND status < " + AssetServlet.STATUS_RETIRED + " AND asset_no > ?"
+                + " ORDER BY asset_no LIMIT ?";
+        List<Reconciler.Row> rows = new ArrayList<>();
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, locationId);
+            ps.setString(2, after);
+            ps.setInt(3, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new Reconciler.Row(rs.getLong("id"), rs.getString("asset_no"),
+                            rs.getString("asset_name"), rs.getInt("status"), locationId, null));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 在所有分片上按 assetNo 查资产当前所在位置
+     */
+    private static Map<String, Reconciler.Row> findAssets(List<String> assetNos) throws SQLException {
+        String sql = "SELECT ast.id, ast.asset_no, ast.asset_name, ast.status, ast.location_id, ls.room_no"
+                + " FROM asset ast JOIN location_space ls ON ast.location_id = ls.id"
+                + " WHERE ast.asset_no IN (" + String.join(", ", Collections.nCopies(assetNos.size(), "?")) + ")";
+        Map<String, Reconciler.Row> found = new HashMap<>();
+        for (List<Reconciler.Row> part : ShardRouter.scatter(ds -> {
+            List<Reconciler.Row> rows = new ArrayList<>();
+            try (Connection conn = ds.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (int i = 0; i < assetNos.size(); i++) {
+                    ps.setString(i + 1, assetNos.get(i));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new Reconciler.Row(rs.getLong("id"), rs.getString("asset_no"),
+                                rs.getString("asset_name"), rs.getInt("status"), rs.getLong("location_id"),
+                                rs.getString("room_no")));
+                    }
+                }
+            }
+            return rows;
+        })) {
+            for (Reconciler.Row row : part) {
+                found.putIfAbsent(row.assetNo.toLowerCase(Locale.ROOT), row);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 查位置空间所在分片；不存在或查询失败时已写好响应并返回 null
+     */
+    private Integer locateShard(HttpServletResponse resp, long id) throws IOException {
+        try {
+            int shard = ShardRouter.locate("location_space", id);
+            if (shard < 0) {
+                ApiUtils.writeJson(resp, 4004, "位置空间不存在", "null");
+                return null;
+            }
+            return shard;
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("定位位置空间分片失败 id={}", id, e);
+            return null;
+        }
+    }
+
 }
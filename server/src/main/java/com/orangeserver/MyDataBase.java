@@ -1,5 +1,8 @@
 package com.orangeserver;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import javax.sql.DataSource;
 
 import org.slf4j.Logger;
@@ -10,30 +13,69 @@ import com.zaxxer.hikari.HikariDataSource;
 
 public class MyDataBase {
 
+    private static final String JDBC_PARAMS = "serverTimezone=UTC&allowPublicKeyRetrieval=true&useSSL=false"
+            + "&rewriteBatchedStatements=true"
+            + "&cachePrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048"
+            + "&useServerPrepStmts=true";
+
+    private static final String JDBC_URL = "jdbc:mysql://localhost:3306/orange_db?" + JDBC_PARAMS;
+
+    /**
+     * 分片 1..N 的 JDBC URL，来自 -Dorange.shards 或环境变量 ORANGE_SHARDS，逗号分隔。
+     * 分片 0 就是下面这个默认库；不配置时不分片。
+     */
+    static final List<String> SHARD_URLS = parseShardUrls();
+
     public static DataSource getDataSource() {
         return data_source;
     }
 
-    private static DataSource buildDataSource() {
+    static int shardCount() {
+        return SHARD_URLS.size() + 1;
+    }
+
+    /**
+     * 给第 shardIndex 个分片建连接池。分片多于一个时，每个连接都设置
+     * auto_increment_increment/offset，让各分片生成的自增 id 互不重复（id 模分片数即分片号加一）。
+     */
+    static HikariDataSource buildDataSource(String jdbcUrl, int shardIndex) {
         HikariConfig config = new HikariConfig();
         config.setDriverClassName("com.mysql.cj.jdbc.Driver");
-        config.setJdbcUrl(
-                "jdbc:mysql://localhost:3306/orange_db?serverTimezone=UTC&allowPublicKeyRetrieval=true&useSSL=false");
+        config.setJdbcUrl(jdbcUrl.indexOf('?') < 0 ? jdbcUrl + "?" + JDBC_PARAMS : jdbcUrl);
         config.setUsername("orange");
         config.setPassword("1234567");
         config.setMaximumPoolSize(10);
         config.setMinimumIdle(2);
         config.setConnectionTimeout(30000);
+        config.setPoolName("orange-shard-" + shardIndex);
+        if (shardCount() > 1) {
+            config.setConnectionInitSql("SET SESSION auto_increment_increment = " + shardCount()
+                    + ", auto_increment_offset = " + (shardIndex + 1));
+        }
 
-        logger.info("创建了DataSource");
+        logger.info("创建了DataSource shard={}", shardIndex);
         return new HikariDataSource(config);
     }
 
+    private static List<String> parseShardUrls() {
+        String value = System.getProperty("orange.shards", System.getenv("ORANGE_SHARDS"));
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> urls = new ArrayList<>();
+        for (String url : value.split(",")) {
+            if (!url.trim().isEmpty()) {
+                urls.add(url.trim());
+            }
+        }
+        return Collections.unmodifiableList(urls);
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(MyDataBase.class);
 
     private static DataSource data_source;
 
     static {
-        data_source = buildDataSource();
+        data_source = SqlTimer.wrap(buildDataSource(JDBC_URL, 0));
     }
 }
@@ -0,0 +1,306 @@
+package com.orangeserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sourceforge.pinyin4j.PinyinHelper;
+import net.sourceforge.pinyin4j.format.HanyuPinyinCaseType;
+import net.sourceforge.pinyin4j.format.HanyuPinyinOutputFormat;
+import net.sourceforge.pinyin4j.format.HanyuPinyinToneType;
+import net.sourceforge.pinyin4j.format.HanyuPinyinVCharType;
+import net.sourceforge.pinyin4j.format.exception.BadHanyuPinyinOutputFormatCombination;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 中文名称的拼音搜索索引：每个名称预先算好小写原文、全拼（bijibendiannao）和首字母（bjbdn）几种写法，
+ * 查询串是其中任一写法的一部分即命中。写入时才做汉字转拼音，并把各写法拆成一、二字的片段建倒排表；
+ * 查询先按片段求交得到候选名称，只对候选逐个比较和排序，不扫描全部名称。
+ * 倒排表按名称而不是按行记，同名的多行（同型号的资产）共用一份写法和片段。
+ * 多音字各读音都收录，组合数超过 MAX_VARIANTS 时只保留前几种，被截断的名称数见 truncatedNames()。
+ * 排序：某种写法与查询串完全相同 > 以查询串开头 > 包含查询串，同级按名称长度、id。
+ * 读不加锁；写按索引串行。
+ */
+final class PinyinIndex<T> {
+    private static final Logger logger = LoggerFactory.getLogger(PinyinIndex.class);
+
+    /** 一个名称最多生成的全拼/首字母组合数，防止多音字很多的长名称组合爆炸 */
+    static final int MAX_VARIANTS = 8;
+
+    private static final HanyuPinyinOutputFormat FORMAT = new HanyuPinyinOutputFormat();
+
+    static {
+        FORMAT.setCaseType(HanyuPinyinCaseType.LOWERCASE);
+        FORMAT.setToneType(HanyuPinyinToneType.WITHOUT_TONE);
+        FORMAT.setVCharType(HanyuPinyinVCharType.WITH_V);
+    }
+
+    /** 倒排表片段的最大长度：查询串不超过它时直接取表，更长时按各片段求交 */
+    private static final int GRAM = 2;
+
+    private static final AtomicLong truncatedNames = new AtomicLong();
+
+    private static final class Entry<T> {
+        final long id;
+        final String text;
+        final int length;
+        final T value;
+
+        Entry(long id, String text, int length, T value) {
+            this.id = id;
+            this.text = text;
+            this.length = length;
+            this.value = value;
+        }
+    }
+
+    /** 一个名称的各种写法，以及叫这个名称的行 */
+    private static final class Name {
+        final String[] forms;
+        final Set<Long> ids = ConcurrentHashMap.newKeySet();
+
+        Name(String[] forms) {
+            this.forms = forms;
+        }
+    }
+
+    private static final class Hit<T> {
+        final int rank;
+        final Entry<T> entry;
+
+        Hit(int rank, Entry<T> entry) {
+            this.rank = rank;
+            this.entry = entry;
+        }
+    }
+
+    /** 一页结果和命中总数 */
+    static final class Page<T> {
+        final List<T> items;
+        final int total;
+
+        Page(List<T> items, int total) {
+            this.items = items;
+            this.total = total;
+        }
+    }
+
+    private final Map<Long, Entry<T>> rows = new ConcurrentHashMap<>();
+    /** 规范化后的名称 -> 写法和行 */
+    private final Map<String, Name> names = new ConcurrentHashMap<>();
+    /** 片段 -> 含有该片段的名称 */
+    private final Map<String, Set<String>> grams = new ConcurrentHashMap<>();
+
+    synchronized void put(long id, String name, T value) {
+        String text = normalize(name);
+        Entry<T> before = rows.put(id, new Entry<>(id, text, name == null ? 0 : name.length(), value));
+        if (before != null && before.text.equals(text)) {
+            return;
+        }
+        if (before != null) {
+            unlink(id, before.text);
+        }
+        if (text.isEmpty()) {
+            return;
+        }
+        Name entry = names.get(text);
+        if (entry == null) {
+            String[] forms = forms(name).toArray(new String[0]);
+            entry = new Name(forms);
+            for (String gram : grams(forms)) {
+                grams.computeIfAbsent(gram, k -> ConcurrentHashMap.newKeySet()).add(text);
+            }
+            names.put(text, entry);
+        }
+        entry.ids.add(id);
+    }
+
+    synchronized void remove(long id) {
+        Entry<T> before = rows.remove(id);
+        if (before != null) {
+            unlink(id, before.text);
+        }
+    }
+
+    /** 名称不再有行时连同它的片段一起删掉 */
+    private void unlink(long id, String text) {
+        Name entry = names.get(text);
+        if (entry == null) {
+            return;
+        }
+        entry.ids.remove(id);
+        if (!entry.ids.isEmpty()) {
+            return;
+        }
+        names.remove(text);
+        for (String gram : grams(entry.forms)) {
+            Set<String> set = grams.get(gram);
+            if (set != null) {
+                set.remove(text);
+                if (set.isEmpty()) {
+                    grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    /** 因多音字组合过多被截断读音的名称数（进程内累计） */
+    static long truncatedNames() {
+        return truncatedNames.get();
+    }
+
+    /**
+     * 命中 query 的结果按相关度排序后跳过 offset 条取 limit 条；query 为空时没有结果
+     */
+    Page<T> search(String query, int offset, int limit) {
+        String q = normalize(query);
+        List<Hit<T>> hits = new ArrayList<>();
+        for (String text : candidates(q)) {
+            Name name = names.get(text);
+            int rank = name == null ? -1 : rank(name.forms, q);
+            if (rank < 0) {
+                continue;
+            }
+            for (Long id : name.ids) {
+                Entry<T> entry = rows.get(id);
+                // 并发改名时行可能已挂到别的名称下
+                if (entry != null && entry.text.equals(text)) {
+                    hits.add(new Hit<>(rank, entry));
+                }
+            }
+        }
+        hits.sort(Comparator.<Hit<T>>comparingInt(h -> h.rank)
+                .thenComparingInt(h -> h.entry.length)
+                .thenComparingLong(h -> h.entry.id));
+        List<T> items = new ArrayList<>();
+        for (int i = offset; i < hits.size() && items.size() < limit; i++) {
+            items.add(hits.get(i).entry.value);
+        }
+        return new Page<>(items, hits.size());
+    }
+
+    /**
+     * 可能命中的名称：查询串的每个片段都出现在名称的同一种写法里是必要条件，
+     * 从最短的倒排表开始求交，最后由 rank 确认
+     */
+    private Set<String> candidates(String q) {
+        if (q.isEmpty()) {
+            return Collections.emptySet();
+        }
+        if (q.length() <= GRAM) {
+            Set<String> set = grams.get(q);
+            return set == null ? Collections.<String>emptySet() : set;
+        }
+        List<Set<String>> lists = new ArrayList<>();
+        for (int i = 0; i + GRAM <= q.length(); i++) {
+            Set<String> set = grams.get(q.substring(i, i + GRAM));
+            if (set == null) {
+                return Collections.emptySet();
+            }
+            lists.add(set);
+        }
+        lists.sort(Comparator.comparingInt(Set::size));
+        Set<String> result = new HashSet<>(lists.get(0));
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+            result.retainAll(lists.get(i));
+        }
+        return result;
+    }
+
+    /** 各写法中长度为 1 到 GRAM 的全部片段 */
+    private static Set<String> grams(String[] forms) {
+        Set<String> result = new HashSet<>();
+        for (String form : forms) {
+            for (int i = 0; i < form.length(); i++) {
+                for (int n = 1; n <= GRAM && i + n <= form.length(); n++) {
+                    result.add(form.substring(i, i + n));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** 0 完全相同，1 开头相同，2 包含，-1 不命中 */
+    private static int rank(String[] forms, String q) {
+        int best = -1;
+        for (String form : forms) {
+            int rank = form.equals(q) ? 0 : form.startsWith(q) ? 1 : form.contains(q) ? 2 : -1;
+            if (rank >= 0 && (best < 0 || rank < best)) {
+                best = rank;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 名称的各种写法：小写原文，以及全拼、首字母的各个组合；非汉字原样保留（小写），空白去掉
+     */
+    static List<String> forms(String name) {
+        Set<String> forms = new LinkedHashSet<>();
+        String text = normalize(name);
+        if (text.isEmpty()) {
+            return new ArrayList<>(forms);
+        }
+        forms.add(text);
+        List<String> full = new ArrayList<>();
+        List<String> initials = new ArrayList<>();
+        full.add("");
+        initials.add("");
+        boolean truncated = false;
+        for (char c : text.toCharArray()) {
+            String[] readings = readings(c);
+            List<String> nextFull = new ArrayList<>();
+            List<String> nextInitials = new ArrayList<>();
+            for (int i = 0; i < full.size(); i++) {
+                for (String reading : readings) {
+                    if (nextFull.size() < MAX_VARIANTS) {
+                        nextFull.add(full.get(i) + reading);
+                        nextInitials.add(initials.get(i) + reading.charAt(0));
+                    } else {
+                        truncated = true;
+                    }
+                }
+            }
+            full = nextFull;
+            initials = nextInitials;
+        }
+        if (truncated) {
+            truncatedNames.incrementAndGet();
+            logger.debug("名称多音字组合超过 {} 种，只收录前几种读音 name={}", MAX_VARIANTS, name);
+        }
+        forms.addAll(full);
+        forms.addAll(initials);
+        return new ArrayList<>(forms);
+    }
+
+    /** 汉字的各个读音（去声调、去重）；非汉字返回它自己 */
+    private static String[] readings(char c) {
+        String[] pinyin = null;
+        try {
+            pinyin = PinyinHelper.toHanyuPinyinStringArray(c, FORMAT);
+        } catch (BadHanyuPinyinOutputFormatCombination e) {
+            throw new IllegalStateException(e);
+        }
+        if (pinyin == null || pinyin.length == 0) {
+            return new String[] {String.valueOf(c)};
+        }
+        return new LinkedHashSet<>(Arrays.asList(pinyin)).toArray(new String[0]);
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.replaceAll("\\s+", "").toLowerCase(Locale.ROOT);
+    }
+}
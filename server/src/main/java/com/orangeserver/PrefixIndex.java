@@ -0,0 +1,113 @@
+package com.orangeserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 按前缀查找的有序索引：每个词（小写）加上 id 作为键放进跳表，前缀查询就是取子区间的前几项，
+ * 耗时只和返回条数有关，与总量无关。一行可以有多个词（如工号和姓名），同一行只返回一次。
+ * 读不加锁；写按行串行，更新时先加新词再删旧词，读到的最多是新旧两个版本之一。
+ */
+final class PrefixIndex<T> {
+    /** 词和 id 之间的分隔符，比任何可输入字符都小，保证同一个词的各行排在一起 */
+    private static final char SEPARATOR = '\u0000';
+    private static final char MAX_CHAR = Character.MAX_VALUE;
+
+    private static final class Entry<T> {
+        final List<String> keys;
+        final T value;
+
+        Entry(List<String> keys, T value) {
+            this.keys = keys;
+            this.value = value;
+        }
+    }
+
+    private final ConcurrentSkipListMap<String, Long> terms = new ConcurrentSkipListMap<>();
+    private final Map<Long, Entry<T>> rows = new ConcurrentHashMap<>();
+
+    /**
+     * 写入或替换一行；空白的词忽略
+     */
+    synchronized void put(long id, List<String> words, T value) {
+        List<String> keys = new ArrayList<>();
+        for (String word : words) {
+            String term = normalize(word);
+            if (!term.isEmpty()) {
+                keys.add(term + SEPARATOR + id);
+            }
+        }
+        Entry<T> before = rows.put(id, new Entry<>(keys, value));
+        for (String key : keys) {
+            terms.put(key, id);
+        }
+        if (before != null) {
+            for (String key : before.keys) {
+                if (!keys.contains(key)) {
+                    terms.remove(key);
+                }
+            }
+        }
+    }
+
+    synchronized void remove(long id) {
+        Entry<T> before = rows.remove(id);
+        if (before != null) {
+            for (String key : before.keys) {
+                terms.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 词以 prefix 开头（不区分大小写）的前 limit 行，按词的字典序；prefix 为空时返回空列表
+     */
+    List<T> search(String prefix, int limit) {
+        String from = normalize(prefix);
+        if (from.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        ConcurrentNavigableMap<String, Long> range = terms.subMap(from, true, from + MAX_CHAR, true);
+        Set<Long> ids = new LinkedHashSet<>();
+        List<T> result = new ArrayList<>();
+        for (Long id : range.values()) {
+            if (!ids.add(id)) {
+                continue;
+            }
+            Entry<T> entry = rows.get(id);
+            if (entry != null) {
+                result.add(entry.value);
+                if (result.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    T get(long id) {
+        Entry<T> entry = rows.get(id);
+        return entry == null ? null : entry.value;
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    synchronized void clear() {
+        rows.clear();
+        terms.clear();
+    }
+
+    static String normalize(String word) {
+        return word == null ? "" : word.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,178 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.annotation.WebInitParam;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按客户端（X-Api-Key，没有则按 IP）限流，防止单个脚本占满连接池。
+ * 只认 -Dorange.apiKeys（逗号分隔）里配置的 key，其它 key 一律按 IP 计，否则每次换一个随机 key 就能拿到满桶。
+ * 每个请求的令牌消耗 = 路由基础消耗 + size / sizeUnit，大分页消耗更多。
+ * routeCosts 格式为 "METHOD 路径=消耗;..."，路径要完全相同（末尾的 / 忽略），
+ * 所以 GET /api/assets 只对列表生效，不会算到 /api/assets/{id} 上；未匹配的路由消耗 1。
+ * 批量请求按各子请求（GET）的消耗之和计费，不低于它自己的路由消耗，不能靠打包绕过限流。
+ */
+@WebFilter(urlPatterns = "/api/*", initParams = {
+        @WebInitParam(name = "capacity", value = "60"),
+        @WebInitParam(name = "refillPerSecond", value = "20"),
+        @WebInitParam(name = "maxClients", value = "10000"),
+        @WebInitParam(name = "idleSeconds", value = "300"),
+        @WebInitParam(name = "sizeUnit", value = "100"),
+        @WebInitParam(name = "routeCosts", value = "GET /api/assets=2;POST /api/batch=4"),
+        @WebInitParam(name = "trustForwardedFor", value = "false")
+})
+public class RateLimitFilter implements Filter {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitFilter.class);
+
+    /** 识别出的客户端放在这个请求属性里，IdempotencyFilter 用它隔开不同客户端的 Idempotency-Key */
+    static final String CLIENT_ATTRIBUTE = "orange.client";
+    private static final String BATCH_PATH = "/api/batch";
+
+    /** 受信任的 API key，未配置时所有客户端都按 IP 计 */
+    private static final Set<String> API_KEYS = parseKeys(System.getProperty("orange.apiKeys", ""));
+
+    private static volatile RateLimiter limiter;
+
+    private final List<String[]> routeCosts = new ArrayList<>();
+    private int sizeUnit;
+    private boolean trustForwardedFor;
+
+    public static RateLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Override
+    public void init(FilterConfig config) {
+        limiter = new RateLimiter(
+                Long.parseLong(param(config, "capacity", "60")),
+                Double.parseDouble(param(config, "refillPerSecond", "20")),
+                Integer.parseInt(param(config, "maxClients", "10000")),
+                Long.parseLong(param(config, "idleSeconds", "300")));
+        sizeUnit = Math.max(1, Integer.parseInt(param(config, "sizeUnit", "100")));
+        trustForwardedFor = Boolean.parseBoolean(param(config, "trustForwardedFor", "false"));
+        for (String rule : param(config, "routeCosts", "").split(";")) {
+            int eq = rule.lastIndexOf('=');
+            if (eq > 0) {
+                routeCosts.add(new String[] {rule.substring(0, eq).trim(), rule.substring(eq + 1).trim()});
+            }
+        }
+        logger.info("限流已启用 routeCosts={}", param(config, "routeCosts", ""));
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) resp;
+        String path = ApiUtils.requestPath(request);
+        if (ApiUtils.isOpsPath(path)) {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        String client = clientKey(request, trustForwardedFor);
+        request.setAttribute(CLIENT_ATTRIBUTE, client);
+        int cost = cost(request.getMethod(), path, request.getParameter("size"));
+        if ("POST".equals(request.getMethod()) && BATCH_PATH.equals(path)) {
+            CachedBodyRequest cached = new CachedBodyRequest(request);
+            req = cached;
+            cost = Math.max(cost, batchCost(new String(cached.getBody(), StandardCharsets.UTF_8)));
+        }
+        long waitNanos = limiter.tryAcquire(client, cost);
+        if (waitNanos > 0) {
+            long retryAfter = TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1;
+            response.setStatus(429);
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+            response.setContentType("application/json; charset=UTF-8");
+            ApiUtils.writeJson(response, 4290, "请求过于频繁，请稍后重试", "null");
+            logger.warn("请求被限速 client={} {} {}", client, request.getMethod(), path);
+            return;
+        }
+        chain.doFilter(req, resp);
+    }
+
+    int cost(String method, String path, String sizeValue) {
+        String route = method + " " + stripSlash(path);
+        int base = 1;
+        for (String[] rule : routeCosts) {
+            if (route.equals(stripSlash(rule[0]))) {
+                base = ApiUtils.parseInt(rule[1], 1);
+                break;
+            }
+        }
+        int size = ApiUtils.parseInt(sizeValue, 0);
+        return Math.max(1, base) + Math.max(0, size) / sizeUnit;
+    }
+
+    /**
+     * 各子请求按单独调用时的消耗相加；请求体不合法时为 0，由 BatchServlet 返回 4001
+     */
+    int batchCost(String body) {
+        int sum = 0;
+        for (String uri : BatchServlet.parseUris(body)) {
+            int q = uri.indexOf('?');
+            String[] size = InternalDispatcher.parseQuery(q < 0 ? null : uri.substring(q + 1)).get("size");
+            sum += cost("GET", q < 0 ? uri : uri.substring(0, q), size == null ? null : size[0]);
+        }
+        return sum;
+    }
+
+    /**
+     * 本过滤器识别出的客户端；没经过本过滤器时按受信任的 X-Api-Key 或直连 IP
+     */
+    static String clientOf(HttpServletRequest request) {
+        Object client = request.getAttribute(CLIENT_ATTRIBUTE);
+        return client instanceof String ? (String) client : clientKey(request, false);
+    }
+
+    private static String clientKey(HttpServletRequest request, boolean trustForwardedFor) {
+        String apiKey = request.getHeader("X-Api-Key");
+        if (!ApiUtils.isBlank(apiKey) && API_KEYS.contains(apiKey.trim())) {
+            return "key:" + apiKey.trim();
+        }
+        if (trustForwardedFor) {
+            // 只信任最右边一跳，也就是我们自己的负载均衡追加的地址
+            String forwarded = request.getHeader("X-Forwarded-For");
+            if (!ApiUtils.isBlank(forwarded)) {
+                String[] hops = forwarded.split(",");
+                return "ip:" + hops[hops.length - 1].trim();
+            }
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    private static String stripSlash(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static Set<String> parseKeys(String value) {
+        Set<String> keys = new HashSet<>();
+        for (String key : value.split(",")) {
+            if (!key.trim().isEmpty()) {
+                keys.add(key.trim());
+            }
+        }
+        return keys;
+    }
+
+    private static String param(FilterConfig config, String name, String defaultValue) {
+        String value = config.getInitParameter(name);
+        return ApiUtils.isBlank(value) ? defaultValue : value;
+    }
+}
@@ -0,0 +1,107 @@
+package com.orangeserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按客户端划分的令牌桶。
+ * 每个桶按 GCRA 实现，只保存一个"理论到达时间"(TAT)：补充和扣减在一次 CAS 内完成，
+ * 无锁、不在请求路径上分配对象。桶数量有上限，长时间空闲（已回满）的桶会被定期清理，
+ * 超出上限的新客户端共用一个溢出桶。
+ */
+public final class RateLimiter {
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final long capacity;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final int maxClients;
+    private final long idleNanos;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong overflow;
+    private final AtomicLong nextSweepAt;
+    private final AtomicLong allowed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    /**
+     * @param capacity        桶容量（允许的突发令牌数）
+     * @param refillPerSecond 每秒补充的令牌数
+     * @param maxClients      最多保留的客户端桶数量
+     * @param idleSeconds     桶回满后再空闲多久被清理
+     */
+    public RateLimiter(long capacity, double refillPerSecond, int maxClients, long idleSeconds) {
+        long now = System.nanoTime();
+        this.capacity = capacity;
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refillPerSecond);
+        this.burstNanos = capacity * intervalNanos;
+        this.maxClients = maxClients;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        this.overflow = new AtomicLong(now);
+        this.nextSweepAt = new AtomicLong(now + SWEEP_INTERVAL_NANOS);
+    }
+
+    /**
+     * 扣减 cost 个令牌
+     *
+     * @return 0 表示放行，否则为令牌足够还需等待的纳秒数
+     */
+    public long tryAcquire(String client, int cost) {
+        return tryAcquire(client, cost, System.nanoTime());
+    }
+
+    long tryAcquire(String client, int cost, long now) {
+        if (now - nextSweepAt.get() > 0) {
+            sweep(now);
+        }
+        AtomicLong bucket = buckets.get(client);
+        if (bucket == null) {
+            bucket = buckets.size() >= maxClients ? overflow
+                    : buckets.computeIfAbsent(client, k -> new AtomicLong(now));
+        }
+
+        long increment = Math.min(Math.max(cost, 1), capacity) * intervalNanos;
+        while (true) {
+            long tat = bucket.get();
+            long newTat = Math.max(tat, now) + increment;
+            long allowAt = newTat - burstNanos;
+            if (allowAt - now > 0) {
+                rejected.incrementAndGet();
+                return allowAt - now;
+            }
+            if (bucket.compareAndSet(tat, newTat)) {
+                allowed.incrementAndGet();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 清理已回满且空闲超过 idleSeconds 的桶，多个线程同时到期时只有一个执行
+     */
+    void sweep(long now) {
+        long expected = nextSweepAt.get();
+        if (!nextSweepAt.compareAndSet(expected, now + SWEEP_INTERVAL_NANOS)) {
+            return;
+        }
+        for (Map.Entry<String, AtomicLong> entry : buckets.entrySet()) {
+            if (now - entry.getValue().get() > idleNanos && buckets.remove(entry.getKey(), entry.getValue())) {
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    public String statsJson() {
+        return "{ \"clients\": " + size()
+                + ", \"allowed\": " + allowed.get()
+                + ", \"rejected\": " + rejected.get()
+                + ", \"evicted\": " + evicted.get()
+                + " }";
+    }
+}
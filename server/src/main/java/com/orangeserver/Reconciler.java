@@ -0,0 +1,224 @@
+package com.orangeserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 盘点对账：扫描到的 assetNo 流和位置空间内资产（按 assetNo 升序分批读取）做归并，一遍得出
+ * 缺失（账上有、没扫到）、位置不符（扫到了、账上在别的位置）、账外（库里没有）三类结果。
+ * 两边都按 assetNo 升序推进，内存只有一批账面资产和一批待查的 assetNo，与位置空间大小无关。
+ * assetNo 的比较与库表的 utf8mb4_general_ci 排序一致，见 ORDER。
+ */
+final class Reconciler {
+    /**
+     * 与 utf8mb4_general_ci 相同：逐字符转大写后比较。不能用 String.CASE_INSENSITIVE_ORDER，
+     * 它按小写比较，_ [ \ ] ^ 会排到字母前面，和 ORDER BY asset_no 的顺序对不上。
+     * general_ci 对重音字母等非 ASCII 字符另有折叠，assetNo 只用 ASCII，这里不处理
+     */
+    static final Comparator<String> ORDER = (a, b) -> {
+        int n = Math.min(a.length(), b.length());
+        for (int i = 0; i < n; i++) {
+            char x = Character.toUpperCase(a.charAt(i));
+            char y = Character.toUpperCase(b.charAt(i));
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    };
+
+    /** 每批读取的账面资产数 */
+    static final int EXPECTED_BATCH = 1000;
+    /** 未匹配的 assetNo 攒够这么多再一起查所在位置 */
+    static final int LOOKUP_BATCH = 200;
+
+    /** 资产的一行；expected 一侧 locationId 即被盘点的位置空间 */
+    static final class Row {
+        final long id;
+        final String assetNo;
+        final String assetName;
+        final int status;
+        final long locationId;
+        final String roomNo;
+
+        Row(long id, String assetNo, String assetName, int status, long locationId, String roomNo) {
+            this.id = id;
+            this.assetNo = assetNo;
+            this.assetName = assetName;
+            this.status = status;
+            this.locationId = locationId;
+            this.roomNo = roomNo;
+        }
+    }
+
+    /** 位置空间内 assetNo 大于 after 的前 limit 个资产，按 assetNo 升序 */
+    interface Expected {
+        List<Row> next(String after, int limit) throws SQLException;
+    }
+
+    /** 按 assetNo 查资产（不限位置），键为小写 assetNo */
+    interface Locator {
+        Map<String, Row> find(List<String> assetNos) throws SQLException;
+    }
+
+    /** 每得出一条差异结果调用一次，参数是该条的 JSON */
+    interface Sink {
+        void accept(String itemJson) throws IOException;
+    }
+
+    private final long locationId;
+    private final Expected expected;
+    private final Locator locator;
+    private final Sink sink;
+
+    private Iterator<Row> chunk = Collections.emptyIterator();
+    private String lastExpected = "";
+    private boolean expectedDone;
+    private final List<String> pending = new ArrayList<>();
+
+    int scanned;
+    int matched;
+    int missing;
+    int misplaced;
+    int retired;
+    int unexpected;
+    int duplicates;
+    /** 非 null 表示输入不合法，对账在该处中止 */
+    String error;
+
+    Reconciler(long locationId, Expected expected, Locator locator, Sink sink) {
+        this.locationId = locationId;
+        this.expected = expected;
+        this.locator = locator;
+        this.sink = sink;
+    }
+
+    /**
+     * 读入每行一个、按 assetNo 升序的扫描结果，逐条写出差异；空行忽略，连续重复的 assetNo 只计一次
+     */
+    void run(BufferedReader scannedLines) throws IOException, SQLException {
+        Row exp = nextExpected();
+        String previous = null;
+        int lineNo = 0;
+        String line;
+        while ((line = scannedLines.readLine()) != null) {
+            lineNo++;
+            String assetNo = line.trim();
+            if (assetNo.isEmpty()) {
+                continue;
+            }
+            if (previous != null) {
+                int c = ORDER.compare(assetNo, previous);
+                if (c == 0) {
+                    duplicates++;
+                    continue;
+                }
+                if (c < 0) {
+                    error = "第 " + lineNo + " 行 " + assetNo + " 未按 assetNo 升序排列";
+                    break;
+                }
+            }
+            previous = assetNo;
+            scanned++;
+
+            while (exp != null && ORDER.compare(exp.assetNo, assetNo) < 0) {
+                reportMissing(exp);
+                exp = nextExpected();
+            }
+            if (exp != null && ORDER.compare(exp.assetNo, assetNo) == 0) {
+                matched++;
+                exp = nextExpected();
+            } else {
+                pending.add(assetNo);
+                if (pending.size() >= LOOKUP_BATCH) {
+                    resolvePending();
+                }
+            }
+        }
+        if (error == null) {
+            while (exp != null) {
+                reportMissing(exp);
+                exp = nextExpected();
+            }
+        }
+        resolvePending();
+    }
+
+    private Row nextExpected() throws SQLException {
+        if (!chunk.hasNext()) {
+            if (expectedDone) {
+                return null;
+            }
+            List<Row> rows = expected.next(lastExpected, EXPECTED_BATCH);
+            expectedDone = rows.size() < EXPECTED_BATCH;
+            if (rows.isEmpty()) {
+                return null;
+            }
+            lastExpected = rows.get(rows.size() - 1).assetNo;
+            chunk = rows.iterator();
+        }
+        return chunk.next();
+    }
+
+    private void reportMissing(Row row) throws IOException {
+        missing++;
+        sink.accept("{ \"result\": \"missing\""
+                + ", \"assetNo\": \"" + ApiUtils.escapeJson(row.assetNo) + "\""
+                + ", \"id\": " + row.id
+                + ", \"assetName\": \"" + ApiUtils.escapeJson(row.assetName) + "\""
+                + ", \"status\": " + row.status
+                + " }");
+    }
+
+    private void resolvePending() throws IOException, SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, Row> found = locator.find(pending);
+        for (String assetNo : pending) {
+            Row row = found.get(assetNo.toLowerCase(Locale.ROOT));
+            if (row == null) {
+                unexpected++;
+                sink.accept("{ \"result\": \"unexpected\", \"assetNo\": \"" + ApiUtils.escapeJson(assetNo) + "\" }");
+                continue;
+            }
+            // 账上就在这里却不在待盘点列表中，只能是已报废
+            String result = row.locationId == locationId ? "retired" : "misplaced";
+            if (row.locationId == locationId) {
+                retired++;
+            } else {
+                misplaced++;
+            }
+            sink.accept("{ \"result\": \"" + result + "\""
+                    + ", \"assetNo\": \"" + ApiUtils.escapeJson(row.assetNo) + "\""
+                    + ", \"id\": " + row.id
+                    + ", \"assetName\": \"" + ApiUtils.escapeJson(row.assetName) + "\""
+                    + ", \"status\": " + row.status
+                    + ", \"locationId\": " + row.locationId
+                    + ", \"roomNo\": " + (row.roomNo == null ? "null" : "\"" + ApiUtils.escapeJson(row.roomNo) + "\"")
+                    + " }");
+        }
+        pending.clear();
+    }
+
+    String summaryJson() {
+        return "{ \"scanned\": " + scanned
+                + ", \"matched\": " + matched
+                + ", \"missing\": " + missing
+                + ", \"misplaced\": " + misplaced
+                + ", \"retired\": " + retired
+                + ", \"unexpected\": " + unexpected
+                + ", \"duplicates\": " + duplicates
+                + ", \"complete\": " + (error == null)
+                + ", \"error\": " + (error == null ? "null" : "\"" + ApiUtils.escapeJson(error) + "\"")
+                + " }";
+    }
+}
@@ -0,0 +1,146 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 列表接口的结果缓存，保存序列化好的完整响应字节。
+ * 键由解析后的查询参数拼成（无关参数、参数顺序、空白关键字不影响命中）；
+ * 每张表一个版本号（TableVersions），收到该表的失效事件时加一，缓存项记下生成时所依赖各表的版本，版本变了即视为过期。
+ * 按 LRU（ByteLru）淘汰，总大小不超过 -Dorange.resultCache.maxBytes（默认 8MB，0 表示关闭）。
+ */
+public final class ResultCache {
+    private static final long MAX_BYTES = Long.getLong("orange.resultCache.maxBytes", 8L * 1024 * 1024);
+    /** 单项超过总预算的 1/16 不缓存，避免一个大列表挤掉所有常用页 */
+    private static final long MAX_ENTRY_BYTES = MAX_BYTES / 16;
+
+    private static final TableVersions tableVersions = new TableVersions();
+    private static final ByteLru<Entry> entries = new ByteLru<>(64, MAX_BYTES,
+            (text, entry) -> 64 + 2L * text.length() + entry.body.length + 8L * entry.versions.length,
+            null);
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong stale = new AtomicLong();
+    private static final AtomicLong skipped = new AtomicLong();
+
+    private ResultCache() {
+    }
+
+    /**
+     * 查询前取得的键，带着当时各依赖表的版本
+     */
+    public static final class Key extends TableVersions.Key {
+        Key(String text, String[] tables) {
+            super(text, tables, tableVersions);
+        }
+    }
+
+    private static final class Entry {
+        final byte[] body;
+        final long[] versions;
+
+        Entry(byte[] body, long[] versions) {
+            this.body = body;
+            this.versions = versions;
+        }
+    }
+
+    public static void start() {
+        if (MAX_BYTES > 0) {
+            InvalidationBus.subscribe(ResultCache::onInvalidate);
+        }
+    }
+
+    /**
+     * @param tables 结果依赖的表
+     * @param parts  接口名后跟若干 参数名, 参数值；值为 null 的参数不进键
+     */
+    public static Key key(String[] tables, String route, Object... parts) {
+        StringBuilder text = new StringBuilder(route);
+        char sep = '?';
+        for (int i = 0; i + 1 < parts.length; i += 2) {
+            if (parts[i + 1] != null) {
+                text.append(sep).append(parts[i]).append('=').append(parts[i + 1]);
+                sep = '&';
+            }
+        }
+        return new Key(text.toString(), tables);
+    }
+
+    /**
+     * 命中时直接写出缓存的响应并返回 true
+     */
+    public static boolean writeIfCached(Key key, HttpServletResponse resp) throws IOException {
+        if (MAX_BYTES <= 0) {
+            return false;
+        }
+        byte[] body = null;
+        synchronized (entries) {
+            Entry entry = entries.get(key.text);
+            if (entry != null) {
+                if (Arrays.equals(entry.versions, key.versions)) {
+                    body = entry.body;
+                } else {
+                    stale.incrementAndGet();
+                    entries.remove(key.text);
+                }
+            }
+        }
+        if (body == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        ApiUtils.writeRaw(resp, body);
+        return true;
+    }
+
+    /**
+     * 写出成功响应并放入缓存。查询期间依赖的表有变更时只写出不缓存
+     */
+    public static void writeAndCache(Key key, HttpServletResponse resp, String data) throws IOException {
+        byte[] body = ApiUtils.formatJson(0, "ok", data).getBytes(StandardCharsets.UTF_8);
+        if (MAX_BYTES > 0) {
+            if (body.length > MAX_ENTRY_BYTES || !tableVersions.isCurrent(key)) {
+                skipped.incrementAndGet();
+            } else {
+                synchronized (entries) {
+                    entries.put(key.text, new Entry(body, key.versions));
+                }
+            }
+        }
+        ApiUtils.writeRaw(resp, body);
+    }
+
+    /**
+     * 只加表版本，过期项在下次访问或被 LRU 淘汰时移出
+     */
+    private static void onInvalidate(String table, long id) {
+        if (InvalidationBus.ALL.equals(table)) {
+            tableVersions.bumpAll();
+            synchronized (entries) {
+                entries.clear();
+            }
+            return;
+        }
+        tableVersions.bump(table);
+    }
+
+    public static String statsJson() {
+        synchronized (entries) {
+            return "{ \"maxBytes\": " + MAX_BYTES
+                    + ", \"entries\": " + entries.size()
+                    + ", \"bytes\": " + entries.bytes()
+                    + ", \"hits\": " + hits.get()
+                    + ", \"misses\": " + misses.get()
+                    + ", \"stale\": " + stale.get()
+                    + ", \"evictions\": " + entries.evictions()
+                    + ", \"skipped\": " + skipped.get()
+                    + " }";
+        }
+    }
+}
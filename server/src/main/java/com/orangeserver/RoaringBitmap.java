@@ -0,0 +1,567 @@
+package com.orangeserver;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * 压缩位图（Roaring 思路），存非负 int。按高 16 位分桶，每桶一个容器：
+ * 不超过 4096 个值时用有序 char 数组，超过后换成 1024 个 long 的位图，两者都不超过 8KB。
+ * 只实现资产索引用到的操作：增删、包含、基数、与/或/差、交集基数、倒序遍历。非线程安全。
+ */
+final class RoaringBitmap {
+    private static final int ARRAY_MAX = 4096;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /** 一个桶的低 16 位集合 */
+    private abstract static class Container {
+        abstract Container add(char x);
+
+        abstract Container remove(char x);
+
+        abstract boolean contains(char x);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract int andCardinality(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        abstract long sizeInBytes();
+
+        /** 小于等于 from 的最大值，没有则 -1 */
+        abstract int prevValue(int from);
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        int card;
+
+        ArrayContainer(int capacity) {
+            values = new char[Math.max(4, capacity)];
+        }
+
+        ArrayContainer(char[] values, int card) {
+            this.values = values;
+            this.card = card;
+        }
+
+        @Override
+        Container add(char x) {
+            int at = Arrays.binarySearch(values, 0, card, x);
+            if (at >= 0) {
+                return this;
+            }
+            if (card >= ARRAY_MAX) {
+                return toBitmap().add(x);
+            }
+            at = -at - 1;
+            if (card == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, card * 2));
+            }
+            System.arraycopy(values, at, values, at + 1, card - at);
+            values[at] = x;
+            card++;
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            int at = Arrays.binarySearch(values, 0, card, x);
+            if (at >= 0) {
+                System.arraycopy(values, at + 1, values, at, card - at - 1);
+                card--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return Arrays.binarySearch(values, 0, card, x) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        Container and(Container other) {
+            ArrayContainer result = new ArrayContainer(card);
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < card && j < o.card) {
+                    if (values[i] < o.values[j]) {
+                        i++;
+                    } else if (values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        result.values[result.card++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < card; i++) {
+                    if (other.contains(values[i])) {
+                        result.values[result.card++] = values[i];
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < card && j < o.card) {
+                    if (values[i] < o.values[j]) {
+                        i++;
+                    } else if (values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        count++;
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < card; i++) {
+                    if (other.contains(values[i])) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer o = (ArrayContainer) other;
+            char[] merged = new char[card + o.card];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < card || j < o.card) {
+                if (j >= o.card || (i < card && values[i] < o.values[j])) {
+                    merged[n++] = values[i++];
+                } else if (i >= card || values[i] > o.values[j]) {
+                    merged[n++] = o.values[j++];
+                } else {
+                    merged[n++] = values[i++];
+                    j++;
+                }
+            }
+            ArrayContainer result = new ArrayContainer(merged, n);
+            return n > ARRAY_MAX ? result.toBitmap() : result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            ArrayContainer result = new ArrayContainer(card);
+            for (int i = 0; i < card; i++) {
+                if (!other.contains(values[i])) {
+                    result.values[result.card++] = values[i];
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(4, card)), card);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + 2L * values.length;
+        }
+
+        @Override
+        int prevValue(int from) {
+            int at = Arrays.binarySearch(values, 0, card, (char) from);
+            if (at >= 0) {
+                return values[at];
+            }
+            at = -at - 2;
+            return at >= 0 ? values[at] : -1;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < card; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words = new long[1024];
+        int card;
+
+        @Override
+        Container add(char x) {
+            long before = words[x >>> 6];
+            long after = before | (1L << x);
+            if (before != after) {
+                words[x >>> 6] = after;
+                card++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            long before = words[x >>> 6];
+            long after = before & ~(1L << x);
+            if (before != after) {
+                words[x >>> 6] = after;
+                card--;
+                if (card <= ARRAY_MAX / 2) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            BitmapContainer o = (BitmapContainer) other;
+            BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < 1024; i++) {
+                result.words[i] = words[i] & o.words[i];
+                result.card += Long.bitCount(result.words[i]);
+            }
+            return result.card <= ARRAY_MAX ? result.toArray() : result;
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.andCardinality(this);
+            }
+            BitmapContainer o = (BitmapContainer) other;
+            int count = 0;
+            for (int i = 0; i < 1024; i++) {
+                count += Long.bitCount(words[i] & o.words[i]);
+            }
+            return count;
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.card; i++) {
+                    result.add(o.values[i]);
+                }
+                return result;
+            }
+            BitmapContainer o = (BitmapContainer) other;
+            result.card = 0;
+            for (int i = 0; i < 1024; i++) {
+                result.words[i] |= o.words[i];
+                result.card += Long.bitCount(result.words[i]);
+            }
+            return result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.card; i++) {
+                    char x = o.values[i];
+                    if (result.contains(x)) {
+                        result.words[x >>> 6] &= ~(1L << x);
+                        result.card--;
+                    }
+                }
+            } else {
+                BitmapContainer o = (BitmapContainer) other;
+                result.card = 0;
+                for (int i = 0; i < 1024; i++) {
+                    result.words[i] &= ~o.words[i];
+                    result.card += Long.bitCount(result.words[i]);
+                }
+            }
+            return result.card <= ARRAY_MAX ? result.toArray() : result;
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, 1024);
+            copy.card = card;
+            return copy;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + 8L * 1024;
+        }
+
+        @Override
+        int prevValue(int from) {
+            int word = from >>> 6;
+            long bits = words[word] & (-1L >>> (63 - (from & 63)));
+            while (true) {
+                if (bits != 0) {
+                    return word * 64 + 63 - Long.numberOfLeadingZeros(bits);
+                }
+                if (--word < 0) {
+                    return -1;
+                }
+                bits = words[word];
+            }
+        }
+
+        ArrayContainer toArray() {
+            ArrayContainer array = new ArrayContainer(card);
+            for (int i = 0; i < 1024; i++) {
+                long bits = words[i];
+                while (bits != 0) {
+                    array.values[array.card++] = (char) (i * 64 + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+            return array;
+        }
+    }
+
+    public void add(int x) {
+        checkValue(x);
+        char key = (char) (x >>> 16);
+        int at = find(key);
+        if (at >= 0) {
+            containers[at] = containers[at].add((char) x);
+            return;
+        }
+        at = -at - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        System.arraycopy(containers, at, containers, at + 1, size - at);
+        keys[at] = key;
+        containers[at] = new ArrayContainer(4).add((char) x);
+        size++;
+    }
+
+    public void remove(int x) {
+        if (x < 0) {
+            return;
+        }
+        int at = find((char) (x >>> 16));
+        if (at < 0) {
+            return;
+        }
+        containers[at] = containers[at].remove((char) x);
+        if (containers[at].cardinality() == 0) {
+            removeAt(at);
+        }
+    }
+
+    public boolean contains(int x) {
+        if (x < 0) {
+            return false;
+        }
+        int at = find((char) (x >>> 16));
+        return at >= 0 && containers[at].contains((char) x);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].cardinality();
+        }
+        return total;
+    }
+
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0) {
+                    result.append(a.keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public static int andCardinality(RoaringBitmap a, RoaringBitmap b) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                count += a.containers[i].andCardinality(b.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j >= b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i >= a.size || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) {
+                j++;
+            }
+            Container c = j < b.size && b.keys[j] == a.keys[i]
+                    ? a.containers[i].andNot(b.containers[j]) : a.containers[i].copy();
+            if (c.cardinality() > 0) {
+                result.append(a.keys[i], c);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 从大到小遍历
+     */
+    public PrimitiveIterator.OfInt descendingIterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int bucket = size - 1;
+            private int next = bucket >= 0 ? prevIn(bucket, 0xFFFF) : -1;
+
+            private int prevIn(int from, int low) {
+                for (int b = from; b >= 0; b--) {
+                    int v = containers[b].prevValue(b == from ? low : 0xFFFF);
+                    if (v >= 0) {
+                        bucket = b;
+                        return keys[b] << 16 | v;
+                    }
+                }
+                bucket = -1;
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                int value = next;
+                int low = value & 0xFFFF;
+                next = low > 0 ? prevIn(bucket, low - 1) : (bucket > 0 ? prevIn(bucket - 1, 0xFFFF) : -1);
+                return value;
+            }
+        };
+    }
+
+    public long sizeInBytes() {
+        long bytes = 32 + 2L * keys.length + 8L * containers.length;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void append(char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        size++;
+    }
+
+    private void removeAt(int at) {
+        System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+        System.arraycopy(containers, at + 1, containers, at, size - at - 1);
+        size--;
+        containers[size] = null;
+    }
+
+    private static void checkValue(int x) {
+        if (x < 0) {
+            throw new IllegalArgumentException("negative value " + x);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.orangeserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 启动时按版本号执行 classpath 下 db/migration 里的 SQL 脚本，已执行的版本记在每个分片的 schema_migration 表里。
+ * 多个实例同时启动时用 GET_LOCK 串行化，只有一个实例真正执行。
+ * 脚本里的 "-- explain:" 行是代表性查询，执行前后各 EXPLAIN 一次，执行计划随版本一起记下。
+ * 建索引这类 DDL 在脚本里写明 ALGORITHM=INPLACE, LOCK=NONE，做不到在线执行时 MySQL 直接报错，不会退化成锁表。
+ */
+public final class SchemaMigrator {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    /** -Dorange.migrate=false 关闭 */
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("orange.migrate", "true"));
+
+    /** 按版本号排列，新脚本追加在末尾 */
+    static final String[] MIGRATIONS = {
+        "V1__asset_list_indexes.sql",
+        "V2__asset_retire_archive.sql",
+        "V3__asset_location_no_index.sql",
+        "V4__audit_report_tables.sql",
+        "V5__asset_no_claim.sql"
+    };
+
+    private static final String LOCK_NAME = "orange_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+    /** DDL 最后切换元数据时要等正在跑的事务结束，等不到就放弃，免得后面的查询全排在它后面 */
+    private static final int DDL_LOCK_WAIT_SECONDS = 10;
+
+    private static final String EXPLAIN_PREFIX = "-- explain:";
+
+    /** MySQL 错误码：字段已存在 / 索引已存在 / 要删的索引不存在，说明库已经是目标结构（如按新版 create.sql 建的库） */
+    private static final int ER_DUP_FIELDNAME = 1060;
+    private static final int ER_DUP_KEYNAME = 1061;
+    private static final int ER_CANT_DROP_FIELD_OR_KEY = 1091;
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE IF NOT EXISTS schema_migration ("
+            + " version INT PRIMARY KEY,"
+            + " name VARCHAR(128) NOT NULL,"
+            + " checksum BIGINT NOT NULL,"
+            + " duration_ms BIGINT NOT NULL,"
+            + " plan_before TEXT,"
+            + " plan_after TEXT,"
+            + " applied_at DATETIME(3) NOT NULL"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+    private static final String INSERT_SQL = "INSERT INTO schema_migration"
+            + " (version, name, checksum, duration_ms, plan_before, plan_after, applied_at)"
+            + " VALUES (?, ?, ?, ?, ?, ?, NOW(3))";
+
+    private static final Map<Integer, Integer> shardVersions = new ConcurrentHashMap<>();
+    private static final AtomicLong applied = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static volatile String lastError;
+    private static volatile int latest;
+    /** ensureMigrated 的结果，null 表示还没执行过 */
+    private static Boolean migrated;
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * 解析后的一个脚本
+     */
+    static final class Migration {
+        final int version;
+        final String name;
+        final long checksum;
+        final List<String> statements = new ArrayList<>();
+        final List<String> explains = new ArrayList<>();
+
+        Migration(int version, String name, long checksum) {
+            this.version = version;
+            this.name = name;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * 在监听器的 contextInitialized 里同步调用，开始接收请求前表结构就已是最新；
+     * 每个进程只执行一次，之后直接返回第一次的结果，所以各监听器谁先调用都可以
+     *
+     * @return 所有分片都迁移成功（或关闭了自动迁移）时为 true
+     */
+    public static synchronized boolean ensureMigrated() {
+        if (migrated == null) {
+            try {
+                migrated = migrate();
+            } catch (RuntimeException | LinkageError e) {
+                // 连接池建不起来（数据库连不上）时 MyDataBase 初始化失败，不让它拖垮整个应用的启动
+                failed.incrementAndGet();
+                lastError = e.toString();
+                logger.error("数据库迁移失败", e);
+                migrated = false;
+            }
+        }
+        return migrated;
+    }
+
+    public static synchronized boolean isMigrated() {
+        return Boolean.TRUE.equals(migrated);
+    }
+
+    /**
+     * 依次迁移每个分片，某个分片出错时继续迁移其它分片
+     */
+    private static boolean migrate() {
+        if (!ENABLED) {
+            return true;
+        }
+        List<Migration> migrations;
+        try {
+            migrations = load();
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            lastError = e.getMessage();
+            logger.error("读取迁移脚本失败", e);
+            return false;
+        }
+        boolean ok = true;
+        for (int shard = 0; shard < ShardRouter.count(); shard++) {
+            try {
+                migrate(shard, SqlTimer.unwrap(ShardRouter.shard(shard)), migrations);
+            } catch (SQLException | RuntimeException e) {
+                ok = false;
+                failed.incrementAndGet();
+                lastError = "shard " + shard + ": " + e.getMessage();
+                logger.error("分片 {} 数据库迁移失败，后续版本未执行", shard, e);
+            }
+        }
+        return ok;
+    }
+
+    private static void migrate(int shard, DataSource ds, List<Migration> migrations) throws SQLException {
+        try (Connection conn = ds.getConnection()) {
+            if (!lock(conn)) {
+                throw new SQLException(LOCK_TIMEOUT_SECONDS + " 秒内没有拿到迁移锁");
+            }
+            try {
+                try (Statement st = conn.createStatement()) {
+                    st.execute(CREATE_TABLE_SQL);
+                    st.execute("SET SESSION lock_wait_timeout = " + DDL_LOCK_WAIT_SECONDS);
+                }
+                Map<Integer, Long> done = appliedVersions(conn);
+                int current = 0;
+                for (Migration m : migrations) {
+                    Long checksum = done.get(m.version);
+                    if (checksum == null) {
+                        apply(shard, ds, conn, m);
+                    } else if (checksum != m.checksum) {
+                        logger.warn("分片 {} 迁移 {} 已执行，但脚本内容已变化，不会重新执行", shard, m.name);
+                    }
+                    current = m.version;
+                    shardVersions.put(shard, current);
+                }
+                logger.info("分片 {} 数据库结构版本 {}", shard, current);
+            } finally {
+                unlock(conn);
+            }
+        }
+    }
+
+    private static void apply(int shard, DataSource ds, Connection conn, Migration m) throws SQLException {
+        long start = System.nanoTime();
+        String before = explainAll(ds, m);
+        try (Statement st = conn.createStatement()) {
+            for (String sql : m.statements) {
+                try {
+                    st.execute(sql);
+                } catch (SQLException e) {
+                    int code = e.getErrorCode();
+                    if (code != ER_DUP_FIELDNAME && code != ER_DUP_KEYNAME && code != ER_CANT_DROP_FIELD_OR_KEY) {
+                        throw e;
+                    }
+                    logger.info("分片 {} 迁移 {} 跳过已是目标结构的语句: {}", shard, m.name, e.getMessage());
+                }
+            }
+        }
+        String after = explainAll(ds, m);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        try (PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+            ps.setInt(1, m.version);
+            ps.setString(2, m.name);
+            ps.setLong(3, m.checksum);
+            ps.setLong(4, millis);
+            ps.setString(5, before);
+            ps.setString(6, after);
+            ps.executeUpdate();
+        }
+        applied.incrementAndGet();
+        logger.info("分片 {} 已执行迁移 {}，耗时 {} ms\n执行前计划: {}\n执行后计划: {}", shard, m.name, millis, before, after);
+    }
+
+    /**
+     * 脚本里每条 explain 查询的执行计划，拼成 JSON 数组；没有 explain 行时返回 null
+     */
+    private static String explainAll(DataSource ds, Migration m) {
+        if (m.explains.isEmpty()) {
+            return null;
+        }
+        List<String> plans = new ArrayList<>();
+        for (String sql : m.explains) {
+            String plan;
+            try {
+                plan = SqlTimer.explain(ds, sql, Collections.emptyMap());
+            } catch (SQLException e) {
+                plan = "\"" + ApiUtils.escapeJson(e.getMessage()) + "\"";
+            }
+            plans.add("{ \"sql\": \"" + ApiUtils.escapeJson(sql) + "\", \"plan\": " + plan + " }");
+        }
+        return "[" + String.join(", ", plans) + "]";
+    }
+
+    private static Map<Integer, Long> appliedVersions(Connection conn) throws SQLException {
+        Map<Integer, Long> done = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT version, checksum FROM schema_migration");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                done.put(rs.getInt(1), rs.getLong(2));
+            }
+        }
+        return done;
+    }
+
+    private static boolean lock(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            ps.setString(1, LOCK_NAME);
+            ps.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            ps.setString(1, LOCK_NAME);
+            ps.executeQuery().close();
+        } catch (SQLException e) {
+            logger.warn("释放迁移锁失败", e);
+        }
+    }
+
+    private static List<Migration> load() throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+        int last = 0;
+        for (String name : MIGRATIONS) {
+            Migration m = parse(name, read("db/migration/" + name));
+            if (m.version <= last) {
+                throw new IllegalStateException("迁移版本号需递增: " + name);
+            }
+            last = m.version;
+            migrations.add(m);
+        }
+        latest = last;
+        return migrations;
+    }
+
+    private static String read(String resource) throws IOException {
+        try (InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("找不到迁移脚本 " + resource);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 文件名形如 V3__xxx.sql；语句以行尾的分号结束，"--" 开头的行是注释，"-- explain:" 行是要 EXPLAIN 的查询
+     */
+    static Migration parse(String name, String text) {
+        int sep = name.indexOf("__");
+        if (!name.startsWith("V") || sep < 2) {
+            throw new IllegalArgumentException("迁移脚本名应为 V<版本>__<说明>.sql: " + name);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        Migration m = new Migration(Integer.parseInt(name.substring(1, sep)), name, crc.getValue());
+
+        StringBuilder statement = new StringBuilder();
+        for (String raw : text.split("\r?\n")) {
+            String line = raw.trim();
+            if (line.startsWith(EXPLAIN_PREFIX)) {
+                m.explains.add(line.substring(EXPLAIN_PREFIX.length()).trim());
+                continue;
+            }
+            if (line.isEmpty() || line.startsWith("--")) {
+                continue;
+            }
+            statement.append(statement.length() == 0 ? "" : " ").append(line);
+            if (line.endsWith(";")) {
+                statement.setLength(statement.length() - 1);
+                m.statements.add(statement.toString().trim());
+                statement.setLength(0);
+            }
+        }
+        if (statement.length() > 0) {
+            m.statements.add(statement.toString().trim());
+        }
+        return m;
+    }
+
+    public static String statsJson() {
+        List<String> shards = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : new TreeMap<>(shardVersions).entrySet()) {
+            shards.add("{ \"shard\": " + e.getKey() + ", \"version\": " + e.getValue() + " }");
+        }
+        return "{ \"enabled\": " + ENABLED
+                + ", \"ok\": " + isMigrated()
+                + ", \"latest\": " + latest
+                + ", \"applied\": " + applied.get()
+                + ", \"failed\": " + failed.get()
+                + ", \"lastError\": " + (lastError == null ? "null" : "\"" + ApiUtils.escapeJson(lastError) + "\"")
+                + ", \"shards\": [" + String.join(", ", shards) + "]"
+                + " }";
+    }
+}
@@ -0,0 +1,129 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 名称搜索：GET /api/search/assets?q=bjbdn&page=1&size=10（资产名称），/api/search/assignees（领用人姓名），
+ * /api/search/departments（部门名称）。q 可以是汉字、全拼或首字母，按相关度排序分页。
+ * 由 Autocomplete 的拼音索引回答，需 -Dorange.autocomplete=true；未开启或索引未就绪时回退 SQL，
+ * 只能按原文 LIKE 匹配，返回的 pinyin 为 false。
+ */
+@WebServlet("/api/search/*")
+public class SearchServlet extends HttpServlet {
+    private static final Logger logger = LoggerFactory.getLogger(SearchServlet.class);
+
+    private static final int MAX_SIZE = 100;
+
+    /** 把一行结果转成 JSON */
+    private interface RowJson {
+        String toJson(ResultSet rs) throws SQLException;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        String pathInfo = req.getPathInfo();
+        String type = pathInfo == null ? "" : pathInfo.replaceAll("^/|/$", "");
+        if (!type.equals(Autocomplete.TYPE_ASSETS) && !type.equals(Autocomplete.TYPE_ASSIGNEES)
+                && !type.equals(Autocomplete.TYPE_DEPARTMENTS)) {
+            ApiUtils.writeJson(resp, 4004, "接口不存在，可用 assets、assignees、departments", "null");
+            return;
+        }
+        int page = ApiUtils.parseInt(req.getParameter("page"), 1);
+        int size = ApiUtils.parseInt(req.getParameter("size"), 10);
+        if (page <= 0 || size <= 0 || size > MAX_SIZE) {
+            ApiUtils.writeJson(resp, 4001, "page 需为正整数，size 需为 1 到 " + MAX_SIZE, "null");
+            return;
+        }
+        String query = PinyinIndex.normalize(req.getParameter("q"));
+        if (query.isEmpty()) {
+            ApiUtils.writeJson(resp, 4001, "q 为必填参数", "null");
+            return;
+        }
+        int offset = (page - 1) * size;
+
+        PinyinIndex.Page<String> indexed = Autocomplete.searchNames(type, query, offset, size);
+        if (indexed != null) {
+            ApiUtils.writeJson(resp, 0, "ok", pageJson(String.join(", ", indexed.items), page, size,
+                    indexed.total, true));
+            return;
+        }
+        try {
+            ShardRouter.Page result = searchSql(type, query, offset, size);
+            ApiUtils.writeJson(resp, 0, "ok", pageJson(String.join(", ", result.items), page, size,
+                    result.total, false));
+        } catch (SQLException e) {
+            ApiUtils.writeJson(resp, 5000, "服务器异常", "null");
+            logger.error("名称搜索失败 type={} q={}", type, query, e);
+        }
+    }
+
+    private static String pageJson(String items, int page, int size, int total, boolean pinyin) {
+        return "{ \"list\": [" + items + "]"
+                + ", \"page\": " + page
+                + ", \"size\": " + size
+                + ", \"total\": " + total
+                + ", \"pinyin\": " + pinyin
+                + " }";
+    }
+
+    private static ShardRouter.Page searchSql(String type, String query, int offset, int size)
+            throws SQLException {
+        String like = "%" + query.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        switch (type) {
+            case Autocomplete.TYPE_ASSETS:
+                return ShardRouter.pageAll(offset, size, (ds, limit, off) -> queryPage(ds,
+                        " FROM asset WHERE asset_name LIKE ? AND status < " + AssetServlet.STATUS_RETIRED,
+                        "id, asset_no, asset_name, location_id", like, limit, off,
+                        rs -> Autocomplete.assetJson(rs.getLong(1), rs.getString(2), rs.getString(3),
+                                rs.getLong(4))));
+            case Autocomplete.TYPE_ASSIGNEES:
+                return queryPage(MyDataBase.getDataSource(), " FROM assignee WHERE name LIKE ?",
+                        "id, emp_no, name", like, size, offset,
+                        rs -> Autocomplete.assigneeJson(rs.getLong(1), rs.getString(2), rs.getString(3)));
+            default:
+                return queryPage(MyDataBase.getDataSource(), " FROM department WHERE dept_name LIKE ?",
+                        "id, dept_code, dept_name", like, size, offset,
+                        rs -> Autocomplete.deptJson(rs.getLong(1), rs.getString(2), rs.getString(3)));
+        }
+    }
+
+    private static ShardRouter.Page queryPage(DataSource ds, String fromWhere, String columns, String like,
+                                              int limit, int offset, RowJson row) throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement countPs = conn.prepareStatement("SELECT COUNT(*)" + fromWhere);
+             PreparedStatement listPs = conn.prepareStatement("SELECT " + columns + fromWhere
+                     + " ORDER BY id DESC LIMIT ? OFFSET ?")) {
+            countPs.setString(1, like);
+            listPs.setString(1, like);
+            listPs.setInt(2, limit);
+            listPs.setInt(3, offset);
+
+            int total = 0;
+            try (ResultSet rs = countPs.executeQuery()) {
+                if (rs.next()) {
+                    total = rs.getInt(1);
+                }
+            }
+            ShardRouter.Page page = new ShardRouter.Page(total);
+            try (ResultSet rs = listPs.executeQuery()) {
+                while (rs.next()) {
+                    page.add(rs.getLong(1), row.toJson(rs));
+                }
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.orangeserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+/**
+ * 按部门分片：每个分片一个连接池，分片 0 即 MyDataBase 的默认库。
+ * department、assignee 是小表，全量复制到每个分片（写分片 0 后同步到其余分片），
+ * 这样分片内的 JOIN 和外键都照常可用；location_space 按 dept_id 路由，asset 和领用历史跟随所在位置空间。
+ * 没有部门条件的列表查询并行发到所有分片，再按 id 倒序合并分页。
+ * 启用分片前写入的老数据都在分片 0 上，确认已按部门搬到位（orange.shard.deptPlaced）之前，带部门条件的查询也查所有分片。
+ * 复制表同步到某个分片失败时不影响主副本的写入，由后台线程重试到成功为止。
+ */
+public final class ShardRouter {
+    private static final Logger logger = LoggerFactory.getLogger(ShardRouter.class);
+
+    /** 运维确认每个部门的位置空间都在 shardOfDept 所指的分片上（审计没有 misrouted）后再打开 */
+    private static final boolean DEPT_PLACED = Boolean.getBoolean("orange.shard.deptPlaced");
+    private static final long REPLICA_RETRY_MS = Long.getLong("orange.shard.replicaRetryMs", 5000);
+
+    private static final AtomicLong scatterQueries = new AtomicLong();
+    private static final AtomicLong locateMisses = new AtomicLong();
+    private static final AtomicLong replicaFailures = new AtomicLong();
+    /** 同步失败、等待后台重试的复制表写操作，键为 分片号|表|id，同一行只保留最新的一次 */
+    private static final Map<String, ShardUpdate> pendingReplicas = new ConcurrentHashMap<>();
+    private static Thread replicaRepairer;
+
+    private ShardRouter() {
+    }
+
+    /** 在单个分片上执行的查询 */
+    interface ShardQuery<T> {
+        T query(DataSource ds) throws SQLException;
+    }
+
+    /** 在单个分片上按 limit/offset 取一页 */
+    interface PageQuery {
+        Page query(DataSource ds, int limit, int offset) throws SQLException;
+    }
+
+    /** 在单个分片的连接上执行的写操作 */
+    interface ShardUpdate {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    /**
+     * 一页查询结果，ids 与 items 一一对应且按 id 倒序
+     */
+    static final class Page {
+        final int total;
+        final List<Long> ids = new ArrayList<>();
+        final List<String> items = new ArrayList<>();
+
+        Page(int total) {
+            this.total = total;
+        }
+
+        void add(long id, String item) {
+            ids.add(id);
+            items.add(item);
+        }
+    }
+
+    /**
+     * 连接池和并行查询线程池放在 holder 里，第一次真正访问分片时才创建
+     */
+    private static final class Holder {
+        static final List<DataSource> SHARDS = buildShards();
+        static final ExecutorService POOL = SHARDS.size() > 1 ? newPool(SHARDS.size() * 4) : null;
+
+        private static List<DataSource> buildShards() {
+            List<DataSource> list = new ArrayList<>();
+            list.add(MyDataBase.getDataSource());
+            for (int i = 0; i < MyDataBase.SHARD_URLS.size(); i++) {
+                list.add(SqlTimer.wrap(MyDataBase.buildDataSource(MyDataBase.SHARD_URLS.get(i), i + 1)));
+            }
+            logger.info("分片数 {}", list.size());
+            return Collections.unmodifiableList(list);
+        }
+
+        private static ExecutorService newPool(int threads) {
+            AtomicInteger seq = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "shard-scatter-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public static int count() {
+        return Holder.SHARDS.size();
+    }
+
+    public static DataSource shard(int index) {
+        return Holder.SHARDS.get(index);
+    }
+
+    public static List<DataSource> all() {
+        return Holder.SHARDS;
+    }
+
+    /**
+     * 部门所在分片
+     */
+    public static int shardOfDept(long deptId) {
+        return shardOf(deptId, count());
+    }
+
+    /**
+     * 按部门读取时只需查询的分片；老数据还没按部门搬到位时返回 -1，调用方改为查询所有分片
+     */
+    public static int readShardOfDept(long deptId) {
+        return count() == 1 ? 0 : DEPT_PLACED ? shardOfDept(deptId) : -1;
+    }
+
+    /**
+     * 该部门的位置空间能否放在 shard 上；老数据没搬到位时各分片都可能有，不做限制
+     */
+    public static boolean deptAllowedOn(long deptId, int shard) {
+        return !DEPT_PLACED || shardOfDept(deptId) == shard;
+    }
+
+    /**
+     * 对 deptId 做一次混淆再取模，避免连续的部门 id 集中落在相邻分片
+     */
+    static int shardOf(long deptId, int shardCount) {
+        long h = deptId * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) Math.floorMod(h, (long) shardCount);
+    }
+
+    /**
+     * 按自增 id 推算的分片号，仅作为 locate 的第一猜测
+     */
+    static int homeShardOfId(long id, int shardCount) {
+        return (int) Math.floorMod(id - 1, (long) shardCount);
+    }
+
+    /**
+     * 找到 location_space / asset 某行所在的分片；行不存在时返回 -1。
+     * 只有一个分片时不查库直接返回 0，由后续 SQL 自己判断是否存在。
+     * 先查 id 推算的分片，查不到再逐个查其余分片（兼容启用分片前写入的老数据）。
+     */
+    public static int locate(String table, long id) throws SQLException {
+        int n = count();
+        if (n == 1) {
+            return 0;
+        }
+        String sql = "SELECT 1 FROM " + table + " WHERE id = ?";
+        int home = homeShardOfId(id, n);
+        for (int i = 0; i < n; i++) {
+            int index = (home + i) % n;
+            try (Connection conn = shard(index).getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        if (i > 0) {
+                            locateMisses.incrementAndGet();
+                        }
+                        return index;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 在所有分片上并行执行同一个查询，结果按分片顺序返回；任一分片失败则整体失败
+     */
+    static <T> List<T> scatter(ShardQuery<T> query) throws SQLException {
+        List<DataSource> shards = all();
+        List<T> results = new ArrayList<>(shards.size());
+        if (shards.size() == 1) {
+            results.add(query.query(shards.get(0)));
+            return results;
+        }
+        scatterQueries.incrementAndGet();
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        String route = SqlTimer.currentRoute();
+        AtomicInteger checkouts = SqlTimer.currentCheckouts();
+        for (DataSource ds : shards) {
+            futures.add(Holder.POOL.submit(() -> SqlTimer.callWithRoute(route, checkouts, () -> query.query(ds))));
+        }
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("分片查询被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException("分片查询失败", cause);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 跨所有分片分页：每个分片取前 offset + size 条，合并后再截取。
+     * 只有一个分片时直接按原 offset 查询。
+     */
+    static Page pageAll(int offset, int size, PageQuery query) throws SQLException {
+        if (count() == 1) {
+            return query.query(shard(0), size, offset);
+        }
+        int limit = offset + size;
+        return merge(scatter(ds -> query.query(ds, limit, 0)), offset, size);
+    }
+
+    /**
+     * 合并各分片按 id 倒序的结果，跳过 offset 条后取 size 条；total 为各分片之和
+     */
+    static Page merge(List<Page> pages, int offset, int size) {
+        int total = 0;
+        for (Page page : pages) {
+            total += page.total;
+        }
+        Page merged = new Page(total);
+        int[] cursor = new int[pages.size()];
+        int skipped = 0;
+        while (merged.ids.size() < size) {
+            int best = -1;
+            for (int i = 0; i < pages.size(); i++) {
+                Page page = pages.get(i);
+                if (cursor[i] < page.ids.size()
+                        && (best < 0 || page.ids.get(cursor[i]) > pages.get(best).ids.get(cursor[best]))) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            Page from = pages.get(best);
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                merged.add(from.ids.get(cursor[best]), from.items.get(cursor[best]));
+            }
+            cursor[best]++;
+        }
+        return merged;
+    }
+
+    /**
+     * 把复制表某一行的写操作同步到分片 1..N。分片 0 是主副本，调用方应已在分片 0 上写成功。
+     * update 必须幂等且不会用旧版本覆盖新版本（按 version 判断的 upsert、按 id 删除）。
+     * 某个分片失败时只记日志，转给后台线程重试；该行在这个分片上还有未补齐的写时，新的写直接替换它排队，保证先后顺序。
+     */
+    static void replicate(String table, long id, ShardUpdate update) {
+        for (int i = 1; i < count(); i++) {
+            String key = i + "|" + table + "|" + id;
+            if (pendingReplicas.replace(key, update) != null) {
+                continue;
+            }
+            try (Connection conn = shard(i).getConnection()) {
+                update.apply(conn);
+            } catch (SQLException e) {
+                replicaFailures.incrementAndGet();
+                logger.error("同步复制表到分片 {} 失败，转入后台重试 table={} id={}", i, table, id, e);
+                pendingReplicas.put(key, update);
+                startReplicaRepairer();
+            }
+        }
+    }
+
+    private static synchronized void startReplicaRepairer() {
+        if (replicaRepairer != null) {
+            return;
+        }
+        Thread thread = new Thread(ShardRouter::runReplicaRepair, "shard-replica-repair");
+        thread.setDaemon(true);
+        replicaRepairer = thread;
+        thread.start();
+    }
+
+    private static void runReplicaRepair() {
+        while (true) {
+            try {
+                Thread.sleep(REPLICA_RETRY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Map.Entry<String, ShardUpdate> entry : pendingReplicas.entrySet()) {
+                String key = entry.getKey();
+                int index = Integer.parseInt(key.substring(0, key.indexOf('|')));
+                try (Connection conn = shard(index).getConnection()) {
+                    entry.getValue().apply(conn);
+                    // 执行期间又有新的写替换进来时保留，下一轮再执行
+                    pendingReplicas.remove(key, entry.getValue());
+                    logger.info("复制表已补齐 {}", key);
+                } catch (SQLException e) {
+                    replicaFailures.incrementAndGet();
+                    logger.warn("复制表补齐失败，{} ms 后重试 {}", REPLICA_RETRY_MS, key, e);
+                }
+            }
+        }
+    }
+
+    public static String statsJson() {
+        List<String> pools = new ArrayList<>();
+        for (int i = 0; i < count(); i++) {
+            DataSource ds = SqlTimer.unwrap(shard(i));
+            if (ds instanceof HikariDataSource && ((HikariDataSource) ds).getHikariPoolMXBean() != null) {
+                HikariPoolMXBean pool = ((HikariDataSource) ds).getHikariPoolMXBean();
+                pools.add("{ \"shard\": " + i
+                        + ", \"active\": " + pool.getActiveConnections()
+                        + ", \"idle\": " + pool.getIdleConnections()
+                        + ", \"waiting\": " + pool.getThreadsAwaitingConnection()
+                        + " }");
+            }
+        }
+        return "{ \"count\": " + count()
+                + ", \"scatterQueries\": " + scatterQueries.get()
+                + ", \"locateMisses\": " + locateMisses.get()
+                + ", \"deptPlaced\": " + DEPT_PLACED
+                + ", \"pendingReplicas\": " + pendingReplicas.size()
+                + ", \"replicaFailures\": " + replicaFailures.get()
+                + ", \"pools\": [" + String.join(", ", pools) + "]"
+                + " }";
+    }
+}
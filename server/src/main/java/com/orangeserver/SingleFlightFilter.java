@@ -0,0 +1,163 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 相同 GET 请求合并执行（single-flight）：同一路径和查询串的请求正在处理时，
+ * 后到的请求不再自己查库，而是等第一个请求的结果，拿到同样的状态码、响应头和响应体。
+ * 结果只在执行期间共享，执行完即移除，不做缓存；这样连接池占用与不同查询的数量成正比，而不是与并发用户数成正比。
+ * 每次执行记下开始时 InvalidationBus 的版本，之后有写提交过的请求不再加入它，而是自己执行，
+ * 否则刚 PUT 完的客户端可能拿到写之前的结果和旧 ETag。
+ * 排在 LoadSheddingFilter 之前，等待的请求不占并发名额。
+ */
+@WebFilter("/api/*")
+public class SingleFlightFilter implements Filter {
+    private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private static final AtomicLong leaders = new AtomicLong();
+    private static final AtomicLong followers = new AtomicLong();
+    private static final AtomicLong fallbacks = new AtomicLong();
+    private static final AtomicLong stale = new AtomicLong();
+
+    private static final class Flight {
+        /** 开始执行时的 InvalidationBus.version() */
+        final long version;
+        final CompletableFuture<Shared> result = new CompletableFuture<>();
+
+        Flight(long version) {
+            this.version = version;
+        }
+    }
+
+    private static final class Shared {
+        final int status;
+        final String contentType;
+        final Map<String, List<String>> headers;
+        final byte[] body;
+
+        Shared(int status, String contentType, Map<String, List<String>> headers, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) resp;
+        String path = ApiUtils.requestPath(request);
+        if (!"GET".equals(request.getMethod()) || ApiUtils.isOpsPath(path)) {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        String query = request.getQueryString();
+        String key = query == null ? path : path + "?" + query;
+        Flight mine = new Flight(InvalidationBus.version());
+        Flight existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null && existing.version < mine.version) {
+            // 正在执行的那次开始于某次写提交之前，结果可能是旧的：接替它，之后到的请求加入新的这次
+            stale.incrementAndGet();
+            existing = inFlight.replace(key, existing, mine) ? null : existing;
+            if (existing != null) {
+                chain.doFilter(req, resp);
+                return;
+            }
+        }
+        if (existing == null) {
+            leaders.incrementAndGet();
+            lead(request, response, chain, key, mine);
+            return;
+        }
+
+        Shared shared;
+        try {
+            shared = existing.result.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        } catch (ExecutionException | TimeoutException e) {
+            shared = null;
+        }
+        if (shared == null) {
+            // 第一个请求抛了异常或太慢，自己执行一次
+            fallbacks.incrementAndGet();
+            chain.doFilter(req, resp);
+            return;
+        }
+        followers.incrementAndGet();
+        replay(response, shared);
+    }
+
+    private void lead(HttpServletRequest request, HttpServletResponse response, FilterChain chain, String key,
+                      Flight mine) throws IOException, ServletException {
+        BufferedResponse buffered = new BufferedResponse(response);
+        try {
+            chain.doFilter(request, buffered);
+        } catch (IOException | ServletException | RuntimeException e) {
+            inFlight.remove(key, mine);
+            mine.result.complete(null);
+            throw e;
+        }
+
+        byte[] body = buffered.toByteArray();
+        // 先移除再完成：之后到的相同请求会重新执行，读到的是完成之后的数据
+        inFlight.remove(key, mine);
+        mine.result.complete(new Shared(buffered.getStatus(), buffered.getContentType(), headersOf(response), body));
+        response.getOutputStream().write(body);
+    }
+
+    private static Map<String, List<String>> headersOf(HttpServletResponse response) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (String name : response.getHeaderNames()) {
+            if (!"Content-Type".equalsIgnoreCase(name) && !"Content-Length".equalsIgnoreCase(name)) {
+                headers.put(name, new ArrayList<>(response.getHeaders(name)));
+            }
+        }
+        return headers;
+    }
+
+    private static void replay(HttpServletResponse response, Shared shared) throws IOException {
+        response.setStatus(shared.status);
+        if (shared.contentType != null) {
+            response.setContentType(shared.contentType);
+        }
+        for (Map.Entry<String, List<String>> header : shared.headers.entrySet()) {
+            for (String value : header.getValue()) {
+                response.addHeader(header.getKey(), value);
+            }
+        }
+        response.getOutputStream().write(shared.body);
+    }
+
+    public static String statsJson() {
+        return "{ \"inFlight\": " + inFlight.size()
+                + ", \"leaders\": " + leaders.get()
+                + ", \"followers\": " + followers.get()
+                + ", \"fallbacks\": " + fallbacks.get()
+                + ", \"stale\": " + stale.get()
+                + " }";
+    }
+}
@@ -0,0 +1,34 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * SQL 耗时明细：GET 查看（?top=N，默认 20），DELETE 清零重新统计
+ */
+@WebServlet("/api/metrics/sql")
+public class SqlStatsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        int top = ApiUtils.parseInt(req.getParameter("top"), 20);
+        if (top <= 0) {
+            ApiUtils.writeJson(resp, 4001, "top 需为正整数", "null");
+            return;
+        }
+        ApiUtils.writeJson(resp, 0, "ok", SqlTimer.detailJson(top));
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        SqlTimer.reset();
+        ApiUtils.writeJson(resp, 0, "ok", "null");
+    }
+}
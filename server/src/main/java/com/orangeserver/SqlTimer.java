@@ -0,0 +1,425 @@
+package com.orangeserver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SQL 计时：用动态代理包装连接池的 DataSource / Connection / Statement，统计每条语句的执行耗时。
+ * 语句按归一化后的 SQL（字面量换成 ?、空白合并）汇总，同时按当前请求的路由（如 GET /api/assets/{id}）汇总；
+ * 路由由 SqlTimingFilter 放进 ThreadLocal，分片并行查询和批量请求的子线程会带上发起方的路由。
+ * 计时只包含 execute 本身（查询为拿到第一批结果的时间），不含遍历 ResultSet。
+ * 超过 -Dorange.sql.slowMs（默认 100）的语句记慢日志；-Dorange.sql.explain=true 时再对慢 SELECT 异步执行一次 EXPLAIN，
+ * 同一条 SQL 每分钟最多一次。-Dorange.sql.timing=false 关闭计时。
+ * 另外按请求统计借出连接的次数（不受开关影响），LoadSheddingFilter 只用真正访问过数据库的请求更新延迟基线。
+ */
+public final class SqlTimer {
+    private static final Logger logger = LoggerFactory.getLogger(SqlTimer.class);
+
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("orange.sql.timing"));
+    private static final long SLOW_MILLIS = Long.getLong("orange.sql.slowMs", 100);
+    private static final boolean EXPLAIN = Boolean.getBoolean("orange.sql.explain");
+    private static final long EXPLAIN_INTERVAL_MS = 60000;
+    private static final int MAX_STATEMENTS = 500;
+    private static final int MAX_SQL_LENGTH = 500;
+    private static final String BACKGROUND = "(background)";
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final ThreadLocal<String> route = new ThreadLocal<>();
+    /** 当前请求借出连接的次数，分片并行查询和批量请求的子线程共用发起方的计数 */
+    private static final ThreadLocal<AtomicInteger> checkouts = new ThreadLocal<>();
+    private static final Map<String, Stat> statements = new ConcurrentHashMap<>();
+    private static final Map<String, Stat> routes = new ConcurrentHashMap<>();
+    private static final AtomicLong executions = new AtomicLong();
+    private static final AtomicLong slow = new AtomicLong();
+    private static final AtomicLong untracked = new AtomicLong();
+
+    /** EXPLAIN 在单独的线程里跑，队列满了直接丢弃，不拖慢请求 */
+    private static final ThreadPoolExecutor explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(16), r -> {
+                Thread t = new Thread(r, "sql-explain");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private SqlTimer() {
+    }
+
+    /**
+     * 一条归一化 SQL 或一个路由的累计耗时
+     */
+    private static final class Stat {
+        final String name;
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong slowCount = new AtomicLong();
+        volatile String lastRoute;
+        volatile String explain;
+        final AtomicLong explainedAt = new AtomicLong();
+
+        Stat(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos, boolean isSlow) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            if (isSlow) {
+                slowCount.incrementAndGet();
+            }
+        }
+
+        String json(boolean withSql) {
+            long n = count.get();
+            return "{ \"" + (withSql ? "sql" : "route") + "\": \"" + ApiUtils.escapeJson(name) + "\""
+                    + ", \"count\": " + n
+                    + ", \"totalMs\": " + totalNanos.get() / 1_000_000
+                    + ", \"avgMs\": " + (n == 0 ? 0 : totalNanos.get() / n / 1000 / 1000.0)
+                    + ", \"maxMs\": " + maxNanos.get() / 1000 / 1000.0
+                    + ", \"slow\": " + slowCount.get()
+                    + (withSql ? ", \"lastRoute\": \"" + ApiUtils.escapeJson(lastRoute) + "\""
+                    + ", \"explain\": " + (explain == null ? "null" : explain) : "")
+                    + " }";
+        }
+    }
+
+    /** 代理的调用处理器都持有被包装的对象，unwrap 时据此取回 */
+    private abstract static class Wrapper implements InvocationHandler {
+        final Object target;
+
+        Wrapper(Object target) {
+            this.target = target;
+        }
+
+        Object forward(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static final class DataSourceHandler extends Wrapper {
+        DataSourceHandler(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = forward(method, args);
+            if ("getConnection".equals(method.getName())) {
+                AtomicInteger counter = checkouts.get();
+                if (counter != null) {
+                    counter.incrementAndGet();
+                }
+                if (ENABLED) {
+                    return proxy(Connection.class, new ConnectionHandler((Connection) result, (DataSource) target));
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class ConnectionHandler extends Wrapper {
+        final DataSource raw;
+
+        ConnectionHandler(Connection target, DataSource raw) {
+            super(target);
+            this.raw = raw;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = forward(method, args);
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class,
+                            new StatementHandler((Statement) result, raw, (String) args[0]));
+                case "createStatement":
+                    return proxy(Statement.class, new StatementHandler((Statement) result, raw, null));
+                default:
+                    return result;
+            }
+        }
+    }
+
+    private static final class StatementHandler extends Wrapper {
+        final DataSource raw;
+        final String preparedSql;
+        /** 绑定的参数，只在开启 EXPLAIN 时记录 */
+        final Map<Integer, Object> params = EXPLAIN ? new TreeMap<>() : null;
+
+        StatementHandler(Statement target, DataSource raw, String preparedSql) {
+            super(target);
+            this.raw = raw;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (params != null && name.startsWith("set") && args != null && args.length >= 2
+                    && args[0] instanceof Integer) {
+                params.put((Integer) args[0], "setNull".equals(name) ? null : args[1]);
+            } else if (params != null && "clearParameters".equals(name)) {
+                params.clear();
+            }
+            if (!name.startsWith("execute")) {
+                return forward(method, args);
+            }
+            String sql = preparedSql != null ? preparedSql
+                    : args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : "(batch)";
+            long start = System.nanoTime();
+            try {
+                return forward(method, args);
+            } finally {
+                record(sql, System.nanoTime() - start, raw, params);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(SqlTimer.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    /**
+     * 给连接池套上代理；关闭计时时只统计借出次数，连接不再包装
+     */
+    static DataSource wrap(DataSource ds) {
+        return proxy(DataSource.class, new DataSourceHandler(ds));
+    }
+
+    /**
+     * 取回被包装的 DataSource（如需读取 HikariDataSource 的连接池状态）
+     */
+    static DataSource unwrap(DataSource ds) {
+        if (Proxy.isProxyClass(ds.getClass()) && Proxy.getInvocationHandler(ds) instanceof DataSourceHandler) {
+            return (DataSource) ((DataSourceHandler) Proxy.getInvocationHandler(ds)).target;
+        }
+        return ds;
+    }
+
+    public static void setRoute(String method, String path) {
+        route.set(routeOf(method, path));
+    }
+
+    public static void clearRoute() {
+        route.remove();
+    }
+
+    static String currentRoute() {
+        return route.get();
+    }
+
+    /**
+     * 开始统计当前线程（及经 callWithRoute 带过去的子线程）借出连接的次数
+     */
+    static AtomicInteger trackCheckouts() {
+        AtomicInteger counter = new AtomicInteger();
+        checkouts.set(counter);
+        return counter;
+    }
+
+    static void clearCheckouts() {
+        checkouts.remove();
+    }
+
+    static AtomicInteger currentCheckouts() {
+        return checkouts.get();
+    }
+
+    /**
+     * 路径中的数字段换成 {id}，同一接口的不同 id 归为一个路由
+     */
+    static String routeOf(String method, String path) {
+        return method + " " + path.replaceAll("/\\d+(?=/|$)", "/{id}");
+    }
+
+    /**
+     * 在其它线程上以给定路由执行，结束后恢复该线程原来的路由
+     */
+    static <T> T callWithRoute(String routeName, Callable<T> task) throws Exception {
+        return callWithRoute(routeName, null, task);
+    }
+
+    /**
+     * 同上，并把借出连接计入发起请求的 counter（可为 null）
+     */
+    static <T> T callWithRoute(String routeName, AtomicInteger counter, Callable<T> task) throws Exception {
+        String previous = route.get();
+        AtomicInteger previousCounter = checkouts.get();
+        route.set(routeName);
+        checkouts.set(counter);
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                route.remove();
+            } else {
+                route.set(previous);
+            }
+            if (previousCounter == null) {
+                checkouts.remove();
+            } else {
+                checkouts.set(previousCounter);
+            }
+        }
+    }
+
+    static String normalize(String sql) {
+        String s = STRING_LITERAL.matcher(sql).replaceAll("?");
+        s = NUMBER_LITERAL.matcher(s).replaceAll("?");
+        s = PLACEHOLDER_LIST.matcher(s).replaceAll("?, ...");
+        s = WHITESPACE.matcher(s).replaceAll(" ").trim();
+        return s.length() > MAX_SQL_LENGTH ? s.substring(0, MAX_SQL_LENGTH) + "..." : s;
+    }
+
+    private static void record(String sql, long nanos, DataSource raw, Map<Integer, Object> params) {
+        executions.incrementAndGet();
+        String routeName = route.get();
+        if (routeName == null) {
+            routeName = BACKGROUND;
+        }
+        boolean isSlow = nanos >= TimeUnit.MILLISECONDS.toNanos(SLOW_MILLIS);
+        if (isSlow) {
+            slow.incrementAndGet();
+            logger.warn("慢 SQL {} ms route={} sql={}", nanos / 1_000_000, routeName, normalize(sql));
+        }
+
+        String key = normalize(sql);
+        Stat stat = statements.get(key);
+        if (stat == null) {
+            if (statements.size() >= MAX_STATEMENTS) {
+                untracked.incrementAndGet();
+            } else {
+                stat = statements.computeIfAbsent(key, Stat::new);
+            }
+        }
+        if (stat != null) {
+            stat.record(nanos, isSlow);
+            stat.lastRoute = routeName;
+            if (isSlow && EXPLAIN && params != null) {
+                scheduleExplain(stat, sql, raw, new TreeMap<>(params));
+            }
+        }
+        routes.computeIfAbsent(routeName, Stat::new).record(nanos, isSlow);
+    }
+
+    private static void scheduleExplain(Stat stat, String sql, DataSource raw, Map<Integer, Object> params) {
+        long now = System.currentTimeMillis();
+        long last = stat.explainedAt.get();
+        if (!sql.trim().regionMatches(true, 0, "SELECT", 0, 6) || now - last < EXPLAIN_INTERVAL_MS
+                || !stat.explainedAt.compareAndSet(last, now)) {
+            return;
+        }
+        explainer.execute(() -> {
+            try {
+                stat.explain = explain(raw, sql, params);
+            } catch (SQLException e) {
+                logger.warn("EXPLAIN 失败 sql={}: {}", stat.name, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 在原始连接池上执行 EXPLAIN（不经过计时代理），结果每行一个对象、字段值都转成字符串
+     */
+    static String explain(DataSource raw, String sql, Map<Integer, Object> params) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = raw.getConnection();
+             PreparedStatement ps = conn.prepareStatement("EXPLAIN " + sql)) {
+            for (Map.Entry<Integer, Object> param : params.entrySet()) {
+                ps.setObject(param.getKey(), param.getValue());
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                while (rs.next()) {
+                    List<String> fields = new ArrayList<>();
+                    for (int i = 1; i <= meta.getColumnCount(); i++) {
+                        String value = rs.getString(i);
+                        fields.add("\"" + ApiUtils.escapeJson(meta.getColumnLabel(i)) + "\": "
+                                + (value == null ? "null" : "\"" + ApiUtils.escapeJson(value) + "\""));
+                    }
+                    rows.add("{ " + String.join(", ", fields) + " }");
+                }
+            }
+        }
+        return "[" + String.join(", ", rows) + "]";
+    }
+
+    private static List<String> top(Map<String, Stat> map, ToLongFunction<Stat> by, int limit, boolean withSql) {
+        List<Stat> list = new ArrayList<>(map.values());
+        list.sort(Comparator.comparingLong(by).reversed());
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < list.size() && i < limit; i++) {
+            items.add(list.get(i).json(withSql));
+        }
+        return items;
+    }
+
+    public static void reset() {
+        statements.clear();
+        routes.clear();
+        executions.set(0);
+        slow.set(0);
+        untracked.set(0);
+    }
+
+    /**
+     * 概要，放在 /api/metrics 里
+     */
+    public static String statsJson() {
+        return "{ \"enabled\": " + ENABLED
+                + ", \"slowMs\": " + SLOW_MILLIS
+                + ", \"explain\": " + EXPLAIN
+                + ", \"executions\": " + executions.get()
+                + ", \"slow\": " + slow.get()
+                + ", \"statements\": " + statements.size()
+                + ", \"untracked\": " + untracked.get()
+                + " }";
+    }
+
+    /**
+     * 明细：各路由耗时，以及按总耗时、最大耗时排序的前 limit 条 SQL
+     */
+    public static String detailJson(int limit) {
+        return "{ \"summary\": " + statsJson()
+                + ", \"routes\": [" + String.join(", ", top(routes, s -> s.totalNanos.get(), limit, false)) + "]"
+                + ", \"topByTotal\": [" + String.join(", ",
+                top(statements, s -> s.totalNanos.get(), limit, true)) + "]"
+                + ", \"topByMax\": [" + String.join(", ", top(statements, s -> s.maxNanos.get(), limit, true)) + "]"
+                + " }";
+    }
+}
@@ -0,0 +1,29 @@
+package com.orangeserver;
+
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 记下当前请求的路由，SqlTimer 据此把 SQL 耗时归到对应接口
+ */
+@WebFilter("/api/*")
+public class SqlTimingFilter implements Filter {
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        SqlTimer.setRoute(request.getMethod(), ApiUtils.requestPath(request));
+        try {
+            chain.doFilter(req, resp);
+        } finally {
+            SqlTimer.clearRoute();
+        }
+    }
+}
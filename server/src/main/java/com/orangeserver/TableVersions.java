@@ -0,0 +1,57 @@
+package com.orangeserver;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存用的表版本号：每张表一个计数，收到该表的失效事件时加一。
+ * 查询前取得 Key 记下各依赖表当时的版本，写入缓存或命中时对比，版本变了说明期间有写入。
+ * ResultCache 和 DetailCache 各有一份，互不影响。
+ */
+final class TableVersions {
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存键，带着创建时各依赖表的版本
+     */
+    static class Key {
+        final String text;
+        final String[] tables;
+        final long[] versions;
+
+        Key(String text, String[] tables, TableVersions source) {
+            this.text = text;
+            this.tables = tables;
+            this.versions = source.of(tables);
+        }
+    }
+
+    long[] of(String[] tables) {
+        long[] result = new long[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            result[i] = version(tables[i]).get();
+        }
+        return result;
+    }
+
+    /** 依赖的表从取得 key 到现在都没有变更 */
+    boolean isCurrent(Key key) {
+        return Arrays.equals(of(key.tables), key.versions);
+    }
+
+    void bump(String table) {
+        version(table).incrementAndGet();
+    }
+
+    void bumpAll() {
+        for (AtomicLong version : versions.values()) {
+            version.incrementAndGet();
+        }
+    }
+
+    private AtomicLong version(String table) {
+        return versions.computeIfAbsent(table, t -> new AtomicLong());
+    }
+}
@@ -0,0 +1,205 @@
+package com.orangeserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * 启动预热：数据库迁移（见 SchemaMigrator）在 contextInitialized 里同步完成，失败则不预热、一直不就绪；
+ * 之后在后台线程里填满连接池、在每个连接上 prepare 热点 SQL、预读基础数据、加载资产内存索引（开启时），
+ * 再用内部请求把列表/详情接口各跑几轮。全部完成前 /api/health 返回 STARTING。
+ * 访问数据库的步骤失败（如数据库暂时连不上）时每隔 retryMs 重试，成功前不就绪；合成请求只为让 JIT 提前编译，出错不影响就绪。
+ */
+@WebListener
+public class WarmupListener implements ServletContextListener {
+    private static final Logger logger = LoggerFactory.getLogger(WarmupListener.class);
+
+    /** 合成请求的轮数，可用 -Dorange.warmup.rounds=0 关闭 */
+    private static final int ROUNDS = Integer.getInteger("orange.warmup.rounds", 20);
+    private static final long RETRY_MS = Long.getLong("orange.warmup.retryMs", 5000);
+
+    private static final String[] REFERENCE_SQL = {
+        "SELECT id, dept_code, dept_name FROM department",
+        "SELECT id, dept_id, room_no FROM location_space",
+        "SELECT id, emp_no, name FROM assignee",
+        "SELECT COUNT(*) FROM asset"
+    };
+
+    private static volatile boolean ready = false;
+    private static volatile long warmupMillis = -1;
+
+    private Thread worker;
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    public static long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        ready = false;
+        if (!SchemaMigrator.ensureMigrated()) {
+            logger.error("数据库迁移失败，跳过预热，/api/health 保持 503；修复后需重启服务");
+            return;
+        }
+        worker = new Thread(WarmupListener::warmup, "warmup");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        if (worker != null) {
+            worker.interrupt();
+        }
+        ready = false;
+    }
+
+    private static void warmup() {
+        long start = System.nanoTime();
+        logger.info("开始启动预热");
+        try {
+            prepareWithRetry();
+            AssetIndex.start();
+            Autocomplete.start();
+            runSyntheticRequests();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("启动预热被中断");
+            return;
+        } catch (Exception e) {
+            logger.warn("合成请求出错，跳过剩余轮次", e);
+        }
+        warmupMillis = (System.nanoTime() - start) / 1_000_000;
+        ready = true;
+        logger.info("启动预热完成，耗时 {} ms", warmupMillis);
+    }
+
+    /**
+     * 填连接池、预读基础数据；失败时隔 RETRY_MS 重试，直到成功或被中断
+     */
+    private static void prepareWithRetry() throws InterruptedException {
+        while (true) {
+            try {
+                fillPoolAndPrepare();
+                preloadReferenceData();
+                return;
+            } catch (SQLException | RuntimeException e) {
+                logger.warn("预热访问数据库失败，{} ms 后重试: {}", RETRY_MS, e.getMessage());
+                Thread.sleep(RETRY_MS);
+            }
+        }
+    }
+
+    /**
+     * 每个分片同时借出 maximumPoolSize 个连接，逼连接池把连接建满；
+     * 借着这些连接把热点 SQL 各 prepare 一次，驱动和服务端的语句缓存都是按连接的。
+     */
+    private static void fillPoolAndPrepare() throws SQLException {
+        List<String> hotSql = new ArrayList<>();
+        for (String[] group : new String[][] {
+            ApiDepartments.HOT_SQL, LocationServlet.HOT_SQL, AssigneeServlet.HOT_SQL, AssetServlet.HOT_SQL}) {
+            for (String sql : group) {
+                hotSql.add(sql);
+            }
+        }
+
+        for (int shard = 0; shard < ShardRouter.count(); shard++) {
+            fillPoolAndPrepare(shard, hotSql);
+        }
+    }
+
+    private static void fillPoolAndPrepare(int shard, List<String> hotSql) throws SQLException {
+        DataSource ds = ShardRouter.shard(shard);
+        DataSource pool = SqlTimer.unwrap(ds);
+        int size = pool instanceof HikariDataSource ? ((HikariDataSource) pool).getMaximumPoolSize() : 1;
+        List<Connection> held = new ArrayList<>();
+        try {
+            for (int i = 0; i < size; i++) {
+                Connection conn = ds.getConnection();
+                held.add(conn);
+                for (String sql : hotSql) {
+                    // close 之后语句回到驱动的 prepStmtCache，后面的请求直接复用
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        ps.getMetaData();
+                    }
+                }
+            }
+        } finally {
+            for (Connection conn : held) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.warn("归还预热连接失败", e);
+                }
+            }
+        }
+        logger.info("分片 {} 连接池已填充 {} 个连接，每个连接预编译 {} 条 SQL", shard, held.size(), hotSql.size());
+    }
+
+    /**
+     * 把部门、位置、负责人这些小表整表读一遍，让 InnoDB 缓冲池先热起来
+     */
+    private static void preloadReferenceData() throws SQLException {
+        int rows = 0;
+        try (Connection conn = MyDataBase.getDataSource().getConnection()) {
+            for (String sql : REFERENCE_SQL) {
+                try (PreparedStatement ps = conn.prepareStatement(sql);
+                     ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                    }
+                }
+            }
+        }
+        logger.info("预读基础数据 {} 行", rows);
+    }
+
+    /**
+     * 直接调用各 servlet 的列表和详情处理，让 JIT 在真实流量之前编译这些路径
+     */
+    private static void runSyntheticRequests() throws Exception {
+        if (ROUNDS <= 0) {
+            return;
+        }
+        InternalDispatcher dispatcher = new InternalDispatcher();
+        String[] uris = {
+            "/api/departments?page=1&size=10",
+            "/api/locations?page=1&size=10",
+            "/api/assignees?page=1&size=10",
+            "/api/assets?page=1&size=10",
+            "/api/assets?page=1&size=10&status=0",
+            "/api/departments/1",
+            "/api/locations/1",
+            "/api/assignees/1",
+            "/api/assets/1"
+        };
+        int failed = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String uri : uris) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                if (dispatcher.get(uri).status != 200) {
+                    failed++;
+                }
+            }
+        }
+        logger.info("合成请求 {} 轮完成，非 200 响应 {} 次", ROUNDS, failed);
+    }
+}
@@ -0,0 +1,9 @@
+-- Composite indexes for GET /api/assets: location/assignee filter + status filter, ORDER BY id DESC.
+-- InnoDB appends the primary key to every secondary index; id is listed only to document the sort.
+-- With equality on the leading columns MySQL reads the index backwards instead of filesorting.
+-- The single-column indexes stay: (location_id) alone is ordered by id, (location_id, status, id) is not.
+-- explain: SELECT ast.id FROM asset ast WHERE ast.location_id = 1 AND ast.status = 0 ORDER BY ast.id DESC LIMIT 10
+-- explain: SELECT ast.id FROM asset ast WHERE ast.assignee_id = 1 AND ast.status = 1 ORDER BY ast.id DESC LIMIT 10
+-- explain: SELECT ast.status, COUNT(*) FROM asset ast WHERE ast.location_id = 1 GROUP BY ast.status
+ALTER TABLE asset ADD INDEX idx_asset_location_status (location_id, status, id), ALGORITHM=INPLACE, LOCK=NONE;
+ALTER TABLE asset ADD INDEX idx_asset_assignee_status (assignee_id, status, id), ALGORITHM=INPLACE, LOCK=NONE;
@@ -0,0 +1,19 @@
+-- Retire/archive lifecycle: status 2 = retired; AssetArchiver moves retired rows to asset_archive in small batches
+-- so the hot asset table and its indexes only hold the working set.
+-- explain: SELECT id FROM asset WHERE status = 2 ORDER BY id LIMIT 200
+ALTER TABLE asset ADD COLUMN retired_at DATETIME(3) DEFAULT NULL AFTER status, ALGORITHM=INPLACE, LOCK=NONE;
+
+-- No foreign keys: archived rows must outlive the location/assignee rows they pointed at.
+CREATE TABLE IF NOT EXISTS asset_archive (
+  id BIGINT PRIMARY KEY,
+  asset_no VARCHAR(32) NOT NULL,
+  asset_name VARCHAR(64) NOT NULL,
+  value DECIMAL(12,2) NOT NULL DEFAULT 0.00,
+  location_id BIGINT NOT NULL,
+  remark VARCHAR(255) DEFAULT NULL,
+  created_at DATETIME NOT NULL,
+  retired_at DATETIME(3) NOT NULL,
+  archived_at DATETIME(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+  INDEX idx_archive_asset_no (asset_no),
+  INDEX idx_archive_location (location_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
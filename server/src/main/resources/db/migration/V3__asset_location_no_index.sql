@@ -0,0 +1,3 @@
+-- Stock-take reconciliation reads a location's assets in asset_no order, 1000 rows at a time (keyset on asset_no).
+-- explain: SELECT id, asset_no FROM asset WHERE location_id = 1 AND asset_no > 'A' ORDER BY asset_no LIMIT 1000
+ALTER TABLE asset ADD INDEX idx_asset_location_no (location_id, asset_no), ALGORITHM=INPLACE, LOCK=NONE;
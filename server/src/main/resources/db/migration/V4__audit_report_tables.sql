@@ -0,0 +1,20 @@
+-- Report tables for the nightly inventory audit (InventoryAudit); written on shard 0 only.
+CREATE TABLE IF NOT EXISTS audit_run (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  trigger_source VARCHAR(16) NOT NULL COMMENT 'schedule,manual',
+  status VARCHAR(16) NOT NULL COMMENT 'running,done,partial,failed',
+  started_at DATETIME(3) NOT NULL,
+  finished_at DATETIME(3) DEFAULT NULL,
+  duration_ms BIGINT NOT NULL DEFAULT 0,
+  findings INT NOT NULL DEFAULT 0,
+  summary TEXT
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS audit_finding (
+  id BIGINT PRIMARY KEY AUTO_INCREMENT,
+  run_id BIGINT NOT NULL,
+  kind VARCHAR(32) NOT NULL COMMENT 'density,status,misrouted,assignee_load',
+  ref_id BIGINT NOT NULL COMMENT 'location, asset or assignee id depending on kind',
+  detail VARCHAR(255) NOT NULL,
+  INDEX idx_finding_run_kind (run_id, kind, id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -0,0 +1,5 @@
+-- Short-lived claims that make asset_no unique across shards (AssetNoClaim); used on shard 0 only.
+CREATE TABLE IF NOT EXISTS asset_no_claim (
+  asset_no VARCHAR(32) NOT NULL PRIMARY KEY,
+  claimed_at DATETIME(3) NOT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
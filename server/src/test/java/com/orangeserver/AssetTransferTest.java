@@ -0,0 +1,25 @@
+package com.orangeserver;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AssetTransferTest {
+
+    @Test
+    void parsesIdsInOrderWithoutDuplicates() {
+        String body = "{ \"ids\": [3, 1, 3, 2], \"targetLocationId\": 10 }";
+        assertEquals(Arrays.asList(3L, 1L, 2L), AssetTransfer.parseIds(body));
+        assertTrue(AssetTransfer.parseIds("{ \"ids\": [ ] }").isEmpty());
+    }
+
+    @Test
+    void rejectsMissingOrMalformedIds() {
+        assertNull(AssetTransfer.parseIds("{ \"fromLocationId\": 5, \"targetLocationId\": 10 }"));
+        assertNull(AssetTransfer.parseIds("{ \"ids\": [1, \"2\"] }"));
+        assertNull(AssetTransfer.parseIds("{ \"ids\": [1, 0] }"));
+    }
+}
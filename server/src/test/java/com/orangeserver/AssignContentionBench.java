@@ -0,0 +1,276 @@
+package com.orangeserver;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 领用/归还/修改的并发压测，需要本地数据库（MyDataBase 的默认库），默认跳过：
+ * mvn test -Dtest=AssignContentionBench -Dorange.bench=true [-Dorange.bench.threads=16 -Dorange.bench.seconds=10]
+ * 多个线程同时操作少量热点资产和一批冷资产，请求经 InternalDispatcher 直接进 AssetServlet（不走 HTTP 和过滤器）。
+ * 结束后输出吞吐、各操作延迟分位数和返回码分布，并检查不变式：
+ * 每个资产 成功领用次数 - 成功归还次数 = 最终 status；status 与 assignee_id 一致；领用历史条数与成功次数一致。
+ * 测试数据用带时间戳的编号新建，结束后删除。
+ */
+@EnabledIfSystemProperty(named = "orange.bench", matches = "true")
+class AssignContentionBench {
+    private static final int THREADS = Integer.getInteger("orange.bench.threads", 16);
+    private static final int SECONDS = Integer.getInteger("orange.bench.seconds", 10);
+    private static final int HOT_ASSETS = 2;
+    private static final int COLD_ASSETS = 50;
+    private static final int ASSIGNEES = 20;
+    private static final Pattern CODE = Pattern.compile("\"code\"\\s*:\\s*(\\d+)");
+    private static final Pattern VERSION = Pattern.compile("\"version\"\\s*:\\s*(\\d+)");
+    private static final Pattern ASSET_NO = Pattern.compile("\"assetNo\"\\s*:\\s*\"(.*?)\"");
+    private static final Pattern ASSIGNEE_ID = Pattern.compile("\"assigneeId\"\\s*:\\s*(\\d+|null)");
+
+    private static final String TAG = "BENCH" + System.currentTimeMillis() % 100000000;
+    private static final DataSource DS = MyDataBase.getDataSource();
+
+    private static long deptId;
+    private static long locationId;
+    private static final List<Long> assignees = new ArrayList<>();
+    private static final List<Long> hot = new ArrayList<>();
+    private static final List<Long> cold = new ArrayList<>();
+
+    private final InternalDispatcher dispatcher = new InternalDispatcher();
+
+    /** 每个资产成功领用、成功归还的次数 */
+    private final Map<Long, AtomicInteger> assigned = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicInteger> returned = new ConcurrentHashMap<>();
+    /** 操作名 -> 返回码 -> 次数 */
+    private final Map<String, Map<Integer, AtomicLong>> codes = new ConcurrentHashMap<>();
+
+    @BeforeAll
+    static void createData() throws SQLException {
+        try (Connection conn = DS.getConnection()) {
+            deptId = insert(conn, "INSERT INTO department (dept_code, dept_name) VALUES (?, ?)", TAG, "压测部门");
+            locationId = insert(conn, "INSERT INTO location_space (dept_id, room_no) VALUES (?, ?)", deptId, TAG);
+            for (int i = 0; i < ASSIGNEES; i++) {
+                assignees.add(insert(conn, "INSERT INTO assignee (emp_no, name) VALUES (?, ?)",
+                        TAG + "-" + i, "压测" + i));
+            }
+            for (int i = 0; i < HOT_ASSETS + COLD_ASSETS; i++) {
+                long id = insert(conn, "INSERT INTO asset (asset_no, asset_name, value, location_id)"
+                        + " VALUES (?, ?, 100, ?)", TAG + "-" + i, "压测资产" + i, locationId);
+                (i < HOT_ASSETS ? hot : cold).add(id);
+            }
+        }
+    }
+
+    @AfterAll
+    static void dropData() throws SQLException {
+        List<Long> assets = new ArrayList<>(hot);
+        assets.addAll(cold);
+        try (Connection conn = DS.getConnection()) {
+            for (Long id : assets) {
+                execute(conn, "DELETE FROM asset_assignment_log WHERE asset_id = ?", id);
+                execute(conn, "DELETE FROM asset WHERE id = ?", id);
+            }
+            for (Long id : assignees) {
+                execute(conn, "DELETE FROM assignee WHERE id = ?", id);
+            }
+            execute(conn, "DELETE FROM location_space WHERE id = ?", locationId);
+            execute(conn, "DELETE FROM department WHERE id = ?", deptId);
+        }
+    }
+
+    @Test
+    void assignReturnUnderContention() throws Exception {
+        Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SECONDS);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread(() -> {
+                Map<String, List<Long>> mine = new TreeMap<>();
+                try {
+                    while (System.nanoTime() < deadline) {
+                        runOne(mine);
+                    }
+                } catch (Exception e) {
+                    errors.add(e);
+                } finally {
+                    for (Map.Entry<String, List<Long>> entry : mine.entrySet()) {
+                        latencies.computeIfAbsent(entry.getKey(), k -> Collections.synchronizedList(new ArrayList<>()))
+                                .addAll(entry.getValue());
+                    }
+                    done.countDown();
+                }
+            }, "bench-" + t);
+            thread.start();
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        report(latencies, elapsed);
+        assertEquals(Collections.emptyList(), errors);
+        List<String> violations = checkInvariants();
+        violations.forEach(v -> System.out.println("VIOLATION " + v));
+        assertEquals(Collections.emptyList(), violations);
+    }
+
+    private void runOne(Map<String, List<Long>> latencies) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long assetId = random.nextInt(10) < 8 ? hot.get(random.nextInt(hot.size()))
+                : cold.get(random.nextInt(cold.size()));
+        int pick = random.nextInt(100);
+        String op;
+        long begin = System.nanoTime();
+        int code;
+        if (pick < 45) {
+            op = "assign";
+            long assigneeId = assignees.get(random.nextInt(assignees.size()));
+            code = code(dispatcher.dispatch("POST", "/api/assets/" + assetId + "/assign",
+                    "{ \"assigneeId\": " + assigneeId + " }", Collections.emptyMap()).body);
+            if (code == 0) {
+                assigned.computeIfAbsent(assetId, k -> new AtomicInteger()).incrementAndGet();
+            }
+        } else if (pick < 90) {
+            op = "return";
+            code = code(dispatcher.dispatch("POST", "/api/assets/" + assetId + "/return", "{}",
+                    Collections.emptyMap()).body);
+            if (code == 0) {
+                returned.computeIfAbsent(assetId, k -> new AtomicInteger()).incrementAndGet();
+            }
+        } else {
+            // 读-改-写：带上读到的版本号，只改备注，status 和 assignee_id 原样写回
+            op = "put";
+            String detail = dispatcher.get("/api/assets/" + assetId).body;
+            Matcher version = VERSION.matcher(detail);
+            version.find();
+            Matcher assetNo = ASSET_NO.matcher(detail);
+            assetNo.find();
+            Matcher assignee = ASSIGNEE_ID.matcher(detail);
+            assignee.find();
+            String body = "{ \"assetNo\": \"" + assetNo.group(1) + "\""
+                    + ", \"assetName\": \"压测资产\", \"value\": 100, \"locationId\": " + locationId
+                    + ", \"assigneeId\": " + assignee.group(1)
+                    + ", \"remark\": \"put-" + random.nextInt(1000) + "\" }";
+            code = code(dispatcher.dispatch("PUT", "/api/assets/" + assetId, body,
+                    Collections.singletonMap("If-Match", ApiUtils.etag(Long.parseLong(version.group(1))))).body);
+        }
+        latencies.computeIfAbsent(op, k -> new ArrayList<>()).add(System.nanoTime() - begin);
+        codes.computeIfAbsent(op, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(code, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static int code(String body) {
+        Matcher matcher = CODE.matcher(body);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    private void report(Map<String, List<Long>> latencies, double elapsed) {
+        long total = 0;
+        System.out.printf("== AssignContentionBench threads=%d seconds=%.1f hot=%d cold=%d%n",
+                THREADS, elapsed, HOT_ASSETS, COLD_ASSETS);
+        for (String op : new TreeMap<>(latencies).keySet()) {
+            long[] sorted = latencies.get(op).stream().mapToLong(Long::longValue).sorted().toArray();
+            total += sorted.length;
+            System.out.printf("%-7s n=%-7d %8.1f ops/s  p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms codes=%s%n",
+                    op, sorted.length, sorted.length / elapsed, percentile(sorted, 50), percentile(sorted, 95),
+                    percentile(sorted, 99), sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6,
+                    new TreeMap<>(codes.get(op)));
+        }
+        System.out.printf("total   n=%-7d %8.1f ops/s%n", total, total / elapsed);
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private List<String> checkInvariants() throws SQLException {
+        List<String> violations = new ArrayList<>();
+        List<Long> assets = new ArrayList<>(hot);
+        assets.addAll(cold);
+        try (Connection conn = DS.getConnection();
+             PreparedStatement assetPs = conn.prepareStatement("SELECT status, assignee_id FROM asset WHERE id = ?");
+             PreparedStatement logPs = conn.prepareStatement(
+                     "SELECT action, COUNT(*) FROM asset_assignment_log WHERE asset_id = ? GROUP BY action")) {
+            for (Long id : assets) {
+                int status;
+                Object assigneeId;
+                assetPs.setLong(1, id);
+                try (ResultSet rs = assetPs.executeQuery()) {
+                    rs.next();
+                    status = rs.getInt(1);
+                    assigneeId = rs.getObject(2);
+                }
+                if ((status == 1) != (assigneeId != null)) {
+                    violations.add("asset " + id + " status=" + status + " assignee_id=" + assigneeId);
+                }
+                int assigns = count(assigned, id);
+                int returns = count(returned, id);
+                if (assigns - returns != status) {
+                    violations.add("asset " + id + " assigns=" + assigns + " returns=" + returns
+                            + " final status=" + status + "（重复领用或重复归还）");
+                }
+                int[] logged = new int[2];
+                logPs.setLong(1, id);
+                try (ResultSet rs = logPs.executeQuery()) {
+                    while (rs.next()) {
+                        logged[rs.getInt(1)] = rs.getInt(2);
+                    }
+                }
+                if (logged[AssignmentLog.ACTION_ASSIGN] != assigns || logged[AssignmentLog.ACTION_RETURN] != returns) {
+                    violations.add("asset " + id + " history=" + Arrays.toString(logged)
+                            + " expected assigns=" + assigns + " returns=" + returns);
+                }
+            }
+        }
+        return violations;
+    }
+
+    private static int count(Map<Long, AtomicInteger> map, long id) {
+        AtomicInteger value = map.get(id);
+        return value == null ? 0 : value.get();
+    }
+
+    private static long insert(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            ps.executeUpdate();
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private static void execute(Connection conn, String sql, long id) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setLong(1, id);
+            ps.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.orangeserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ByteLruTest {
+
+    @Test
+    void evictsLeastRecentlyUsedWithinByteBudget() {
+        List<String> evicted = new ArrayList<>();
+        ByteLru<String> lru = new ByteLru<>(16, 10, (key, value) -> value.length(), (key, value) -> evicted.add(key));
+        lru.put("a", "xxxx");
+        lru.put("b", "xxxx");
+        lru.get("a");
+        lru.put("c", "xxxx");
+
+        assertEquals(1, evicted.size());
+        assertEquals("b", evicted.get(0));
+        assertNull(lru.get("b"));
+        assertNotNull(lru.get("a"));
+        assertEquals(8, lru.bytes());
+        assertEquals(1, lru.evictions());
+    }
+
+    @Test
+    void replaceAndRemoveKeepByteCount() {
+        ByteLru<String> lru = new ByteLru<>(16, 100, (key, value) -> value.length(), null);
+        lru.put("a", "xxxx");
+        assertEquals("xxxx", lru.put("a", "xx"));
+        assertEquals(2, lru.bytes());
+        lru.remove("a");
+        assertEquals(0, lru.bytes());
+        assertEquals(0, lru.size());
+    }
+}
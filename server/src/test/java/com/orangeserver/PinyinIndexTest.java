@@ -0,0 +1,70 @@
+package com.orangeserver;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PinyinIndexTest {
+
+    @Test
+    void formsIncludeTextFullPinyinAndInitials() {
+        assertTrue(PinyinIndex.forms("笔记本电脑").containsAll(
+                Arrays.asList("笔记本电脑", "bijibendiannao", "bjbdn")));
+        assertTrue(PinyinIndex.forms("ThinkPad 笔记本").containsAll(
+                Arrays.asList("thinkpad笔记本", "thinkpadbijiben")));
+        assertTrue(PinyinIndex.forms(" ").isEmpty());
+    }
+
+    @Test
+    void matchesByTextPinyinOrInitialsAndRanksExactFirst() {
+        PinyinIndex<String> index = new PinyinIndex<>();
+        index.put(1, "笔记本电脑", "laptop");
+        index.put(2, "张三", "zhangsan");
+        index.put(3, "张三丰", "zhangsanfeng");
+        index.put(4, "李四", "lisi");
+
+        assertEquals(Collections.singletonList("laptop"), index.search("bjbdn", 0, 10).items);
+        assertEquals(Collections.singletonList("laptop"), index.search("diannao", 0, 10).items);
+        assertEquals(Collections.singletonList("laptop"), index.search("电脑", 0, 10).items);
+        assertEquals(Arrays.asList("zhangsan", "zhangsanfeng"), index.search("zs", 0, 10).items);
+        assertEquals(Collections.singletonList("zhangsanfeng"), index.search("zsf", 0, 10).items);
+        assertEquals(Arrays.asList("zhangsan", "zhangsanfeng"), index.search("ZhangSan", 0, 10).items);
+        assertTrue(index.search("wangwu", 0, 10).items.isEmpty());
+    }
+
+    @Test
+    void pagesAfterRanking() {
+        PinyinIndex<String> index = new PinyinIndex<>();
+        for (int i = 1; i <= 5; i++) {
+            index.put(i, "张三" + i, "z" + i);
+        }
+        index.remove(5);
+
+        PinyinIndex.Page<String> page = index.search("zs", 2, 2);
+        assertEquals(4, page.total);
+        assertEquals(Arrays.asList("z3", "z4"), page.items);
+    }
+
+    @Test
+    void renameAndRemoveDropStaleCandidates() {
+        PinyinIndex<String> index = new PinyinIndex<>();
+        index.put(1, "笔记本电脑", "a");
+        index.put(2, "笔记本电脑", "b");
+        index.put(1, "显示器", "a2");
+        index.remove(2);
+
+        assertEquals(0, index.search("diannao", 0, 10).total);
+        assertEquals(Collections.singletonList("a2"), index.search("xsq", 0, 10).items);
+        assertEquals(Collections.singletonList("a2"), index.search("shiqi", 0, 10).items);
+    }
+
+    @Test
+    void countsNamesWithTooManyReadings() {
+        long before = PinyinIndex.truncatedNames();
+        PinyinIndex.forms("重重重重");
+        assertTrue(PinyinIndex.truncatedNames() > before);
+    }
+}
@@ -0,0 +1,51 @@
+package com.orangeserver;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrefixIndexTest {
+
+    @Test
+    void returnsRowsInTermOrderUpToLimit() {
+        PrefixIndex<String> index = new PrefixIndex<>();
+        index.put(3, Collections.singletonList("AS0003"), "c");
+        index.put(1, Collections.singletonList("as0001"), "a");
+        index.put(2, Collections.singletonList("AS0002"), "b");
+        index.put(4, Collections.singletonList("AT0001"), "d");
+
+        assertEquals(Arrays.asList("a", "b", "c"), index.search("As", 10));
+        assertEquals(Arrays.asList("a", "b"), index.search("as000", 2));
+        assertEquals(Collections.singletonList("d"), index.search("at", 10));
+        assertTrue(index.search("", 10).isEmpty());
+        assertTrue(index.search("b", 10).isEmpty());
+    }
+
+    @Test
+    void rowWithSeveralTermsIsReturnedOnce() {
+        PrefixIndex<String> index = new PrefixIndex<>();
+        index.put(1, Arrays.asList("E001", "e001 张三"), "zhangsan");
+        index.put(2, Arrays.asList("E002", "张三丰"), "zhangsanfeng");
+
+        assertEquals(Collections.singletonList("zhangsan"), index.search("e001", 10));
+        assertEquals(Collections.singletonList("zhangsanfeng"), index.search("张三", 10));
+    }
+
+    @Test
+    void updateReplacesOldTermsAndRemoveDropsRow() {
+        PrefixIndex<String> index = new PrefixIndex<>();
+        index.put(1, Collections.singletonList("A101"), "old");
+        index.put(1, Collections.singletonList("B202"), "new");
+
+        assertTrue(index.search("a", 10).isEmpty());
+        assertEquals(Collections.singletonList("new"), index.search("b2", 10));
+        assertEquals(1, index.size());
+
+        index.remove(1);
+        assertTrue(index.search("b", 10).isEmpty());
+        assertEquals(0, index.size());
+    }
+}
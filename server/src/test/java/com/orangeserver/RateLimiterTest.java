@@ -0,0 +1,55 @@
+package com.orangeserver;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void burstUpToCapacityThenWaitForRefill() {
+        RateLimiter limiter = new RateLimiter(5, 1, 100, 60);
+        long now = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("a", 1, now));
+        }
+        long wait = limiter.tryAcquire("a", 1, now);
+        assertTrue(wait > 0 && wait <= SECOND);
+        assertEquals(0, limiter.tryAcquire("a", 1, now + SECOND));
+    }
+
+    @Test
+    void costIsChargedPerRequestAndClientsAreIndependent() {
+        RateLimiter limiter = new RateLimiter(10, 1, 100, 60);
+        long now = System.nanoTime();
+        assertEquals(0, limiter.tryAcquire("a", 8, now));
+        assertTrue(limiter.tryAcquire("a", 3, now) > 0);
+        assertEquals(0, limiter.tryAcquire("a", 2, now));
+        assertEquals(0, limiter.tryAcquire("b", 10, now));
+    }
+
+    @Test
+    void idleBucketsAreEvicted() {
+        RateLimiter limiter = new RateLimiter(5, 1, 100, 60);
+        long now = System.nanoTime();
+        limiter.tryAcquire("a", 1, now);
+        limiter.tryAcquire("b", 1, now);
+        assertEquals(2, limiter.size());
+        limiter.sweep(now + 120 * SECOND);
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    void clientsBeyondLimitShareOverflowBucket() {
+        RateLimiter limiter = new RateLimiter(2, 1, 1, 60);
+        long now = System.nanoTime();
+        assertEquals(0, limiter.tryAcquire("a", 1, now));
+        assertEquals(0, limiter.tryAcquire("b", 1, now));
+        assertEquals(0, limiter.tryAcquire("c", 1, now));
+        assertTrue(limiter.tryAcquire("d", 1, now) > 0);
+        assertEquals(1, limiter.size());
+    }
+}
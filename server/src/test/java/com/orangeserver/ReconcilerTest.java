@@ -0,0 +1,111 @@
+package com.orangeserver;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReconcilerTest {
+
+    private static final long LOCATION = 7;
+
+    /** 位置 7 的账面资产 A0000..A(n-1)，按 assetNo 分批返回 */
+    private static Reconciler.Expected expected(int n) {
+        return (after, limit) -> {
+            List<Reconciler.Row> rows = new ArrayList<>();
+            for (int i = 0; i < n && rows.size() < limit; i++) {
+                String assetNo = String.format("A%04d", i);
+                if (Reconciler.ORDER.compare(assetNo, after) > 0) {
+                    rows.add(new Reconciler.Row(i + 1, assetNo, "asset" + i, 0, LOCATION, null));
+                }
+            }
+            return rows;
+        };
+    }
+
+    private static Reconciler run(int expectedCount, Reconciler.Locator locator, List<String> items,
+                                  String... scanned) throws Exception {
+        Reconciler r = new Reconciler(LOCATION, expected(expectedCount), locator, items::add);
+        r.run(new BufferedReader(new StringReader(String.join("\n", scanned))));
+        return r;
+    }
+
+    @Test
+    void reportsMissingMisplacedAndUnexpectedInOnePass() throws Exception {
+        Map<String, Reconciler.Row> elsewhere = new HashMap<>();
+        elsewhere.put("b0001", new Reconciler.Row(99, "B0001", "moved", 1, 8, "B-101"));
+        List<String> items = new ArrayList<>();
+        Reconciler r = run(3, nos -> elsewhere, items, "a0000", "", "A0002", "B0001", "B0001", "Z9999");
+
+        assertNull(r.error);
+        assertEquals(4, r.scanned);
+        assertEquals(2, r.matched);
+        assertEquals(1, r.missing);
+        assertEquals(1, r.misplaced);
+        assertEquals(1, r.unexpected);
+        assertEquals(1, r.duplicates);
+        assertEquals(3, items.size());
+        assertTrue(items.get(0).contains("\"missing\"") && items.get(0).contains("A0001"));
+        assertTrue(items.get(1).contains("\"misplaced\"") && items.get(1).contains("B-101"));
+        assertTrue(items.get(2).contains("\"unexpected\"") && items.get(2).contains("Z9999"));
+    }
+
+    @Test
+    void readsExpectedSideInBatches() throws Exception {
+        int n = Reconciler.EXPECTED_BATCH * 2 + 5;
+        List<String> scanned = new ArrayList<>();
+        for (int i = 0; i < n; i += 2) {
+            scanned.add(String.format("A%04d", i));
+        }
+        List<String> items = new ArrayList<>();
+        Reconciler r = run(n, nos -> new HashMap<>(), items, scanned.toArray(new String[0]));
+
+        assertEquals(scanned.size(), r.matched);
+        assertEquals(n - scanned.size(), r.missing);
+        assertEquals(r.missing, items.size());
+    }
+
+    @Test
+    void followsDatabaseOrderForSymbols() throws Exception {
+        // ORDER BY asset_no（utf8mb4_general_ci）的结果，符号按大写比较排在字母之后
+        List<String> dbOrder = Arrays.asList("PCA01", "PC_01", "PC_02");
+        Reconciler.Expected expected = (after, limit) -> {
+            List<Reconciler.Row> rows = new ArrayList<>();
+            for (int i = dbOrder.indexOf(after) + 1; i < dbOrder.size() && rows.size() < limit; i++) {
+                rows.add(new Reconciler.Row(i + 1, dbOrder.get(i), "pc", 0, LOCATION, null));
+            }
+            return rows;
+        };
+        List<String> items = new ArrayList<>();
+        Reconciler r = new Reconciler(LOCATION, expected, nos -> new HashMap<>(), items::add);
+        r.run(new BufferedReader(new StringReader("pca01\nPC_01\nPC_02")));
+
+        assertTrue(Reconciler.ORDER.compare("PCA01", "PC_01") < 0);
+        assertNull(r.error);
+        assertEquals(3, r.matched);
+        assertEquals(0, r.missing);
+        assertEquals(0, r.retired);
+        assertTrue(items.isEmpty());
+    }
+
+    @Test
+    void stopsOnUnsortedInput() throws Exception {
+        List<String> items = new ArrayList<>();
+        Reconciler r = run(5, nos -> new HashMap<>(), items, "A0003", "A0001");
+
+        // A0000..A0002 已确定缺失；A0004 在出错位置之后，不报
+        assertNotNull(r.error);
+        assertTrue(r.summaryJson().contains("\"complete\": false"));
+        assertEquals(3, r.missing);
+        assertEquals(3, items.size());
+    }
+}
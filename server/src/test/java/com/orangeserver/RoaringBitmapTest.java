@@ -0,0 +1,103 @@
+package com.orangeserver;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoaringBitmapTest {
+
+    /** 同时往位图和 BitSet 里随机写入，覆盖稀疏桶、稠密桶（超过 4096 转位图容器）和跨桶 */
+    private static RoaringBitmap random(Random random, BitSet expected, int count, int range) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(range);
+            bitmap.add(x);
+            expected.set(x);
+        }
+        return bitmap;
+    }
+
+    private static void assertSame(BitSet expected, RoaringBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        List<Integer> values = new ArrayList<>();
+        PrimitiveIterator.OfInt it = actual.descendingIterator();
+        while (it.hasNext()) {
+            values.add(it.nextInt());
+        }
+        List<Integer> wanted = new ArrayList<>();
+        for (int x = expected.length() - 1; x >= 0; x = expected.previousSetBit(x - 1)) {
+            wanted.add(x);
+        }
+        assertEquals(wanted, values);
+    }
+
+    @Test
+    void setOperationsMatchBitSet() {
+        Random random = new Random(42);
+        BitSet a = new BitSet();
+        BitSet b = new BitSet();
+        RoaringBitmap ra = random(random, a, 30000, 200000);
+        RoaringBitmap rb = random(random, b, 3000, 200000);
+        assertSame(a, ra);
+        assertSame(b, rb);
+
+        BitSet and = (BitSet) a.clone();
+        and.and(b);
+        assertSame(and, RoaringBitmap.and(ra, rb));
+        assertEquals(and.cardinality(), RoaringBitmap.andCardinality(ra, rb));
+
+        BitSet or = (BitSet) a.clone();
+        or.or(b);
+        assertSame(or, RoaringBitmap.or(ra, rb));
+
+        BitSet andNot = (BitSet) a.clone();
+        andNot.andNot(b);
+        assertSame(andNot, RoaringBitmap.andNot(ra, rb));
+        BitSet reverse = (BitSet) b.clone();
+        reverse.andNot(a);
+        assertSame(reverse, RoaringBitmap.andNot(rb, ra));
+    }
+
+    @Test
+    void removeShrinksDenseContainerAndDropsEmptyBuckets() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        BitSet expected = new BitSet();
+        for (int x = 0; x < 10000; x++) {
+            bitmap.add(x);
+            expected.set(x);
+        }
+        bitmap.add(1 << 20);
+        expected.set(1 << 20);
+        for (int x = 0; x < 10000; x += 2) {
+            bitmap.remove(x);
+            expected.clear(x);
+        }
+        assertSame(expected, bitmap);
+        assertTrue(bitmap.contains(1 << 20));
+        assertFalse(bitmap.contains(2));
+
+        bitmap.remove(1 << 20);
+        for (int x = 1; x < 10000; x += 2) {
+            bitmap.remove(x);
+        }
+        assertTrue(bitmap.isEmpty());
+        assertFalse(bitmap.descendingIterator().hasNext());
+    }
+
+    @Test
+    void denseBucketIsSmallerThanPlainIntegers() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int x = 0; x < 65536; x++) {
+            bitmap.add(x);
+        }
+        assertEquals(65536, bitmap.cardinality());
+        assertTrue(bitmap.sizeInBytes() < 9000);
+    }
+}
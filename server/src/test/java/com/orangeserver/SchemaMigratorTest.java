@@ -0,0 +1,39 @@
+package com.orangeserver;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SchemaMigratorTest {
+
+    @Test
+    void parseSplitsStatementsAndCollectsExplains() {
+        SchemaMigrator.Migration m = SchemaMigrator.parse("V12__demo.sql", "-- comment\n"
+                + "-- explain: SELECT id FROM asset WHERE status = 0\n"
+                + "ALTER TABLE asset\n  ADD INDEX idx_a (status, id),\n  ALGORITHM=INPLACE, LOCK=NONE;\n"
+                + "\n"
+                + "ALTER TABLE asset DROP INDEX idx_b;\n");
+        assertEquals(12, m.version);
+        assertEquals(Arrays.asList(
+                "ALTER TABLE asset ADD INDEX idx_a (status, id), ALGORITHM=INPLACE, LOCK=NONE",
+                "ALTER TABLE asset DROP INDEX idx_b"), m.statements);
+        assertEquals(Collections.singletonList("SELECT id FROM asset WHERE status = 0"), m.explains);
+    }
+
+    @Test
+    void checksumFollowsContent() {
+        assertEquals(SchemaMigrator.parse("V1__a.sql", "SELECT 1;").checksum,
+                SchemaMigrator.parse("V1__a.sql", "SELECT 1;").checksum);
+        assertNotEquals(SchemaMigrator.parse("V1__a.sql", "SELECT 1;").checksum,
+                SchemaMigrator.parse("V1__a.sql", "SELECT 2;").checksum);
+    }
+
+    @Test
+    void rejectsUnversionedName() {
+        assertThrows(IllegalArgumentException.class, () -> SchemaMigrator.parse("asset_indexes.sql", "SELECT 1;"));
+    }
+}
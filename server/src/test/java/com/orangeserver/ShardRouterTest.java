@@ -0,0 +1,47 @@
+package com.orangeserver;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardRouterTest {
+
+    private static ShardRouter.Page page(int total, long... ids) {
+        ShardRouter.Page page = new ShardRouter.Page(total);
+        for (long id : ids) {
+            page.add(id, "item" + id);
+        }
+        return page;
+    }
+
+    @Test
+    void mergeKeepsIdDescendingAcrossShards() {
+        ShardRouter.Page merged = ShardRouter.merge(Arrays.asList(
+                page(3, 9, 5, 1),
+                page(4, 8, 6, 4, 2)), 2, 3);
+        assertEquals(7, merged.total);
+        assertEquals(Arrays.asList(6L, 5L, 4L), merged.ids);
+        assertEquals(Arrays.asList("item6", "item5", "item4"), merged.items);
+    }
+
+    @Test
+    void mergePastTheEndIsEmpty() {
+        ShardRouter.Page merged = ShardRouter.merge(Arrays.asList(page(1, 3), page(0)), 5, 10);
+        assertEquals(1, merged.total);
+        assertTrue(merged.ids.isEmpty());
+    }
+
+    @Test
+    void deptsSpreadOverAllShards() {
+        int[] counts = new int[4];
+        for (long deptId = 1; deptId <= 400; deptId++) {
+            counts[ShardRouter.shardOf(deptId, 4)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 60, Arrays.toString(counts));
+        }
+        assertEquals(0, ShardRouter.shardOf(12345, 1));
+    }
+}